@@ -0,0 +1,382 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Random;
+
+import javax.swing.JTextPane;
+import javax.swing.text.DefaultStyledDocument;
+
+/**
+ * Benchmarks for the parts of AdjudDB and AdjudicationTask that
+ * the GUI waits on: importing files, finding overlaps with the gold
+ * standard, the span and link queries behind the tables, ID
+ * assignment and saving the gold standard (in full, and again after
+ * one element's tags have changed), along with loading a 
+ * large DTD.  Each run writes a small DTD (EVENT and TIMEX extents, 
+ * TLINK links) and generates a corpus for it with CorpusGenerator, 
+ * so the sizes can be changed from the command line.  The benchmarks,
+ * like the other tools in bench, are compiled together with MAI into
+ * their own directory, so they never end up in bin with the application.
+ * From the MAI directory:
+ * <pre>
+ * javac -d bench-bin -cp resources/sqlitejdbc-v056.jar src/mai/*.java bench/mai/*.java
+ * java -cp bench-bin:resources/sqlitejdbc-v056.jar mai.AdjudBenchmarks
+ *     [-length 20000] [-annotators 3] [-density 0.1] [-agreement 0.8]
+ *     [-links 0.5] [-nc 0.05] [-seed 42] [-warmup 2] [-iterations 5] [-time 1000] [-only regex]
+ *     [-dir directory] [-dtdElements 300] [-dtdAttributes 10]
+ * </pre>
+ * -time is the length of each warmup and measurement iteration in
+ * milliseconds, and -only picks the benchmarks to run by name.  The
+ * database is kept in the corpus directory, not in adjud.db.  The 
+ * large DTD, like the machine-generated ones some tasks use, has
+ * -dtdElements elements with -dtdAttributes attributes each.
+ *
+ */
+
+class AdjudBenchmarks {
+
+	private static final String BENCH_DTD = "<!ENTITY name \"BenchTask\">\n\n" +
+			"<!ELEMENT EVENT ( #PCDATA ) >\n" +
+			"<!ATTLIST EVENT id ID prefix=\"E\" #REQUIRED >\n" +
+			"<!ATTLIST EVENT type ( occurrence | state | aspectual ) #IMPLIED >\n" +
+			"<!ATTLIST EVENT comment CDATA #IMPLIED >\n\n" +
+			"<!ELEMENT TIMEX ( #PCDATA ) >\n" +
+			"<!ATTLIST TIMEX id ID prefix=\"T\" #REQUIRED >\n" +
+			"<!ATTLIST TIMEX start #IMPLIED >\n\n" +
+			"<!ELEMENT TLINK EMPTY >\n" +
+			"<!ATTLIST TLINK id ID prefix=\"TL\" #REQUIRED >\n" +
+			"<!ATTLIST TLINK relType ( BEFORE | AFTER | INCLUDES ) \"BEFORE\" >\n";
+
+	private Hashtable<String,String> options;
+	private String text;
+	private DTD dtd;
+	private ArrayList<HashCollection<String,Hashtable<String,String>>> fileTags;
+	private HashCollection<String,Hashtable<String,String>> goldTags;
+	private AdjudicationTask loaded;
+	private File dir;
+	private File largeDTD;
+
+	AdjudBenchmarks(Hashtable<String,String> options){
+		this.options = options;
+	}
+
+	private String option(String name, String def){
+		String value = options.get(name);
+		return value==null ? def : value;
+	}
+
+	/**
+	 * Generates the corpus and parses it once, so the benchmarks
+	 * only time the database work.
+	 */
+	void prepare() throws Exception{
+		dir = new File(option("dir",System.getProperty("java.io.tmpdir")
+				+File.separator+"mai-bench"));
+		dir.mkdirs();
+		File dtdFile = new File(dir,"bench.dtd");
+		OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(dtdFile),"UTF-8");
+		out.write(BENCH_DTD);
+		out.close();
+		dtd = new DTDLoader(dtdFile).getDTD();
+		largeDTD = writeLargeDTD(Integer.parseInt(option("dtdElements","300")),
+				Integer.parseInt(option("dtdAttributes","10")));
+
+		CorpusGenerator g = new CorpusGenerator(dtd,Long.parseLong(option("seed","42")));
+		g.setTextLength(Integer.parseInt(option("length","20000")));
+		g.setAnnotators(Integer.parseInt(option("annotators","3")));
+		g.setDensity(Double.parseDouble(option("density","0.1")));
+		g.setAgreement(Double.parseDouble(option("agreement","0.8")));
+		g.setLinkRatio(Double.parseDouble(option("links","0.5")));
+		g.setNCRate(Double.parseDouble(option("nc","0.05")));
+		ArrayList<File> files = g.generate(dir);
+
+		//the last file is the gold standard
+		fileTags = new ArrayList<HashCollection<String,Hashtable<String,String>>>();
+		for(int i=0;i<files.size()-1;i++){
+			XMLFileLoader xfl = new XMLFileLoader(files.get(i));
+			fileTags.add(xfl.getTagHash());
+			text = xfl.getTextChars();
+		}
+		goldTags = new XMLFileLoader(files.get(files.size()-1)).getTagHash();
+	}
+
+	/**
+	 * Writes a DTD with many elements, whose names mostly start with
+	 * the same few letters so their ID prefixes have to be worked out,
+	 * and a mix of list and data attributes spread over several lines
+	 */
+	private File writeLargeDTD(int elements, int attributes) throws Exception{
+		File f = new File(dir,"large.dtd");
+		StringBuilder sb = new StringBuilder("<!ENTITY name \"LargeTask\">\n\n");
+		String[] stems = {"EVENT","ENTITY","SIGNAL","SPATIAL","LINK"};
+		for(int i=0;i<elements;i++){
+			String name = stems[i%stems.length]+i;
+			boolean link = stems[i%stems.length].equals("LINK");
+			sb.append("<!-- element ").append(i).append(" -->\n");
+			sb.append("<!ELEMENT ").append(name).append(link ? " EMPTY >\n" : " ( #PCDATA ) >\n");
+			if(i%3==0){
+				sb.append("<!ATTLIST ").append(name).append(" id ID prefix=\"P").append(i).append("\" #REQUIRED >\n");
+			}
+			for(int j=0;j<attributes;j++){
+				sb.append("<!ATTLIST ").append(name).append(" att").append(j);
+				if(j%2==0){
+					sb.append(" ( value1 | value2 | value3 | value4 )\n\t\"value2\" >\n");
+				}
+				else{
+					sb.append(" CDATA #IMPLIED >\n");
+				}
+			}
+			sb.append("\n");
+		}
+		OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(f),"UTF-8");
+		out.write(sb.toString());
+		out.close();
+		return f;
+	}
+
+	/**
+	 * Makes new databases go in the named file in the corpus directory
+	 */
+	private void useDatabase(String name){
+		System.setProperty("mai.db",new File(dir,name).getPath());
+	}
+
+	/**
+	 * Returns a task with the DTD and empty tables, kept in
+	 * the named database file
+	 */
+	private AdjudicationTask newTask(String db){
+		useDatabase(db);
+		AdjudicationTask task = new AdjudicationTask();
+		task.setDTD(dtd);
+		task.addDTDtoDB();
+		task.reset_IDTracker();
+		return task;
+	}
+
+	private void importFiles(AdjudicationTask task){
+		for(int i=0;i<fileTags.size();i++){
+			task.addTagsFromHash("annotator"+i+".xml",fileTags.get(i));
+		}
+	}
+
+	/**
+	 * Returns the task with the whole corpus loaded, shared by the
+	 * benchmarks that only read from the database
+	 */
+	private AdjudicationTask loadedTask(){
+		if(loaded==null){
+			loaded = newTask("loaded.db");
+			importFiles(loaded);
+			loaded.addTagsFromHash("goldStandard.xml",goldTags);
+			loaded.findAllOverlaps();
+		}
+		return loaded;
+	}
+
+	ArrayList<Benchmark> benchmarks(){
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		final Random r = new Random(Long.parseLong(option("seed","42")));
+
+		list.add(new Benchmark("addTagsFromHash"){
+			private AdjudicationTask task;
+			void beforeEach(){
+				if(task==null){
+					task = newTask("import.db");
+				}
+				else{
+					useDatabase("import.db");
+					task.reset_db();
+					task.addDTDtoDB();
+				}
+			}
+			long run(){
+				importFiles(task);
+				return task.getEditCount();
+			}
+		});
+
+		list.add(new Benchmark("findAllOverlaps"){
+			long run(){
+				AdjudicationTask task = loadedTask();
+				task.findAllOverlaps();
+				return task.getEditCount();
+			}
+		});
+
+		list.add(new Benchmark("getTagsInSpanByType"){
+			long run(){
+				int begin = r.nextInt(Math.max(1,text.length()-50));
+				HashCollection<String,String> tags = loadedTask().getTagsSpanByType(begin,begin+50,"EVENT");
+				return tags.size();
+			}
+		});
+
+		list.add(new Benchmark("getGSLinksByType"){
+			long run(){
+				return loadedTask().findGoldStandardLinksByType("TLINK").size();
+			}
+		});
+
+		list.add(new Benchmark("getLinkTagsInSpanByType"){
+			void setup(){
+				loadedTask().findGoldStandardLinksByType("TLINK");
+			}
+			long run(){
+				int begin = r.nextInt(Math.max(1,text.length()-50));
+				return loadedTask().getLinkTagsSpanByType(begin,begin+50,"TLINK").size();
+			}
+		});
+
+		list.add(new Benchmark("getNextID"){
+			long run(){
+				return loadedTask().getNextID("EVENT","goldStandard.xml").length();
+			}
+			void teardown(){
+				loadedTask().reset_IDTracker();
+			}
+		});
+
+		list.add(new Benchmark("loadDTDLegacy"){
+			long run(){
+				return new LegacyDTDLoader(largeDTD).getDTD().getElements().size();
+			}
+		});
+
+		list.add(new Benchmark("loadDTD"){
+			private String cache;
+			void setup(){
+				//parse it every time
+				cache = System.getProperty("mai.dtd.cache");
+				System.setProperty("mai.dtd.cache","");
+			}
+			long run(){
+				return new DTDLoader(largeDTD).getDTD().getElements().size();
+			}
+			void teardown(){
+				if(cache==null){
+					System.clearProperty("mai.dtd.cache");
+				}
+				else{
+					System.setProperty("mai.dtd.cache",cache);
+				}
+			}
+		});
+
+		list.add(new Benchmark("saveAdjudXML"){
+			private JTextPane pane;
+			private File out;
+			void setup() throws Exception{
+				pane = new JTextPane(new DefaultStyledDocument());
+				pane.getStyledDocument().insertString(0,text,null);
+				out = File.createTempFile("mai-bench",".xml");
+			}
+			void beforeEach(){
+				//otherwise the file is only updated, and nothing has changed
+				loadedTask().setLastExport(null);
+			}
+			long run(){
+				FileOperations.saveAdjudXML(out,pane,loadedTask());
+				return out.length();
+			}
+			void teardown(){
+				out.delete();
+			}
+		});
+
+		list.add(new Benchmark("saveAdjudXMLAfterEdit"){
+			private JTextPane pane;
+			private File out;
+			private Hashtable<String,String> tag;
+			private String added; //the ID of the EVENT added before this save, if any
+			void setup() throws Exception{
+				pane = new JTextPane(new DefaultStyledDocument());
+				pane.getStyledDocument().insertString(0,text,null);
+				out = File.createTempFile("mai-bench",".xml");
+				tag = goldTags.getList("EVENT").get(0);
+				loadedTask().setLastExport(null);
+				FileOperations.saveAdjudXML(out,pane,loadedTask());
+			}
+			void beforeEach(){
+				//change one element's tags, adding an EVENT and removing it the next time
+				AdjudicationTask task = loadedTask();
+				if(added==null){
+					Hashtable<String,String> t = new Hashtable<String,String>(tag);
+					t.put("id",task.getNextID("EVENT","goldStandard.xml"));
+					task.addTagFromHash("goldStandard.xml",task.getElem("EVENT"),t);
+					added = t.get("id");
+				}
+				else{
+					task.removeExtentByFileAndID("goldStandard.xml","EVENT",added);
+					added = null;
+				}
+			}
+			long run(){
+				FileOperations.saveAdjudXML(out,pane,loadedTask());
+				return out.length();
+			}
+			void teardown(){
+				if(added!=null){
+					loadedTask().removeExtentByFileAndID("goldStandard.xml","EVENT",added);
+					added = null;
+				}
+				out.delete();
+			}
+		});
+		return list;
+	}
+
+	public static void main(String[] args) throws Exception{
+		Hashtable<String,String> options = new Hashtable<String,String>();
+		for(int i=0;i+1<args.length;i+=2){
+			if(!args[i].startsWith("-")){
+				System.out.println("unknown argument "+args[i]);
+				return;
+			}
+			options.put(args[i].substring(1),args[i+1]);
+		}
+		AdjudBenchmarks b = new AdjudBenchmarks(options);
+		b.prepare();
+		Benchmark.Runner runner = new Benchmark.Runner(
+				Integer.parseInt(b.option("warmup","2")),
+				Integer.parseInt(b.option("iterations","5")),
+				Long.parseLong(b.option("time","1000")));
+		String only = b.option("only",".*");
+		System.out.println("corpus: "+b.text.length()+" characters, "+
+				b.fileTags.size()+" annotators, "+b.option("density","0.1")+" density");
+		System.out.println(Benchmark.Result.header());
+		ArrayList<Benchmark> list = b.benchmarks();
+		for(int i=0;i<list.size();i++){
+			if(list.get(i).getName().matches(only)){
+				System.out.println(runner.run(list.get(i)));
+			}
+		}
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.Arrays;
+
+/**
+ * Benchmark is one timed operation.  Like a JMH benchmark it has a
+ * setup that runs once before any measurements, an optional
+ * per-invocation setup that isn't timed, the operation itself and
+ * a teardown.  The Runner does the warmup and measurement.
+ *
+ */
+
+abstract class Benchmark {
+
+	private String name;
+
+	Benchmark(String name){
+		this.name = name;
+	}
+
+	String getName(){
+		return name;
+	}
+
+	/**
+	 * Called once before the benchmark is warmed up
+	 */
+	void setup() throws Exception{
+	}
+
+	/**
+	 * Called before every operation, outside the timing
+	 */
+	void beforeEach() throws Exception{
+	}
+
+	/**
+	 * The operation being timed.  Returns something that depends on
+	 * the work done so that it can't be optimized away.
+	 */
+	abstract long run() throws Exception;
+
+	/**
+	 * Called once after the measurements
+	 */
+	void teardown() throws Exception{
+	}
+
+	/**
+	 * Runs benchmarks for a fixed number of warmup and measurement
+	 * iterations of a fixed length, and reports the time per
+	 * operation.
+	 */
+	static class Runner{
+
+		private int warmups;
+		private int iterations;
+		private long iterationMillis;
+		private long sink; //keeps the results of run() alive
+
+		Runner(int warmups, int iterations, long iterationMillis){
+			this.warmups = warmups;
+			this.iterations = iterations;
+			this.iterationMillis = iterationMillis;
+		}
+
+		/**
+		 * Runs a benchmark and returns its results
+		 */
+		Result run(Benchmark b) throws Exception{
+			b.setup();
+			try{
+				for(int i=0;i<warmups;i++){
+					iterate(b,null);
+				}
+				long[] times = new long[1024];
+				int[] count = new int[1];
+				for(int i=0;i<iterations;i++){
+					times = iterate(b,times,count);
+				}
+				return new Result(b.getName(),Arrays.copyOf(times,count[0]));
+			}finally{
+				b.teardown();
+			}
+		}
+
+		private void iterate(Benchmark b, long[] times) throws Exception{
+			iterate(b,times,new int[1]);
+		}
+
+		/**
+		 * Runs the operation until the iteration time is used up,
+		 * adding the time taken by each call to times (if it's not null)
+		 */
+		private long[] iterate(Benchmark b, long[] times, int[] count) throws Exception{
+			long end = System.nanoTime()+iterationMillis*1000000L;
+			do{
+				b.beforeEach();
+				long start = System.nanoTime();
+				sink += b.run();
+				long took = System.nanoTime()-start;
+				if(times!=null){
+					if(count[0]==times.length){
+						times = Arrays.copyOf(times,times.length*2);
+					}
+					times[count[0]++] = took;
+				}
+			}while(System.nanoTime()<end);
+			return times;
+		}
+	}
+
+	/**
+	 * The measured times for one benchmark
+	 */
+	static class Result{
+		String name;
+		long[] times;
+
+		Result(String name, long[] times){
+			this.name = name;
+			this.times = times;
+			Arrays.sort(this.times);
+		}
+
+		int count(){
+			return times.length;
+		}
+
+		double mean(){
+			double total = 0;
+			for(int i=0;i<times.length;i++){
+				total += times[i];
+			}
+			return times.length==0 ? 0 : total/times.length;
+		}
+
+		/**
+		 * Returns the time below which the given fraction of the
+		 * operations finished
+		 */
+		long percentile(double p){
+			if(times.length==0){
+				return 0;
+			}
+			int i = (int)Math.ceil(p*times.length)-1;
+			return times[Math.max(0,Math.min(i,times.length-1))];
+		}
+
+		static String header(){
+			return String.format("%-28s %8s %12s %12s %12s %12s",
+					"benchmark","ops","mean ms/op","p50 ms","p90 ms","p99 ms");
+		}
+
+		public String toString(){
+			return String.format("%-28s %8d %12.3f %12.3f %12.3f %12.3f",
+					name,count(),mean()/1e6,percentile(0.5)/1e6,
+					percentile(0.9)/1e6,percentile(0.99)/1e6);
+		}
+	}
+
+}
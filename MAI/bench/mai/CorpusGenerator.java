@@ -0,0 +1,529 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Random;
+
+/**
+ * CorpusGenerator writes annotated files for any DTD, for testing MAI
+ * on inputs that are bigger or denser than real ones.  It first makes
+ * a "true" annotation of a generated text, then gives each annotator
+ * a copy of it that agrees with the true one only some of the time:
+ * tags are dropped, their extents are moved or their attributes are
+ * changed, and some extra tags are added.  The gold standard, if
+ * one is written, is the true annotation.
+ * <p>
+ * The extent tags are spread over the text with the given density
+ * and may overlap; the attributes with a list of values take them
+ * from the list with a Zipf-like skew; a share of the tags that may be
+ * non-consuming are; and links join extents that are near each other.
+ * The same settings and seed always give the same files.
+ * <p>
+ * From the command line:
+ * <pre>
+ * java mai.CorpusGenerator task.dtd outputDir [-length 20000] [-annotators 3]
+ *     [-density 0.1] [-agreement 0.8] [-links 0.5] [-nc 0.05] [-skew 1.0]
+ *     [-gold true] [-seed 42]
+ * </pre>
+ *
+ */
+
+class CorpusGenerator {
+
+	private static final String[] WORDS = {"the","annotator","read","a","long",
+		"report","about","storms","that","hit","the","coast","on","Monday","and",
+		"left","before","dawn","while","officials","met","later","in","the","week",
+		"after","rain","flooded","roads","people","said","it","was","worst","since"};
+
+	private DTD dtd;
+	private long seed;
+	private int textLength;
+	private int annotators;
+	private double density;
+	private double agreement;
+	private double linkRatio;
+	private double ncRate;
+	private double skew;
+	private boolean goldStandard;
+
+	private ArrayList<ElemExtent> consuming;
+	private ArrayList<ElemExtent> nonConsuming;
+	private ArrayList<ElemLink> links;
+
+	/**
+	 * Creates a generator with the default settings: 20,000 characters,
+	 * three annotators, a tenth of the words tagged, 80% agreement, half
+	 * as many links as extents, 5% non-consuming tags and a gold standard.
+	 *
+	 * @param dtd the DTD loaded through DTDLoader
+	 * @param seed the seed for every random choice
+	 */
+	CorpusGenerator(DTD dtd, long seed){
+		this.dtd = dtd;
+		this.seed = seed;
+		textLength = 20000;
+		annotators = 3;
+		density = 0.1;
+		agreement = 0.8;
+		linkRatio = 0.5;
+		ncRate = 0.05;
+		skew = 1.0;
+		goldStandard = true;
+
+		consuming = new ArrayList<ElemExtent>();
+		nonConsuming = new ArrayList<ElemExtent>();
+		links = new ArrayList<ElemLink>();
+		ArrayList<Elem> elems = dtd.getElements();
+		for(int i=0;i<elems.size();i++){
+			Elem e = elems.get(i);
+			if(e instanceof ElemExtent){
+				consuming.add((ElemExtent)e);
+				if(!e.getAttribute("start").getRequired()){
+					nonConsuming.add((ElemExtent)e);
+				}
+			}
+			else if(e instanceof ElemLink){
+				links.add((ElemLink)e);
+			}
+		}
+	}
+
+	void setTextLength(int length){
+		textLength = length;
+	}
+
+	void setAnnotators(int n){
+		annotators = n;
+	}
+
+	/**
+	 * @param d the chance that an extent tag starts at any word
+	 */
+	void setDensity(double d){
+		density = d;
+	}
+
+	/**
+	 * @param a the chance that an annotator keeps each true tag as it is
+	 */
+	void setAgreement(double a){
+		agreement = a;
+	}
+
+	/**
+	 * @param r the number of links for each extent tag
+	 */
+	void setLinkRatio(double r){
+		linkRatio = r;
+	}
+
+	/**
+	 * @param r the number of non-consuming tags for each consuming tag
+	 */
+	void setNCRate(double r){
+		ncRate = r;
+	}
+
+	/**
+	 * @param s how strongly list attributes favor the first values in
+	 * their lists; 0 picks them evenly
+	 */
+	void setSkew(double s){
+		skew = s;
+	}
+
+	void setGoldStandard(boolean gs){
+		goldStandard = gs;
+	}
+
+	/**
+	 * Writes the annotator files (annotator0.xml, annotator1.xml, ...)
+	 * and the gold standard (goldStandard.xml) into a directory.
+	 *
+	 * @param dir the directory being written to
+	 * @return the annotator files, followed by the gold standard
+	 * @throws Exception
+	 */
+	ArrayList<File> generate(File dir) throws Exception{
+		dir.mkdirs();
+		Random r = new Random(seed);
+		ArrayList<File> files = new ArrayList<File>();
+
+		ArrayList<int[]> words = new ArrayList<int[]>();
+		String text = makeText(r,words);
+		ArrayList<Tag> truth = makeTruth(r,text,words);
+
+		for(int a=0;a<annotators;a++){
+			ArrayList<Tag> tags = disagree(r,truth,text,words);
+			File f = new File(dir,"annotator"+a+".xml");
+			write(f,text,tags);
+			files.add(f);
+		}
+		if(goldStandard){
+			File f = new File(dir,"goldStandard.xml");
+			write(f,text,truth);
+			files.add(f);
+		}
+		return files;
+	}
+
+	/**
+	 * Makes the text out of words and sentences, recording the span
+	 * of each word.
+	 */
+	private String makeText(Random r, ArrayList<int[]> words){
+		StringBuilder text = new StringBuilder();
+		while(text.length()<textLength){
+			String w = WORDS[r.nextInt(WORDS.length)];
+			words.add(new int[]{text.length(),text.length()+w.length()});
+			text.append(w);
+			if(r.nextInt(15)==0){
+				text.append(r.nextInt(4)==0 ? ".\n\n" : ". ");
+			}
+			else{
+				text.append(" ");
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Makes the true annotation: extents over one to three words,
+	 * sometimes overlapping the previous one, the non-consuming tags,
+	 * and links between extents near each other.
+	 */
+	private ArrayList<Tag> makeTruth(Random r, String text, ArrayList<int[]> words){
+		ArrayList<Tag> tags = new ArrayList<Tag>();
+		ArrayList<Tag> extents = new ArrayList<Tag>();
+		if(!consuming.isEmpty()){
+			for(int w=0;w<words.size();w++){
+				if(r.nextDouble()>=density){
+					continue;
+				}
+				int last = Math.min(words.size()-1,w+r.nextInt(3));
+				ElemExtent e = consuming.get(r.nextInt(consuming.size()));
+				Tag t = extent(r,e,words.get(w)[0],words.get(last)[1],text);
+				tags.add(t);
+				extents.add(t);
+			}
+		}
+		if(!nonConsuming.isEmpty()){
+			int count = (int)Math.round(extents.size()*ncRate);
+			for(int i=0;i<count;i++){
+				ElemExtent e = nonConsuming.get(r.nextInt(nonConsuming.size()));
+				Tag t = extent(r,e,-1,-1,text);
+				tags.add(t);
+				extents.add(t);
+			}
+		}
+		if(!links.isEmpty() && extents.size()>1){
+			int count = (int)Math.round(extents.size()*linkRatio);
+			for(int i=0;i<count;i++){
+				int from = r.nextInt(extents.size());
+				int to = Math.max(0,Math.min(extents.size()-1,from+r.nextInt(11)-5));
+				if(to==from){
+					to = (from+1)%extents.size();
+				}
+				ElemLink e = links.get(r.nextInt(links.size()));
+				Tag t = new Tag(e);
+				t.from = extents.get(from);
+				t.to = extents.get(to);
+				setAttributes(r,t);
+				tags.add(t);
+			}
+		}
+		return tags;
+	}
+
+	private Tag extent(Random r, ElemExtent e, int start, int end, String text){
+		Tag t = new Tag(e);
+		t.start = start;
+		t.end = end;
+		t.values.put("text",start<0 ? "" : text.substring(start,end));
+		setAttributes(r,t);
+		return t;
+	}
+
+	/**
+	 * Copies the true annotation for one annotator.  Each tag is kept
+	 * as it is with the agreement rate; otherwise it's dropped, its extent
+	 * is moved by a word, or its attributes are picked again.  Links
+	 * are only kept if both their ends are.  Some extra extents are added.
+	 */
+	private ArrayList<Tag> disagree(Random r, ArrayList<Tag> truth, String text,
+			ArrayList<int[]> words){
+		ArrayList<Tag> tags = new ArrayList<Tag>();
+		Hashtable<Tag,Tag> copies = new Hashtable<Tag,Tag>();
+		for(int i=0;i<truth.size();i++){
+			Tag t = truth.get(i);
+			if(t.elem instanceof ElemLink){
+				continue;
+			}
+			Tag copy = t.copy();
+			if(r.nextDouble()>=agreement){
+				int change = r.nextInt(3);
+				if(change==0){
+					continue;
+				}
+				else if(change==1 && copy.start>=0){
+					int w = wordAt(words,copy.end);
+					if(w+1<words.size()){
+						copy.end = words.get(w+1)[1];
+						copy.values.put("text",text.substring(copy.start,copy.end));
+					}
+				}
+				else{
+					setAttributes(r,copy);
+				}
+			}
+			tags.add(copy);
+			copies.put(t,copy);
+		}
+		//tags that only this annotator thought were there
+		if(!consuming.isEmpty()){
+			for(int w=0;w<words.size();w++){
+				if(r.nextDouble()<density*(1-agreement)/4){
+					ElemExtent e = consuming.get(r.nextInt(consuming.size()));
+					tags.add(extent(r,e,words.get(w)[0],words.get(w)[1],text));
+				}
+			}
+		}
+		for(int i=0;i<truth.size();i++){
+			Tag t = truth.get(i);
+			if(!(t.elem instanceof ElemLink)){
+				continue;
+			}
+			Tag from = copies.get(t.from);
+			Tag to = copies.get(t.to);
+			if(from==null || to==null || r.nextDouble()>=(1+agreement)/2){
+				continue;
+			}
+			Tag copy = t.copy();
+			copy.from = from;
+			copy.to = to;
+			tags.add(copy);
+		}
+		return tags;
+	}
+
+	/**
+	 * Returns the index of the word that ends at or after a location
+	 */
+	private int wordAt(ArrayList<int[]> words, int loc){
+		int lo = 0;
+		int hi = words.size()-1;
+		while(lo<hi){
+			int mid = (lo+hi)/2;
+			if(words.get(mid)[1]<loc){
+				lo = mid+1;
+			}
+			else{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Picks values for the attributes that aren't set by the structure
+	 * of the tag (id, start, end, text and the link ends).
+	 */
+	private void setAttributes(Random r, Tag t){
+		ArrayList<Attrib> atts = t.elem.getAttributes();
+		for(int i=0;i<atts.size();i++){
+			Attrib a = atts.get(i);
+			String name = a.getName();
+			if(a instanceof AttID || name.equals("start") || name.equals("end")
+					|| name.equals("text") || name.equals("fromID") || name.equals("toID")
+					|| name.equals("fromText") || name.equals("toText")){
+				continue;
+			}
+			if(a instanceof AttList){
+				ArrayList<String> choices = ((AttList)a).getList();
+				if(!a.getRequired() && r.nextInt(10)==0){
+					t.values.put(name,a.getDefaultValue());
+				}
+				else{
+					t.values.put(name,choices.get(pick(r,choices.size())));
+				}
+			}
+			else if(a.getRequired() || r.nextInt(4)==0){
+				t.values.put(name,WORDS[r.nextInt(WORDS.length)]);
+			}
+			else{
+				t.values.put(name,a.getDefaultValue());
+			}
+		}
+	}
+
+	/**
+	 * Picks an index from 0 to n-1, with index i weighted by 1/(i+1)^skew
+	 */
+	private int pick(Random r, int n){
+		double total = 0;
+		for(int i=0;i<n;i++){
+			total += 1/Math.pow(i+1,skew);
+		}
+		double x = r.nextDouble()*total;
+		for(int i=0;i<n;i++){
+			x -= 1/Math.pow(i+1,skew);
+			if(x<0){
+				return i;
+			}
+		}
+		return n-1;
+	}
+
+	/**
+	 * Writes a file in the MAE/MAI format, numbering the tags of each
+	 * type in the order they appear.
+	 */
+	private void write(File f, String text, ArrayList<Tag> tags) throws Exception{
+		Hashtable<Tag,String> ids = new Hashtable<Tag,String>();
+		Hashtable<String,Integer> counts = new Hashtable<String,Integer>();
+		for(int i=0;i<tags.size();i++){
+			Tag t = tags.get(i);
+			String name = t.elem.getName();
+			Integer n = counts.get(name);
+			n = (n==null ? 0 : n.intValue());
+			ids.put(t,((AttID)t.elem.getAttribute("id")).getPrefix()+n);
+			counts.put(name,n+1);
+		}
+		OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(f),"UTF-8");
+		try{
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+			out.write("<"+dtd.getName()+">\n<TEXT><![CDATA[");
+			out.write(text);
+			out.write("]]></TEXT>\n<TAGS>\n");
+			for(int i=0;i<tags.size();i++){
+				Tag t = tags.get(i);
+				StringBuilder sb = new StringBuilder();
+				sb.append("<").append(t.elem.getName()).append(" id=\"").append(ids.get(t)).append("\"");
+				if(t.elem instanceof ElemExtent){
+					attribute(sb,"start",Integer.toString(t.start));
+					attribute(sb,"end",Integer.toString(t.end));
+				}
+				else{
+					attribute(sb,"fromID",ids.get(t.from));
+					attribute(sb,"fromText",t.from.values.get("text"));
+					attribute(sb,"toID",ids.get(t.to));
+					attribute(sb,"toText",t.to.values.get("text"));
+				}
+				ArrayList<Attrib> atts = t.elem.getAttributes();
+				for(int j=0;j<atts.size();j++){
+					String value = t.values.get(atts.get(j).getName());
+					if(value!=null){
+						attribute(sb,atts.get(j).getName(),value);
+					}
+				}
+				sb.append(" />\n");
+				out.write(sb.toString());
+			}
+			out.write("</TAGS>\n</"+dtd.getName()+">\n");
+		}finally{
+			out.close();
+		}
+	}
+
+	private static void attribute(StringBuilder sb, String name, String value){
+		sb.append(" ").append(name).append("=\"").append(value.replace("&","&amp;")
+				.replace("<","&lt;").replace(">","&gt;").replace("\"","&quot;")
+				.replace("\n"," ")).append("\"");
+	}
+
+	/**
+	 * A tag in the true annotation or one annotator's copy of it
+	 */
+	private static class Tag{
+		Elem elem;
+		int start;
+		int end;
+		Tag from;
+		Tag to;
+		Hashtable<String,String> values;
+
+		Tag(Elem elem){
+			this.elem = elem;
+			values = new Hashtable<String,String>();
+		}
+
+		Tag copy(){
+			Tag t = new Tag(elem);
+			t.start = start;
+			t.end = end;
+			t.from = from;
+			t.to = to;
+			t.values.putAll(values);
+			return t;
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		if(args.length<2){
+			System.out.println("usage: CorpusGenerator task.dtd outputDir [-length n] " +
+					"[-annotators n] [-density d] [-agreement a] [-links r] [-nc r] " +
+					"[-skew s] [-gold true|false] [-seed n]");
+			return;
+		}
+		Hashtable<String,String> options = new Hashtable<String,String>();
+		for(int i=2;i+1<args.length;i+=2){
+			options.put(args[i].substring(1),args[i+1]);
+		}
+		DTD dtd = new DTDLoader(new File(args[0])).getDTD();
+		String seed = options.get("seed");
+		CorpusGenerator g = new CorpusGenerator(dtd,seed==null ? 42 : Long.parseLong(seed));
+		if(options.get("length")!=null){
+			g.setTextLength(Integer.parseInt(options.get("length")));
+		}
+		if(options.get("annotators")!=null){
+			g.setAnnotators(Integer.parseInt(options.get("annotators")));
+		}
+		if(options.get("density")!=null){
+			g.setDensity(Double.parseDouble(options.get("density")));
+		}
+		if(options.get("agreement")!=null){
+			g.setAgreement(Double.parseDouble(options.get("agreement")));
+		}
+		if(options.get("links")!=null){
+			g.setLinkRatio(Double.parseDouble(options.get("links")));
+		}
+		if(options.get("nc")!=null){
+			g.setNCRate(Double.parseDouble(options.get("nc")));
+		}
+		if(options.get("skew")!=null){
+			g.setSkew(Double.parseDouble(options.get("skew")));
+		}
+		if(options.get("gold")!=null){
+			g.setGoldStandard(Boolean.parseBoolean(options.get("gold")));
+		}
+		ArrayList<File> files = g.generate(new File(args[1]));
+		for(int i=0;i<files.size();i++){
+			System.out.println(files.get(i).getPath()+" "+files.get(i).length());
+		}
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ServerLoad sends requests to an AdjudServer from a number of client
+ * threads at once for a fixed time, and reports how many it answered
+ * a second and how long each kind of request took.  Each client keeps
+ * asking for the tags in a random part of the text, looking up tags
+ * by ID and, if -writes is more than 0, adding a tag to the gold
+ * standard and removing it again.  Once compiled as described in AdjudBenchmarks,
+ * from the MAI directory:
+ * <pre>
+ * java -cp bench-bin:resources/sqlitejdbc-v056.jar mai.ServerLoad
+ *     (-url http://127.0.0.1:8080 | -session session.mai) [-clients 32]
+ *     [-time 10000] [-warmup 2000] [-span 200] [-writes 0.02]
+ * </pre>
+ * With -session the server is started in the same JVM on a free port.
+ * Writing changes the session, so use a copy of it.
+ *
+ */
+
+class ServerLoad {
+
+	private static final String[] KINDS = {"spans","tag","add+remove"};
+
+	private String base;
+	private String elem;     //the extent element the requests are about
+	private int length;      //of the text
+	private ArrayList<String[]> tags = new ArrayList<String[]>(); //file and ID of existing tags
+	private int span;
+	private double writes;
+	private AtomicInteger errors = new AtomicInteger();
+
+	ServerLoad(String base, int span, double writes) throws Exception{
+		this.base = base;
+		this.span = span;
+		this.writes = writes;
+		Map<?,?> task = (Map<?,?>)Json.parse(get("/task"));
+		length = Integer.parseInt((String)task.get("length"));
+		ArrayList<?> extents = (ArrayList<?>)task.get("extents");
+		if(extents.size()==0){
+			throw new Exception("the DTD has no extents");
+		}
+		elem = (String)extents.get(0);
+		Map<?,?> found = (Map<?,?>)Json.parse(get("/spans?elem="+elem+"&begin=0&end="+length));
+		for(Object file : found.keySet()){
+			ArrayList<?> ids = (ArrayList<?>)found.get(file);
+			for(int i=0;i<ids.size();i++){
+				tags.add(new String[]{(String)file,(String)ids.get(i)});
+			}
+		}
+		if(tags.size()==0){
+			throw new Exception("the session has no "+elem+" tags");
+		}
+	}
+
+	/**
+	 * Runs the clients until the time is up
+	 *
+	 * @return the times of each kind of request, in nanoseconds
+	 */
+	long[][] run(int clients, final long millis) throws Exception{
+		final long[][][] times = new long[clients][][];
+		final int[][] counts = new int[clients][KINDS.length];
+		Thread[] threads = new Thread[clients];
+		final long end = System.nanoTime()+millis*1000000L;
+		for(int c=0;c<clients;c++){
+			final int client = c;
+			times[c] = new long[KINDS.length][1024];
+			threads[c] = new Thread(){
+				public void run(){
+					Random random = new Random(client);
+					while(System.nanoTime()<end){
+						double r = random.nextDouble();
+						int kind = r<writes ? 2 : r<writes+(1-writes)*0.7 ? 0 : 1;
+						long start = System.nanoTime();
+						try{
+							request(kind,random);
+						}catch(Exception e){
+							errors.incrementAndGet();
+							continue;
+						}
+						long took = System.nanoTime()-start;
+						long[] t = times[client][kind];
+						if(counts[client][kind]==t.length){
+							t = times[client][kind] = Arrays.copyOf(t,t.length*2);
+						}
+						t[counts[client][kind]++] = took;
+					}
+				}
+			};
+			threads[c].start();
+		}
+		for(int c=0;c<clients;c++){
+			threads[c].join();
+		}
+		long[][] all = new long[KINDS.length][];
+		for(int k=0;k<KINDS.length;k++){
+			int n = 0;
+			for(int c=0;c<clients;c++){
+				n += counts[c][k];
+			}
+			all[k] = new long[n];
+			n = 0;
+			for(int c=0;c<clients;c++){
+				System.arraycopy(times[c][k],0,all[k],n,counts[c][k]);
+				n += counts[c][k];
+			}
+		}
+		return all;
+	}
+
+	private void request(int kind, Random random) throws Exception{
+		if(kind==0){
+			int begin = random.nextInt(Math.max(1,length-span));
+			get("/spans?elem="+elem+"&begin="+begin+"&end="+Math.min(length,begin+span));
+		}
+		else if(kind==1){
+			String[] tag = tags.get(random.nextInt(tags.size()));
+			get("/tag?elem="+elem+"&id="+URLEncoder.encode(tag[1],"UTF-8")
+					+"&file="+URLEncoder.encode(tag[0],"UTF-8"));
+		}
+		else{
+			int begin = random.nextInt(Math.max(1,length-10));
+			String added = post("/gold/add?elem="+elem,
+					"{\"start\":\""+begin+"\",\"end\":\""+Math.min(length,begin+5)+"\"}");
+			String id = (String)((Map<?,?>)Json.parse(added)).get("id");
+			post("/gold/remove?elem="+elem+"&id="+URLEncoder.encode(id,"UTF-8"),"");
+		}
+	}
+
+	private String get(String path) throws IOException{
+		HttpURLConnection c = (HttpURLConnection)new URL(base+path).openConnection();
+		return read(c);
+	}
+
+	private String post(String path, String body) throws IOException{
+		HttpURLConnection c = (HttpURLConnection)new URL(base+path).openConnection();
+		c.setRequestMethod("POST");
+		c.setDoOutput(true);
+		c.setRequestProperty("Content-Type","application/json; charset=UTF-8");
+		OutputStream out = c.getOutputStream();
+		out.write(body.getBytes("UTF-8"));
+		out.close();
+		return read(c);
+	}
+
+	/**
+	 * Reads the whole answer, so that the connection can be used again
+	 */
+	private static String read(HttpURLConnection c) throws IOException{
+		int status = c.getResponseCode();
+		InputStream in = status<400 ? c.getInputStream() : c.getErrorStream();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		if(in!=null){
+			byte[] b = new byte[8192];
+			int n;
+			while((n = in.read(b))>0){
+				buf.write(b,0,n);
+			}
+			in.close();
+		}
+		if(status!=200){
+			throw new IOException(c.getURL()+": "+status+" "+buf.toString("UTF-8"));
+		}
+		return buf.toString("UTF-8");
+	}
+
+	public static void main(String[] args) throws Exception{
+		Hashtable<String,String> options = new Hashtable<String,String>();
+		for(int i=0;i+1<args.length;i+=2){
+			if(!args[i].startsWith("-")){
+				System.out.println("unknown argument "+args[i]);
+				return;
+			}
+			options.put(args[i].substring(1),args[i+1]);
+		}
+		int clients = Integer.parseInt(option(options,"clients","32"));
+		AdjudServer server = null;
+		String url = options.get("url");
+		if(options.containsKey("session")){
+			AdjudicationTask task = new AdjudicationTask();
+			AdjudSession session = task.openSession(new File(options.get("session")));
+			server = new AdjudServer(task,session,new InetSocketAddress("127.0.0.1",0),clients);
+			server.start();
+			url = "http://127.0.0.1:"+server.getPort();
+		}
+		if(url==null){
+			System.out.println("either -url or -session is needed");
+			return;
+		}
+		ServerLoad load = new ServerLoad(url,Integer.parseInt(option(options,"span","200")),
+				Double.parseDouble(option(options,"writes","0.02")));
+		System.out.println(load.tags.size()+" "+load.elem+" tags in "+load.length+
+				" characters, "+clients+" clients");
+		load.run(clients,Long.parseLong(option(options,"warmup","2000")));
+		load.errors.set(0);
+		long millis = Long.parseLong(option(options,"time","10000"));
+		long[][] times = load.run(clients,millis);
+		System.out.println(Benchmark.Result.header());
+		int total = 0;
+		for(int k=0;k<KINDS.length;k++){
+			System.out.println(new Benchmark.Result(KINDS[k],times[k]));
+			total += times[k].length;
+		}
+		System.out.println(String.format("%.0f requests/s, %d errors",
+				total*1000.0/millis,load.errors.get()));
+		if(server!=null){
+			server.stop(1);
+		}
+		System.exit(0);
+	}
+
+	private static String option(Hashtable<String,String> options, String name, String value){
+		return options.containsKey(name) ? options.get(name) : value;
+	}
+
+}
@@ -0,0 +1,297 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+
+/**
+ * SessionReplayer runs the calls in a log written by ActionRecorder
+ * against a new AdjudicationTask, without the GUI, and reports how
+ * long each kind of call took next to how long it took when it was
+ * recorded.  It also counts the calls whose number of results is
+ * different from the recording, which means the replay didn't do
+ * the same work.  Once compiled as described in AdjudBenchmarks,
+ * from the MAI directory:
+ * <pre>
+ * java -cp bench-bin:resources/sqlitejdbc-v056.jar mai.SessionReplayer
+ *     session.log task.dtd [-repeat 1] [-realtime false] [-db replay.db]
+ * </pre>
+ * The DTD has to be the one the session was recorded with.  With
+ * -realtime true the pauses between the calls are kept, so the
+ * background work MAI does between actions has the same time to
+ * run as it did.  Each repetition starts from an empty database.
+ *
+ */
+
+class SessionReplayer {
+
+	private DTD dtd;
+	private ArrayList<ActionRecorder.Action> actions;
+	private Hashtable<String,ArrayList<Long>> times;
+	private Hashtable<String,ArrayList<Long>> recorded;
+	private Hashtable<String,Integer> mismatches;
+
+	SessionReplayer(ArrayList<ActionRecorder.Action> actions, DTD dtd){
+		this.actions = actions;
+		this.dtd = dtd;
+		times = new Hashtable<String,ArrayList<Long>>();
+		recorded = new Hashtable<String,ArrayList<Long>>();
+		mismatches = new Hashtable<String,Integer>();
+	}
+
+	/**
+	 * Runs every call in the log once, on a new database
+	 *
+	 * @param realtime whether to wait between calls as long as
+	 * the user did
+	 */
+	void replay(boolean realtime) throws Exception{
+		AdjudicationTask task = new AdjudicationTask();
+		long started = System.currentTimeMillis();
+		for(int i=0;i<actions.size();i++){
+			ActionRecorder.Action a = actions.get(i);
+			if(realtime){
+				long wait = a.time-(System.currentTimeMillis()-started);
+				if(wait>0){
+					Thread.sleep(wait);
+				}
+			}
+			long start = System.nanoTime();
+			int results = run(task,a);
+			long took = System.nanoTime()-start;
+			if(results<0){
+				continue;
+			}
+			add(times,a.name,took);
+			add(recorded,a.name,a.micros*1000);
+			if(results!=a.results){
+				Integer n = mismatches.get(a.name);
+				mismatches.put(a.name,n==null ? 1 : n+1);
+			}
+		}
+	}
+
+	/**
+	 * Makes one call and returns the number of results, the same
+	 * way AdjudicationTask counts them when recording, or -1 if
+	 * the call isn't timed
+	 */
+	private int run(AdjudicationTask task, ActionRecorder.Action a) throws Exception{
+		String n = a.name;
+		if(n.equals("setDTD")){
+			if(!dtd.getFingerprint().equals(a.string(1))){
+				throw new Exception("the session was recorded with a different DTD ("+a.string(0)+")");
+			}
+			task.setDTD(dtd);
+			return -1;
+		}
+		else if(n.equals("reset_db")){
+			task.reset_db();
+			return 0;
+		}
+		else if(n.equals("reset_IDTracker")){
+			task.reset_IDTracker();
+			return 0;
+		}
+		else if(n.equals("addDTDtoDB")){
+			task.addDTDtoDB();
+			return 0;
+		}
+		else if(n.equals("addTagsFromHash")){
+			task.addTagsFromHash(a.string(0),a.tags(1));
+			return 0;
+		}
+		else if(n.equals("addFilesFromHash")){
+			//each file is written as its name, its number of tags, then the tags
+			LinkedHashMap<String,HashCollection<String,Hashtable<String,String>>> files =
+					new LinkedHashMap<String,HashCollection<String,Hashtable<String,String>>>();
+			int i = 0;
+			while(i+1<a.argCount()){
+				HashCollection<String,Hashtable<String,String>> tags =
+						new HashCollection<String,Hashtable<String,String>>();
+				int count = a.integer(i+1);
+				for(int j=0;j<count;j++){
+					tags.putEnt(a.string(i+2+2*j),a.table(i+3+2*j));
+				}
+				files.put(a.string(i),tags);
+				i += 2+2*count;
+			}
+			task.addFilesFromHash(files);
+			return 0;
+		}
+		else if(n.equals("findAllOverlaps")){
+			task.findAllOverlaps();
+			return a.results; //not returned by the task
+		}
+		else if(n.equals("addTagFromHash")){
+			task.addTagFromHash(a.string(0),task.getElem(a.string(1)),a.table(2));
+			return 0;
+		}
+		else if(n.equals("getNextID")){
+			task.getNextID(a.string(0),a.string(1));
+			return 1;
+		}
+		else if(n.equals("getExtentAllLocs")){
+			return PhaseEvent.count(task.getExtentAllLocs(a.string(0)));
+		}
+		else if(n.equals("getExtentLocsInSpan")){
+			return PhaseEvent.count(task.getExtentLocsInSpan(a.string(0),a.integer(1),a.integer(2)));
+		}
+		else if(n.equals("getTextByFileElemAndID")){
+			task.getTextByFileElemAndID(a.string(0),a.string(1),a.string(2));
+			return 1;
+		}
+		else if(n.equals("getAllExtentsByFile")){
+			return task.getAllExtentsByFile(a.string(0)).size();
+		}
+		else if(n.equals("getTagsByFileAndID")){
+			Hashtable<String,String> tag = task.getTagsByFileAndID(a.string(0),a.string(1),a.string(2));
+			return tag==null ? 0 : tag.size();
+		}
+		else if(n.equals("getLocByFileAndID")){
+			task.getLocByFileAndID(a.string(0),a.string(1));
+			return 1;
+		}
+		else if(n.equals("findGoldStandardLinksByType")){
+			return PhaseEvent.count(task.findGoldStandardLinksByType(a.string(0)));
+		}
+		else if(n.equals("removeExtentByFileAndID")){
+			task.removeExtentByFileAndID(a.string(0),a.string(1),a.string(2));
+			return 0;
+		}
+		else if(n.equals("removeLinkByFileAndID")){
+			task.removeLinkByFileAndID(a.string(0),a.string(1),a.string(2));
+			return 0;
+		}
+		else if(n.equals("removeTagsByFileAndID")){
+			HashCollection<String,String> tags = new HashCollection<String,String>();
+			for(int i=1;i+1<a.argCount();i+=2){
+				tags.putEnt(a.string(i),a.string(i+1));
+			}
+			HashCollection<String,String> links = new HashCollection<String,String>();
+			task.removeTagsByFileAndID(a.string(0),tags,links);
+			return PhaseEvent.count(links);
+		}
+		else if(n.equals("beginEdit")){
+			task.beginEdit(a.string(0));
+			return -1;
+		}
+		else if(n.equals("endEdit")){
+			task.endEdit();
+			return -1;
+		}
+		else if(n.equals("undo")){
+			task.undo();
+			return a.results; //the number of deltas isn't returned by the task
+		}
+		else if(n.equals("redo")){
+			task.redo();
+			return a.results;
+		}
+		else if(n.equals("getLinksByFileAndExtentID")){
+			return PhaseEvent.count(task.getLinksByFileAndExtentID(a.string(0),a.string(1),a.string(2)));
+		}
+		else if(n.equals("getTagsSpanByType")){
+			return PhaseEvent.count(task.getTagsSpanByType(a.integer(0),a.integer(1),a.string(2)));
+		}
+		else if(n.equals("getLinkTagsSpanByType")){
+			return PhaseEvent.count(task.getLinkTagsSpanByType(a.integer(0),a.integer(1),a.string(2)));
+		}
+		else if(n.equals("getFileTagsSpanAndNC")){
+			return PhaseEvent.count(task.getFileTagsSpanAndNC(a.string(0),a.integer(1),a.integer(2)));
+		}
+		System.out.println("skipping unknown call "+n);
+		return -1;
+	}
+
+	private static void add(Hashtable<String,ArrayList<Long>> h, String name, long value){
+		ArrayList<Long> list = h.get(name);
+		if(list==null){
+			list = new ArrayList<Long>();
+			h.put(name,list);
+		}
+		list.add(value);
+	}
+
+	private static long[] toArray(ArrayList<Long> list){
+		long[] a = new long[list.size()];
+		for(int i=0;i<a.length;i++){
+			a[i] = list.get(i).longValue();
+		}
+		return a;
+	}
+
+	/**
+	 * Prints the replayed times for each kind of call, with the
+	 * recorded mean and p90 and the number of result mismatches
+	 */
+	void report(){
+		System.out.println(Benchmark.Result.header()+String.format(" %12s %12s %8s",
+				"recorded ms","rec p90 ms","diffs"));
+		ArrayList<String> names = new ArrayList<String>(times.keySet());
+		Collections.sort(names);
+		for(int i=0;i<names.size();i++){
+			String name = names.get(i);
+			Benchmark.Result r = new Benchmark.Result(name,toArray(times.get(name)));
+			Benchmark.Result rec = new Benchmark.Result(name,toArray(recorded.get(name)));
+			Integer diffs = mismatches.get(name);
+			System.out.println(r+String.format(" %12.3f %12.3f %8d",rec.mean()/1e6,
+					rec.percentile(0.9)/1e6,diffs==null ? 0 : diffs.intValue()));
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		if(args.length<2){
+			System.out.println("usage: SessionReplayer session.log task.dtd " +
+					"[-repeat n] [-realtime true|false] [-db file]");
+			return;
+		}
+		Hashtable<String,String> options = new Hashtable<String,String>();
+		for(int i=2;i+1<args.length;i+=2){
+			options.put(args[i].substring(1),args[i+1]);
+		}
+		String db = options.get("db");
+		if(db==null){
+			File f = File.createTempFile("mai-replay",".db");
+			f.deleteOnExit();
+			db = f.getPath();
+		}
+		System.setProperty("mai.db",db);
+		ArrayList<ActionRecorder.Action> actions = ActionRecorder.read(new File(args[0]));
+		DTD dtd = new DTDLoader(new File(args[1])).getDTD();
+		SessionReplayer r = new SessionReplayer(actions,dtd);
+		int repeat = options.get("repeat")==null ? 1 : Integer.parseInt(options.get("repeat"));
+		boolean realtime = Boolean.parseBoolean(options.get("realtime"));
+		System.out.println("replaying "+actions.size()+" calls"+
+				(repeat>1 ? " "+repeat+" times" : ""));
+		for(int i=0;i<repeat;i++){
+			r.replay(realtime);
+		}
+		r.report();
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * ActionRecorder keeps a log of the calls the GUI makes to
+ * AdjudicationTask (loading files, selecting tags and text, adding
+ * and removing tags), so that a real adjudication session can be
+ * replayed later against a new database to see whether MAI has got
+ * slower.  Recording is turned on by naming the log file in the
+ * mai.record system property:
+ * <pre>
+ * java -Dmai.record=session.log -jar mai.jar
+ * </pre>
+ * Each line of the log is one call: the milliseconds since recording
+ * started, how long the call took in microseconds, the name of the
+ * call, the number of results it returned and its arguments, separated
+ * by tabs.  Strings are URL-encoded (with ~ for null) and the tags
+ * are written as encoded name=value pairs joined by &amp;.  Saving and
+ * opening sessions aren't recorded.
+ *
+ */
+
+class ActionRecorder {
+
+	static final String HEADER = "# MAI action log 1";
+
+	private static ActionRecorder instance;
+
+	private Writer out;
+	private long startTime;
+
+	private ActionRecorder(Writer out){
+		this.out = out;
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the recorder, which only records anything if
+	 * the mai.record system property is set
+	 *
+	 * @return the shared ActionRecorder
+	 */
+	static synchronized ActionRecorder getDefault(){
+		if(instance==null){
+			Writer w = null;
+			String file = System.getProperty("mai.record");
+			if(file!=null){
+				try{
+					w = new OutputStreamWriter(new FileOutputStream(file),"UTF-8");
+					w.write(HEADER+"\n");
+					w.flush();
+				}catch(Exception e){
+					System.out.println(e.toString());
+					w = null;
+				}
+			}
+			instance = new ActionRecorder(w);
+		}
+		return instance;
+	}
+
+	boolean isRecording(){
+		return out!=null;
+	}
+
+	/**
+	 * Writes a call to the log
+	 *
+	 * @param start the System.nanoTime() when the call started
+	 * @param action the name of the AdjudicationTask method
+	 * @param results the number of results returned
+	 * @param args the arguments: Strings, Integers, Elems (written
+	 * by name), Hashtables of attributes, or HashCollections of tags
+	 * (written as an element name and attributes for each tag)
+	 */
+	@SuppressWarnings("unchecked")
+	void record(long start, String action, int results, Object... args){
+		if(out==null){
+			return;
+		}
+		long took = (System.nanoTime()-start)/1000;
+		StringBuilder sb = new StringBuilder();
+		sb.append(System.currentTimeMillis()-startTime).append('\t').append(took)
+			.append('\t').append(action).append('\t').append(results);
+		for(int i=0;i<args.length;i++){
+			Object a = args[i];
+			if(a instanceof HashCollection){
+				HashCollection<String,Hashtable<String,String>> tags =
+						(HashCollection<String,Hashtable<String,String>>)a;
+				ArrayList<String> names = tags.getKeyList();
+				for(int j=0;j<names.size();j++){
+					ArrayList<Hashtable<String,String>> list = tags.getList(names.get(j));
+					for(int k=0;list!=null && k<list.size();k++){
+						sb.append('\t').append(encode(names.get(j)));
+						sb.append('\t').append(encodeTable(list.get(k)));
+					}
+				}
+			}
+			else if(a instanceof Hashtable){
+				sb.append('\t').append(encodeTable((Hashtable<String,String>)a));
+			}
+			else if(a instanceof Elem){
+				sb.append('\t').append(encode(((Elem)a).getName()));
+			}
+			else if(a instanceof Integer){
+				sb.append('\t').append(a);
+			}
+			else{
+				sb.append('\t').append(encode((String)a));
+			}
+		}
+		sb.append('\n');
+		synchronized(this){
+			try{
+				out.write(sb.toString());
+				out.flush();
+			}catch(Exception e){
+				System.out.println(e.toString());
+			}
+		}
+	}
+
+	private static String encode(String s){
+		if(s==null){
+			return "~";
+		}
+		try{
+			return URLEncoder.encode(s,"UTF-8");
+		}catch(Exception e){
+			return s;
+		}
+	}
+
+	private static String decode(String s){
+		if(s.equals("~")){
+			return null;
+		}
+		try{
+			return URLDecoder.decode(s,"UTF-8");
+		}catch(Exception e){
+			return s;
+		}
+	}
+
+	private static String encodeTable(Hashtable<String,String> t){
+		StringBuilder sb = new StringBuilder();
+		for(Enumeration<String> keys = t.keys(); keys.hasMoreElements();){
+			String key = keys.nextElement();
+			if(sb.length()>0){
+				sb.append('&');
+			}
+			sb.append(encode(key)).append('=').append(encode(t.get(key)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the calls from a log
+	 *
+	 * @param f the log file
+	 * @return the calls, in the order they were made
+	 * @throws Exception if the file isn't an action log
+	 */
+	static ArrayList<Action> read(File f) throws Exception{
+		ArrayList<Action> actions = new ArrayList<Action>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f),"UTF-8"));
+		try{
+			String line = in.readLine();
+			if(line==null || !line.equals(HEADER)){
+				throw new Exception(f.getName()+" is not a MAI action log");
+			}
+			while((line = in.readLine())!=null){
+				if(line.length()>0){
+					actions.add(new Action(line.split("\t",-1)));
+				}
+			}
+		}finally{
+			in.close();
+		}
+		return actions;
+	}
+
+	/**
+	 * One recorded call
+	 */
+	static class Action{
+		long time;   //milliseconds after recording started
+		long micros; //how long the call took
+		String name;
+		int results;
+		private String[] args;
+
+		Action(String[] fields){
+			time = Long.parseLong(fields[0]);
+			micros = Long.parseLong(fields[1]);
+			name = fields[2];
+			results = Integer.parseInt(fields[3]);
+			args = new String[fields.length-4];
+			System.arraycopy(fields,4,args,0,args.length);
+		}
+
+		int argCount(){
+			return args.length;
+		}
+
+		String string(int i){
+			return decode(args[i]);
+		}
+
+		int integer(int i){
+			return Integer.parseInt(args[i]);
+		}
+
+		Hashtable<String,String> table(int i){
+			Hashtable<String,String> t = new Hashtable<String,String>();
+			if(args[i].length()==0){
+				return t;
+			}
+			String[] pairs = args[i].split("&");
+			for(int j=0;j<pairs.length;j++){
+				int eq = pairs[j].indexOf('=');
+				String value = decode(pairs[j].substring(eq+1));
+				if(value!=null){
+					t.put(decode(pairs[j].substring(0,eq)),value);
+				}
+			}
+			return t;
+		}
+
+		/**
+		 * Reads the tags written from a HashCollection, starting
+		 * at one of the arguments
+		 */
+		HashCollection<String,Hashtable<String,String>> tags(int from){
+			HashCollection<String,Hashtable<String,String>> tags =
+					new HashCollection<String,Hashtable<String,String>>();
+			for(int i=from;i+1<args.length;i+=2){
+				tags.putEnt(decode(args[i]),table(i+1));
+			}
+			return tags;
+		}
+	}
+
+}
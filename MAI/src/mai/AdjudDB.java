@@ -22,11 +22,21 @@
 
 package mai;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Enumeration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * AdjudDB is the class that handles all the calls to the 
@@ -35,6 +45,25 @@ import java.util.Enumeration;
  * 2) links, with columns: id,fromid,from_name,toid,to_name,element_name
  * 3) one table for each tag in the DTD, where information about each
  * tag in every file that's loaded is stored
+ * 4) when the adjudication is saved as a session, session_info, session_files,
+ * session_visited and session_ids, describing the text, the files, the
+ * visited locations and the ID counters (see AdjudSession)
+ * <p>
+ * AdjudDB can be used from more than one thread.  All changes to the 
+ * database go through a single connection and are serialized by the 
+ * write lock; queries use one of a small pool of read connections, so 
+ * the colors, the tables and anything running in the background can 
+ * look things up at the same time.  If the SQLite library supports 
+ * WAL journaling the readers run alongside the writer, otherwise they 
+ * share the read lock and wait for the writer to finish.  Methods 
+ * that return information about a query (such as the links being 
+ * displayed) take the objects to fill in as arguments instead of 
+ * keeping them here.
+ * <p>
+ * Every call that reads or writes the database is timed, and the rows
+ * it reads, returns and writes are counted, in the QueryMetrics.
+ * The lookups of single tags are answered from a TagCache when they
+ * can be, and the cache is told about every tag added or removed.
  * 
  * @author Amber Stubbs
  *
@@ -42,57 +71,252 @@ import java.util.Enumeration;
 
 class AdjudDB {
 
+	private static final int READ_CONNECTIONS = 3;
+
 	private PreparedStatement extent_insert;
 	private PreparedStatement link_insert;
 	private PreparedStatement overlap_insert;
 	private Connection conn;    
+	private String path;
 	private Hashtable<String,PreparedStatement> insertSents;
-	private ArrayList<String> currentLinks; //used to keep track of what links are being displayed
-	private HashCollection<String,String>currentHighlights; //used to keep track of highlights
+	private SpanSet changedSpans; //parts of the text touched by extent inserts and deletes
+	private final Object spanLock = new Object();
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private ArrayBlockingQueue<Connection> readers;
+	private ThreadLocal<ReadLease> leases = new ThreadLocal<ReadLease>();
+	private boolean wal;
+	private volatile boolean closed;
+	private QueryMetrics metrics;
+	private TagCache cache;
 
 	/**
-	 * Creates all the tables, HashTables, PreparedStatements, and the connection
-	 * to the database.
+	 * Creates all the tables, HashTables, PreparedStatements, and the connections
+	 * to the database.  The database is kept in adjud.db in the working
+	 * directory unless the mai.db system property names another file.
 	 */
 	AdjudDB(){
-		try{
-			currentLinks = new ArrayList<String>();
-			currentHighlights = new HashCollection<String,String>();
-			insertSents = new Hashtable<String,PreparedStatement>();
+		this(System.getProperty("mai.db","adjud.db"),true);
+	}
 
+	/**
+	 * Opens the database in the named file.  If reset is true all the 
+	 * tables are dropped and created again; otherwise the file is expected
+	 * to hold a saved session and its tables are used as they are
+	 * (openDTD has to be called before tags are added).
+	 * 
+	 * @param path the name of the SQLite file
+	 * @param reset whether to start with empty tables
+	 */
+	AdjudDB(String path, boolean reset){
+		this.path = path;
+		changedSpans = new SpanSet();
+		insertSents = new Hashtable<String,PreparedStatement>();
+		readers = new ArrayBlockingQueue<Connection>(READ_CONNECTIONS);
+		metrics = QueryMetrics.getDefault();
+		cache = new TagCache(metrics);
+		try{
 			Class.forName("org.sqlite.JDBC");
-			conn = DriverManager.getConnection("jdbc:sqlite:adjud.db");
+			conn = metrics.watch(DriverManager.getConnection("jdbc:sqlite:"+path));
 			Statement stat = conn.createStatement();
-			stat.executeUpdate("drop table if exists extents;");
-			stat.executeUpdate("create table extents (file_name, location int(5), element_name, id);");
-			stat.executeUpdate("drop table if exists links;");
-			stat.executeUpdate("create table links (file_name, id,fromid,from_name,toid,to_name,element_name);");
-			stat.executeUpdate("drop table if exists extent_overlaps");
-			stat.executeUpdate("create table extent_overlaps (gsid, element_name, file_name, fileid);");
+			//older versions of SQLite ignore this and stay in the rollback journal
+			ResultSet rs = stat.executeQuery("pragma journal_mode=wal;");
+			wal = rs.next() && "wal".equalsIgnoreCase(rs.getString(1));
+			rs.close();
+			if(reset){
+				stat.executeUpdate("drop table if exists extents;");
+				stat.executeUpdate("create table extents (file_name, location int(5), element_name, id);");
+				stat.executeUpdate("drop table if exists links;");
+				stat.executeUpdate("create table links (file_name, id,fromid,from_name,toid,to_name,element_name);");
+				stat.executeUpdate("drop table if exists extent_overlaps");
+				stat.executeUpdate("create table extent_overlaps (gsid, element_name, file_name, fileid);");
+				stat.executeUpdate("drop table if exists session_info;");
+				stat.executeUpdate("drop table if exists session_files;");
+				stat.executeUpdate("drop table if exists session_visited;");
+				stat.executeUpdate("drop table if exists session_ids;");
+			}
+			stat.close();
 
 			extent_insert = conn.prepareStatement("insert into extents values (?, ?, ?, ?);");
 			link_insert = conn.prepareStatement("insert into links values (?, ?, ?, ?, ?, ?, ?);");
 			overlap_insert = conn.prepareStatement("insert into extent_overlaps values (?, ?, ?, ?);");
+
+			for(int i=0;i<READ_CONNECTIONS;i++){
+				readers.add(metrics.watch(DriverManager.getConnection("jdbc:sqlite:"+path)));
+			}
 		}catch(Exception e){
 			System.out.println(e.toString());
+			//nothing can be read from a database that didn't open
+			closed = true;
 		}
 	}
 
+	/**
+	 * Checks that the database was opened and hasn't been closed
+	 * 
+	 * @return true if the database can be used
+	 */
+	boolean isOpen(){
+		return !closed;
+	}
+
+	/**
+	 * Holds the write lock until endWrite is called, so that a series of
+	 * calls (such as adding a tag to the extent table and then to its 
+	 * own table) is finished before anyone else can read or write.
+	 * Calls to beginWrite and endWrite must be paired.
+	 */
+	void beginWrite(){
+		lock.writeLock().lock();
+	}
+
+	/**
+	 * Releases the write lock taken by beginWrite
+	 */
+	void endWrite(){
+		lock.writeLock().unlock();
+	}
 
+	/**
+	 * Gets a connection for running a query.  A thread that is in the
+	 * middle of writing gets the write connection so it can see its own 
+	 * changes, and a thread that is already reading keeps the connection 
+	 * it has.  Every call must be followed by a call to closeRead.  The
+	 * time until closeRead is recorded in the QueryMetrics.
+	 * 
+	 * @param shape the name of the query, for the QueryMetrics
+	 * @return the connection to query
+	 * @throws Exception if the database has been closed
+	 */
+	private Connection openRead(String shape) throws Exception{
+		metrics.begin(shape);
+		if(lock.isWriteLockedByCurrentThread()){
+			return conn;
+		}
+		ReadLease lease = leases.get();
+		if(lease!=null){
+			lease.depth++;
+			return lease.conn;
+		}
+		if(!wal){
+			lock.readLock().lock();
+		}
+		try{
+			Connection rc = null;
+			while(rc==null){
+				if(closed){
+					throw new SQLException("database is closed");
+				}
+				rc = readers.poll(100,TimeUnit.MILLISECONDS);
+			}
+			leases.set(new ReadLease(rc));
+			return rc;
+		}catch(Exception e){
+			if(!wal){
+				lock.readLock().unlock();
+			}
+			metrics.end();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the statement used for a query and gives the connection
+	 * back to the pool.
+	 * 
+	 * @param rc the connection from openRead
+	 * @param stat the statement used for the query, may be null
+	 */
+	private void closeRead(Connection rc, Statement stat){
+		if(stat!=null){
+			try{
+				stat.close();
+			}catch(Exception e){
+				System.out.println(e.toString());
+			}
+		}
+		metrics.end();
+		if(rc==conn){
+			return;
+		}
+		ReadLease lease = leases.get();
+		lease.depth--;
+		if(lease.depth>0){
+			return;
+		}
+		leases.remove();
+		if(closed){
+			try{
+				rc.close();
+			}catch(Exception e){
+				System.out.println(e.toString());
+			}
+		}
+		else{
+			readers.offer(rc);
+		}
+		if(!wal){
+			lock.readLock().unlock();
+		}
+	}
 
 	/**
 	 * Adds a table to the DB for every link in the DTD
 	 * There will be a problem if any of those tags/tables is named
 	 * "extent", "link", or "extent_overlap"
 	 * 
+	 * The tables are all made in one transaction, and a table that's
+	 * already there with the same columns, as it is when a new 
+	 * adjudication is started with the same DTD, is emptied instead 
+	 * of being dropped and created again.
+	 * 
 	 * @param dtd The DTD object that was loaded into MAI
 	 */
 	void addDTD(DTD dtd){
-		ArrayList<Elem> elems = dtd.getElements();
-		for (int i=0;i<elems.size();i++){
+		metrics.begin("addDTD");
+		lock.writeLock().lock();
+		try{
+			ArrayList<Elem> elems = dtd.getElements();
 			try{
-				addTableToDB(elems.get(i));
-			}catch(Exception ex){ System.out.println(ex); }
+				conn.setAutoCommit(false);
+				for (int i=0;i<elems.size();i++){
+					try{
+						addTableToDB(elems.get(i),true);
+					}catch(Exception ex){ System.out.println(ex); }
+				}
+				conn.commit();
+			}catch(Exception ex){ 
+				System.out.println(ex); 
+			}finally{
+				try{
+					conn.setAutoCommit(true);
+				}catch(Exception ex){ System.out.println(ex); }
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	/**
+	 * Creates the PreparedStatements for the tables of a DTD that 
+	 * are already in the database, used when a session is reopened.
+	 * 
+	 * @param dtd The DTD the session was made with
+	 */
+	void openDTD(DTD dtd){
+		metrics.begin("openDTD");
+		lock.writeLock().lock();
+		try{
+			ArrayList<Elem> elems = dtd.getElements();
+			for (int i=0;i<elems.size();i++){
+				try{
+					addTableToDB(elems.get(i),false);
+				}catch(Exception ex){ System.out.println(ex); }
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
 	}
 
@@ -101,28 +325,32 @@ class AdjudDB {
 	 * PreparedStatements go in the insertSents hashtable for use later.
 	 * 
 	 * @param elem the Elem object being turned into a table
+	 * @param create false if the table already exists and only the 
+	 * PreparedStatement is needed
 	 * @throws Exception
 	 */
-	private void addTableToDB(Elem elem) throws Exception{
+	private void addTableToDB(Elem elem, boolean create) throws Exception{
 
 		String name = elem.getName();
-		Statement stat = conn.createStatement();
-		stat.executeUpdate("drop table if exists "+name+";");
-		ArrayList<Attrib> atts = elem.getAttributes();
-		String statement = ("create table "+name+" (file_name, ");
-		String prep_insert = ("insert into "+name+" values (?, ");
-		for(int i=0;i<atts.size();i++){
-			if(i==atts.size()-1){
-				statement = statement + atts.get(i).getName() +");";
-				prep_insert = prep_insert + "?);";
+		if(create){
+			Statement stat = conn.createStatement();
+			PreparedStatement existing = conn.prepareStatement(
+					"select sql from sqlite_master where type = 'table' and name = ?;");
+			existing.setString(1,name);
+			ResultSet rs = existing.executeQuery();
+			boolean same = rs.next() && elem.getTableSQL().equals(rs.getString(1));
+			rs.close();
+			existing.close();
+			if(same){
+				stat.executeUpdate("delete from "+name+";");
 			}
 			else{
-				statement = statement + atts.get(i).getName() +", ";
-				prep_insert = prep_insert + "?, ";
+				stat.executeUpdate("drop table if exists "+name+";");
+				stat.executeUpdate(elem.getTableSQL()+";");
 			}
+			stat.close();
 		}
-		stat.executeUpdate(statement);
-		PreparedStatement st = conn.prepareStatement(prep_insert);
+		PreparedStatement st = conn.prepareStatement(elem.getInsertSQL());
 		insertSents.put(name, st);
 	}
 
@@ -140,9 +368,7 @@ class AdjudDB {
 		for (int i=0;i<elements.size();i++){
 			String name = elements.get(i).getName();
 			PreparedStatement ps = insertSents.get(name);
-			conn.setAutoCommit(false);
-			ps.executeBatch();
-			conn.setAutoCommit(true);
+			commitBatch(ps);
 		}
 	}
 
@@ -155,11 +381,32 @@ class AdjudDB {
 	 * @throws Exception
 	 */
 	void batchElement(Elem e) throws Exception{
-		PreparedStatement ps = insertSents.get(e.getName());
-		conn.setAutoCommit(false);
-		ps.executeBatch();
-		conn.setAutoCommit(true);
+		metrics.begin("batchElement");
+		lock.writeLock().lock();
+		try{
+			commitBatch(insertSents.get(e.getName()));
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
 
+	/**
+	 * Runs a statement's batch in one transaction.  If it fails the
+	 * transaction is rolled back and the batch is cleared, so nothing
+	 * is left half written or waiting to be sent with the next batch.
+	 */
+	private void commitBatch(PreparedStatement ps) throws Exception{
+		conn.setAutoCommit(false);
+		try{
+			ps.executeBatch();
+		}catch(Exception e){
+			clearBatch(ps);
+			conn.rollback();
+			throw e;
+		}finally{
+			conn.setAutoCommit(true);
+		}
 	}
 
 	/**
@@ -172,52 +419,166 @@ class AdjudDB {
 	 */
 	void addTagsFromHash(String fullName, DTD dtd, 
 			HashCollection<String,Hashtable<String,String>> newTags){
-		//for each tag in the DTD, get the ArrayList of Hashtables associated with it
-		ArrayList<Elem> elements = dtd.getElements();
-		for (int i=0;i<elements.size();i++){
-			String name = elements.get(i).getName();
-			Elem elem = dtd.getElem(name);
-			ArrayList<Hashtable<String,String>> tagList = newTags.getList(name);
-			//for each set of tags in the ArrayList, add the tags to the DB
-			//extent tags first
-			if(tagList!=null){
-				if (elem instanceof ElemExtent){
-					for(int j=0;j<tagList.size();j++){
-						//first, add the extent tags with the PreparedStatement for that table
-						Hashtable<String,String> tag = tagList.get(j);
-						usePreparedExtentStatements(fullName,elem,tag);
+		metrics.begin("addTagsFromHash");
+		lock.writeLock().lock();
+		try{
+			//for each tag in the DTD, get the ArrayList of Hashtables associated with it
+			ArrayList<Elem> elements = dtd.getElements();
+			for (int i=0;i<elements.size();i++){
+				String name = elements.get(i).getName();
+				Elem elem = dtd.getElem(name);
+				ArrayList<Hashtable<String,String>> tagList = newTags.getList(name);
+				//for each set of tags in the ArrayList, add the tags to the DB
+				//extent tags first
+				if(tagList!=null){
+					if (elem instanceof ElemExtent){
+						for(int j=0;j<tagList.size();j++){
+							//first, add the extent tags with the PreparedStatement for that table
+							Hashtable<String,String> tag = tagList.get(j);
+							usePreparedExtentStatements(fullName,elem,tag);
+						}
 					}
 				}
 			}
+
+			try{
+				batchExtents();
+				batchAll(dtd);
+			}catch(Exception e){
+				System.out.println(e.toString());
+				System.out.println("error adding extent tags");
+			}
+			for (int i=0;i<elements.size();i++){
+				String name = elements.get(i).getName();
+				Elem elem = dtd.getElem(name);
+				ArrayList<Hashtable<String,String>> tagList = newTags.getList(name);
+				if(tagList!=null){
+					if (elem instanceof ElemLink && tagList != null){
+						for(int j=0;j<tagList.size();j++){
+							//next, add the links tags with the PreparedStatement for that table
+							Hashtable<String,String> tag = tagList.get(j);
+							usePreparedLinkStatements(fullName,elem,tag);
+						}
+					}
+				}
+			}
+			try{
+				batchLinks();
+				batchAll(dtd);
+			}catch(Exception e){
+				System.out.println(e.toString());
+				System.out.println("error adding link tags");
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
+	}
 
+	/**
+	 * Adds the tags from several files to the database in one transaction.
+	 * Either all the files are added or, if something goes wrong, none 
+	 * of them are.
+	 * 
+	 * @param files the tags of each file, keyed by the file's name
+	 * @param dtd the DTD of the task
+	 * @throws Exception
+	 */
+	void addFilesFromHash(LinkedHashMap<String,HashCollection<String,Hashtable<String,String>>> files,
+			DTD dtd) throws Exception{
+		addFilesFromHash(files.entrySet().iterator(),dtd);
+	}
+
+	/**
+	 * Adds the tags from several files to the database in one transaction, 
+	 * a file at a time as the iterator hands them over, so the files can
+	 * still be being read while the first ones are added.  Each file's 
+	 * extents are added before its links.  Either all the files are added
+	 * or, if something goes wrong, none of them are.
+	 * 
+	 * @param files the tags of each file, keyed by the file's name; next()
+	 * may wait until the next file is ready
+	 * @param dtd the DTD of the task
+	 * @return the number of files added
+	 * @throws Exception
+	 */
+	int addFilesFromHash(Iterator<Map.Entry<String,HashCollection<String,Hashtable<String,String>>>> files,
+			DTD dtd) throws Exception{
+		metrics.begin("addFilesFromHash");
+		lock.writeLock().lock();
 		try{
-			batchExtents();
-			batchAll(dtd);
-		}catch(Exception e){
-			System.out.println(e.toString());
-			System.out.println("error adding extent tags");
-		}
-		for (int i=0;i<elements.size();i++){
-			String name = elements.get(i).getName();
-			Elem elem = dtd.getElem(name);
-			ArrayList<Hashtable<String,String>> tagList = newTags.getList(name);
-			if(tagList!=null){
-				if (elem instanceof ElemLink && tagList != null){
-					for(int j=0;j<tagList.size();j++){
-						//next, add the links tags with the PreparedStatement for that table
-						Hashtable<String,String> tag = tagList.get(j);
-						usePreparedLinkStatements(fullName,elem,tag);
+			ArrayList<Elem> elements = dtd.getElements();
+			int count = 0;
+			conn.setAutoCommit(false);
+			try{
+				while(files.hasNext()){
+					Map.Entry<String,HashCollection<String,Hashtable<String,String>>> file = files.next();
+					//the links' extents are almost always in the same file, 
+					//so their types are found without going to the database
+					Hashtable<String,String> types = new Hashtable<String,String>();
+					for(int pass=0;pass<2;pass++){
+						for(int i=0;i<elements.size();i++){
+							Elem elem = elements.get(i);
+							ArrayList<Hashtable<String,String>> tagList = file.getValue().getList(elem.getName());
+							if(tagList==null || (elem instanceof ElemLink)!=(pass==1)){
+								continue;
+							}
+							for(int j=0;j<tagList.size();j++){
+								if(pass==0){
+									usePreparedExtentStatements(file.getKey(),elem,tagList.get(j));
+									String id = tagList.get(j).get("id");
+									if(id!=null){
+										types.put(id,elem.getName());
+									}
+								}
+								else{
+									usePreparedLinkStatements(file.getKey(),elem,tagList.get(j),types);
+								}
+							}
+						}
+						//the links look up the types of their extents, so the 
+						//extents have to be in before they're added
+						if(pass==0){
+							extent_insert.executeBatch();
+						}
+						else{
+							link_insert.executeBatch();
+						}
 					}
+					for(int i=0;i<elements.size();i++){
+						insertSents.get(elements.get(i).getName()).executeBatch();
+					}
+					count++;
+				}
+				conn.commit();
+			}catch(Exception e){
+				conn.rollback();
+				//otherwise the rows of the file that failed would be
+				//added by the next batch
+				clearBatch(extent_insert);
+				clearBatch(link_insert);
+				for(int i=0;i<elements.size();i++){
+					clearBatch(insertSents.get(elements.get(i).getName()));
 				}
+				throw e;
+			}finally{
+				conn.setAutoCommit(true);
 			}
+			return count;
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	private static void clearBatch(PreparedStatement ps){
+		if(ps==null){
+			return;
 		}
 		try{
-			batchLinks();
-			batchAll(dtd);
+			ps.clearBatch();
 		}catch(Exception e){
 			System.out.println(e.toString());
-			System.out.println("error adding link tags");
 		}
 	}
 
@@ -231,54 +592,65 @@ class AdjudDB {
 	 */
 	void usePreparedExtentStatements(String fullName, Elem elem,
 			Hashtable<String,String> tag){
-		//get PreparedStatement from Hashtable
-		PreparedStatement ps = insertSents.get(elem.getName());
-		ArrayList<Attrib> atts = elem.getAttributes();
-		try{ ps.setString(1,fullName);}
-		catch(Exception e){
-			System.out.println(e.toString());
-			System.out.println("error adding name");
-		}
-		//add the tag information to the preparedStatement
-		for(int i=0;i<atts.size();i++){
-			try{
-				ps.setString(i+2,tag.get(atts.get(i).getName()));
-			}catch(Exception e){
+		metrics.begin("usePreparedExtentStatements");
+		lock.writeLock().lock();
+		try{
+			cache.invalidate(fullName,elem.getName(),tag.get("id"));
+			//get PreparedStatement from Hashtable
+			PreparedStatement ps = insertSents.get(elem.getName());
+			ArrayList<Attrib> atts = elem.getAttributes();
+			try{ ps.setString(1,fullName);}
+			catch(Exception e){
 				System.out.println(e.toString());
-				System.out.println("error setting String for "+tag.get(atts.get(i).getName()));
+				System.out.println("error adding name");
 			}
-		}
-		try{
-			//add the set strings to the preparedstatement's batch
-			ps.addBatch();
-		}catch(Exception e){
-			System.out.println(e.toString());
-			System.out.println("error adding extent batch");
-		}
-		//now, add the tag information to the extent table
-		String startString = tag.get("start");
-		String endString = tag.get("end");
-		int start = Integer.valueOf(startString);
-		int end = Integer.valueOf(endString);
-		//if the tag is associated with a span in the text, use this
-		if(start>-1){
-			for(int i=start;i<end;i++){
+			//add the tag information to the preparedStatement
+			for(int i=0;i<atts.size();i++){
 				try{
-					add_extent(fullName,i,elem.getName(),tag.get("id"));
+					ps.setString(i+2,tag.get(atts.get(i).getName()));
 				}catch(Exception e){
 					System.out.println(e.toString());
-					System.out.println("error adding extent");
+					System.out.println("error setting String for "+tag.get(atts.get(i).getName()));
 				}
 			}
-		}
-		//otherwise (if it's a non-consuming tag), use this
-		else{
 			try{
-				add_extent(fullName,-1,elem.getName(),tag.get("id"));
+				//add the set strings to the preparedstatement's batch
+				ps.addBatch();
 			}catch(Exception e){
 				System.out.println(e.toString());
-				System.out.println("error adding -1 extent");
+				System.out.println("error adding extent batch");
 			}
+			//now, add the tag information to the extent table
+			String startString = tag.get("start");
+			String endString = tag.get("end");
+			int start = Integer.valueOf(startString);
+			int end = Integer.valueOf(endString);
+			//if the tag is associated with a span in the text, use this
+			if(start>-1){
+				synchronized(spanLock){
+					changedSpans.add(start,end);
+				}
+				for(int i=start;i<end;i++){
+					try{
+						add_extent(fullName,i,elem.getName(),tag.get("id"));
+					}catch(Exception e){
+						System.out.println(e.toString());
+						System.out.println("error adding extent");
+					}
+				}
+			}
+			//otherwise (if it's a non-consuming tag), use this
+			else{
+				try{
+					add_extent(fullName,-1,elem.getName(),tag.get("id"));
+				}catch(Exception e){
+					System.out.println(e.toString());
+					System.out.println("error adding -1 extent");
+				}
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
 	}
 
@@ -292,45 +664,70 @@ class AdjudDB {
 	 */
 	void usePreparedLinkStatements(String fullName, Elem elem,
 			Hashtable<String,String> tag){
-		//get PreparedStatement from Hashtable
+		usePreparedLinkStatements(fullName,elem,tag,null);
+	}
+
+	/**
+	 * Adds a link, with the types of the extents it might link already 
+	 * known so they don't have to be looked up in the database
+	 * 
+	 * @param types the element names of extents keyed by their IDs, 
+	 * or null to look them all up
+	 */
+	private void usePreparedLinkStatements(String fullName, Elem elem,
+			Hashtable<String,String> tag, Hashtable<String,String> types){
+		metrics.begin("usePreparedLinkStatements");
+		lock.writeLock().lock();
 		try{
-			PreparedStatement ps = insertSents.get(elem.getName());
-			ArrayList<Attrib> atts = elem.getAttributes();
-			ps.setString(1,fullName);
-			for(int i=0;i<atts.size();i++){
-				String test = tag.get(atts.get(i).getName());
-				if (test!=null){
-					ps.setString(i+2,test);
+			cache.invalidate(fullName,elem.getName(),tag.get("id"));
+			//get PreparedStatement from Hashtable
+			try{
+				PreparedStatement ps = insertSents.get(elem.getName());
+				ArrayList<Attrib> atts = elem.getAttributes();
+				ps.setString(1,fullName);
+				for(int i=0;i<atts.size();i++){
+					String test = tag.get(atts.get(i).getName());
+					if (test!=null){
+						ps.setString(i+2,test);
+					}
+					else{
+						ps.setString(i+2,"");
+					}
 				}
-				else{
-					ps.setString(i+2,"");
+				try{
+					ps.addBatch();
+				}catch(Exception e){
+					System.out.println(e.toString());
+					System.out.println("error adding link batch");
+				}
+				//add the tag information to the link table
+				String from_id = tag.get("fromID");
+				String to_id = tag.get("toID");
+				String from_type = types==null ? null : types.get(from_id);
+				String to_type = types==null ? null : types.get(to_id);
+				if(from_type==null){
+					from_type = getElementByFileAndID(fullName,from_id);
+				}
+				if(to_type==null){
+					to_type = getElementByFileAndID(fullName,to_id);
+				}
+				try{
+					add_link(fullName,tag.get("id"),elem.getName(),
+							from_id, from_type,to_id,to_type);
+				}catch(Exception e){
+					System.out.println(e.toString());
+					System.out.println("error adding link to link table");
 				}
 			}
-			try{
-				ps.addBatch();
-			}catch(Exception e){
-				System.out.println(e.toString());
-				System.out.println("error adding link batch");
-			}
-			//add the tag information to the link table
-			String from_id = tag.get("fromID");
-			String to_id = tag.get("toID");
-			String from_type = getElementByFileAndID(fullName,from_id);
-			String to_type = getElementByFileAndID(fullName,to_id);
-			try{
-				add_link(fullName,tag.get("id"),elem.getName(),
-						from_id, from_type,to_id,to_type);
-			}catch(Exception e){
+			catch(Exception e){
 				System.out.println(e.toString());
-				System.out.println("error adding link to link table");
+				System.out.println("error adding link: "+
+						"filename = "+fullName+ "\ntag id = "+tag.get("id"));
 			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
-		catch(Exception e){
-			System.out.println(e.toString());
-			System.out.println("error adding link: "+
-					"filename = "+fullName+ "\ntag id = "+tag.get("id"));
-		}
-
 	}
 
 	//returns all the tag information based on file name and id
@@ -351,20 +748,35 @@ class AdjudDB {
 	 */
 	Hashtable<String,String>getTagsByFileAndID(String tagname,
 			String id, String filename,ArrayList<Attrib> atts) throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select * from "+ tagname + " where id = '" +
-				id + "' and file_name = '"+ filename+"';");
-		ResultSet rs = stat.executeQuery(query);
-		Hashtable<String,String> ht = new Hashtable<String,String>();
-		while(rs.next()){
-			//for each attribute in the list, get the value and put both in the
-			//hashtable ht
-			for(int i=0;i<atts.size();i++){
-				ht.put(atts.get(i).getName(),rs.getString(atts.get(i).getName()));
+		Hashtable<String,String> cached = cache.getTags(filename,tagname,id);
+		if(cached!=null){
+			return cached;
+		}
+		long gen = cache.generation();
+		Connection rc = openRead("getTagsByFileAndID");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select * from "+ tagname + " where id = '" +
+					id + "' and file_name = '"+ filename+"';");
+			ResultSet rs = stat.executeQuery(query);
+			Hashtable<String,String> ht = new Hashtable<String,String>();
+			while(rs.next()){
+				//for each attribute in the list, get the value and put both in the
+				//hashtable ht
+				for(int i=0;i<atts.size();i++){
+					ht.put(atts.get(i).getName(),rs.getString(atts.get(i).getName()));
+				}
+			}
+			rs.close();
+			metrics.returned(ht.size());
+			if(ht.size()>0){
+				cache.putTags(gen,filename,tagname,id,ht);
 			}
+			return ht;
+		}finally{
+			closeRead(rc,stat);
 		}
-		rs.close();
-		return ht;
 	}
 
 	/**
@@ -379,105 +791,165 @@ class AdjudDB {
 	 */
 	ArrayList<String>getFilesAtLocbyElement(String elem, int loc)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select * from extents where location = " +
-				loc + " and element_name ='" + elem +"';");
-		ResultSet rs = stat.executeQuery(query);
-		ArrayList<String> files = new ArrayList<String>();
-		while(rs.next()){
-			files.add(rs.getString("file_name"));
+		Connection rc = openRead("getFilesAtLocbyElement");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select * from extents where location = " +
+					loc + " and element_name ='" + elem +"';");
+			ResultSet rs = stat.executeQuery(query);
+			ArrayList<String> files = new ArrayList<String>();
+			while(rs.next()){
+				files.add(rs.getString("file_name"));
+			}
+			rs.close();
+			metrics.returned(files.size());
+			return files;
+		}finally{
+			closeRead(rc,stat);
 		}
-		rs.close();
-		return files;
 	}
 
 	/**
-	 * Returns an ArrayList of extent tags that exist in a particular file
-	 * and are of the type specified by the Elem object.
-	 * ArrayList contains the tags in String form that are used for writing out
-	 * the XML files.
+	 * Returns a HashCollection of locations (as keys) and the file names that have 
+	 * a particular type of tag at each location, for the locations 
+	 * between begin (inclusive) and end (exclusive).  Used to update
+	 * the colors of a part of the text after a tag is added or removed.
 	 * 
-	 * @param file the name of the file the tag is in
-	 * @param elem Elem object defining the type of tag being searched for
-	 * @returnArrayList of extent tags that exist in a particular file
-	 * and are of the type specified by the Elem object.
+	 * @param tagname the type of tag being searched for
+	 * @param begin the first location being searched
+	 * @param end the location after the last one being searched
+	 * @return HashCollection with locations as keys and file names as values
 	 * 
 	 * @throws Exception
 	 */
-	ArrayList<String> getExtentTagsByFileAndType(String file, Elem elem)
+	HashCollection<String,String>getExtentLocsInSpan(String tagname, int begin, int end)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select * from "+elem.getName()+ " where file_name = '" +
-				file + "' order by start;");
-		ResultSet rs = stat.executeQuery(query);
-		ArrayList<String> tags = makeTagStringsForOutput(rs, elem);
-		rs.close();
-		return tags;
+		Connection rc = openRead("getExtentLocsInSpan");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			HashCollection<String,String>elems = new HashCollection<String,String>();
+			String query = ("select distinct location, file_name from extents where " +
+					"element_name = '" + tagname + "' and location >= " + begin +
+					" and location < " + end + ";");
+			ResultSet rs = stat.executeQuery(query);
+			while(rs.next()){
+				elems.putEnt(rs.getString("location"),rs.getString("file_name"));
+			}
+			rs.close();
+			metrics.returned(elems.size());
+			return elems;
+		}finally{
+			closeRead(rc,stat);
+		}
 	}
 
 	/**
-	 * Returns an ArrayList of link tags that exist in a particular file
-	 * and are of the type specified by the Elem object.
-	 * ArrayList contains the tags in String form that are used for writing out
-	 * the XML files.
-	 * 
-	 * @param file the name of the file the tag is in
-	 * @param elem Elem object defining the type of tag being searched for
-	 * @returnArrayList of extent tags that exist in a particular file
-	 * and are of the type specified by the Elem object.
+	 * Returns the spans of text where extent tags have been added or 
+	 * removed since the last time this method was called, and starts
+	 * keeping track of a new set.
 	 * 
-	 * @throws Exception
+	 * @return the SpanSet of changed text
 	 */
-	ArrayList<String> getLinkTagsByFileAndType(String file, Elem elem)
-			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select * from "+elem.getName()+ " where file_name = '" +
-				file + "' order by id;");
-		ResultSet rs = stat.executeQuery(query);
-		ArrayList<String> tags = makeTagStringsForOutput(rs, elem);
-		rs.close();
-		return tags;
+	SpanSet takeChangedSpans(){
+		synchronized(spanLock){
+			SpanSet spans = changedSpans;
+			changedSpans = new SpanSet();
+			return spans;
+		}
 	}
 
 	/**
-	 * Creates strings containing the tag information being searched for
+	 * Writes the tags of one type in a file out as XML, one row at a
+	 * time as they're read from the database.  Extents are written in 
+	 * the order they appear in the text, and links in order of their IDs.
 	 * 
+	 * @param file the name of the file the tags are in
+	 * @param elem Elem object defining the type of tag being written
+	 * @param out the writer for the XML file
+	 * @return the number of tags written
 	 * 
-	 * @param rs the ResultSet of a different method (getLinkTagsByFileAndType or
-	 * (getExtentTagsByFileAndType)
-	 * 
-	 * @param elem the Elem object describing the tags being retrieved
-	 * 
-	 * @return an ArrayList of Strings containing the tag information
+	 * @throws Exception
 	 */
-	private ArrayList<String>makeTagStringsForOutput(ResultSet rs, Elem elem){
-		ArrayList<String> tags = new ArrayList<String>();
-		ArrayList<Attrib> atts= elem.getAttributes();
+	int writeTagsByFileAndType(String file, Elem elem, GoldStandardWriter out)
+			throws Exception{
+		Connection rc = openRead("writeTagsByFileAndType");
+		PreparedStatement ps = null;
 		try{
-			while(rs.next()){
-				String tag = ("<"+elem.getName()+ " ");
-				for(int i=0;i<atts.size();i++){
-					String attName = atts.get(i).getName();
-					String attText = rs.getString(attName);
-					//need to get rid of all the information that's
-					//not valid in XML
-					attText=attText.replace("\n"," ");
-					attText=attText.replace("<","&lt;");
-					attText=attText.replace(">","&gt;");
-					attText=attText.replace("&","&amp;");
-					attText=attText.replace("\"","'");
-					tag = tag+attName+"=\""+attText+"\" ";
+			ArrayList<Attrib> atts = elem.getAttributes();
+			String[] names = new String[atts.size()];
+			StringBuilder query = new StringBuilder("select ");
+			for(int i=0;i<names.length;i++){
+				names[i] = atts.get(i).getName();
+				query.append(i==0 ? "" : ", ").append(names[i]);
+			}
+			query.append(" from ").append(elem.getName()).append(" where file_name = ? order by ")
+				.append(elem instanceof ElemExtent ? "start" : "id").append(";");
+			ps = rc.prepareStatement(query.toString());
+			ps.setString(1,file);
+			ResultSet rs = ps.executeQuery();
+			int count = 0;
+			try{
+				while(rs.next()){
+					out.startTag(elem.getName());
+					for(int i=0;i<names.length;i++){
+						out.attribute(names[i],rs.getString(i+1));
+					}
+					out.endTag();
+					count++;
 				}
-				tag = tag + "/>\n";
-				tags.add(tag);
+			}finally{
+				rs.close();
 			}
-			rs.close();
-		}catch(Exception e){
-			System.out.println(e);
+			metrics.returned(count);
+			return count;
+		}finally{
+			closeRead(rc,ps);
 		}
-		return tags;
 	}
 	
+	/**
+	 * Reads every row of the element tables into a session snapshot,
+	 * the extents first so the links can refer to them
+	 * 
+	 * @param dtd the DTD the tables were made from
+	 * @param b the snapshot being built
+	 * @throws Exception
+	 */
+	void readAllTags(DTD dtd, SessionSnapshot.Builder b) throws Exception{
+		Connection rc = openRead("readAllTags");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			ArrayList<Elem> elems = dtd.getElements();
+			int count = 0;
+			for(int pass=0;pass<2;pass++){
+				for(int i=0;i<elems.size();i++){
+					if((elems.get(i) instanceof ElemLink)!=(pass==1)){
+						continue;
+					}
+					String[] values = new String[elems.get(i).getAttributes().size()];
+					ResultSet rs = stat.executeQuery("select * from "+elems.get(i).getName()+";");
+					try{
+						while(rs.next()){
+							for(int j=0;j<values.length;j++){
+								values[j] = rs.getString(j+2);
+							}
+							b.add(i,rs.getString(1),values);
+							count++;
+						}
+					}finally{
+						rs.close();
+					}
+				}
+			}
+			metrics.returned(count);
+		}finally{
+			closeRead(rc,stat);
+		}
+	}
+
 	/**
 	 * Retrieves a Hashtable of all the locations in a file where tags exist.
 	 * Used when assigning colors to the text when a link is selected
@@ -488,17 +960,56 @@ class AdjudDB {
 	 */
 	Hashtable<String,String>getAllExtentsByFile(String filename) 
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select location from extents where file_name = '"+ filename+"';");
-		ResultSet rs = stat.executeQuery(query);
-		Hashtable<String,String> allLocs = new Hashtable<String,String>();
-		while(rs.next()){
-			allLocs.put(rs.getString("location"),"");
+		Connection rc = openRead("getAllExtentsByFile");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select location from extents where file_name = '"+ filename+"';");
+			ResultSet rs = stat.executeQuery(query);
+			Hashtable<String,String> allLocs = new Hashtable<String,String>();
+			while(rs.next()){
+				allLocs.put(rs.getString("location"),"");
+			}
+			rs.close();
+			metrics.returned(allLocs.size());
+			return allLocs;
+		}finally{
+			closeRead(rc,stat);
 		}
-		rs.close();
-		return allLocs;
 	}
 	
+	/**
+	 * Retrieves a Hashtable of the locations between begin and end in a 
+	 * file where tags exist.  Used to keep the colors shown while a link
+	 * is selected up to date when extents are added or removed.
+	 * 
+	 * @param filename the name of the file the tags are coming from
+	 * @param begin the first location
+	 * @param end the location after the last one
+	 * @return Hashtable with the locations of tags as keys
+	 * @throws Exception
+	 */
+	Hashtable<String,String>getExtentsByFileInSpan(String filename, int begin, int end) 
+			throws Exception{
+		Connection rc = openRead("getExtentsByFileInSpan");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select location from extents where file_name = '"+ filename+
+					"' and location >= "+begin+" and location < "+end+";");
+			ResultSet rs = stat.executeQuery(query);
+			Hashtable<String,String> locs = new Hashtable<String,String>();
+			while(rs.next()){
+				locs.put(rs.getString("location"),"");
+			}
+			rs.close();
+			metrics.returned(locs.size());
+			return locs;
+		}finally{
+			closeRead(rc,stat);
+		}
+	}
+
 	/**
 	 * Returns a HashCollection of locations (as keys) and the file names that have 
 	 * a particular type of tag at each location.
@@ -509,16 +1020,23 @@ class AdjudDB {
 	 */
 	HashCollection<String,String>getExtentAllLocs(String tagname)
 			throws Exception{
-		HashCollection<String,String>elems = new HashCollection<String,String>();
-		Statement stat = conn.createStatement();
-		String query = ("select location, file_name from extents where " +
-				"element_name = '" + tagname + "';");
-		ResultSet rs = stat.executeQuery(query);
-		while(rs.next()){
-			elems.putEnt(rs.getString("location"),rs.getString("file_name"));
+		Connection rc = openRead("getExtentAllLocs");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			HashCollection<String,String>elems = new HashCollection<String,String>();
+			String query = ("select location, file_name from extents where " +
+					"element_name = '" + tagname + "';");
+			ResultSet rs = stat.executeQuery(query);
+			while(rs.next()){
+				elems.putEnt(rs.getString("location"),rs.getString("file_name"));
+			}
+			rs.close();
+			metrics.returned(elems.size());
+			return elems;
+		}finally{
+			closeRead(rc,stat);
 		}
-		rs.close();
-		return elems;
 	}
 
 	/**
@@ -533,13 +1051,20 @@ class AdjudDB {
 	 */
 	String getElementByFileAndID(String file,String id)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select * from extents where id = '" 
-				+ id + "'" + " and file_name =  '" + file + "';");
-		ResultSet rs = stat.executeQuery(query);
-		String elemName =  rs.getString("element_name");
-		rs.close();
-		return elemName;
+		Connection rc = openRead("getElementByFileAndID");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select * from extents where id = '" 
+					+ id + "'" + " and file_name =  '" + file + "';");
+			ResultSet rs = stat.executeQuery(query);
+			String elemName =  rs.getString("element_name");
+			rs.close();
+			metrics.returned(1);
+			return elemName;
+		}finally{
+			closeRead(rc,stat);
+		}
 	}
 
 	/**
@@ -554,11 +1079,16 @@ class AdjudDB {
 	 */
 	void add_extent(String file_name, int location, String element_name, String id)
 			throws Exception{
-		extent_insert.setString(1, file_name);
-		extent_insert.setInt(2, location);
-		extent_insert.setString(3, element_name);
-		extent_insert.setString(4, id);
-		extent_insert.addBatch();
+		lock.writeLock().lock();
+		try{
+			extent_insert.setString(1, file_name);
+			extent_insert.setInt(2, location);
+			extent_insert.setString(3, element_name);
+			extent_insert.setString(4, id);
+			extent_insert.addBatch();
+		}finally{
+			lock.writeLock().unlock();
+		}
 	}
 
 	/**
@@ -568,9 +1098,14 @@ class AdjudDB {
 	 * @throws Exception
 	 */
 	void batchExtents() throws Exception{
-		conn.setAutoCommit(false);
-		extent_insert.executeBatch();
-		conn.setAutoCommit(true);
+		metrics.begin("batchExtents");
+		lock.writeLock().lock();
+		try{
+			commitBatch(extent_insert);
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
 	}
 
 	/**
@@ -585,14 +1120,19 @@ class AdjudDB {
 	 */
 	void insert_extent(String file_name, int location, String element, String id)
 			throws Exception{
-		extent_insert.setString(1, file_name);
-		extent_insert.setInt(2, location);
-		extent_insert.setString(3, element);
-		extent_insert.setString(4, id);
-		extent_insert.addBatch();
-		conn.setAutoCommit(false);
-		extent_insert.executeBatch();
-		conn.setAutoCommit(true);
+		metrics.begin("insert_extent");
+		lock.writeLock().lock();
+		try{
+			extent_insert.setString(1, file_name);
+			extent_insert.setInt(2, location);
+			extent_insert.setString(3, element);
+			extent_insert.setString(4, id);
+			extent_insert.addBatch();
+			commitBatch(extent_insert);
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
 	}
 
 	/**
@@ -602,106 +1142,635 @@ class AdjudDB {
 	 * @throws Exception
 	 */
 	void batchLinks() throws Exception{
-		conn.setAutoCommit(false);
-		link_insert.executeBatch();
-		conn.setAutoCommit(true);
+		metrics.begin("batchLinks");
+		lock.writeLock().lock();
+		try{
+			commitBatch(link_insert);
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	/**
+	 * Used to add a single tag's worth of information to the preparedStatement
+	 * for the link table.  Does not add to the database.
+	 * 
+	 * @param file_name name of the file the added tag is from
+	 * @param newID ID of the tag being added
+	 * @param linkName type of the tag being added
+	 * @param linkFrom the id of the 'from' anchor for the link
+	 * @param from_name the type of the 'from' anchor for the link
+	 * @param linkTo the id of the 'to' anchor for the link
+	 * @param to_name the type of the 'to' anchor for the link
+	 * @throws Exception
+	 */
+	void add_link(String file_name, String newID, String linkName, String linkFrom, 
+			String from_name, String linkTo, String to_name) throws Exception{
+		lock.writeLock().lock();
+		try{
+			link_insert.setString(1, file_name);
+			link_insert.setString(2, newID);
+			link_insert.setString(3, linkFrom);
+			link_insert.setString(4, from_name);
+			link_insert.setString(5, linkTo);
+			link_insert.setString(6, to_name);
+			link_insert.setString(7, linkName);
+			link_insert.addBatch();
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Used to add a single tag's worth of information to the preparedStatement
+	 * for the link table and to the database.
+	 * 
+	 * @param file_name name of the file the added tag is from
+	 * @param newID ID of the tag being added
+	 * @param linkName type of the tag being added
+	 * @param linkFrom the id of the 'from' anchor for the link
+	 * @param from_name the type of the 'from' anchor for the link
+	 * @param linkTo the id of the 'to' anchor for the link
+	 * @param to_name the type of the 'to' anchor for the link
+	 * @throws Exception
+	 */
+	void insert_link(String file_name, String newID, String linkName, String linkFrom, 
+			String from_name, String linkTo, String to_name) throws Exception{
+		metrics.begin("insert_link");
+		lock.writeLock().lock();
+		try{
+			link_insert.setString(1, file_name);
+			link_insert.setString(2, newID);
+			link_insert.setString(3, linkFrom);
+			link_insert.setString(4, from_name);
+			link_insert.setString(5, linkTo);
+			link_insert.setString(6, to_name);
+			link_insert.setString(7, linkName);
+			link_insert.addBatch();
+			commitBatch(link_insert);
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	/**
+	 * Closes the connections to the DB.  Waits for anything being
+	 * written to finish; read connections that are in use are
+	 * closed when they're given back.
+	 */
+	void close_db(){
+		lock.writeLock().lock();
+		try{
+			closed = true;
+			conn.close();
+			Connection rc;
+			while((rc = readers.poll())!=null){
+				rc.close();
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the name of the file the database is kept in
+	 * 
+	 * @return the path of the SQLite file
+	 */
+	String getPath(){
+		return path;
+	}
+
+	/**
+	 * Writes the information needed to reopen the adjudication into
+	 * the session tables, replacing anything that was there.
+	 * 
+	 * @param session the text, files and visited locations being saved
+	 * @param fingerprint the fingerprint of the DTD
+	 * @param ids the ID allocator for the gold standard
+	 * 
+	 * @throws Exception
+	 */
+	void saveSession(AdjudSession session, String fingerprint, 
+			IdAllocator ids) throws Exception{
+		metrics.begin("saveSession");
+		lock.writeLock().lock();
+		try{
+			Statement stat = conn.createStatement();
+			stat.executeUpdate("create table if not exists session_info (name, value);");
+			stat.executeUpdate("create table if not exists session_files " +
+					"(position int, file_name, path, size int, modified int, hash);");
+			stat.executeUpdate("create table if not exists session_visited " +
+					"(element_name, location int);");
+			stat.executeUpdate("create table if not exists session_ids " +
+					"(element_name, prefix, number int);");
+			conn.setAutoCommit(false);
+			try{
+				stat.executeUpdate("delete from session_info;");
+				stat.executeUpdate("delete from session_files;");
+				stat.executeUpdate("delete from session_visited;");
+				stat.executeUpdate("delete from session_ids;");
+				PreparedStatement ps = conn.prepareStatement("insert into session_info values (?, ?);");
+				String[][] info = {{"version",AdjudSession.VERSION},
+						{"dtd_path",session.getDTDFile().getPath()},
+						{"dtd_fingerprint",fingerprint},
+						{"text",session.getText()}};
+				for(int i=0;i<info.length;i++){
+					ps.setString(1,info[i][0]);
+					ps.setString(2,info[i][1]);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+
+				ps = conn.prepareStatement("insert into session_files values (?, ?, ?, ?, ?, ?);");
+				ArrayList<AdjudSession.Entry> entries = session.getEntries();
+				for(int i=0;i<entries.size();i++){
+					AdjudSession.Entry e = entries.get(i);
+					ps.setInt(1,i);
+					ps.setString(2,e.name);
+					ps.setString(3,e.path);
+					ps.setLong(4,e.size);
+					ps.setLong(5,e.modified);
+					ps.setString(6,e.hash);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+
+				ps = conn.prepareStatement("insert into session_visited values (?, ?);");
+				HashCollection<String,Integer> visited = session.getVisitedLocs();
+				ArrayList<String> tags = visited.getKeyList();
+				for(int i=0;i<tags.size();i++){
+					ArrayList<Integer> locs = visited.getList(tags.get(i));
+					for(int j=0;j<locs.size();j++){
+						ps.setString(1,tags.get(i));
+						ps.setInt(2,locs.get(j).intValue());
+						ps.addBatch();
+					}
+				}
+				ps.executeBatch();
+				ps.close();
+
+				ps = conn.prepareStatement("insert into session_ids values (?, ?, ?);");
+				ArrayList<String> elems = ids.getElements();
+				for(int i=0;i<elems.size();i++){
+					ps.setString(1,elems.get(i));
+					ps.setString(2,ids.getPrefix(elems.get(i)));
+					ps.setInt(3,ids.getNumber(elems.get(i)));
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+				conn.commit();
+			}catch(Exception e){
+				conn.rollback();
+				throw e;
+			}finally{
+				conn.setAutoCommit(true);
+				stat.close();
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	/**
+	 * Returns a value from the session_info table
+	 * 
+	 * @param name the name of the value (version, dtd_path, dtd_fingerprint or text)
+	 * @return the value, or null if the database isn't a saved session
+	 * @throws Exception
+	 */
+	String getSessionInfo(String name) throws Exception{
+		Connection rc = openRead("getSessionInfo");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			ResultSet rs = stat.executeQuery("select count(*) from sqlite_master where " +
+					"type = 'table' and name = 'session_info';");
+			int tables = rs.getInt(1);
+			rs.close();
+			if(tables==0){
+				return null;
+			}
+			PreparedStatement ps = rc.prepareStatement("select value from session_info where name = ?;");
+			ps.setString(1,name);
+			rs = ps.executeQuery();
+			String value = null;
+			if(rs.next()){
+				value = rs.getString(1);
+			}
+			rs.close();
+			ps.close();
+			metrics.returned(value==null ? 0 : 1);
+			return value;
+		}finally{
+			closeRead(rc,stat);
+		}
+	}
+
+	/**
+	 * Reads the text, files and visited locations of a saved
+	 * session into the AdjudSession.
+	 * 
+	 * @param session the session being filled in
+	 * @throws Exception
+	 */
+	void loadSession(AdjudSession session) throws Exception{
+		session.setText(getSessionInfo("text"));
+		Connection rc = openRead("loadSession");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			ResultSet rs = stat.executeQuery("select * from session_files order by position;");
+			while(rs.next()){
+				session.addEntry(new AdjudSession.Entry(rs.getString("file_name"),
+						rs.getString("path"),rs.getLong("size"),
+						rs.getLong("modified"),rs.getString("hash")));
+			}
+			rs.close();
+			HashCollection<String,Integer> visited = new HashCollection<String,Integer>();
+			rs = stat.executeQuery("select * from session_visited;");
+			while(rs.next()){
+				visited.putEnt(rs.getString("element_name"),Integer.valueOf(rs.getInt("location")));
+			}
+			rs.close();
+			session.setVisitedLocs(visited);
+		}finally{
+			closeRead(rc,stat);
+		}
+	}
+
+	/**
+	 * Returns the ID counters saved with the session
+	 * 
+	 * @return Hashtable of element names and the next number for their IDs
+	 * @throws Exception
+	 */
+	Hashtable<String,Integer> getSessionIDs() throws Exception{
+		Connection rc = openRead("getSessionIDs");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			ResultSet rs = stat.executeQuery("select * from session_ids;");
+			Hashtable<String,Integer> ids = new Hashtable<String,Integer>();
+			while(rs.next()){
+				ids.put(rs.getString("element_name"),Integer.valueOf(rs.getInt("number")));
+			}
+			rs.close();
+			metrics.returned(ids.size());
+			return ids;
+		}finally{
+			closeRead(rc,stat);
+		}
+	}
+
+	/**
+	 * Records the new state of a file that was imported again
+	 * 
+	 * @param e the file's entry
+	 * @throws Exception
+	 */
+	void updateSessionEntry(AdjudSession.Entry e) throws Exception{
+		metrics.begin("updateSessionEntry");
+		lock.writeLock().lock();
+		try{
+			PreparedStatement ps = conn.prepareStatement("update session_files set " +
+					"path = ?, size = ?, modified = ?, hash = ? where file_name = ?;");
+			ps.setString(1,e.path);
+			ps.setLong(2,e.size);
+			ps.setLong(3,e.modified);
+			ps.setString(4,e.hash);
+			ps.setString(5,e.name);
+			ps.executeUpdate();
+			ps.close();
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	/**
+	 * Removes a set of tags from a file, along with every link that uses
+	 * one of the extents being removed, in a single transaction.  The
+	 * links are found and removed by the delete statements themselves,
+	 * so nothing is looked up tag by tag before the delete.
+	 * 
+	 * @param file the name of the file the tags are in
+	 * @param tags the IDs of the tags to remove, keyed by element name
+	 * @param dtd the DTD describing the tag tables
+	 * @param removedLinks filled in with the IDs of the links that were
+	 * removed because their anchors were, keyed by element name
+	 * @param removedRows if not null, filled in with the attributes of 
+	 * every tag removed, including the links, keyed by element name.  
+	 * They're read with one query for each element, just before the 
+	 * delete, so each tag is there once.
+	 * @return the parts of the text that lost extent tags
+	 * @throws Exception
+	 */
+	SpanSet removeTags(String file, HashCollection<String,String> tags, DTD dtd,
+			HashCollection<String,String> removedLinks, 
+			HashCollection<String,Hashtable<String,String>> removedRows) throws Exception{
+		metrics.begin("removeTags");
+		lock.writeLock().lock();
+		try{
+			SpanSet spans = new SpanSet();
+			ArrayList<String> names = tags.getKeyList();
+			ArrayList<Elem> linkElems = new ArrayList<Elem>();
+			ArrayList<Elem> elems = dtd.getElements();
+			for(int i=0;i<elems.size();i++){
+				if(elems.get(i) instanceof ElemLink){
+					linkElems.add(elems.get(i));
+				}
+			}
+			String anchored = " where file_name = ? and ((fromid = ? and from_name = ?) " +
+					"or (toid = ? and to_name = ?))";
+			HashCollection<String,String> cascaded = new HashCollection<String,String>();
+			conn.setAutoCommit(false);
+			try{
+				PreparedStatement locs = conn.prepareStatement("select min(location), max(location) " +
+						"from extents where file_name = ? and element_name = ? and id = ?;");
+				PreparedStatement linked = conn.prepareStatement("select element_name, id from links"+
+						anchored+";");
+				//the dependent links go from their own tables first, while 
+				//the links table still says which ones they are
+				Hashtable<String,PreparedStatement> linkTableDeletes = new Hashtable<String,PreparedStatement>();
+				for(int i=0;i<linkElems.size();i++){
+					String name = linkElems.get(i).getName();
+					linkTableDeletes.put(name,conn.prepareStatement("delete from "+name+
+							" where file_name = ? and id in (select id from links"+anchored+
+							" and element_name = '"+name+"');"));
+				}
+				PreparedStatement linkDelete = conn.prepareStatement("delete from links"+anchored+";");
+				PreparedStatement extentDelete = conn.prepareStatement("delete from extents " +
+						"where file_name = ? and element_name = ? and id = ?;");
+				PreparedStatement overlapDelete = conn.prepareStatement("delete from extent_overlaps " +
+						"where gsid = ? and element_name = ?;");
+				PreparedStatement ownLinkDelete = conn.prepareStatement("delete from links " +
+						"where file_name = ? and element_name = ? and id = ?;");
+				Hashtable<String,PreparedStatement> tableDeletes = new Hashtable<String,PreparedStatement>();
+				for(int i=0;i<names.size();i++){
+					String name = names.get(i);
+					Elem elem = dtd.getElem(name);
+					ArrayList<String> ids = tags.getList(name);
+					if(elem==null || ids==null){
+						continue;
+					}
+					PreparedStatement tableDelete = conn.prepareStatement("delete from "+name+
+							" where file_name = ? and id = ?;");
+					tableDeletes.put(name,tableDelete);
+					for(int j=0;j<ids.size();j++){
+						String id = ids.get(j);
+						cache.invalidate(file,name,id);
+						tableDelete.setString(1,file);
+						tableDelete.setString(2,id);
+						tableDelete.addBatch();
+						if(elem instanceof ElemLink){
+							ownLinkDelete.setString(1,file);
+							ownLinkDelete.setString(2,name);
+							ownLinkDelete.setString(3,id);
+							ownLinkDelete.addBatch();
+							continue;
+						}
+						locs.setString(1,file);
+						locs.setString(2,name);
+						locs.setString(3,id);
+						ResultSet rs = locs.executeQuery();
+						if(rs.next() && rs.getString(1)!=null){
+							spans.add(rs.getInt(1),rs.getInt(2)+1);
+						}
+						rs.close();
+						setAnchor(linked,1,file,name,id);
+						rs = linked.executeQuery();
+						while(rs.next()){
+							cascaded.putEnt(rs.getString(1),rs.getString(2));
+							cache.invalidate(file,rs.getString(1),rs.getString(2));
+						}
+						rs.close();
+						for(int k=0;k<linkElems.size();k++){
+							PreparedStatement ps = linkTableDeletes.get(linkElems.get(k).getName());
+							ps.setString(1,file);
+							setAnchor(ps,2,file,name,id);
+							ps.addBatch();
+						}
+						setAnchor(linkDelete,1,file,name,id);
+						linkDelete.addBatch();
+						extentDelete.setString(1,file);
+						extentDelete.setString(2,name);
+						extentDelete.setString(3,id);
+						extentDelete.addBatch();
+						if(file.equals("goldStandard.xml")){
+							overlapDelete.setString(1,id);
+							overlapDelete.setString(2,name);
+							overlapDelete.addBatch();
+						}
+					}
+				}
+				if(removedRows!=null){
+					//every tag going, each once, whether it was asked for or found by its anchors
+					HashCollection<String,String> all = new HashCollection<String,String>();
+					for(int i=0;i<names.size();i++){
+						ArrayList<String> ids = tags.getList(names.get(i));
+						for(int j=0;ids!=null && j<ids.size();j++){
+							all.putEnt(names.get(i),ids.get(j));
+						}
+					}
+					ArrayList<String> linkNames = cascaded.getKeyList();
+					for(int i=0;i<linkNames.size();i++){
+						ArrayList<String> ids = cascaded.getList(linkNames.get(i));
+						for(int j=0;j<ids.size();j++){
+							all.putEnt(linkNames.get(i),ids.get(j));
+						}
+					}
+					ArrayList<String> allNames = all.getKeyList();
+					for(int i=0;i<allNames.size();i++){
+						Elem elem = dtd.getElem(allNames.get(i));
+						if(elem!=null){
+							selectRows(file,elem,all.getList(allNames.get(i)),removedRows);
+						}
+					}
+				}
+				for(Enumeration<PreparedStatement> e = linkTableDeletes.elements(); e.hasMoreElements();){
+					PreparedStatement ps = e.nextElement();
+					ps.executeBatch();
+					ps.close();
+				}
+				linkDelete.executeBatch();
+				for(Enumeration<PreparedStatement> e = tableDeletes.elements(); e.hasMoreElements();){
+					PreparedStatement ps = e.nextElement();
+					ps.executeBatch();
+					ps.close();
+				}
+				ownLinkDelete.executeBatch();
+				extentDelete.executeBatch();
+				overlapDelete.executeBatch();
+				locs.close();
+				linked.close();
+				linkDelete.close();
+				ownLinkDelete.close();
+				extentDelete.close();
+				overlapDelete.close();
+				conn.commit();
+			}catch(Exception e){
+				conn.rollback();
+				throw e;
+			}finally{
+				conn.setAutoCommit(true);
+			}
+			synchronized(spanLock){
+				changedSpans.addAll(spans);
+			}
+			ArrayList<String> linkNames = cascaded.getKeyList();
+			for(int i=0;i<linkNames.size();i++){
+				ArrayList<String> ids = cascaded.getList(linkNames.get(i));
+				for(int j=0;j<ids.size();j++){
+					removedLinks.putEnt(linkNames.get(i),ids.get(j));
+				}
+			}
+			metrics.returned(PhaseEvent.count(cascaded));
+			return spans;
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
+	}
+
+	/**
+	 * Reads the attributes of a set of tags of one element from the 
+	 * write connection, a few hundred IDs to a query (SQLite doesn't 
+	 * take more than 999 parameters)
+	 */
+	private void selectRows(String file, Elem elem, ArrayList<String> ids,
+			HashCollection<String,Hashtable<String,String>> rows) throws Exception{
+		ArrayList<Attrib> atts = elem.getAttributes();
+		for(int from=0;from<ids.size();from+=500){
+			int to = Math.min(ids.size(),from+500);
+			StringBuilder query = new StringBuilder("select * from "+elem.getName()+
+					" where file_name = ? and id in (");
+			for(int i=from;i<to;i++){
+				query.append(i>from ? ",?" : "?");
+			}
+			query.append(");");
+			PreparedStatement ps = conn.prepareStatement(query.toString());
+			try{
+				ps.setString(1,file);
+				for(int i=from;i<to;i++){
+					ps.setString(i-from+2,ids.get(i));
+				}
+				ResultSet rs = ps.executeQuery();
+				while(rs.next()){
+					Hashtable<String,String> ht = new Hashtable<String,String>();
+					for(int i=0;i<atts.size();i++){
+						String value = rs.getString(atts.get(i).getName());
+						if(value!=null){
+							ht.put(atts.get(i).getName(),value);
+						}
+					}
+					rows.putEnt(elem.getName(),ht);
+				}
+				rs.close();
+			}finally{
+				ps.close();
+			}
+		}
 	}
 
 	/**
-	 * Used to add a single tag's worth of information to the preparedStatement
-	 * for the link table.  Does not add to the database.
-	 * 
-	 * @param file_name name of the file the added tag is from
-	 * @param newID ID of the tag being added
-	 * @param linkName type of the tag being added
-	 * @param linkFrom the id of the 'from' anchor for the link
-	 * @param from_name the type of the 'from' anchor for the link
-	 * @param linkTo the id of the 'to' anchor for the link
-	 * @param to_name the type of the 'to' anchor for the link
-	 * @throws Exception
+	 * Sets the file and the extent on one of the statements that
+	 * find links by their anchors, starting at parameter first
 	 */
-	void add_link(String file_name, String newID, String linkName, String linkFrom, 
-			String from_name, String linkTo, String to_name) throws Exception{
-		link_insert.setString(1, file_name);
-		link_insert.setString(2, newID);
-		link_insert.setString(3, linkFrom);
-		link_insert.setString(4, from_name);
-		link_insert.setString(5, linkTo);
-		link_insert.setString(6, to_name);
-		link_insert.setString(7, linkName);
-		link_insert.addBatch();
+	private static void setAnchor(PreparedStatement ps, int first, String file, 
+			String elem, String id) throws Exception{
+		ps.setString(first,file);
+		ps.setString(first+1,id);
+		ps.setString(first+2,elem);
+		ps.setString(first+3,id);
+		ps.setString(first+4,elem);
 	}
 
 	/**
-	 * Used to add a single tag's worth of information to the preparedStatement
-	 * for the link table and to the database.
+	 * Removes all the tags from a file, so that it can be imported again
 	 * 
-	 * @param file_name name of the file the added tag is from
-	 * @param newID ID of the tag being added
-	 * @param linkName type of the tag being added
-	 * @param linkFrom the id of the 'from' anchor for the link
-	 * @param from_name the type of the 'from' anchor for the link
-	 * @param linkTo the id of the 'to' anchor for the link
-	 * @param to_name the type of the 'to' anchor for the link
+	 * @param file the name of the file
+	 * @param dtd the DTD describing the tag tables
 	 * @throws Exception
 	 */
-	void insert_link(String file_name, String newID, String linkName, String linkFrom, 
-			String from_name, String linkTo, String to_name) throws Exception{
-		link_insert.setString(1, file_name);
-		link_insert.setString(2, newID);
-		link_insert.setString(3, linkFrom);
-		link_insert.setString(4, from_name);
-		link_insert.setString(5, linkTo);
-		link_insert.setString(6, to_name);
-		link_insert.setString(7, linkName);
-		link_insert.addBatch();
-		conn.setAutoCommit(false);
-		link_insert.executeBatch();
-		conn.setAutoCommit(true);
-	}
-
-	/**
-	 * Closes the connection to the DB
-	 */
-	void close_db(){
+	void removeFileTags(String file, DTD dtd) throws Exception{
+		metrics.begin("removeFileTags");
+		lock.writeLock().lock();
 		try{
-			conn.close();
-		}catch(Exception e){
-			System.out.println(e.toString());
+			cache.invalidateFile(file);
+			PreparedStatement ps;
+			String[] tables = {"extents","links","extent_overlaps"};
+			conn.setAutoCommit(false);
+			try{
+				for(int i=0;i<tables.length;i++){
+					ps = conn.prepareStatement("delete from "+tables[i]+" where file_name = ?;");
+					ps.setString(1,file);
+					ps.executeUpdate();
+					ps.close();
+				}
+				ArrayList<Elem> elems = dtd.getElements();
+				for(int i=0;i<elems.size();i++){
+					ps = conn.prepareStatement("delete from "+elems.get(i).getName()+" where file_name = ?;");
+					ps.setString(1,file);
+					ps.executeUpdate();
+					ps.close();
+				}
+				conn.commit();
+			}catch(Exception e){
+				conn.rollback();
+				throw e;
+			}finally{
+				conn.setAutoCommit(true);
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
 	}
 
 	/**
-	 * Checks to see if the given id exists for the filename.
-	 * 
-	 * @param id the ID being searched for
-	 * @param fileName the name of the file being searched i
-	 * @return true if the id exists, false if not
+	 * Copies the database to another file.  Nothing can be written 
+	 * while the copy is made, so the copy is a consistent snapshot.
 	 * 
+	 * @param f the file being written
 	 * @throws Exception
 	 */
-	boolean idExists(String id, String fileName)
-			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select count(id) from extents where " +
-				"id = '" + id + "' and file_name ='"+fileName+"';");
-		ResultSet rs = stat.executeQuery(query);
-		int num = rs.getInt(1);
-		rs.close();
-		if (num>0){
-			return true;
-		}
-		String query2 = ("select count(id) from links where " +
-				"id = '" + id + 
-				"' and file_name ='"+fileName+"';");
-		ResultSet rs2 = stat.executeQuery(query2);
-		int num2 = rs2.getInt(1);
-		rs2.close();
-		if (num2>0){
-			return true;
+	void copyTo(File f) throws Exception{
+		metrics.begin("copyTo");
+		lock.writeLock().lock();
+		try{
+			if(wal){
+				Statement stat = conn.createStatement();
+				stat.execute("pragma wal_checkpoint;");
+				stat.close();
+			}
+			FileChannel in = new FileInputStream(path).getChannel();
+			try{
+				FileChannel out = new FileOutputStream(f).getChannel();
+				try{
+					long pos = 0;
+					long size = in.size();
+					while(pos<size){
+						pos += in.transferTo(pos,size-pos,out);
+					}
+				}finally{
+					out.close();
+				}
+			}finally{
+				in.close();
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
-
-		return false;
 	}
 
 	/**
@@ -715,16 +1784,22 @@ class AdjudDB {
 	 */
 	boolean tagExistsInFileAtLoc(String file, int loc)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select count(id) from extents where " +
-				"location = " + loc + " and file_name ='"+file+"';");
-		ResultSet rs = stat.executeQuery(query);
-		int num = rs.getInt(1);
-		rs.close();
-		if(num>0){
-			return true;
+		Connection rc = openRead("tagExistsInFileAtLoc");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select count(id) from extents where " +
+					"location = " + loc + " and file_name ='"+file+"';");
+			ResultSet rs = stat.executeQuery(query);
+			int num = rs.getInt(1);
+			rs.close();
+			if(num>0){
+				return true;
+			}
+			return false;
+		}finally{
+			closeRead(rc,stat);
 		}
-		return false;
 	}
 	
 	/**
@@ -739,18 +1814,26 @@ class AdjudDB {
 	 */
 	void removeLinkTags(String fullName, String element_name, String id)
 			throws Exception{
-		print_other(element_name);
-		//remove the tag from the links table
-		Statement stat = conn.createStatement();
-		String delete = ("delete from links where id = '" 
-				+id + "' and element_name = '" 
-				+ element_name + "' and file_name = '"+fullName+"';");
-		stat.executeUpdate(delete);  
-		//also need to remove it from the table associated with its element name
-		stat = conn.createStatement();
-		delete = ("delete from " + element_name +" where id = '" 
-				+id + "' and file_name = '"+fullName+"';");
-		stat.executeUpdate(delete);
+		metrics.begin("removeLinkTags");
+		lock.writeLock().lock();
+		try{
+			cache.invalidate(fullName,element_name,id);
+			print_other(element_name);
+			//remove the tag from the links table
+			Statement stat = conn.createStatement();
+			String delete = ("delete from links where id = '" 
+					+id + "' and element_name = '" 
+					+ element_name + "' and file_name = '"+fullName+"';");
+			stat.executeUpdate(delete);  
+			//also need to remove it from the table associated with its element name
+			stat = conn.createStatement();
+			delete = ("delete from " + element_name +" where id = '" 
+					+id + "' and file_name = '"+fullName+"';");
+			stat.executeUpdate(delete);
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
 	}
 
 	/**
@@ -765,25 +1848,45 @@ class AdjudDB {
 	 */
 	void removeExtentTags(String fullName, String element_name, String id)
 			throws Exception{
-		//remove the tag from the extents table
-		Statement stat = conn.createStatement();
-		String delete = ("delete from extents where id = '" 
-				+id + "' and element_name = '" 
-				+ element_name + "' and file_name = '"+fullName+"';");
-		stat.executeUpdate(delete); 
+		metrics.begin("removeExtentTags");
+		lock.writeLock().lock();
+		try{
+			cache.invalidate(fullName,element_name,id);
+			//keep track of the part of the text that's losing the tag
+			Statement stat = conn.createStatement();
+			String query = ("select min(location), max(location) from extents where id = '" 
+					+id + "' and element_name = '" 
+					+ element_name + "' and file_name = '"+fullName+"';");
+			ResultSet rs = stat.executeQuery(query);
+			if(rs.next() && rs.getString(1)!=null){
+				synchronized(spanLock){
+					changedSpans.add(rs.getInt(1),rs.getInt(2)+1);
+				}
+			}
+			rs.close();
+
+			//remove the tag from the extents table
+			String delete = ("delete from extents where id = '" 
+					+id + "' and element_name = '" 
+					+ element_name + "' and file_name = '"+fullName+"';");
+			stat.executeUpdate(delete); 
 		
-		//also need to remove it from the element_name table
-		stat = conn.createStatement();
-		delete = ("delete from " + element_name +" where id = '" 
-				+id + "' and file_name = '"+fullName+"';");
-		stat.executeUpdate(delete); 
-
-		//finally, remove it from the overlap_extents
-		if(fullName.equals("goldStandard.xml")){
+			//also need to remove it from the element_name table
 			stat = conn.createStatement();
-			delete = ("delete from extent_overlaps where gsid = '" 
-					+id + "' and element_name = '"+element_name+"';");
-			stat.executeUpdate(delete);
+			delete = ("delete from " + element_name +" where id = '" 
+					+id + "' and file_name = '"+fullName+"';");
+			stat.executeUpdate(delete); 
+
+			//finally, remove it from the overlap_extents
+			if(fullName.equals("goldStandard.xml")){
+				stat = conn.createStatement();
+				delete = ("delete from extent_overlaps where gsid = '" 
+						+id + "' and element_name = '"+element_name+"';");
+				stat.executeUpdate(delete);
+			}
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
 	}
 
@@ -801,79 +1904,91 @@ class AdjudDB {
 	 */
 	void add_overlaps(String fullname, Elem e, Hashtable<String,String> tag)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		int start = Integer.parseInt(tag.get("start"));
-		int end = Integer.parseInt(tag.get("end"));
-		String gsid = tag.get("id");
-
-		String query = ("select distinct(id), file_name from extents where "+
-				"element_name = '" + e.getName() +"' and location >= " 
-				+ start + " and location <=" + end 
-				+ " and file_name !='goldStandard.xml';");
-		ResultSet rs = stat.executeQuery(query);
-		while (rs.next()){
-			String filename = rs.getString("file_name");
-			String id = rs.getString("id");
-			overlap_insert.setString(1,gsid);
-			overlap_insert.setString(2,e.getName());
-			overlap_insert.setString(3,filename);
-			overlap_insert.setString(4,id);
-			overlap_insert.addBatch();
-		}
-		rs.close();
-		conn.setAutoCommit(false);
-		overlap_insert.executeBatch();
-		conn.setAutoCommit(true);
+		metrics.begin("add_overlaps");
+		lock.writeLock().lock();
+		try{
+			Statement stat = conn.createStatement();
+			int start = Integer.parseInt(tag.get("start"));
+			int end = Integer.parseInt(tag.get("end"));
+			String gsid = tag.get("id");
 
+			String query = ("select distinct(id), file_name from extents where "+
+					"element_name = '" + e.getName() +"' and location >= " 
+					+ start + " and location <=" + end 
+					+ " and file_name !='goldStandard.xml';");
+			ResultSet rs = stat.executeQuery(query);
+			while (rs.next()){
+				String filename = rs.getString("file_name");
+				String id = rs.getString("id");
+				overlap_insert.setString(1,gsid);
+				overlap_insert.setString(2,e.getName());
+				overlap_insert.setString(3,filename);
+				overlap_insert.setString(4,id);
+				overlap_insert.addBatch();
+			}
+			rs.close();
+			commitBatch(overlap_insert);
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
+		}
 	}
 
 	/**
 	 * Finds all the overlaps with the goldStandard and other files.
 	 * Called when a new goldStandard file is loaded into MAI
 	 * 
+	 * @return the number of overlaps found
 	 * @throws Exception
 	 */
-	void findAllOverlaps() 
+	int findAllOverlaps() 
 			throws Exception{
-		//first, clear out the table
-		Statement stat = conn.createStatement();
-		String delete = ("delete from extent_overlaps;");
-		stat.executeUpdate(delete); 
-		//then, find the ids and types of the GS links
-		String findGSIDs = ("select distinct(id), element_name from extents where file_name = 'goldStandard.xml';");
-		ResultSet rs = stat.executeQuery(findGSIDs);
-		while(rs.next()){
-			String e_name = rs.getString("element_name");
-			String gsid = rs.getString("id");
-			int start = (getStartOrEnd(rs.getString("id"), "goldStandard.xml", 
-					e_name,"start"));
-			int end = (getStartOrEnd(rs.getString("id"), "goldStandard.xml", 
-					e_name,"end"));
-			Statement stat2 = conn.createStatement();
-			//then, find the tags from other files that overlap with the one in the GS
-			String query = ("select distinct(id), file_name from extents where "+
-					"element_name = '" + e_name +"' and location >= " 
-					+ start + " and location <=" + end 
-					+ " and file_name !='goldStandard.xml';");
-			ResultSet rs2 = stat2.executeQuery(query);
-			while (rs2.next()){
-				String filename = rs2.getString("file_name");
-				String id = rs2.getString("id");
-				overlap_insert.setString(1,gsid);
-				overlap_insert.setString(2,e_name);
-				overlap_insert.setString(3,filename);
-				overlap_insert.setString(4,id);
-				overlap_insert.addBatch();
-			}
-			rs2.close();
+		metrics.begin("findAllOverlaps");
+		lock.writeLock().lock();
+		try{
+			//first, clear out the table
+			Statement stat = conn.createStatement();
+			String delete = ("delete from extent_overlaps;");
+			stat.executeUpdate(delete); 
+			//then, find the ids and types of the GS links
+			String findGSIDs = ("select distinct(id), element_name from extents where file_name = 'goldStandard.xml';");
+			ResultSet rs = stat.executeQuery(findGSIDs);
+			while(rs.next()){
+				String e_name = rs.getString("element_name");
+				String gsid = rs.getString("id");
+				int start = (getStartOrEnd(rs.getString("id"), "goldStandard.xml", 
+						e_name,"start"));
+				int end = (getStartOrEnd(rs.getString("id"), "goldStandard.xml", 
+						e_name,"end"));
+				Statement stat2 = conn.createStatement();
+				//then, find the tags from other files that overlap with the one in the GS
+				String query = ("select distinct(id), file_name from extents where "+
+						"element_name = '" + e_name +"' and location >= " 
+						+ start + " and location <=" + end 
+						+ " and file_name !='goldStandard.xml';");
+				ResultSet rs2 = stat2.executeQuery(query);
+				while (rs2.next()){
+					String filename = rs2.getString("file_name");
+					String id = rs2.getString("id");
+					overlap_insert.setString(1,gsid);
+					overlap_insert.setString(2,e_name);
+					overlap_insert.setString(3,filename);
+					overlap_insert.setString(4,id);
+					overlap_insert.addBatch();
+				}
+				rs2.close();
 
+			}
+			rs.close();
+			//add the tags to the table
+			conn.setAutoCommit(false);
+			int overlaps = overlap_insert.executeBatch().length;
+			conn.setAutoCommit(true);
+			return overlaps;
+		}finally{
+			lock.writeLock().unlock();
+			metrics.end();
 		}
-		rs.close();
-		//add the tags to the table
-		conn.setAutoCommit(false);
-		overlap_insert.executeBatch();
-		conn.setAutoCommit(true);
-
 	}
 
 	/**
@@ -887,20 +2002,32 @@ class AdjudDB {
 	 */
 	String getLocByFileAndID(String file,String id)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select * from extents where id = '" + 
-				id + "' and file_name = '" + file + "';");
-		ResultSet rs = stat.executeQuery(query);
-		ArrayList<Integer>locs = new ArrayList<Integer>();
-		while (rs.next()){
-			locs.add(Integer.parseInt(rs.getString("location")));
+		String cached = cache.getLoc(file,id);
+		if(cached!=null){
+			return cached;
+		}
+		long gen = cache.generation();
+		Connection rc = openRead("getLocByFileAndID");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select * from extents where id = '" + 
+					id + "' and file_name = '" + file + "';");
+			ResultSet rs = stat.executeQuery(query);
+			ArrayList<Integer>locs = new ArrayList<Integer>();
+			while (rs.next()){
+				locs.add(Integer.parseInt(rs.getString("location")));
+			}
+			//sort the ArrayList
+			Collections.sort(locs);
+			rs.close();
+			//return the first and last elements in the list as a string
+			String loc = locs.get(0)+","+(locs.get(locs.size()-1));
+			cache.putLoc(gen,file,id,loc);
+			return loc;
+		}finally{
+			closeRead(rc,stat);
 		}
-		//sort the ArrayList
-		Collections.sort(locs);
-		rs.close();
-		//return the first and last elements in the list as a string
-		return locs.get(0)+","+(locs.get(locs.size()-1));
-
 	}
 
 	/**
@@ -914,8 +2041,11 @@ class AdjudDB {
 	 * @return
 	 */
 	private int getStartOrEnd(String id, String filename, String elemname, String attribute){
+		Connection rc = null;
+		Statement stat = null;
 		try{
-			Statement stat = conn.createStatement();
+			rc = openRead("getStartOrEnd");
+			stat = rc.createStatement();
 			String query = ("select * from " + elemname + " where file_name = '" +
 					filename + "' and id = '" + id + "';");
 			ResultSet rs = stat.executeQuery(query);
@@ -925,6 +2055,10 @@ class AdjudDB {
 		}catch(Exception e){
 			System.out.println(e.toString());
 			return -2;
+		}finally{
+			if(rc!=null){
+				closeRead(rc,stat);
+			}
 		}
 	}
 
@@ -936,125 +2070,132 @@ class AdjudDB {
 	 * return a list of the locations in the gold standard that overlap with the link anchors 
 	 * from the other files.
 	 * 
-	 * It also fills in the information in the currentLinks hash, which keeps track of what links 
+	 * It also fills in the currentLinks list, which keeps track of what links 
 	 * from other files have overlaps so that when extents are selected the process of filling in the
 	 * adjudication table is sped up.
 	 * 
-	 * TODO: refactor to make more efficient, use multiple database connections
+	 * TODO: refactor to make more efficient
 	 * 
 	 * @param tagname the name of the tag being evaluated
+	 * @param currentLinks the list the relevant links are added to, 
+	 * in the form filename@#@id
 	 * 
 	 * @return a hashcollection with all the locations and file names where
 	 * link anchors overlap with the gold standard
 	 * @throws Exception
 	 */
-	HashCollection<String,String> getGSLinksByType(String tagname)
-			throws Exception{
+	HashCollection<String,String> getGSLinksByType(String tagname,
+			ArrayList<String> currentLinks) throws Exception{
+		Connection rc = openRead("getGSLinksByType");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			//keep track of relevant links, reset each time a 
+			//new link tag is selected
+			currentLinks.clear(); 
 
-		//keep track of relevant links, reset each time a 
-		//new link tag is selected
-		currentLinks.clear(); 
+			HashCollection<String,String>links = new HashCollection<String,String>();
 
-		HashCollection<String,String>links = new HashCollection<String,String>();
+			String query = ("select * from links where element_name = '" +
+					tagname + "';");
+			ResultSet rs = stat.executeQuery(query);
 
-		Statement stat = conn.createStatement();
-		String query = ("select * from links where element_name = '" +
-				tagname + "';");
-		ResultSet rs = stat.executeQuery(query);
+			Hashtable<String,String>inGS = new Hashtable<String,String>();
+			Hashtable<String,String>inOther = new Hashtable<String,String>();
 
-		Hashtable<String,String>inGS = new Hashtable<String,String>();
-		Hashtable<String,String>inOther = new Hashtable<String,String>();
+			while(rs.next()){
+				//this needs to be re-written
+				if(rs.getString("file_name").equals("goldStandard.xml")){
+					String newid = (rs.getString("file_name")+"@#@"+rs.getString("fromid")
+							+"@#@"+rs.getString("from_name"));
+					inGS.put(newid,"");
+					newid = (rs.getString("file_name")+"@#@"+rs.getString("toid")
+							+"@#@"+rs.getString("to_name"));
+					inGS.put(newid,"");
+					currentLinks.add(rs.getString("file_name")+"@#@"+rs.getString("id"));
+				}
+				else{
+					//if the link isn't in the GS, we only want to highlight
+					//these extents if they both have overlaps in the GS
+					String newid = (rs.getString("file_name")+"@#@"+rs.getString("fromid")
+							+"@#@"+rs.getString("from_name")+"@#@"+
+							rs.getString("file_name")+"@#@"+rs.getString("toid")
+							+"@#@"+rs.getString("to_name")+"@#@"+rs.getString("id"));
+					inOther.put(newid,"");
+				}
 
-		while(rs.next()){
-			//this needs to be re-written
-			if(rs.getString("file_name").equals("goldStandard.xml")){
-				String newid = (rs.getString("file_name")+"@#@"+rs.getString("fromid")
-						+"@#@"+rs.getString("from_name"));
-				inGS.put(newid,"");
-				newid = (rs.getString("file_name")+"@#@"+rs.getString("toid")
-						+"@#@"+rs.getString("to_name"));
-				inGS.put(newid,"");
-				currentLinks.add(rs.getString("file_name")+"@#@"+rs.getString("id"));
-			}
-			else{
-				//if the link isn't in the GS, we only want to highlight
-				//these extents if they both have overlaps in the GS
-				String newid = (rs.getString("file_name")+"@#@"+rs.getString("fromid")
-						+"@#@"+rs.getString("from_name")+"@#@"+
-						rs.getString("file_name")+"@#@"+rs.getString("toid")
-						+"@#@"+rs.getString("to_name")+"@#@"+rs.getString("id"));
-				inOther.put(newid,"");
 			}
+			rs.close();
 
-		}
-		rs.close();
-
-
-		for(Enumeration<String> ids = inOther.keys() ; ids.hasMoreElements() ;) {
-			//if the ids being examined don't come from a GS link,
-			//we need to get the corresponding GS id (based on overlaps)
-			//both IDs must have overlaps for either to be included 
-			//in the hashtable
-			String id = (String)ids.nextElement();
-			boolean hasToOverlap = false;
-			boolean hasFromOverlap = false;
-			ArrayList<String> overlaps = new ArrayList<String>();
-			String filename = id.split("@#@")[0];
-			String filetagid = id.split("@#@")[1];
 
-			query = ("select gsid from extent_overlaps where element_name ='" +
-					id.split("@#@")[2]+"' and file_name ='" + filename + 
-					"'and fileid='" + filetagid +"';"); 
+			for(Enumeration<String> ids = inOther.keys() ; ids.hasMoreElements() ;) {
+				//if the ids being examined don't come from a GS link,
+				//we need to get the corresponding GS id (based on overlaps)
+				//both IDs must have overlaps for either to be included 
+				//in the hashtable
+				String id = (String)ids.nextElement();
+				boolean hasToOverlap = false;
+				boolean hasFromOverlap = false;
+				ArrayList<String> overlaps = new ArrayList<String>();
+				String filename = id.split("@#@")[0];
+				String filetagid = id.split("@#@")[1];
+
+				query = ("select gsid from extent_overlaps where element_name ='" +
+						id.split("@#@")[2]+"' and file_name ='" + filename + 
+						"'and fileid='" + filetagid +"';"); 
+
+				rs=stat.executeQuery(query);
+				while (rs.next()){
+					String newid = (filename+"@#@"+rs.getString("gsid")
+							+"@#@"+id.split("@#@")[2]);
+					overlaps.add(newid);
+					hasToOverlap = true;
+				}
+				rs.close();
 
-			rs=stat.executeQuery(query);
-			while (rs.next()){
-				String newid = (filename+"@#@"+rs.getString("gsid")
-						+"@#@"+id.split("@#@")[2]);
-				overlaps.add(newid);
-				hasToOverlap = true;
-			}
-			rs.close();
+				filetagid = id.split("@#@")[4];
+				query = ("select gsid from extent_overlaps where element_name ='" +
+						id.split("@#@")[5]+"' and file_name ='" + filename + 
+						"'and fileid='" + filetagid +"';"); 
+
+				rs=stat.executeQuery(query);
+				while (rs.next()){
+					String newid = (filename+"@#@"+rs.getString("gsid")
+							+"@#@"+id.split("@#@")[5]);
+					overlaps.add(newid);
+					hasFromOverlap = true;
+				}
+				rs.close();
 
-			filetagid = id.split("@#@")[4];
-			query = ("select gsid from extent_overlaps where element_name ='" +
-					id.split("@#@")[5]+"' and file_name ='" + filename + 
-					"'and fileid='" + filetagid +"';"); 
+				if (hasToOverlap && hasFromOverlap){
+					for(int i=0;i<overlaps.size();i++){
+						inGS.put(overlaps.get(i),"");
+						currentLinks.add(filename+"@#@"+id.split("@#@")[6]);
+					}
+				}
 
-			rs=stat.executeQuery(query);
-			while (rs.next()){
-				String newid = (filename+"@#@"+rs.getString("gsid")
-						+"@#@"+id.split("@#@")[5]);
-				overlaps.add(newid);
-				hasFromOverlap = true;
 			}
-			rs.close();
 
-			if (hasToOverlap && hasFromOverlap){
-				for(int i=0;i<overlaps.size();i++){
-					inGS.put(overlaps.get(i),"");
-					currentLinks.add(filename+"@#@"+id.split("@#@")[6]);
+			//now that we have all the overlapping GS ids, we can 
+			for (Enumeration<String> ids = inGS.keys() ; ids.hasMoreElements() ;) {
+				String id = (String)ids.nextElement();
+				String filename = id.split("@#@")[0];
+				query = ("select location from extents where file_name = '" +
+						"goldStandard.xml" + "' and element_name = '" + id.split("@#@")[2] + 
+						"' and id = '" + id.split("@#@")[1] + "';");
+				rs = stat.executeQuery(query);
+				while (rs.next()){
+					links.putEnt(rs.getString("location"),filename);
 				}
-			}
-
-		}
+				rs.close();
 
-		//now that we have all the overlapping GS ids, we can 
-		for (Enumeration<String> ids = inGS.keys() ; ids.hasMoreElements() ;) {
-			String id = (String)ids.nextElement();
-			String filename = id.split("@#@")[0];
-			query = ("select location from extents where file_name = '" +
-					"goldStandard.xml" + "' and element_name = '" + id.split("@#@")[2] + 
-					"' and id = '" + id.split("@#@")[1] + "';");
-			rs = stat.executeQuery(query);
-			while (rs.next()){
-				links.putEnt(rs.getString("location"),filename);
 			}
-			rs.close();
 
+			metrics.returned(links.size());
+			return links;
+		}finally{
+			closeRead(rc,stat);
 		}
-
-		return links;
-
 	}
 
 	/**
@@ -1069,28 +2210,35 @@ class AdjudDB {
 	 */
 	HashCollection<String,String> getLinksByFileAndExtentID(String file, String element_name, String id)
 			throws Exception{
-		HashCollection<String,String>links = new HashCollection<String,String>();
-		//first get the links where the extent being searched for is the 
-		//'from' anchor
-		Statement stat = conn.createStatement();
-		String query = ("select id,element_name from links where fromid = '" +
-				id + "' and from_name  ='" + element_name + "' and file_name = '"+
-				file + "';");
-		ResultSet rs = stat.executeQuery(query);
-		while(rs.next()){
-			links.putEnt(rs.getString("element_name"),rs.getString("id"));
-		}
-		rs.close();
-		//then get the ones where the extent is the 'to' anchor
-		String query2 = ("select id,element_name from links where toid = '" +
-				id + "' and to_name  ='" + element_name + "' and file_name = '"+
-				file + "';");
-		ResultSet rs2 = stat.executeQuery(query2);
-		while(rs2.next()){
-			links.putEnt(rs2.getString("element_name"),rs2.getString("id"));
-		}
-		rs2.close();
-		return links;
+		Connection rc = openRead("getLinksByFileAndExtentID");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			HashCollection<String,String>links = new HashCollection<String,String>();
+			//first get the links where the extent being searched for is the 
+			//'from' anchor
+			String query = ("select id,element_name from links where fromid = '" +
+					id + "' and from_name  ='" + element_name + "' and file_name = '"+
+					file + "';");
+			ResultSet rs = stat.executeQuery(query);
+			while(rs.next()){
+				links.putEnt(rs.getString("element_name"),rs.getString("id"));
+			}
+			rs.close();
+			//then get the ones where the extent is the 'to' anchor
+			String query2 = ("select id,element_name from links where toid = '" +
+					id + "' and to_name  ='" + element_name + "' and file_name = '"+
+					file + "';");
+			ResultSet rs2 = stat.executeQuery(query2);
+			while(rs2.next()){
+				links.putEnt(rs2.getString("element_name"),rs2.getString("id"));
+			}
+			rs2.close();
+			metrics.returned(links.size());
+			return links;
+		}finally{
+			closeRead(rc,stat);
+		}
 	}
 
 	/**
@@ -1107,25 +2255,32 @@ class AdjudDB {
 	 */
 	HashCollection<String,String> getTagsInSpanByType(int begin, int end, String tagName)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = "";
-		if(begin!=end){
-			query = ("select distinct(id), file_name from extents " +
-					"where element_name = '"+tagName+"' and location >= " 
-					+ begin + " and location <=" + end + ";");
-		}
-		else{
-			query = ("select distinct(id), file_name from extents where location = " 
-					+ begin + " and element_name = '"+tagName+"';");
-		}
+		Connection rc = openRead("getTagsInSpanByType");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = "";
+			if(begin!=end){
+				query = ("select distinct(id), file_name from extents " +
+						"where element_name = '"+tagName+"' and location >= " 
+						+ begin + " and location <=" + end + ";");
+			}
+			else{
+				query = ("select distinct(id), file_name from extents where location = " 
+						+ begin + " and element_name = '"+tagName+"';");
+			}
 
-		ResultSet rs = stat.executeQuery(query);
-		HashCollection<String,String> tags = new HashCollection<String,String>();
-		while(rs.next()){
-			tags.putEnt(rs.getString("file_name"),rs.getString("id"));
+			ResultSet rs = stat.executeQuery(query);
+			HashCollection<String,String> tags = new HashCollection<String,String>();
+			while(rs.next()){
+				tags.putEnt(rs.getString("file_name"),rs.getString("id"));
+			}
+			rs.close();
+			metrics.returned(tags.size());
+			return tags;
+		}finally{
+			closeRead(rc,stat);
 		}
-		rs.close();
-		return tags;
 	}
 
 	/**
@@ -1140,7 +2295,7 @@ class AdjudDB {
 	 * This method also tracks the locations of the extents that should be 
 	 * highlighted in the text to reflect where the annotations and gold standard 
 	 * placed the other extents associated with the selected text.  This information 
-	 * is kept in the currentHighlights hash.
+	 * is put in the currentHighlights HashCollection.
 	 * <p>
 	 * TODO: refactor, use more nested DB queries, remove assumption about
 	 * link ends only having one tag per document
@@ -1149,167 +2304,179 @@ class AdjudDB {
 	 * @param end the ending offset of the selected extent
 	 * @param tagname the type of tag being searched for
 	 * @param atts the attributes of the tag being searched for
+	 * @param currentLinks the links found by getGSLinksByType
+	 * @param currentHighlights filled in with the extents to highlight, 
+	 * keyed by filename
 	 * @return a HashCollection of tag information, keyed by filename
 	 * @throws Exception
 	 */
 	HashCollection<String,Hashtable<String,String>> getLinkTagsInSpanByType
-	(int begin, int end, String tagname,ArrayList<Attrib> atts) throws Exception{
-		//based on the new selection, the highlights in the text window will
-		//be changed; keep track of those here
-		currentHighlights.clear();
-
-		HashCollection<String,Hashtable<String,String>> gsLinkExtents = 
-				new HashCollection<String,Hashtable<String,String>>();
-
-		HashCollection<String,Hashtable<String,String>> gsTempLinkExtents = 
-				new HashCollection<String,Hashtable<String,String>>();
-
-		Statement stat = conn.createStatement();
+	(int begin, int end, String tagname,ArrayList<Attrib> atts,
+			ArrayList<String> currentLinks,
+			HashCollection<String,String> currentHighlights) throws Exception{
+		Connection rc = openRead("getLinkTagsInSpanByType");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			//based on the new selection, the highlights in the text window will
+			//be changed; keep track of those here
+			currentHighlights.clear();
 
-		for(int i=0;i<currentLinks.size();i++){
-			String link = currentLinks.get(i);
-			String filename = link.split("@#@")[0];
-			String linkid = link.split("@#@")[1];
+			HashCollection<String,Hashtable<String,String>> gsLinkExtents = 
+					new HashCollection<String,Hashtable<String,String>>();
 
-			//first, grab the info for each of the links that are being considered
-			String query = ("select * from "+ tagname + " where id = '" +
-					linkid + "' and file_name = '"+ filename+"';");
-			ResultSet rs = stat.executeQuery(query);
-			Hashtable<String,String> linkelems = new Hashtable<String,String>();
-			while (rs.next()){
-				for(int j=0;j<atts.size();j++){
-					linkelems.put(atts.get(j).getName(),rs.getString(atts.get(j).getName()));
-				}
-				//use TempLinkExtents so that only links with overlaps will be
-				//passed back
-				gsTempLinkExtents.putEnt(filename,linkelems);
-			}
-			rs.close();
-		}
+			HashCollection<String,Hashtable<String,String>> gsTempLinkExtents = 
+					new HashCollection<String,Hashtable<String,String>>();
 
 
-		//next, go through each link, check to see if either end overlaps with
-		//the selected text, then
-		//find the GS replacements for the From
-		ArrayList<String> filenames = gsTempLinkExtents.getKeyList();
-		for(int i = 0;i<filenames.size();i++){
-			String filename = filenames.get(i);
-			ArrayList<Hashtable<String,String>> links = gsTempLinkExtents.get(filename);
-			for(int j=0;j<links.size();j++){
-				boolean overlap = false;
-				Hashtable<String,String> link = links.get(j);
-				String fromid = link.get("fromID");
+			for(int i=0;i<currentLinks.size();i++){
+				String link = currentLinks.get(i);
+				String filename = link.split("@#@")[0];
+				String linkid = link.split("@#@")[1];
 
-				//need to get type of extent to ensure compatibility
-				String query = ("select * from extents where file_name = '" 
-						+ filename + "' and id = '" + fromid + "';");
+				//first, grab the info for each of the links that are being considered
+				String query = ("select * from "+ tagname + " where id = '" +
+						linkid + "' and file_name = '"+ filename+"';");
 				ResultSet rs = stat.executeQuery(query);
-				String fromElemName = rs.getString("element_name");
-				rs.close();
-
-				//check to see if fromID overlaps with selected text
-				query = ("select start, end from " + fromElemName + 
-						" where id = '" + fromid + "' and file_name = '" +
-						filename + "';");
-				rs = stat.executeQuery(query);
-				int fromStart = Integer.parseInt(rs.getString("start"));
-				int fromEnd = Integer.parseInt(rs.getString("end"));
-				rs.close();
-
-				boolean fromOverlap = false;
-				if((fromStart >= begin && fromStart<=end) || 
-						(fromEnd >= begin && fromEnd <=end) ||
-						(fromStart<=begin && fromEnd>=end)){
-					overlap=true;
-					fromOverlap = true;
+				Hashtable<String,String> linkelems = new Hashtable<String,String>();
+				while (rs.next()){
+					for(int j=0;j<atts.size();j++){
+						linkelems.put(atts.get(j).getName(),rs.getString(atts.get(j).getName()));
+					}
+					//use TempLinkExtents so that only links with overlaps will be
+					//passed back
+					gsTempLinkExtents.putEnt(filename,linkelems);
 				}
-
-				//do the same for the toID
-				//need to get type of extent to ensure compatibility
-				String toid = link.get("toID");
-				query = ("select * from extents where file_name = '" 
-						+ filename + "' and id = '" + toid + "';");
-				rs = stat.executeQuery(query);
-				String toElemName = rs.getString("element_name");
-				rs.close();
-
-				//check to see if toID overlaps with selected text
-				query = ("select start, end from " + toElemName + 
-						" where id = '" + toid + "' and file_name = '" +
-						filename + "';");
-				rs = stat.executeQuery(query);
-				int toStart = Integer.parseInt(rs.getString("start"));
-				int toEnd = Integer.parseInt(rs.getString("end"));
 				rs.close();
-				boolean toOverlap = false;
-				if((toStart >= begin && toStart<=end) || 
-						(toEnd >= begin && toEnd <=end) ||
-						(toStart<=begin && toEnd>=end)){
-					overlap=true;
-					toOverlap = true;
-				}
+			}
 
-				//if there's an overlap, proceed with replacing the ids and text
-				if(overlap){
-					//add overlaps to currentHighlights
-					if (!fromOverlap){
-						currentHighlights.putEnt(filename,fromStart+"@#@"+fromEnd);
-					}
-					if (!toOverlap){
-						currentHighlights.putEnt(filename,toStart+"@#@"+toEnd);
-					}
 
-					//first, swap out fromID and fromText
-					query = ("select distinct(id) from extents " +
-							"where element_name = '"+fromElemName+"' and file_name = '" +
-							"goldStandard.xml" + "' and location >= " 
-							+ fromStart + " and location <=" + fromEnd + ";");
+			//next, go through each link, check to see if either end overlaps with
+			//the selected text, then
+			//find the GS replacements for the From
+			ArrayList<String> filenames = gsTempLinkExtents.getKeyList();
+			for(int i = 0;i<filenames.size();i++){
+				String filename = filenames.get(i);
+				ArrayList<Hashtable<String,String>> links = gsTempLinkExtents.get(filename);
+				for(int j=0;j<links.size();j++){
+					boolean overlap = false;
+					Hashtable<String,String> link = links.get(j);
+					String fromid = link.get("fromID");
+
+					//need to get type of extent to ensure compatibility
+					String query = ("select * from extents where file_name = '" 
+							+ filename + "' and id = '" + fromid + "';");
+					ResultSet rs = stat.executeQuery(query);
+					String fromElemName = rs.getString("element_name");
+					rs.close();
 
+					//check to see if fromID overlaps with selected text
+					query = ("select start, end from " + fromElemName + 
+							" where id = '" + fromid + "' and file_name = '" +
+							filename + "';");
 					rs = stat.executeQuery(query);
-					//NOTE: assumes there will be a one-to-one overlap
-					//may need to be fixed in later versions
-					String newFromID = rs.getString("id");
+					int fromStart = Integer.parseInt(rs.getString("start"));
+					int fromEnd = Integer.parseInt(rs.getString("end"));
 					rs.close();
-					links.get(j).put("fromID",newFromID);
 
-					String newFromText = "";
-					try{
-						newFromText = getTextByFileElemAndID("goldStandard.xml",fromElemName,newFromID);
-					}catch(Exception e){
+					boolean fromOverlap = false;
+					if((fromStart >= begin && fromStart<=end) || 
+							(fromEnd >= begin && fromEnd <=end) ||
+							(fromStart<=begin && fromEnd>=end)){
+						overlap=true;
+						fromOverlap = true;
 					}
 
-					links.get(j).put("fromText",newFromText);
-
-					//now, do the same for toID and toText
-
-					//get location of toID extent
-					query = ("select distinct(id) from extents " +
-							"where element_name = '"+toElemName+"' and file_name = '" +
-							"goldStandard.xml" + "' and location >= " 
-							+ toStart + " and location <=" + toEnd + ";");
+					//do the same for the toID
+					//need to get type of extent to ensure compatibility
+					String toid = link.get("toID");
+					query = ("select * from extents where file_name = '" 
+							+ filename + "' and id = '" + toid + "';");
+					rs = stat.executeQuery(query);
+					String toElemName = rs.getString("element_name");
+					rs.close();
 
+					//check to see if toID overlaps with selected text
+					query = ("select start, end from " + toElemName + 
+							" where id = '" + toid + "' and file_name = '" +
+							filename + "';");
 					rs = stat.executeQuery(query);
-					//NOTE: assumes there will be a one-to-one overlap
-					//may need to be fixed in later versions
-					String newToID = rs.getString("id");
+					int toStart = Integer.parseInt(rs.getString("start"));
+					int toEnd = Integer.parseInt(rs.getString("end"));
 					rs.close();
-					links.get(j).put("toID",newToID);
-					String newToText = "";
-					try{
-						newToText = getTextByFileElemAndID("goldStandard.xml",toElemName,newToID);
-					}catch(Exception e){
+					boolean toOverlap = false;
+					if((toStart >= begin && toStart<=end) || 
+							(toEnd >= begin && toEnd <=end) ||
+							(toStart<=begin && toEnd>=end)){
+						overlap=true;
+						toOverlap = true;
 					}
-					links.get(j).put("toText", newToText);
 
-					//add new link info to HashCollection being sent back to MAI
-					gsLinkExtents.putEnt(filename,links.get(j));
+					//if there's an overlap, proceed with replacing the ids and text
+					if(overlap){
+						//add overlaps to currentHighlights
+						if (!fromOverlap){
+							currentHighlights.putEnt(filename,fromStart+"@#@"+fromEnd);
+						}
+						if (!toOverlap){
+							currentHighlights.putEnt(filename,toStart+"@#@"+toEnd);
+						}
+
+						//first, swap out fromID and fromText
+						query = ("select distinct(id) from extents " +
+								"where element_name = '"+fromElemName+"' and file_name = '" +
+								"goldStandard.xml" + "' and location >= " 
+								+ fromStart + " and location <=" + fromEnd + ";");
+
+						rs = stat.executeQuery(query);
+						//NOTE: assumes there will be a one-to-one overlap
+						//may need to be fixed in later versions
+						String newFromID = rs.getString("id");
+						rs.close();
+						links.get(j).put("fromID",newFromID);
+
+						String newFromText = "";
+						try{
+							newFromText = getTextByFileElemAndID("goldStandard.xml",fromElemName,newFromID);
+						}catch(Exception e){
+						}
+
+						links.get(j).put("fromText",newFromText);
+
+						//now, do the same for toID and toText
+
+						//get location of toID extent
+						query = ("select distinct(id) from extents " +
+								"where element_name = '"+toElemName+"' and file_name = '" +
+								"goldStandard.xml" + "' and location >= " 
+								+ toStart + " and location <=" + toEnd + ";");
+
+						rs = stat.executeQuery(query);
+						//NOTE: assumes there will be a one-to-one overlap
+						//may need to be fixed in later versions
+						String newToID = rs.getString("id");
+						rs.close();
+						links.get(j).put("toID",newToID);
+						String newToText = "";
+						try{
+							newToText = getTextByFileElemAndID("goldStandard.xml",toElemName,newToID);
+						}catch(Exception e){
+						}
+						links.get(j).put("toText", newToText);
+
+						//add new link info to HashCollection being sent back to MAI
+						gsLinkExtents.putEnt(filename,links.get(j));
+
+					}
 
 				}
 
 			}
-
+			metrics.returned(gsLinkExtents.size());
+			return gsLinkExtents;
+		}finally{
+			closeRead(rc,stat);
 		}
-		return gsLinkExtents;
 	}
 
 	/**
@@ -1324,15 +2491,29 @@ class AdjudDB {
 	 */
 	String getTextByFileElemAndID(String file, String elem, String id)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = ("select text from " + elem + 
-				" where file_name = '"+ file +"' and id = '"
-				+ id + "';");
-		ResultSet rs = stat.executeQuery(query);
-		String text = rs.getString("text");
-		rs.close();
-		return text;
-
+		String cached = cache.getText(file,elem,id);
+		if(cached!=null){
+			return cached;
+		}
+		long gen = cache.generation();
+		Connection rc = openRead("getTextByFileElemAndID");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = ("select text from " + elem + 
+					" where file_name = '"+ file +"' and id = '"
+					+ id + "';");
+			ResultSet rs = stat.executeQuery(query);
+			String text = rs.getString("text");
+			rs.close();
+			metrics.returned(1);
+			if(text!=null){
+				cache.putText(gen,file,elem,id,text);
+			}
+			return text;
+		}finally{
+			closeRead(rc,stat);
+		}
 	}
 
 	/**
@@ -1347,43 +2528,40 @@ class AdjudDB {
 	 */
 	HashCollection<String,String> getFileTagsInSpanAndNC(String file,int begin, int end)
 			throws Exception{
-		Statement stat = conn.createStatement();
-		String query = "";
-		if(begin!=end){
-			query = ("select distinct(id), element_name from extents where location >= " 
-					+ begin + " and location <=" + end + " and file_name ='" + file + "';");
-		}
-		else{
-			query = ("select distinct(id), element_name from extents where location = " 
-					+ begin + " and file_name = '" + file+ "';");
-		}
-
-		ResultSet rs = stat.executeQuery(query);
-		HashCollection<String,String> tags = new HashCollection<String,String>();
-		while(rs.next()){
-			tags.putEnt(rs.getString("element_name"),rs.getString("id"));
-		}
-		rs.close();
+		Connection rc = openRead("getFileTagsInSpanAndNC");
+		Statement stat = null;
+		try{
+			stat = rc.createStatement();
+			String query = "";
+			if(begin!=end){
+				query = ("select distinct(id), element_name from extents where location >= " 
+						+ begin + " and location <=" + end + " and file_name ='" + file + "';");
+			}
+			else{
+				query = ("select distinct(id), element_name from extents where location = " 
+						+ begin + " and file_name = '" + file+ "';");
+			}
 
-		//now get the non-consuming tags
-		query = ("select distinct(id), element_name from extents where location = -1;");
-		rs = stat.executeQuery(query);
-		while(rs.next()){
-			tags.putEnt(rs.getString("element_name"),rs.getString("id"));
-		}
-		rs.close();
+			ResultSet rs = stat.executeQuery(query);
+			HashCollection<String,String> tags = new HashCollection<String,String>();
+			while(rs.next()){
+				tags.putEnt(rs.getString("element_name"),rs.getString("id"));
+			}
+			rs.close();
 
-		return tags;
-	}
+			//now get the non-consuming tags
+			query = ("select distinct(id), element_name from extents where location = -1;");
+			rs = stat.executeQuery(query);
+			while(rs.next()){
+				tags.putEnt(rs.getString("element_name"),rs.getString("id"));
+			}
+			rs.close();
 
-	/**
-	 * Returns the HashCollection currentHighlights for use 
-	 * in highlighting the appropriate extents in MAI's text area.
-	 * 
-	 * @return
-	 */
-	public HashCollection<String,String>getCurrentHighlights(){
-		return currentHighlights;
+			metrics.returned(tags.size());
+			return tags;
+		}finally{
+			closeRead(rc,stat);
+		}
 	}
 
 	//Below are a series of methods for printing the information in the
@@ -1396,8 +2574,11 @@ class AdjudDB {
 	 */
 	public void print_extents(){
 		System.out.println("Extents in DB:");
+		Connection rc = null;
+		Statement stat = null;
 		try{
-			Statement stat = conn.createStatement();
+			rc = openRead("print_extents");
+			stat = rc.createStatement();
 			ResultSet rs = stat.executeQuery("select * from extents;");
 			while (rs.next()) {
 				System.out.println("file name = " + rs.getString("file_name"));
@@ -1408,6 +2589,10 @@ class AdjudDB {
 			rs.close();
 		}catch(Exception e){
 			System.out.println(e.toString());
+		}finally{
+			if(rc!=null){
+				closeRead(rc,stat);
+			}
 		}
 
 	}
@@ -1417,8 +2602,11 @@ class AdjudDB {
 	 */
 	public void print_unique_extents(){
 		System.out.println("Extents in DB:");
+		Connection rc = null;
+		Statement stat = null;
 		try{
-			Statement stat = conn.createStatement();
+			rc = openRead("print_unique_extents");
+			stat = rc.createStatement();
 			ResultSet rs = stat.executeQuery("select distinct(id), file_name, element_name from extents;");
 			while (rs.next()) {
 				System.out.println("file name = " + rs.getString("file_name"));
@@ -1428,6 +2616,10 @@ class AdjudDB {
 			rs.close();
 		}catch(Exception e){
 			System.out.println(e.toString());
+		}finally{
+			if(rc!=null){
+				closeRead(rc,stat);
+			}
 		}
 
 	}
@@ -1438,8 +2630,11 @@ class AdjudDB {
 	public void print_links(){
 		System.out.println("Links in DB:");
 		//links (id,fromid,from_name,toid,to_name,element_name);");
+		Connection rc = null;
+		Statement stat = null;
 		try{
-			Statement stat = conn.createStatement();
+			rc = openRead("print_links");
+			stat = rc.createStatement();
 			ResultSet rs = stat.executeQuery("select * from links;");
 			while (rs.next()) {
 				System.out.println("file name = " + rs.getString("file_name"));
@@ -1453,6 +2648,10 @@ class AdjudDB {
 			rs.close();
 		}catch(Exception e){
 			System.out.println(e.toString());
+		}finally{
+			if(rc!=null){
+				closeRead(rc,stat);
+			}
 		}
 
 	}
@@ -1462,8 +2661,11 @@ class AdjudDB {
 	 */
 	public void print_overlaps(){
 		System.out.println("\nExtent overlaps:");
+		Connection rc = null;
+		Statement stat = null;
 		try{
-			Statement stat = conn.createStatement();
+			rc = openRead("print_overlaps");
+			stat = rc.createStatement();
 			ResultSet rs = stat.executeQuery("select * from extent_overlaps;");
 			while (rs.next()) {
 				System.out.println("gsid = " + rs.getString("gsid"));
@@ -1475,6 +2677,10 @@ class AdjudDB {
 		}
 		catch(Exception e){
 			System.out.println(e.toString());
+		}finally{
+			if(rc!=null){
+				closeRead(rc,stat);
+			}
 		}
 	}
 
@@ -1486,8 +2692,11 @@ class AdjudDB {
 	 */
 	private void print_other(String extent_name){
 		System.out.println("\nTag info:");
+		Connection rc = null;
+		Statement stat = null;
 		try{
-			Statement stat = conn.createStatement();
+			rc = openRead("print_other");
+			stat = rc.createStatement();
 			ResultSet rs = stat.executeQuery("select * from "+ extent_name + ";");
 			while (rs.next()) {
 				System.out.println("id = " + rs.getString("id"));
@@ -1497,6 +2706,24 @@ class AdjudDB {
 		}
 		catch(Exception e){
 			System.out.println(e.toString());
+		}finally{
+			if(rc!=null){
+				closeRead(rc,stat);
+			}
+		}
+	}
+
+	/**
+	 * Keeps track of the read connection a thread is using, so that 
+	 * queries made while another is running share its connection
+	 */
+	private static class ReadLease{
+		Connection conn;
+		int depth;
+
+		ReadLease(Connection conn){
+			this.conn = conn;
+			depth = 1;
 		}
 	}
 
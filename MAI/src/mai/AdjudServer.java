@@ -0,0 +1,566 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.PlainDocument;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * AdjudServer runs a saved session without the GUI and answers
+ * AdjudicationTask's queries over HTTP, so that several adjudicators
+ * and automated checks can work on the same session at once.  It uses
+ * the HTTP server that comes with the JDK.  From the MAI directory:
+ * <pre>
+ * java -cp bin:resources/sqlitejdbc-v056.jar mai.AdjudServer session.mai
+ *     [-port 8080] [-bind 127.0.0.1] [-threads 32]
+ * </pre>
+ * The answers are JSON.  Parameters are passed in the query string:
+ * <pre>
+ * GET  /task                       the DTD's elements, the text's length and the files
+ * GET  /spans?elem=&amp;begin=&amp;end=       IDs of the tags of a type in a span, by file
+ * GET  /locs?elem=[&amp;begin=&amp;end=]      files with a type of extent at each location
+ * GET  /file?file=[&amp;begin=&amp;end=]      IDs of a file's tags in a span, by type
+ * GET  /tag?elem=&amp;id=[&amp;file=]         a tag's attributes
+ * GET  /links?elem=&amp;id=[&amp;file=]       IDs of the links anchored on an extent, by type
+ * POST /gold/add?elem=             adds the tag in the body (a JSON object of
+ *                                  attributes) to the gold standard, replacing
+ *                                  the one with the same id; answers its id
+ * POST /gold/remove?elem=&amp;id=      removes a gold standard tag and the links
+ *                                  anchored on it
+ * POST /undo, /redo                undoes or redoes the last change to the gold standard
+ * GET  /export                     the gold standard as XML
+ * POST /save                       saves the session's ID counters
+ * </pre>
+ * The file defaults to goldStandard.xml.  Changes to the gold standard
+ * go into the session as they're made, as they do in the GUI; they're
+ * made one at a time so that each is undone on its own.  Queries run
+ * at the same time as each other on the database's reading connections.
+ * <p>
+ * Requests are run on virtual threads when the JVM has them, and on
+ * a pool of threads otherwise.
+ *
+ */
+
+class AdjudServer {
+
+	private static final String GOLD = "goldStandard.xml";
+
+	private AdjudicationTask task;
+	private AdjudSession session;
+	private PlainDocument doc;  //the text, for exporting the gold standard
+	private HttpServer server;
+	private ExecutorService executor;
+	private final Object edits = new Object();
+
+	/**
+	 * @param task the task the session was opened in
+	 * @param session the session
+	 * @param address where to listen
+	 * @param threads how many requests to run at once if there are
+	 * no virtual threads
+	 */
+	AdjudServer(AdjudicationTask task, AdjudSession session, InetSocketAddress address,
+			int threads) throws Exception{
+		this.task = task;
+		this.session = session;
+		doc = new PlainDocument();
+		doc.insertString(0,session.getText(),null);
+		doc.putProperty(DefaultEditorKit.EndOfLineStringProperty,"\n");
+		//the headers and body of an answer are written separately, and
+		//otherwise the body waits for the client to acknowledge the headers
+		if(System.getProperty("sun.net.httpserver.nodelay")==null){
+			System.setProperty("sun.net.httpserver.nodelay","true");
+		}
+		server = HttpServer.create(address,0);
+		executor = newExecutor(threads);
+		server.setExecutor(executor);
+		addEndpoints();
+	}
+
+	void start(){
+		server.start();
+	}
+
+	/**
+	 * Stops answering requests
+	 *
+	 * @param delay the most seconds to wait for requests that have
+	 * started to finish
+	 */
+	void stop(int delay){
+		server.stop(delay);
+		executor.shutdown();
+		try{
+			executor.awaitTermination(delay,TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			executor.shutdownNow();
+		}
+	}
+
+	int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Makes an executor that starts a virtual thread for each request,
+	 * if the JVM has them.  It's looked up by name so MAI still builds
+	 * and runs on JVMs without them.
+	 *
+	 * @param threads the size of the pool used otherwise
+	 */
+	static ExecutorService newExecutor(int threads){
+		try{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(Exception e){
+			return Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	private void addEndpoints(){
+		server.createContext("/task",new Endpoint("GET"){
+			Object answer(Hashtable<String,String> p, String body){
+				LinkedHashMap<String,Object> info = new LinkedHashMap<String,Object>();
+				info.put("dtd",task.getDTDName());
+				info.put("length",doc.getLength());
+				info.put("extents",task.getExtentElements());
+				info.put("links",task.getLinkElements());
+				info.put("files",session.getFilenames());
+				info.put("edits",task.getEditCount());
+				return info;
+			}
+		});
+		server.createContext("/spans",new Endpoint("GET"){
+			Object answer(Hashtable<String,String> p, String body){
+				return found(task.getTagsSpanByType(number(p,"begin"),number(p,"end"),elem(p).getName()));
+			}
+		});
+		server.createContext("/locs",new Endpoint("GET"){
+			Object answer(Hashtable<String,String> p, String body){
+				String elem = extent(p).getName();
+				if(p.containsKey("begin") || p.containsKey("end")){
+					return task.getExtentLocsInSpan(elem,number(p,"begin"),number(p,"end"));
+				}
+				return task.getExtentAllLocs(elem);
+			}
+		});
+		server.createContext("/file",new Endpoint("GET"){
+			Object answer(Hashtable<String,String> p, String body){
+				int begin = p.containsKey("begin") ? number(p,"begin") : 0;
+				int end = p.containsKey("end") ? number(p,"end") : doc.getLength();
+				return found(task.getFileTagsSpanAndNC(file(p),begin,end));
+			}
+		});
+		server.createContext("/tag",new Endpoint("GET"){
+			Object answer(Hashtable<String,String> p, String body){
+				Hashtable<String,String> tag = task.getTagsByFileAndID(elem(p).getName(),
+						param(p,"id"),file(p));
+				if(tag==null || tag.size()==0){
+					throw new RequestException(404,"no "+p.get("elem")+" "+p.get("id")+" in "+file(p));
+				}
+				return tag;
+			}
+		});
+		server.createContext("/links",new Endpoint("GET"){
+			Object answer(Hashtable<String,String> p, String body){
+				return found(task.getLinksByFileAndExtentID(file(p),extent(p).getName(),param(p,"id")));
+			}
+		});
+		server.createContext("/gold/add",new Endpoint("POST"){
+			Object answer(Hashtable<String,String> p, String body){
+				return add(elem(p),body);
+			}
+		});
+		server.createContext("/gold/remove",new Endpoint("POST"){
+			Object answer(Hashtable<String,String> p, String body){
+				return remove(elem(p),param(p,"id"));
+			}
+		});
+		server.createContext("/undo",new Endpoint("POST"){
+			Object answer(Hashtable<String,String> p, String body) throws Exception{
+				synchronized(edits){
+					return done("undone",task.undo());
+				}
+			}
+		});
+		server.createContext("/redo",new Endpoint("POST"){
+			Object answer(Hashtable<String,String> p, String body) throws Exception{
+				synchronized(edits){
+					return done("redone",task.redo());
+				}
+			}
+		});
+		server.createContext("/save",new Endpoint("POST"){
+			Object answer(Hashtable<String,String> p, String body) throws Exception{
+				synchronized(edits){
+					task.saveSession(session);
+				}
+				return done("saved",session.getFile().getPath());
+			}
+		});
+		server.createContext("/export",new HttpHandler(){
+			public void handle(HttpExchange ex) throws IOException{
+				try{
+					if(!ex.getRequestMethod().equals("GET")){
+						send(ex,405,error("use GET"));
+						return;
+					}
+					export(ex);
+				}finally{
+					ex.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds a tag to the gold standard.  A tag without an id is given the
+	 * next one; one with the id of a tag already there replaces it, and
+	 * both are undone together.
+	 */
+	private Object add(Elem e, String body){
+		LinkedHashMap<String,String> atts;
+		try{
+			atts = Json.parseStrings(body);
+		}catch(IllegalArgumentException ex){
+			throw new RequestException(400,ex.getMessage());
+		}
+		Hashtable<String,String> tag = new Hashtable<String,String>();
+		ArrayList<Attrib> attribs = e.getAttributes();
+		for(int i=0;i<attribs.size();i++){
+			String name = attribs.get(i).getName();
+			String value = atts.remove(name);
+			tag.put(name,value==null ? "" : value);
+		}
+		if(atts.size()>0){
+			throw new RequestException(400,e.getName()+" has no attribute "+atts.keySet().iterator().next());
+		}
+		if(e instanceof ElemExtent){
+			span(e,tag);
+		}
+		synchronized(edits){
+			String id = tag.get("id");
+			if(id.length()==0){
+				id = task.getNextID(e.getName(),GOLD);
+				tag.put("id",id);
+				task.addTagFromHash(GOLD,e,tag);
+			}
+			else{
+				task.beginEdit("Modify "+e.getName());
+				try{
+					if(e instanceof ElemExtent){
+						task.removeExtentByFileAndID(GOLD,e.getName(),id);
+					}
+					else{
+						task.removeLinkByFileAndID(GOLD,e.getName(),id);
+					}
+					task.addTagFromHash(GOLD,e,tag);
+				}finally{
+					task.endEdit();
+				}
+			}
+			return done("id",id);
+		}
+	}
+
+	/**
+	 * Checks the start and end of an extent against the text, and fills
+	 * in its text if it wasn't given, as the GUI does
+	 */
+	private void span(Elem e, Hashtable<String,String> tag){
+		if(tag.get("start").length()==0 && tag.get("end").length()==0 
+				&& !e.getAttribute("start").getRequired()){
+			//a non-consuming tag
+			tag.put("start","-1");
+			tag.put("end","-1");
+			return;
+		}
+		int start;
+		int end;
+		try{
+			start = Integer.parseInt(tag.get("start"));
+			end = Integer.parseInt(tag.get("end"));
+		}catch(NumberFormatException ex){
+			throw new RequestException(400,"start and end have to be numbers");
+		}
+		if(start<0 || start>end || end>doc.getLength()){
+			throw new RequestException(400,"the span "+start+"-"+end+" isn't in the text");
+		}
+		if(tag.containsKey("text") && tag.get("text").length()==0){
+			try{
+				tag.put("text",doc.getText(start,end-start));
+			}catch(Exception ex){
+				System.out.println(ex.toString());
+			}
+		}
+	}
+
+	/**
+	 * Removes a tag from the gold standard, along with any links anchored on it
+	 *
+	 * @return the links that were removed, by type
+	 */
+	private Object remove(Elem e, String id){
+		synchronized(edits){
+			Hashtable<String,String> tag = task.getTagsByFileAndID(e.getName(),id,GOLD);
+			if(tag==null || tag.size()==0){
+				throw new RequestException(404,"no "+e.getName()+" "+id+" in the gold standard");
+			}
+			HashCollection<String,String> tags = new HashCollection<String,String>();
+			tags.putEnt(e.getName(),id);
+			HashCollection<String,String> links = new HashCollection<String,String>();
+			task.removeTagsByFileAndID(GOLD,tags,links);
+			LinkedHashMap<String,Object> removed = new LinkedHashMap<String,Object>();
+			removed.put("removed",id);
+			removed.put("links",links);
+			return removed;
+		}
+	}
+
+	/**
+	 * Writes the gold standard out as it's read, the way it's saved as XML
+	 */
+	private void export(HttpExchange ex) throws IOException{
+		ex.getResponseHeaders().set("Content-Type","application/xml; charset=UTF-8");
+		ex.sendResponseHeaders(200,0);
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(),"UTF-8"),64*1024);
+		GoldStandardWriter out = new GoldStandardWriter(bw);
+		try{
+			String root = task.getDTDName();
+			out.startDocument(root);
+			out.text(doc);
+			out.startTags();
+			ArrayList<Elem> elems = task.getElements();
+			for(int i=0;i<elems.size();i++){
+				task.writeTagsByFileAndType(GOLD,elems.get(i),out);
+			}
+			out.endDocument(root);
+			bw.flush();
+		}catch(Exception e){
+			//the status has been sent, so all that can be done is to stop
+			System.out.println(e.toString());
+		}
+	}
+
+	private Elem elem(Hashtable<String,String> p){
+		String name = param(p,"elem");
+		Elem e = task.getElem(name);
+		if(e==null){
+			throw new RequestException(404,"the DTD has no element "+name);
+		}
+		return e;
+	}
+
+	private Elem extent(Hashtable<String,String> p){
+		Elem e = elem(p);
+		if(!(e instanceof ElemExtent)){
+			throw new RequestException(400,e.getName()+" is not an extent");
+		}
+		return e;
+	}
+
+	private static String file(Hashtable<String,String> p){
+		String file = p.get("file");
+		return file==null ? GOLD : file;
+	}
+
+	private static String param(Hashtable<String,String> p, String name){
+		String value = p.get(name);
+		if(value==null){
+			throw new RequestException(400,"missing parameter "+name);
+		}
+		return value;
+	}
+
+	private static int number(Hashtable<String,String> p, String name){
+		try{
+			return Integer.parseInt(param(p,name));
+		}catch(NumberFormatException e){
+			throw new RequestException(400,name+" is not a number");
+		}
+	}
+
+	/**
+	 * AdjudicationTask's queries return null when the database couldn't
+	 * answer them
+	 */
+	private static Object found(Object answer){
+		if(answer==null){
+			throw new RequestException(500,"the query failed");
+		}
+		return answer;
+	}
+
+	private static LinkedHashMap<String,Object> done(String name, Object value){
+		LinkedHashMap<String,Object> answer = new LinkedHashMap<String,Object>();
+		answer.put(name,value);
+		return answer;
+	}
+
+	private static String error(String message){
+		return Json.write(done("error",message));
+	}
+
+	private static void send(HttpExchange ex, int status, String json) throws IOException{
+		byte[] b = json.getBytes("UTF-8");
+		ex.getResponseHeaders().set("Content-Type","application/json; charset=UTF-8");
+		ex.sendResponseHeaders(status,b.length);
+		OutputStream out = ex.getResponseBody();
+		out.write(b);
+		out.close();
+	}
+
+	/**
+	 * Reads the parameters out of a query string
+	 */
+	static Hashtable<String,String> parseQuery(String query) throws IOException{
+		Hashtable<String,String> p = new Hashtable<String,String>();
+		if(query==null){
+			return p;
+		}
+		String[] pairs = query.split("&");
+		for(int i=0;i<pairs.length;i++){
+			int eq = pairs[i].indexOf('=');
+			if(eq>0){
+				p.put(URLDecoder.decode(pairs[i].substring(0,eq),"UTF-8"),
+						URLDecoder.decode(pairs[i].substring(eq+1),"UTF-8"));
+			}
+		}
+		return p;
+	}
+
+	private static String readBody(InputStream in) throws IOException{
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		byte[] b = new byte[4096];
+		int n;
+		while((n = in.read(b))>0){
+			buf.write(b,0,n);
+		}
+		in.close();
+		return buf.toString("UTF-8");
+	}
+
+	/**
+	 * An error that's sent back as the answer to a request
+	 */
+	static class RequestException extends RuntimeException{
+		private static final long serialVersionUID = 1L;
+		int status;
+
+		RequestException(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Answers one kind of request with JSON
+	 */
+	abstract static class Endpoint implements HttpHandler{
+		private String method;
+
+		Endpoint(String method){
+			this.method = method;
+		}
+
+		/**
+		 * @param p the parameters in the query string
+		 * @param body the body of a POST, or null
+		 * @return what to send back as JSON
+		 * @throws RequestException to send an error back
+		 */
+		abstract Object answer(Hashtable<String,String> p, String body) throws Exception;
+
+		public void handle(HttpExchange ex) throws IOException{
+			try{
+				if(!ex.getRequestMethod().equals(method)){
+					send(ex,405,error("use "+method));
+					return;
+				}
+				String body = method.equals("POST") ? readBody(ex.getRequestBody()) : null;
+				String json;
+				try{
+					json = Json.write(answer(parseQuery(ex.getRequestURI().getRawQuery()),body));
+				}catch(RequestException e){
+					send(ex,e.status,error(e.getMessage()));
+					return;
+				}catch(Exception e){
+					System.out.println(e.toString());
+					send(ex,500,error(e.toString()));
+					return;
+				}
+				send(ex,200,json);
+			}finally{
+				ex.close();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		if(args.length==0 || args[0].startsWith("-")){
+			System.out.println("usage: AdjudServer session.mai [-port 8080] [-bind 127.0.0.1] [-threads 32]");
+			return;
+		}
+		Hashtable<String,String> options = new Hashtable<String,String>();
+		for(int i=1;i+1<args.length;i+=2){
+			if(!args[i].startsWith("-")){
+				System.out.println("unknown argument "+args[i]);
+				return;
+			}
+			options.put(args[i].substring(1),args[i+1]);
+		}
+		String port = options.containsKey("port") ? options.get("port") : "8080";
+		String bind = options.containsKey("bind") ? options.get("bind") : "127.0.0.1";
+		String threads = options.containsKey("threads") ? options.get("threads") : "32";
+		AdjudicationTask task = new AdjudicationTask();
+		AdjudSession session = task.openSession(new File(args[0]));
+		final AdjudServer server = new AdjudServer(task,session,
+				new InetSocketAddress(bind,Integer.parseInt(port)),Integer.parseInt(threads));
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				server.stop(5);
+			}
+		});
+		server.start();
+		System.out.println("serving "+args[0]+" on http://"+bind+":"+server.getPort()+"/");
+	}
+
+}
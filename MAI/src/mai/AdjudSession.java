@@ -0,0 +1,219 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+/**
+ * AdjudSession describes a saved adjudication.  A session is a
+ * copy of MAI's SQLite database with a few extra tables holding
+ * the DTD fingerprint, the text, the files being adjudicated,
+ * the locations visited for each link tag and the ID counters,
+ * so reopening it doesn't require parsing any of the annotation
+ * files again.  Once a session is saved or opened MAI works on
+ * the session file directly, so changes to the gold standard are
+ * kept in it as they are made.
+ * <p>
+ * Each file is recorded with its size, modification time and a hash
+ * of its contents.  When the session is reopened only the files
+ * whose size or time changed are hashed, and only the files whose
+ * hash changed are imported again.  A file that was only touched has
+ * its new time recorded, so it isn't hashed again.
+ *
+ */
+
+class AdjudSession {
+
+	static final String VERSION = "1";
+
+	private File file;
+	private File dtdFile;
+	private String text;
+	private ArrayList<Entry> entries;
+	private HashCollection<String,Integer> visitedLocs;
+	private ArrayList<String> reimported;
+	private ArrayList<String> missing;
+
+	AdjudSession(File file){
+		this.file = file;
+		entries = new ArrayList<Entry>();
+		visitedLocs = new HashCollection<String,Integer>();
+		reimported = new ArrayList<String>();
+		missing = new ArrayList<String>();
+	}
+
+	File getFile(){
+		return file;
+	}
+
+	File getDTDFile(){
+		return dtdFile;
+	}
+
+	void setDTDFile(File f){
+		dtdFile = f;
+	}
+
+	String getText(){
+		return text;
+	}
+
+	void setText(String t){
+		text = t;
+	}
+
+	/**
+	 * Returns the files in the session, in the order they
+	 * appear in MAI's file list.  The gold standard is included
+	 * and has no source file.
+	 *
+	 * @return the session's files
+	 */
+	ArrayList<Entry> getEntries(){
+		return entries;
+	}
+
+	void addEntry(Entry e){
+		entries.add(e);
+	}
+
+	/**
+	 * Returns the names of the files in the order MAI lists them
+	 *
+	 * @return ArrayList of file names
+	 */
+	ArrayList<String> getFilenames(){
+		ArrayList<String> names = new ArrayList<String>();
+		for(int i=0;i<entries.size();i++){
+			names.add(entries.get(i).name);
+		}
+		return names;
+	}
+
+	HashCollection<String,Integer> getVisitedLocs(){
+		return visitedLocs;
+	}
+
+	void setVisitedLocs(HashCollection<String,Integer> v){
+		visitedLocs = v;
+	}
+
+	/**
+	 * Returns the names of the files that had changed since the
+	 * session was saved and were imported again when it was opened.
+	 *
+	 * @return ArrayList of file names
+	 */
+	ArrayList<String> getReimported(){
+		return reimported;
+	}
+
+	/**
+	 * Returns the names of the files that couldn't be found or
+	 * read when the session was opened, or whose text no longer
+	 * matches; their tags are used as they were saved.
+	 *
+	 * @return ArrayList of file names
+	 */
+	ArrayList<String> getMissing(){
+		return missing;
+	}
+
+	/**
+	 * Returns the SHA-256 hash of a file's contents as a hex string
+	 *
+	 * @param f the file being hashed
+	 * @return the hash
+	 * @throws Exception
+	 */
+	static String hashFile(File f) throws Exception{
+		MessageDigest md = Sha256.digest();
+		InputStream in = new FileInputStream(f);
+		try{
+			byte[] buf = new byte[65536];
+			int n;
+			while((n = in.read(buf))!=-1){
+				md.update(buf,0,n);
+			}
+		}finally{
+			in.close();
+		}
+		return Sha256.hex(md.digest());
+	}
+
+	/**
+	 * One of the files in a session
+	 */
+	static class Entry{
+		String name;
+		String path; //empty for the gold standard
+		long size;
+		long modified;
+		String hash;
+
+		Entry(String name, String path, long size, long modified, String hash){
+			this.name = name;
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Records the current state of a file
+		 *
+		 * @param name the name the file has in MAI
+		 * @param f the file on disk
+		 * @return the Entry for the file
+		 * @throws Exception if the file can't be read
+		 */
+		static Entry describe(String name, File f) throws Exception{
+			return new Entry(name,f.getPath(),f.length(),
+					f.lastModified(),hashFile(f));
+		}
+
+		boolean hasSource(){
+			return path!=null && path.length()>0;
+		}
+
+		/**
+		 * Checks whether the file on disk is the one that was
+		 * saved.  The file is only hashed if its size or
+		 * modification time is different.
+		 *
+		 * @param f the file on disk
+		 * @return true if the file hasn't changed
+		 * @throws Exception if the file can't be read
+		 */
+		boolean isCurrent(File f) throws Exception{
+			if(f.length()==size && f.lastModified()==modified){
+				return true;
+			}
+			return f.length()==size && hashFile(f).equals(hash);
+		}
+	}
+
+}
@@ -22,7 +22,9 @@
 
 package mai;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** 
  * AdjudicationTask serves as a go-between for MaiGui and the 
@@ -30,7 +32,8 @@ import java.util.*;
  * assignments for the gold standard file.
  * <p>
  * The majority of methods in this file just provide error 
- * catching for the methods in AdjudDB.
+ * catching for the methods in AdjudDB.  The calls made by the GUI 
+ * are logged by the ActionRecorder when recording is turned on.
  * 
  * @author Amber Stubbs 
  * @version 0.7 April 19, 2012
@@ -40,11 +43,24 @@ import java.util.*;
 class AdjudicationTask {
 
 	private Hashtable<String,Elem> elements;
-	private Hashtable<String,AttID> idTracker;
+	private volatile IdAllocator ids;
 
-	private AdjudDB tagTable;
+	private volatile AdjudDB tagTable;
 	private DTD dtd;
 	private boolean hasDTD;
+	private AtomicInteger editCount; //incremented whenever the tags in the DB change
+	private volatile ArrayList<String> currentLinks; //links relevant to the selected link tag
+	private volatile HashCollection<String,String> currentHighlights; //extents to highlight
+	private ActionRecorder recorder;
+	private SpanPrefetcher prefetcher;
+	private EditJournal journal;
+	private volatile GoldStandardLog autosave; //null until startAutosave is called
+	private HashCollection<String,Hashtable<String,String>> recovered;
+	private AtomicInteger goldEdits; //counts the changes to the gold standard
+	private Hashtable<String,Integer> goldVersions; //the count when each element's tags last changed
+	private volatile GoldStandardExport lastExport; //where the gold standard was last saved as XML
+	private volatile SessionSnapshot snapshot; //the session as it was opened, until it's changed
+	private volatile int snapshotEdits;        //the edit count when it was opened
 
 	/**
 	 * Creates a new AdjudicationTask object and accompanying database
@@ -52,28 +68,215 @@ class AdjudicationTask {
 	AdjudicationTask(){
 		tagTable = new AdjudDB();
 		hasDTD = false;
+		editCount = new AtomicInteger();
+		currentLinks = new ArrayList<String>();
+		currentHighlights = new HashCollection<String,String>();
+		recorder = ActionRecorder.getDefault();
+		prefetcher = new SpanPrefetcher();
+		journal = new EditJournal();
+		goldEdits = new AtomicInteger();
+		goldVersions = new Hashtable<String,Integer>();
 	}
 
 	/**
 	 * resets the database
 	 */
 	void reset_db(){
+		long start = System.nanoTime();
+		stopAutosave(false);
+		lastExport = null;
 		tagTable.close_db();
 		tagTable = new AdjudDB();
+		editCount.incrementAndGet();
+		prefetcher.clear();
+		journal.clear();
+		recorder.record(start,"reset_db",0);
 	}
 
 	/**
-	 * Clears the idTracker hashtable
+	 * Saves the adjudication as a session in the session's file.  The 
+	 * database is copied into the file and MAI then works on the copy,
+	 * so later changes to the gold standard are kept in the session 
+	 * as they're made.  The text, files, visited locations and ID counters
+	 * are only written when this is called.
+	 * 
+	 * @param session the text, files and visited locations being saved
+	 * @throws Exception
+	 */
+	void saveSession(AdjudSession session) throws Exception{
+		AdjudDB db = tagTable;
+		db.beginWrite();
+		try{
+			db.saveSession(session,dtd.getFingerprint(),ids);
+			File f = session.getFile();
+			if(!f.getCanonicalPath().equals(new File(db.getPath()).getCanonicalPath())){
+				db.copyTo(f);
+				AdjudDB copy = new AdjudDB(f.getPath(),false);
+				copy.openDTD(dtd);
+				db.close_db();
+				tagTable = copy;
+			}
+			//the session keeps the gold standard from now on
+			stopAutosave(true);
+			//so that it can be opened again without reading the tables
+			SessionSnapshot.write(SessionSnapshot.fileFor(f),tagTable,dtd,session,ids);
+		}finally{
+			db.endWrite();
+		}
+		editCount.incrementAndGet();
+	}
+
+	/**
+	 * Opens a saved session.  The DTD is loaded from where it was when
+	 * the session was saved and checked against the session's fingerprint,
+	 * and any annotation file that has changed since then is imported again.
+	 * 
+	 * @param f the session file
+	 * @return the session, with the text, files and visited locations 
+	 * @throws Exception if the file isn't a session or the DTD has changed
+	 */
+	AdjudSession openSession(File f) throws Exception{
+		if(!f.isFile()){
+			throw new Exception(f.getName()+" does not exist");
+		}
+		AdjudSession session = new AdjudSession(f);
+		//the snapshot is only used if nothing has changed the session since it was written
+		SessionSnapshot snap = SessionSnapshot.open(SessionSnapshot.fileFor(f),f);
+		AdjudDB db = new AdjudDB(f.getPath(),false);
+		DTD d;
+		try{
+			String fingerprint = null;
+			if(db.isOpen()){
+				fingerprint = db.getSessionInfo("dtd_fingerprint");
+			}
+			if(fingerprint==null){
+				throw new Exception(f.getName()+" is not a MAI session");
+			}
+			File dtdFile = new File(db.getSessionInfo("dtd_path"));
+			d = new DTDLoader(dtdFile).getDTD();
+			if(!d.getFingerprint().equals(fingerprint)){
+				throw new Exception("the DTD "+dtdFile.getPath()+
+						" has changed since the session was saved");
+			}
+			session.setDTDFile(dtdFile);
+			if(snap!=null){
+				snap.loadSession(session);
+			}
+			else{
+				db.loadSession(session);
+			}
+		}catch(Exception e){
+			db.close_db();
+			throw e;
+		}
+		db.openDTD(d);
+		stopAutosave(false);
+		lastExport = null;
+		tagTable.close_db();
+		tagTable = db;
+		journal.clear();
+		setDTD(d);
+		Hashtable<String,Integer> numbers = snap!=null ? snap.getSessionIDs() : db.getSessionIDs();
+		for(Enumeration<String> elems = numbers.keys(); elems.hasMoreElements();){
+			String elem = elems.nextElement();
+			ids.setNumber(elem,numbers.get(elem).intValue());
+		}
+		boolean touched = refreshSessionFiles(session);
+		if(session.getReimported().size()>0){
+			snap = null;
+		}
+		else if(touched && snap!=null){
+			snap.updateModified(SessionSnapshot.fileFor(f),f,session.getEntries());
+		}
+		snapshotEdits = editCount.incrementAndGet();
+		snapshot = snap;
+		return session;
+	}
+
+	/**
+	 * Imports the files in a session again if they've changed on disk
+	 * since it was saved.  Files that are missing, can't be read or 
+	 * no longer have the same text keep the tags that were saved.
+	 * A file whose time changed but whose contents didn't has its new
+	 * time recorded, so it isn't hashed again the next time.
+	 * 
+	 * @return true if the time of a file that hadn't changed was recorded
+	 */
+	private boolean refreshSessionFiles(AdjudSession session){
+		boolean changed = false;
+		boolean touched = false;
+		ArrayList<AdjudSession.Entry> entries = session.getEntries();
+		for(int i=0;i<entries.size();i++){
+			AdjudSession.Entry e = entries.get(i);
+			if(!e.hasSource()){
+				continue;
+			}
+			File src = new File(e.path);
+			try{
+				if(!src.exists()){
+					session.getMissing().add(e.name);
+					continue;
+				}
+				if(e.isCurrent(src)){
+					if(src.lastModified()!=e.modified){
+						e.modified = src.lastModified();
+						tagTable.updateSessionEntry(e);
+						touched = true;
+					}
+					continue;
+				}
+				XMLFileLoader xfl = new XMLFileLoader(src);
+				if(!xfl.getTextChars().equals(session.getText())){
+					System.out.println("text of "+e.path+" no longer matches the session");
+					session.getMissing().add(e.name);
+					continue;
+				}
+				tagTable.removeFileTags(e.name,dtd);
+				if(e.name.equals("goldStandard.xml")){
+					lastExport = null;
+				}
+				HashCollection<String,Hashtable<String,String>> newTags = xfl.getTagHash();
+				if (newTags.size()>0){
+					tagTable.addTagsFromHash(e.name,dtd,newTags);
+					if(e.name.equals("goldStandard.xml")){
+						ids.observeAll(newTags);
+					}
+				}
+				AdjudSession.Entry current = AdjudSession.Entry.describe(e.name,src);
+				e.size = current.size;
+				e.modified = current.modified;
+				e.hash = current.hash;
+				tagTable.updateSessionEntry(e);
+				session.getReimported().add(e.name);
+				changed = true;
+			}catch(Exception ex){
+				System.out.println(ex.toString());
+				session.getMissing().add(e.name);
+			}
+		}
+		if(changed){
+			findAllOverlaps();
+		}
+		return touched;
+	}
+
+	/**
+	 * Starts the gold standard IDs over from 0
 	 */
 	void reset_IDTracker(){
-		idTracker = createIDTracker();
+		long start = System.nanoTime();
+		ids = new IdAllocator(dtd);
+		recorder.record(start,"reset_IDTracker",0);
 	}
 
 	/**
 	 * Calls the DB to create all the necessary tables
 	 */
 	void addDTDtoDB(){
+		long start = System.nanoTime();
 		tagTable.addDTD(dtd);
+		editCount.incrementAndGet();
+		recorder.record(start,"addDTDtoDB",0);
 	}
 
 	/**
@@ -83,20 +286,105 @@ class AdjudicationTask {
 	 */
 	void addTagsFromHash(String fullName, 
 			HashCollection<String,Hashtable<String,String>> newTags){
+		long start = System.nanoTime();
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.DB_IMPORT);
 		tagTable.addTagsFromHash(fullName, dtd, newTags);
+		if(fullName.equals("goldStandard.xml")){
+			//new IDs have to start after the imported ones
+			ids.observeAll(newTags);
+			//the imported tags are already saved in a file, so they
+			//aren't autosaved, but they still have to be exported
+			ArrayList<String> elems = newTags.getKeyList();
+			for(int i=0;i<elems.size();i++){
+				goldChanged(elems.get(i));
+			}
+		}
+		editCount.incrementAndGet();
+		event.setFile(fullName).setTagCount(PhaseEvent.count(newTags)).commit();
+		recorder.record(start,"addTagsFromHash",0,fullName,newTags);
 
 	}
+	/**
+	 * Adds the tags of several annotation files to the database in one
+	 * transaction, such as the files found by BulkImporter.  The gold 
+	 * standard can't be added this way.
+	 * 
+	 * @param files the tags of each file, keyed by the file's name
+	 */
+	void addFilesFromHash(LinkedHashMap<String,HashCollection<String,Hashtable<String,String>>> files)
+			throws Exception{
+		addFilesFromHash(files.entrySet().iterator());
+	}
+
+	/**
+	 * Adds the tags of several annotation files to the database in one
+	 * transaction, a file at a time as they're handed over, such as by 
+	 * a BulkImporter.Pipeline that's still reading the rest.  The gold 
+	 * standard can't be added this way.
+	 * 
+	 * @param files the tags of each file, keyed by the file's name
+	 * @return the number of files added
+	 */
+	int addFilesFromHash(final Iterator<Map.Entry<String,HashCollection<String,Hashtable<String,String>>>> files)
+			throws Exception{
+		long start = System.nanoTime();
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.DB_IMPORT);
+		final int[] count = new int[1];
+		//the tags are only held on to for the log if it's being kept
+		final ArrayList<Object> args = recorder.isRecording() ? new ArrayList<Object>() : null;
+		Iterator<Map.Entry<String,HashCollection<String,Hashtable<String,String>>>> checked = 
+				new Iterator<Map.Entry<String,HashCollection<String,Hashtable<String,String>>>>(){
+			public boolean hasNext(){
+				return files.hasNext();
+			}
+			public Map.Entry<String,HashCollection<String,Hashtable<String,String>>> next(){
+				Map.Entry<String,HashCollection<String,Hashtable<String,String>>> f = files.next();
+				if(f.getKey().equals("goldStandard.xml")){
+					throw new IllegalArgumentException("the gold standard has to be added with addTagsFromHash");
+				}
+				int tags = PhaseEvent.count(f.getValue());
+				count[0] += tags;
+				if(args!=null){
+					args.add(f.getKey());
+					args.add(Integer.valueOf(tags));
+					args.add(f.getValue());
+				}
+				return f;
+			}
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+		int added;
+		try{
+			added = tagTable.addFilesFromHash(checked,dtd);
+		}finally{
+			editCount.incrementAndGet();
+		}
+		event.setFile(added+" files").setTagCount(count[0]).setFileCount(added).commit();
+		if(args!=null){
+			recorder.record(start,"addFilesFromHash",0,args.toArray());
+		}
+		return added;
+	}
+
 	/**
 	 * called when a goldStandard file is added to the task
 	 */
 	void findAllOverlaps(){
+		long start = System.nanoTime();
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.FIND_ALL_OVERLAPS);
+		int overlaps = 0;
 		try{
-			tagTable.findAllOverlaps();
+			overlaps = tagTable.findAllOverlaps();
 		}
 		catch(Exception e){
 			System.out.println("help, error finding extent overlaps!");
 			System.out.println(e.toString());
 		}
+		editCount.incrementAndGet();
+		event.setFile("goldStandard.xml").setTagCount(overlaps).commit();
+		recorder.record(start,"findAllOverlaps",overlaps);
 
 
 	}
@@ -110,47 +398,91 @@ class AdjudicationTask {
 	 * @param tag Hashtable with information about the tag
 	 */
 	void addTagFromHash(String fullName,Elem e, Hashtable<String,String> tag){
-		if (e instanceof ElemExtent){
-			tagTable.usePreparedExtentStatements(fullName, e,tag);
-			try{
-				tagTable.batchExtents();
-			}catch(Exception ex){
-				System.out.println("help, error in batch extents!");
-				System.out.println(ex.toString());
-			}
-			try{
-				tagTable.batchElement(e);
-			}catch(Exception ex){
-				System.out.println("help, error in batchelement extent!");
-				System.out.println(ex.toString());
+		long start = System.nanoTime();
+		try{
+			insertTag(fullName,e,tag);
+			journal.added(fullName,e.getName(),tag);
+		}catch(Exception ex){
+			//already reported by insertTag
+		}
+		recorder.record(start,"addTagFromHash",0,fullName,e,tag);
+	}
+
+	/**
+	 * Adds a tag to the database without recording it in the journal
+	 * 
+	 * @throws Exception the first error, if any part of the tag couldn't be added
+	 */
+	private void insertTag(String fullName,Elem e, Hashtable<String,String> tag) throws Exception{
+		boolean gold = fullName.equals("goldStandard.xml");
+		if(gold){
+			ids.observe(tag.get("id"));
+		}
+		//the tag goes into several tables; nobody should see it half added
+		Exception failed = null;
+		tagTable.beginWrite();
+		try{
+			if (e instanceof ElemExtent){
+				tagTable.usePreparedExtentStatements(fullName, e,tag);
+				try{
+					tagTable.batchExtents();
+				}catch(Exception ex){
+					System.out.println("help, error in batch extents!");
+					System.out.println(ex.toString());
+					failed = failed==null ? ex : failed;
+				}
+				try{
+					tagTable.batchElement(e);
+				}catch(Exception ex){
+					System.out.println("help, error in batchelement extent!");
+					System.out.println(ex.toString());
+					failed = failed==null ? ex : failed;
+				}
+				//also, check for overlaps and add them to the extent_overlaps table
+				if(fullName.equals("goldStandard.xml")){
+					try{
+						tagTable.add_overlaps(fullName,e,tag);
+					}catch(Exception exe){
+						System.out.println("help, error in finding extent overlaps!");
+						System.out.println(exe.toString());
+						failed = failed==null ? exe : failed;
+					}
+				}
 			}
-			//also, check for overlaps and add them to the extent_overlaps table
-			if(fullName.equals("goldStandard.xml")){
+			else if (e instanceof ElemLink){
+				tagTable.usePreparedLinkStatements(fullName, e, tag);
 				try{
-					tagTable.add_overlaps(fullName,e,tag);
-				}catch(Exception exe){
-					System.out.println("help, error in finding extent overlaps!");
-					System.out.println(exe.toString());
+					tagTable.batchLinks();
+				}catch(Exception ex){
+					System.out.println("help, error in batchLinks link!");
+					System.out.println(ex.toString());
+					failed = failed==null ? ex : failed;
+				}
+				try{
+					tagTable.batchElement(e);
+				}catch(Exception ex){
+					System.out.println("help, error in batchElement link!");
+					System.out.println(ex.toString());
+					failed = failed==null ? ex : failed;
 				}
 			}
-		}
-		else if (e instanceof ElemLink){
-			tagTable.usePreparedLinkStatements(fullName, e, tag);
-			try{
-				tagTable.batchLinks();
-			}catch(Exception ex){
-				System.out.println("help, error in batchLinks link!");
-				System.out.println(ex.toString());
+			else{
+				System.out.println("error!  element type not found");
 			}
-			try{
-				tagTable.batchElement(e);
-			}catch(Exception ex){
-				System.out.println("help, error in batchElement link!");
-				System.out.println(ex.toString());
+			//only logged once it's in the database, so a failed add isn't replayed
+			if(gold && failed==null){
+				goldAdded(fullName,e.getName(),tag);
+			}
+			else if(gold){
+				goldChanged(e.getName());
 			}
+		}finally{
+			//counted before anyone can read the new tag
+			editCount.incrementAndGet();
+			tagTable.endWrite();
 		}
-		else{
-			System.out.println("error!  element type not found");
+		if(failed!=null){
+			throw failed;
 		}
 	}
 
@@ -168,63 +500,33 @@ class AdjudicationTask {
 		return(es);
 	}
 
-	/**
-	 * The IDTracker hashtable keeps one ID for each element that
-	 * has an ID, and increments the number so that no two 
-	 * tags of the same type will have the same ID.  In MAI this 
-	 * is used only for the Gold Standard file (other files can't be edited and 
-	 * are assumed to already have only one tag per ID)
-	 * 
-	 * @return
-	 */
-	private Hashtable<String,AttID> createIDTracker(){
-		Hashtable<String,AttID> ids = new Hashtable<String,AttID>();
-		ArrayList<Elem>elems = dtd.getElements();
-		for(int i=0;i<elems.size();i++){
-			ArrayList<Attrib> attribs = elems.get(i).getAttributes();
-			for(int j=0;j<attribs.size();j++){
-				if (attribs.get(j) instanceof AttID){
-					AttID oldid = (AttID)attribs.get(j);
-					AttID id = new AttID(oldid.getName(),
-							oldid.getPrefix(),true);
-					id.setNumber(0);
-					ids.put(elems.get(i).getName(),id);
-				}
-			}
-		}        
-		return ids;
-	}
-
 	/**
 	 * Finds the next available ID for an element and returns it.
+	 * IDs are only handed out for the gold standard, whose 
+	 * existing IDs the IdAllocator has already seen, so the 
+	 * database doesn't need to be checked.
 	 * 
 	 * @param element tag type
 	 * @param fileName name of the file the ID is for
 	 * @return the next ID for that element
 	 */
 	String getNextID(String element,String fileName){
-		AttID id = idTracker.get(element);
-		String nextid = id.getID();
-		id.incrementNumber();
-		//check to see if nextid is already in db
-		//this will catch cases where two tags have
-		//the same prefix
-		try{
-			while(tagTable.idExists(nextid,fileName)){
-				nextid = id.getID();
-				id.incrementNumber();
-			}
-		}catch(Exception e){
-			System.out.println(e.toString());
-		}
+		long start = System.nanoTime();
+		String nextid = ids.next(element);
+		recorder.record(start,"getNextID",1,element,fileName);
 		return nextid;
 
 	}
 
 
 	HashCollection<String,String> getExtentAllLocs(String tagname){
+		long start = System.nanoTime();
 		try{
-			return(tagTable.getExtentAllLocs(tagname));
+			SessionSnapshot snap = getSnapshot();
+			HashCollection<String,String> locs = snap!=null ? snap.getExtentAllLocs(tagname) 
+					: tagTable.getExtentAllLocs(tagname);
+			recorder.record(start,"getExtentAllLocs",PhaseEvent.count(locs),tagname);
+			return locs;
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
@@ -232,56 +534,109 @@ class AdjudicationTask {
 
 	}
 
-	ArrayList<String> getFilesAtLocbyElement(String elem, int loc){
+	HashCollection<String,String> getExtentLocsInSpan(String tagname, int begin, int end){
+		long start = System.nanoTime();
 		try{
-			ArrayList<String>files = tagTable.getFilesAtLocbyElement(elem,loc);
-			return files;
+			HashCollection<String,String> locs = tagTable.getExtentLocsInSpan(tagname,begin,end);
+			recorder.record(start,"getExtentLocsInSpan",PhaseEvent.count(locs),tagname,begin,end);
+			return locs;
 		}catch(Exception e){
 			System.out.println(e.toString());
-			return null;
 		}
+		return (new HashCollection<String,String>());
 	}
 
-	ArrayList<String> getExtentTagsByFileAndType(String file, Elem elem){
-		try{
-			ArrayList<String>tags = tagTable.getExtentTagsByFileAndType(file,elem);
-			return tags;
-		}catch(Exception e){
-			System.out.println(e.toString());
+	/**
+	 * Returns the parts of the text where extent tags have been
+	 * added or removed since the last call.
+	 * 
+	 * @return the changed spans
+	 */
+	SpanSet takeChangedSpans(){
+		return tagTable.takeChangedSpans();
+	}
+
+	/**
+	 * Returns the snapshot of the session that was opened, as long as
+	 * no tags have been added or removed since
+	 */
+	private SessionSnapshot getSnapshot(){
+		SessionSnapshot snap = snapshot;
+		if(snap!=null && editCount.get()!=snapshotEdits){
+			snapshot = null;
 			return null;
 		}
+		return snap;
 	}
 
-	ArrayList<String> getLinkTagsByFileAndType(String file, Elem elem){
+	/**
+	 * Returns a number that changes every time tags are added
+	 * to or removed from the database, so that information 
+	 * worked out from the tags can be checked for staleness.
+	 * 
+	 * @return the edit count
+	 */
+	int getEditCount(){
+		return editCount.get();
+	}
+
+	ArrayList<String> getFilesAtLocbyElement(String elem, int loc){
 		try{
-			ArrayList<String>tags = tagTable.getLinkTagsByFileAndType(file,elem);
-			return tags;
+			ArrayList<String>files = tagTable.getFilesAtLocbyElement(elem,loc);
+			return files;
 		}catch(Exception e){
 			System.out.println(e.toString());
 			return null;
 		}
 	}
 
+	/**
+	 * Writes the tags of one type in a file out as XML
+	 * 
+	 * @return the number of tags written
+	 */
+	int writeTagsByFileAndType(String file, Elem elem, GoldStandardWriter out)
+			throws Exception{
+		return tagTable.writeTagsByFileAndType(file,elem,out);
+	}
+
 	String getTextByFileElemAndID(String file, String elem, String id){
+		long start = System.nanoTime();
 		String text = "";
 		try{
 			text = tagTable.getTextByFileElemAndID(file,elem,id);
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
+		recorder.record(start,"getTextByFileElemAndID",1,file,elem,id);
 		return text;
 	}
 
 	Hashtable<String,String> getAllExtentsByFile(String file){
+		long start = System.nanoTime();
 		Hashtable<String,String> allExtents = new Hashtable<String,String>();
 		try{
-			allExtents = tagTable.getAllExtentsByFile(file);
+			SessionSnapshot snap = getSnapshot();
+			allExtents = snap!=null ? snap.getAllExtentsByFile(file) : tagTable.getAllExtentsByFile(file);
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
+		recorder.record(start,"getAllExtentsByFile",allExtents.size(),file);
 		return allExtents;
 	}
 
+	Hashtable<String,String> getExtentsByFileInSpan(String file, int begin, int end){
+		long start = System.nanoTime();
+		Hashtable<String,String> extents = new Hashtable<String,String>();
+		try{
+			extents = tagTable.getExtentsByFileInSpan(file,begin,end);
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+		recorder.record(start,"getExtentsByFileInSpan",extents.size(),file,begin,end);
+		return extents;
+	}
+
 	boolean tagExistsInFileAtLoc(String file, int loc){
 		try{
 			return tagTable.tagExistsInFileAtLoc(file,loc);
@@ -295,9 +650,12 @@ class AdjudicationTask {
 
 	Hashtable<String,String> getTagsByFileAndID(String tagname,
 			String id, String filename){
+		long start = System.nanoTime();
 		try{
 			ArrayList<Attrib> atts = dtd.getElem(tagname).getAttributes();
-			return tagTable.getTagsByFileAndID(tagname,id,filename,atts);
+			Hashtable<String,String> tag = tagTable.getTagsByFileAndID(tagname,id,filename,atts);
+			recorder.record(start,"getTagsByFileAndID",tag.size(),tagname,id,filename);
+			return tag;
 		}catch(Exception e){
 			System.out.println(e.toString());
 			return null;
@@ -305,8 +663,10 @@ class AdjudicationTask {
 	}
 
 	String getLocByFileAndID(String file, String id){  
+		long start = System.nanoTime();
 		try{
 			String loc = tagTable.getLocByFileAndID(file,id);
+			recorder.record(start,"getLocByFileAndID",1,file,id);
 			return loc;
 		}catch(Exception e){
 			System.out.println(e.toString());
@@ -315,8 +675,12 @@ class AdjudicationTask {
 	}
 
 	HashCollection<String,String>findGoldStandardLinksByType(String tagname){
+		long start = System.nanoTime();
 		try{
-			HashCollection<String,String> gslinks = tagTable.getGSLinksByType(tagname);
+			ArrayList<String> links = new ArrayList<String>();
+			HashCollection<String,String> gslinks = tagTable.getGSLinksByType(tagname,links);
+			currentLinks = links;
+			recorder.record(start,"findGoldStandardLinksByType",PhaseEvent.count(gslinks),tagname);
 			return gslinks;
 		}catch(Exception e){
 			System.out.println(e);
@@ -326,25 +690,424 @@ class AdjudicationTask {
 	}
 
 	void removeExtentByFileAndID(String fullName,String e_name,String id){
+		long start = System.nanoTime();
 		try{
+			Hashtable<String,String> tag = snapshot(fullName,e_name,id);
 			tagTable.removeExtentTags(fullName,e_name,id);
+			goldRemoved(fullName,e_name,id);
+			if(tag!=null){
+				journal.removed(fullName,e_name,tag);
+			}
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
+		editCount.incrementAndGet();
+		recorder.record(start,"removeExtentByFileAndID",0,fullName,e_name,id);
 	}
 
 	void removeLinkByFileAndID(String fullName,String e_name,String id){
+		long start = System.nanoTime();
 		try{
+			Hashtable<String,String> tag = snapshot(fullName,e_name,id);
 			tagTable.removeLinkTags(fullName,e_name,id);
+			goldRemoved(fullName,e_name,id);
+			if(tag!=null){
+				journal.removed(fullName,e_name,tag);
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+		editCount.incrementAndGet();
+		recorder.record(start,"removeLinkByFileAndID",0,fullName,e_name,id);
+	}
+
+
+	/**
+	 * Removes a set of tags from a file at once, along with any links 
+	 * that use the extents being removed.  Everything is removed in one 
+	 * transaction, so the text only has to be recolored once afterwards.
+	 * 
+	 * @param fullName the name of the file the tags are in
+	 * @param tags the IDs of the tags, keyed by element name
+	 * @param removedLinks filled in with the links that were removed 
+	 * because they used one of the extents, keyed by element name
+	 * @return the parts of the text that lost extent tags
+	 */
+	SpanSet removeTagsByFileAndID(String fullName, HashCollection<String,String> tags,
+			HashCollection<String,String> removedLinks){
+		long start = System.nanoTime();
+		SpanSet spans = new SpanSet();
+		journal.begin("Remove tags");
+		try{
+			//the removed rows are kept for undo, read in the same transaction as the delete
+			HashCollection<String,Hashtable<String,String>> saved = 
+					new HashCollection<String,Hashtable<String,String>>();
+			spans = tagTable.removeTags(fullName,tags,dtd,removedLinks,saved);
+			//the links are journaled first so undo puts the extents back first
+			ArrayList<String> names = saved.getKeyList();
+			for(int pass=0;pass<2;pass++){
+				for(int i=0;i<names.size();i++){
+					if((dtd.getElem(names.get(i)) instanceof ElemLink)!=(pass==0)){
+						continue;
+					}
+					ArrayList<Hashtable<String,String>> rows = saved.getList(names.get(i));
+					for(int j=0;j<rows.size();j++){
+						goldRemoved(fullName,names.get(i),rows.get(j).get("id"));
+						journal.removed(fullName,names.get(i),rows.get(j));
+					}
+				}
+			}
 		}catch(Exception e){
 			System.out.println(e.toString());
+		}finally{
+			journal.end();
+		}
+		editCount.incrementAndGet();
+		if(recorder.isRecording()){
+			ArrayList<Object> args = new ArrayList<Object>();
+			args.add(fullName);
+			ArrayList<String> names = tags.getKeyList();
+			for(int i=0;i<names.size();i++){
+				ArrayList<String> ids = tags.getList(names.get(i));
+				for(int j=0;ids!=null && j<ids.size();j++){
+					args.add(names.get(i));
+					args.add(ids.get(j));
+				}
+			}
+			recorder.record(start,"removeTagsByFileAndID",PhaseEvent.count(removedLinks),args.toArray());
 		}
+		return spans;
 	}
 
+	/**
+	 * Gets the attributes of a tag before it's removed, so that 
+	 * removing it can be undone
+	 * 
+	 * @return the attributes, or null if the tag wasn't found
+	 */
+	private Hashtable<String,String> snapshot(String fullName, String e_name, String id){
+		try{
+			Hashtable<String,String> tag = tagTable.getTagsByFileAndID(e_name,id,fullName,
+					dtd.getElem(e_name).getAttributes());
+			if(tag.size()>0){
+				return tag;
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+		return null;
+	}
+
+	/**
+	 * Starts an edit to the gold standard that's made of several 
+	 * calls (such as removing a tag and adding it back with new 
+	 * attributes), so that they're undone together.  Must be 
+	 * followed by a call to endEdit.
+	 * 
+	 * @param name what the edit does
+	 */
+	void beginEdit(String name){
+		long start = System.nanoTime();
+		journal.begin(name);
+		recorder.record(start,"beginEdit",0,name);
+	}
+
+	void endEdit(){
+		long start = System.nanoTime();
+		journal.end();
+		recorder.record(start,"endEdit",0);
+	}
+
+	/**
+	 * Undoes the most recent edit: tags it added are removed, and tags
+	 * it removed are added back.  If that fails part way, the tags 
+	 * already changed are changed back and the edit stays on the undo 
+	 * list.
+	 * 
+	 * @return the name of the edit undone, or null if there was nothing to undo
+	 * @throws Exception if the edit couldn't be undone
+	 */
+	String undo() throws Exception{
+		long start = System.nanoTime();
+		EditJournal.Edit edit = journal.popUndo();
+		if(edit==null){
+			return null;
+		}
+		ArrayList<EditJournal.Delta> deltas = edit.deltas;
+		ArrayList<EditJournal.Delta> done = new ArrayList<EditJournal.Delta>();
+		try{
+			for(int i=deltas.size()-1;i>=0;i--){
+				//a run of tags being put back goes extents first,
+				//so that the links can find their anchors
+				int runStart = i;
+				while(runStart>0 && deltas.get(runStart-1).op==EditJournal.REMOVE 
+						&& deltas.get(i).op==EditJournal.REMOVE){
+					runStart--;
+				}
+				if(runStart<i){
+					applyRun(deltas,runStart,i,false,done);
+					i = runStart;
+				}
+				else{
+					apply(deltas.get(i),false,done);
+				}
+			}
+		}catch(Exception e){
+			revert(done,false);
+			journal.restoreUndo(edit);
+			throw e;
+		}
+		editCount.incrementAndGet();
+		recorder.record(start,"undo",deltas.size());
+		return edit.name;
+	}
+
+	/**
+	 * Makes the most recently undone edit again.  If that fails part 
+	 * way, the tags already changed are changed back and the edit 
+	 * stays on the redo list.
+	 * 
+	 * @return the name of the edit redone, or null if there was nothing to redo
+	 * @throws Exception if the edit couldn't be redone
+	 */
+	String redo() throws Exception{
+		long start = System.nanoTime();
+		EditJournal.Edit edit = journal.popRedo();
+		if(edit==null){
+			return null;
+		}
+		ArrayList<EditJournal.Delta> done = new ArrayList<EditJournal.Delta>();
+		try{
+			for(int i=0;i<edit.deltas.size();i++){
+				apply(edit.deltas.get(i),true,done);
+			}
+		}catch(Exception e){
+			revert(done,true);
+			journal.restoreRedo(edit);
+			throw e;
+		}
+		editCount.incrementAndGet();
+		recorder.record(start,"redo",edit.deltas.size());
+		return edit.name;
+	}
+
+	/**
+	 * Changes back the deltas an undo (or a redo, if forward) had 
+	 * already made when it failed, last first
+	 */
+	private void revert(ArrayList<EditJournal.Delta> done, boolean forward){
+		for(int i=done.size()-1;i>=0;i--){
+			try{
+				apply(done.get(i),!forward,null);
+			}catch(Exception e){
+				System.out.println(e.toString());
+			}
+		}
+		editCount.incrementAndGet();
+	}
+
+	String getUndoName(){
+		return journal.getUndoName();
+	}
+
+	String getRedoName(){
+		return journal.getRedoName();
+	}
+
+	/**
+	 * Undoes the deltas from first to last (which all removed tags),
+	 * putting back the extents before the links
+	 */
+	private void applyRun(ArrayList<EditJournal.Delta> deltas, int first, int last, 
+			boolean forward, ArrayList<EditJournal.Delta> done) throws Exception{
+		for(int pass=0;pass<2;pass++){
+			for(int i=last;i>=first;i--){
+				boolean link = dtd.getElem(deltas.get(i).elem) instanceof ElemLink;
+				if(link==(pass==1)){
+					apply(deltas.get(i),forward,done);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes a delta (forward) or its opposite, without journaling it,
+	 * and adds it to done if done isn't null.  A tag being added is 
+	 * counted as done before it's added, since a failed insert can 
+	 * leave part of it behind.
+	 */
+	private void apply(EditJournal.Delta d, boolean forward, 
+			ArrayList<EditJournal.Delta> done) throws Exception{
+		Elem e = dtd.getElem(d.elem);
+		Hashtable<String,String> tag = d.getTag();
+		if((d.op==EditJournal.ADD)==forward){
+			if(done!=null){
+				done.add(d);
+			}
+			insertTag(d.file,e,tag);
+			return;
+		}
+		if(e instanceof ElemExtent){
+			tagTable.removeExtentTags(d.file,d.elem,tag.get("id"));
+		}
+		else{
+			tagTable.removeLinkTags(d.file,d.elem,tag.get("id"));
+		}
+		goldRemoved(d.file,d.elem,tag.get("id"));
+		if(done!=null){
+			done.add(d);
+		}
+	}
+
+	/**
+	 * Looks for gold standard tags left in the autosave log by an 
+	 * adjudication of the same text, with the same DTD, that wasn't 
+	 * saved before MAI stopped.  Has to be called before startAutosave,
+	 * which replaces the log unless its tags are recovered.
+	 * 
+	 * @param text the fingerprint of the text being adjudicated
+	 * @return the number of tags that can be recovered
+	 */
+	int findAutosave(TextFingerprint text){
+		recovered = null;
+		try{
+			recovered = GoldStandardLog.read(GoldStandardLog.fileFor(tagTable.getPath(),
+					dtd.getFingerprint(),text),dtd.getFingerprint(),text);
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+		return recovered==null ? 0 : PhaseEvent.count(recovered);
+	}
+
+	/**
+	 * Starts logging the changes to the gold standard, so they can be
+	 * recovered if MAI stops before the gold standard is saved
+	 * 
+	 * @param text the fingerprint of the text being adjudicated
+	 * @param recover whether to add the tags found by findAutosave
+	 * to the gold standard first; they're kept in the log, which 
+	 * is carried on rather than replaced
+	 */
+	void startAutosave(TextFingerprint text, boolean recover){
+		stopAutosave(false);
+		recover = recover && recovered!=null;
+		try{
+			autosave = new GoldStandardLog(GoldStandardLog.fileFor(tagTable.getPath(),
+					dtd.getFingerprint(),text),dtd.getFingerprint(),text,recover);
+		}catch(Exception e){
+			System.out.println("unable to start the autosave log");
+			System.out.println(e.toString());
+		}
+		if(recover){
+			addTagsFromHash("goldStandard.xml",recovered);
+			findAllOverlaps();
+		}
+		recovered = null;
+	}
+
+	/**
+	 * Notes in the autosave log that the gold standard has been saved
+	 */
+	void autosaveSaved(){
+		GoldStandardLog log = autosave;
+		if(log!=null){
+			log.saved();
+		}
+	}
+
+	/**
+	 * Stops the autosave log, if it's running
+	 * 
+	 * @param delete whether to delete the log as well, once the gold
+	 * standard has been saved somewhere else
+	 */
+	private void stopAutosave(boolean delete){
+		GoldStandardLog log = autosave;
+		autosave = null;
+		if(log!=null){
+			if(delete){
+				log.delete();
+			}
+			else{
+				log.close();
+			}
+		}
+	}
+
+	/**
+	 * Notes a tag added to the gold standard in the autosave log, and 
+	 * marks its element as changed since the last save
+	 */
+	private void goldAdded(String fullName, String e_name, Hashtable<String,String> tag){
+		if(!fullName.equals("goldStandard.xml")){
+			return;
+		}
+		GoldStandardLog log = autosave;
+		if(log!=null){
+			log.added(e_name,tag);
+		}
+		goldChanged(e_name);
+	}
+
+	/**
+	 * Marks an element's gold standard tags as changed since the last save
+	 */
+	private void goldChanged(String e_name){
+		goldVersions.put(e_name,goldEdits.incrementAndGet());
+	}
+
+	private void goldRemoved(String fullName, String e_name, String id){
+		if(!fullName.equals("goldStandard.xml")){
+			return;
+		}
+		GoldStandardLog log = autosave;
+		if(log!=null){
+			log.removed(e_name,id);
+		}
+		goldChanged(e_name);
+	}
+
+	/**
+	 * Returns a number that changes whenever a gold standard tag of 
+	 * an element is added or removed
+	 * 
+	 * @param e_name the name of the element
+	 */
+	int getGoldVersion(String e_name){
+		Integer v = goldVersions.get(e_name);
+		return v==null ? 0 : v.intValue();
+	}
+
+	/**
+	 * Returns where the gold standard was last saved as XML, so that
+	 * saving it there again only has to rewrite the changed elements
+	 * 
+	 * @return the last export, or null if it has to be written in full
+	 */
+	GoldStandardExport getLastExport(){
+		return lastExport;
+	}
+
+	void setLastExport(GoldStandardExport export){
+		lastExport = export;
+	}
+
+	/**
+	 * Waits until the changes made so far are in the autosave log on disk
+	 */
+	void flushAutosave() throws Exception{
+		GoldStandardLog log = autosave;
+		if(log!=null){
+			log.flush();
+		}
+	}
 
 	HashCollection<String,String> getLinksByFileAndExtentID(String file,String e_name,String id){
+		long start = System.nanoTime();
 		try{
-			return(tagTable.getLinksByFileAndExtentID(file,e_name,id));
+			HashCollection<String,String> links = tagTable.getLinksByFileAndExtentID(file,e_name,id);
+			recorder.record(start,"getLinksByFileAndExtentID",PhaseEvent.count(links),file,e_name,id);
+			return links;
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
@@ -359,10 +1122,12 @@ class AdjudicationTask {
 	 * @param d the object describing the task's DTD
 	 */
 	public void setDTD(DTD d){
+		long start = System.nanoTime();
 		dtd=d;
 		elements = createHash();
-		idTracker = createIDTracker();
+		ids = new IdAllocator(d);
 		hasDTD=true;
+		recorder.record(start,"setDTD",0,d.getName(),d.getFingerprint());
 	}
 
 	/**
@@ -378,19 +1143,47 @@ class AdjudicationTask {
 
 	HashCollection<String,String> getTagsSpanByType(int begin, int end, 
 			String tag){
+		long start = System.nanoTime();
 		try{
-			return (tagTable.getTagsInSpanByType(begin,end,tag));
+			HashCollection<String,String> tags = prefetcher.get(tag,begin,end,editCount.get());
+			if(tags==null){
+				tags = tagTable.getTagsInSpanByType(begin,end,tag);
+			}
+			recorder.record(start,"getTagsSpanByType",PhaseEvent.count(tags),begin,end,tag);
+			return tags;
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
 		return null;
 	}
 
+	/**
+	 * Loads the tags of a type in some spans of the text in the 
+	 * background, so that getTagsSpanByType can answer quickly 
+	 * if one of them is selected next.
+	 * 
+	 * @param tag the type of tag
+	 * @param spans the parts of the text to load
+	 */
+	void prefetchSpans(String tag, SpanSet spans){
+		if(spans.size()>0 && dtd!=null && dtd.getElem(tag)!=null){
+			prefetcher.prefetch(tagTable,tag,dtd.getElem(tag).getAttributes(),
+					spans,editCount.get());
+		}
+	}
+
 	HashCollection<String,Hashtable<String,String>> getLinkTagsSpanByType
 	   (int begin, int end, String tagname){
+		long start = System.nanoTime();
 		try{
 			ArrayList<Attrib> atts = dtd.getElem(tagname).getAttributes();
-			return (tagTable.getLinkTagsInSpanByType(begin,end,tagname,atts));
+			HashCollection<String,String> highlights = new HashCollection<String,String>();
+			HashCollection<String,Hashtable<String,String>> links = 
+					tagTable.getLinkTagsInSpanByType(begin,end,tagname,atts,
+							currentLinks,highlights);
+			currentHighlights = highlights;
+			recorder.record(start,"getLinkTagsSpanByType",PhaseEvent.count(links),begin,end,tagname);
+			return links;
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
@@ -400,8 +1193,11 @@ class AdjudicationTask {
 
 
 	HashCollection<String,String> getFileTagsSpanAndNC(String file, int begin, int end){
+		long start = System.nanoTime();
 		try{
-			return (tagTable.getFileTagsInSpanAndNC(file, begin,end));
+			HashCollection<String,String> tags = tagTable.getFileTagsInSpanAndNC(file,begin,end);
+			recorder.record(start,"getFileTagsSpanAndNC",PhaseEvent.count(tags),file,begin,end);
+			return tags;
 		}catch(Exception e){
 			System.out.println(e.toString());
 		}
@@ -410,7 +1206,7 @@ class AdjudicationTask {
 
 
 	public HashCollection<String,String>getCurrentHighlights(){
-		return tagTable.getCurrentHighlights();
+		return currentHighlights;
 	}
 
 	public ArrayList<String> getExtentElements(){
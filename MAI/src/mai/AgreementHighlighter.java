@@ -0,0 +1,123 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.awt.*;
+
+import javax.swing.text.*;
+
+/**
+ * AgreementHighlighter paints the agreement colors from the
+ * TextColorer underneath the text, before any of the regular
+ * highlights (the selection, the orange highlights for
+ * related extents, etc.) are drawn.  The colors are not
+ * highlights themselves, so removeAllHighlights() leaves
+ * them alone, and only the part of the text that's
+ * being repainted is looked at.
+ *
+ */
+
+class AgreementHighlighter extends DefaultHighlighter{
+
+	private JTextComponent component;
+	private Highlighter.HighlightPainter painter;
+
+	AgreementHighlighter(TextColorer colorer){
+		painter = new AgreementPainter(colorer);
+	}
+
+	public void install(JTextComponent c){
+		super.install(c);
+		component = c;
+	}
+
+	public void deinstall(JTextComponent c){
+		super.deinstall(c);
+		component = null;
+	}
+
+	/**
+	 * Paints the agreement colors for the part of the text inside
+	 * the clip, then the regular highlights.  viewToModel2D, which 
+	 * replaces viewToModel, isn't there before Java 9.
+	 */
+	@SuppressWarnings("deprecation")
+	public void paint(Graphics g){
+		Rectangle clip = g.getClipBounds();
+		if(component!=null && clip!=null){
+			int p0 = component.viewToModel(new Point(clip.x,clip.y));
+			int p1 = component.viewToModel(new Point(clip.x+clip.width,
+					clip.y+clip.height));
+			Insets insets = component.getInsets();
+			Rectangle bounds = new Rectangle(insets.left,insets.top,
+					component.getWidth()-insets.left-insets.right,
+					component.getHeight()-insets.top-insets.bottom);
+			painter.paint(g,p0,Math.min(p1+1,component.getDocument().getLength()),
+					bounds,component);
+		}
+		super.paint(g);
+	}
+
+	/**
+	 * Paints the runs of text that share a color code with one
+	 * translucent block per run.
+	 */
+	private static class AgreementPainter implements Highlighter.HighlightPainter{
+
+		private static final Color[] codeColors = {null,
+			new Color(0,255,0,110), new Color(0,0,255,70),
+			new Color(255,0,0,80), new Color(192,192,192,150),
+			new Color(255,0,255,110)};
+
+		private TextColorer colorer;
+		private DefaultHighlighter.DefaultHighlightPainter[] runPainters;
+
+		AgreementPainter(TextColorer colorer){
+			this.colorer = colorer;
+			runPainters = new DefaultHighlighter.DefaultHighlightPainter[codeColors.length];
+			for(int i=1;i<codeColors.length;i++){
+				runPainters[i] = new DefaultHighlighter.DefaultHighlightPainter(codeColors[i]);
+			}
+		}
+
+		public void paint(Graphics g, int p0, int p1, Shape bounds, JTextComponent c){
+			byte[] codes = colorer.getCodes();
+			if(codes==null){
+				return;
+			}
+			p0 = Math.max(p0,0);
+			p1 = Math.min(p1,codes.length);
+			int i = p0;
+			while(i<p1){
+				byte code = codes[i];
+				int runStart = i;
+				while(i<p1 && codes[i]==code){
+					i++;
+				}
+				if(code>TextColorer.NONE && code<runPainters.length){
+					runPainters[code].paint(g,runStart,i,bounds,c);
+				}
+			}
+		}
+	}
+
+}
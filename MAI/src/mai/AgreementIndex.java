@@ -0,0 +1,129 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * AgreementIndex keeps an in-memory record of how many files
+ * have a tag of the selected type at each location in the text,
+ * and whether the gold standard has one there.  It is built once
+ * when a tag is selected and then updated span by span as tags are
+ * added to or removed from the gold standard, so that the colors
+ * can be recomputed without going back to the database
+ * for each character.
+ *
+ */
+
+class AgreementIndex {
+
+	private BitSet gold;
+	private short[] fileCounts;
+
+	/**
+	 * Creates an empty index for a text of the given length
+	 *
+	 * @param length the number of characters in the text
+	 */
+	AgreementIndex(int length){
+		gold = new BitSet(length);
+		fileCounts = new short[length];
+	}
+
+	/**
+	 * Adds the locations and file names returned by the database
+	 * to the index.
+	 *
+	 * @param locs HashCollection with locations as keys and the
+	 * names of the files with tags at that location as values
+	 */
+	void load(HashCollection<String,String> locs){
+		ArrayList<String> keys = locs.getKeyList();
+		for(int i=0;i<keys.size();i++){
+			int loc = Integer.parseInt(keys.get(i));
+			//non-consuming tags are stored at -1 and aren't colored
+			if(loc<0 || loc>=fileCounts.length){
+				continue;
+			}
+			ArrayList<String> files = locs.getList(keys.get(i));
+			int count = 0;
+			for(int f=0;f<files.size();f++){
+				if(files.get(f).equals("goldStandard.xml")){
+					gold.set(loc);
+				}
+				else{
+					count++;
+				}
+			}
+			fileCounts[loc] = (short)count;
+		}
+	}
+
+	/**
+	 * Forgets what's known about the span [start,end) and reloads it
+	 * from the locations provided.
+	 *
+	 * @param start the first location being refreshed
+	 * @param end the location after the last one being refreshed
+	 * @param locs the tags now in the span, from the database
+	 */
+	void refresh(int start, int end, HashCollection<String,String> locs){
+		start = Math.max(start,0);
+		end = Math.min(end,fileCounts.length);
+		if(start>=end){
+			return;
+		}
+		gold.clear(start,end);
+		for(int i=start;i<end;i++){
+			fileCounts[i]=0;
+		}
+		load(locs);
+	}
+
+	/**
+	 * Returns the color code for a location.
+	 *
+	 * @param loc the location in the text
+	 * @param otherFiles the number of files being adjudicated,
+	 * not counting the gold standard
+	 * @return one of the TextColorer color codes
+	 */
+	byte codeAt(int loc, int otherFiles){
+		if(gold.get(loc)){
+			return TextColorer.GOLD;
+		}
+		int count = fileCounts[loc];
+		if(count==0){
+			return TextColorer.NONE;
+		}
+		if(count>=otherFiles){
+			return TextColorer.ALL_FILES;
+		}
+		return TextColorer.SOME_FILES;
+	}
+
+	int length(){
+		return fileCounts.length;
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.AbstractMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * BulkImporter reads all the annotation files for a document at once,
+ * such as every annotator's copy in one directory.  The files are
+ * parsed in parallel, and each one's text is checked against the text
+ * being adjudicated; the tags of the files that match are added to
+ * the database in one transaction by AdjudicationTask.addFilesFromHash 
+ * while the rest are still being read, and the text recolored once.
+ *
+ */
+
+class BulkImporter {
+
+	/**
+	 * Finds the files to import
+	 *
+	 * @param f a directory, in which case all the .xml files in it are
+	 * used; a file name pattern with * and ? in the last part, such as
+	 * data/doc12_*.xml; or a single file
+	 * @return the files, sorted by name
+	 */
+	static ArrayList<File> findFiles(File f){
+		ArrayList<File> found = new ArrayList<File>();
+		File dir;
+		Pattern pattern;
+		if(f.isDirectory()){
+			dir = f;
+			pattern = Pattern.compile("(?i).*\\.xml");
+		}
+		else if(f.getName().indexOf('*')>=0 || f.getName().indexOf('?')>=0){
+			dir = f.getAbsoluteFile().getParentFile();
+			pattern = Pattern.compile(globToRegex(f.getName()));
+		}
+		else{
+			if(f.isFile()){
+				found.add(f);
+			}
+			return found;
+		}
+		File[] files = dir.listFiles();
+		if(files==null){
+			return found;
+		}
+		Arrays.sort(files);
+		for(int i=0;i<files.length;i++){
+			if(files[i].isFile() && pattern.matcher(files[i].getName()).matches()){
+				found.add(files[i]);
+			}
+		}
+		return found;
+	}
+
+	private static String globToRegex(String glob){
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<glob.length();i++){
+			char c = glob.charAt(i);
+			if(c=='*'){
+				sb.append(".*");
+			}
+			else if(c=='?'){
+				sb.append('.');
+			}
+			else{
+				sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Pipeline reads files on a pool of threads, one per processor, and
+	 * hands each one's tags over through a bounded queue to the thread
+	 * adding them to the database, usually by passing the Pipeline to
+	 * AdjudicationTask.addFilesFromHash.  Files are handed over in the 
+	 * order they finish being read, and the ones whose text doesn't match
+	 * are kept back.  When the queue is full the reading threads wait
+	 * for the database to catch up, so only a few files' tags are held
+	 * in memory at any time however many files there are.
+	 */
+	static class Pipeline implements Iterator<Map.Entry<String,HashCollection<String,Hashtable<String,String>>>>{
+
+		private ExecutorService pool;
+		private ArrayBlockingQueue<Loaded> queue;
+		private Loaded[] loaded;
+		private int remaining;  //files not taken off the queue yet
+		private Map.Entry<String,HashCollection<String,Hashtable<String,String>>> next;
+
+		/**
+		 * Starts reading the files
+		 *
+		 * @param files the files to read
+		 * @param names the names the files will be added under
+		 * @param text the fingerprint of the text being adjudicated, which
+		 * each file has to have, or null to accept any text; the files
+		 * that don't have it aren't read past their text
+		 */
+		Pipeline(ArrayList<File> files, ArrayList<String> names, final TextFingerprint text){
+			loaded = new Loaded[files.size()];
+			remaining = files.size();
+			int threads = Math.max(1,Math.min(files.size(),Runtime.getRuntime().availableProcessors()));
+			queue = new ArrayBlockingQueue<Loaded>(threads);
+			pool = Executors.newFixedThreadPool(threads);
+			for(int i=0;i<files.size();i++){
+				final File f = files.get(i);
+				final String name = names.get(i);
+				final int index = i;
+				pool.execute(new Runnable(){
+					public void run(){
+						Loaded l = new Loaded(f,text);
+						l.name = name;
+						l.index = index;
+						try{
+							queue.put(l);
+						}catch(InterruptedException e){
+							//closed before the file was taken
+						}
+					}
+				});
+			}
+			pool.shutdown();
+		}
+
+		/**
+		 * Waits for the next file that can be added
+		 */
+		public boolean hasNext(){
+			while(next==null && remaining>0){
+				Loaded l;
+				try{
+					l = queue.take();
+				}catch(InterruptedException e){
+					throw new IllegalStateException("interrupted while reading files");
+				}
+				remaining--;
+				loaded[l.index] = l;
+				if(l.ok()){
+					next = new AbstractMap.SimpleEntry<String,HashCollection<String,Hashtable<String,String>>>(
+							l.name,l.tags);
+				}
+				//the tags aren't needed here once they've been handed over
+				l.tags = null;
+			}
+			return next!=null;
+		}
+
+		public Map.Entry<String,HashCollection<String,Hashtable<String,String>>> next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			Map.Entry<String,HashCollection<String,Hashtable<String,String>>> n = next;
+			next = null;
+			return n;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * @return what was read from each file taken so far, in the same
+		 * order as the files, with the tags left out and null for the
+		 * files not taken
+		 */
+		ArrayList<Loaded> getLoaded(){
+			return new ArrayList<Loaded>(Arrays.asList(loaded));
+		}
+
+		/**
+		 * Stops reading any files that haven't been handed over, such as
+		 * when adding them to the database failed
+		 */
+		void close(){
+			pool.shutdownNow();
+			queue.clear();
+		}
+	}
+
+	/**
+	 * What was read from one file
+	 */
+	static class Loaded{
+		File file;
+		String name;  //the name it's added under
+		int index;    //where it is in the list of files
+		HashCollection<String,Hashtable<String,String>> tags;
+		String error;  //why the file can't be imported, or null
+
+		Loaded(File f, TextFingerprint expected){
+			file = f;
+			try{
+				XMLFileLoader xfl = new XMLFileLoader(f,expected);
+				error = xfl.getMismatch();
+				if(error==null){
+					tags = xfl.getTagHash();
+				}
+			}catch(Throwable e){
+				//such as running out of memory, which shouldn't leave
+				//the file's place in the queue empty
+				error = e.toString();
+				tags = null;
+			}
+		}
+
+		boolean ok(){
+			return error==null;
+		}
+	}
+
+}
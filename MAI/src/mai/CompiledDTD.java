@@ -0,0 +1,216 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+/**
+ * CompiledDTD keeps DTDs that have already been read in a cache 
+ * directory, so that loading the same DTD again doesn't have to parse
+ * it.  Each DTD is kept in a file named after the SHA-256 digest of the
+ * DTD file's contents, holding the elements and attributes along with
+ * the statements AdjudDB uses to make and fill each element's table.
+ * <p>
+ * The cache is in .mai/dtd in the user's home directory, unless the
+ * mai.dtd.cache system property names another directory; setting it 
+ * to an empty string turns the cache off.  A cached DTD that can't be
+ * read is ignored and the DTD parsed again.
+ *
+ */
+
+class CompiledDTD {
+
+	//changed whenever DTDLoader or the format below would give a 
+	//different result for the same DTD file
+	private static final int VERSION = 2;
+	private static final int MAGIC = 0x4d414944; //"MAID"
+
+	private static final byte EXTENT = 1;
+	private static final byte LINK = 2;
+	private static final byte ATT_ID = 1;
+	private static final byte ATT_DATA = 2;
+	private static final byte ATT_LIST = 3;
+
+	/**
+	 * Finds where a DTD file's compiled form is kept
+	 *
+	 * @param contents the contents of the DTD file
+	 * @return the cache file, which might not exist yet, or null if
+	 * there's no cache
+	 */
+	static File fileFor(byte[] contents){
+		String dir = System.getProperty("mai.dtd.cache",
+				System.getProperty("user.home")+File.separator+".mai"+File.separator+"dtd");
+		if(dir.length()==0){
+			return null;
+		}
+		try{
+			MessageDigest md = Sha256.digest();
+			md.update((byte)VERSION);
+			return new File(dir,Sha256.hex(md.digest(contents))+".dtdc");
+		}catch(Exception e){
+			System.out.println(e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a compiled DTD
+	 *
+	 * @return the DTD, or null if it isn't in the cache or can't be read
+	 */
+	static DTD read(File f){
+		if(!f.isFile()){
+			return null;
+		}
+		DataInputStream in = null;
+		try{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			if(in.readInt()!=MAGIC || in.readInt()!=VERSION){
+				return null;
+			}
+			DTD dtd = new DTD();
+			dtd.setName(in.readUTF());
+			int elems = in.readInt();
+			for(int i=0;i<elems;i++){
+				byte type = in.readByte();
+				String name = in.readUTF();
+				Elem elem = type==EXTENT ? new ElemExtent(name,"") : new ElemLink(name,"");
+				//the attributes every extent or link has are read 
+				//along with the rest
+				elem.getAttributes().clear();
+				int atts = in.readInt();
+				for(int j=0;j<atts;j++){
+					elem.addAttribute(readAttribute(in));
+				}
+				elem.setSQL(in.readUTF(),in.readUTF());
+				dtd.addElem(elem);
+			}
+			return dtd;
+		}catch(Exception e){
+			System.out.println(e.toString());
+			return null;
+		}finally{
+			close(in);
+		}
+	}
+
+	private static Attrib readAttribute(DataInputStream in) throws IOException{
+		byte type = in.readByte();
+		String name = in.readUTF();
+		boolean required = in.readBoolean();
+		String def = in.readUTF();
+		if(type==ATT_ID){
+			return new AttID(name,in.readUTF(),required);
+		}
+		if(type==ATT_LIST){
+			int n = in.readInt();
+			ArrayList<String> list = new ArrayList<String>(n);
+			for(int i=0;i<n;i++){
+				list.add(in.readUTF());
+			}
+			return new AttList(name,required,list,def);
+		}
+		return new AttData(name,required,def);
+	}
+
+	/**
+	 * Writes a DTD to the cache.  It's written to a temporary file first
+	 * so that a DTD being loaded at the same time never sees half of it.
+	 */
+	static void write(DTD dtd, File f){
+		File tmp = new File(f.getPath()+".tmp");
+		DataOutputStream out = null;
+		try{
+			f.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(dtd.getName());
+			ArrayList<Elem> elems = dtd.getElements();
+			out.writeInt(elems.size());
+			for(int i=0;i<elems.size();i++){
+				Elem elem = elems.get(i);
+				out.writeByte(elem instanceof ElemExtent ? EXTENT : LINK);
+				out.writeUTF(elem.getName());
+				ArrayList<Attrib> atts = elem.getAttributes();
+				out.writeInt(atts.size());
+				for(int j=0;j<atts.size();j++){
+					writeAttribute(out,atts.get(j));
+				}
+				out.writeUTF(elem.getTableSQL());
+				out.writeUTF(elem.getInsertSQL());
+			}
+			out.close();
+			out = null;
+			if(!tmp.renameTo(f)){
+				//Windows won't rename over an existing file
+				f.delete();
+				tmp.renameTo(f);
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}finally{
+			close(out);
+			tmp.delete();
+		}
+	}
+
+	private static void writeAttribute(DataOutputStream out, Attrib a) throws IOException{
+		byte type = a instanceof AttID ? ATT_ID : a instanceof AttList ? ATT_LIST : ATT_DATA;
+		out.writeByte(type);
+		out.writeUTF(a.getName());
+		out.writeBoolean(a.getRequired());
+		out.writeUTF(a.getDefaultValue()==null ? "" : a.getDefaultValue());
+		if(type==ATT_ID){
+			out.writeUTF(((AttID)a).getPrefix());
+		}
+		else if(type==ATT_LIST){
+			ArrayList<String> list = ((AttList)a).getList();
+			out.writeInt(list.size());
+			for(int i=0;i<list.size();i++){
+				out.writeUTF(list.get(i));
+			}
+		}
+	}
+
+	private static void close(Closeable c){
+		if(c!=null){
+			try{
+				c.close();
+			}catch(IOException e){
+				//nothing more to do with it
+			}
+		}
+	}
+
+}
@@ -115,6 +115,43 @@ public ArrayList<Elem> getNCElements(){
     return NCElems;
 }
 
+/**
+ * Returns a fingerprint of the structure of the DTD: the names 
+ * and types of the tags and their attributes, the ID prefixes and 
+ * the allowed values of list attributes.  Two DTDs with the same 
+ * fingerprint will create the same tables in the database, so 
+ * a saved session can be checked against the DTD it was made with.
+ * 
+ * @return a hex string of the SHA-256 hash of the structure
+ */
+public String getFingerprint(){
+    StringBuilder sb = new StringBuilder();
+    sb.append(name).append("\n");
+    for(int i=0;i<elements.size();i++){
+        Elem e = elements.get(i);
+        sb.append(e.getClass().getSimpleName()).append(" ").append(e.getName()).append("\n");
+        ArrayList<Attrib> atts = e.getAttributes();
+        for(int j=0;j<atts.size();j++){
+            Attrib a = atts.get(j);
+            sb.append(" ").append(a.getClass().getSimpleName()).append(" ")
+                .append(a.getName()).append(" ").append(a.getRequired())
+                .append(" ").append(a.getDefaultValue());
+            if(a instanceof AttID){
+                sb.append(" ").append(((AttID)a).getPrefix());
+            }
+            else if(a instanceof AttList){
+                sb.append(" ").append(((AttList)a).getList());
+            }
+            sb.append("\n");
+        }
+    }
+    try{
+        return Sha256.hex(Sha256.digest().digest(sb.toString().getBytes("UTF-8")));
+    }catch(Exception ex){
+        System.out.println(ex.toString());
+        return sb.toString();
+    }
+}
 
 public void printInfo(){
     System.out.println(name);
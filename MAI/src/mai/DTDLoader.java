@@ -29,6 +29,14 @@ import java.util.regex.Matcher;
 
 /**
  * Provides methods for loading a DTD file into a DTD class
+ * <p>
+ * The file is read in one pass, a character at a time: comments are
+ * skipped wherever they are, and each declaration is collected up to
+ * the '>' that ends it (one inside quotes doesn't count), with every
+ * run of white space made into a single space, however the declaration
+ * is spread over lines.  Elements are looked up by name and ID prefixes
+ * checked in Hashtables, so DTDs with hundreds of elements load in time
+ * proportional to their size.
  * 
  * @author Amber Stubbs
  *
@@ -38,14 +46,48 @@ import java.util.regex.Matcher;
 
 class DTDLoader {
 
+	private static final Pattern DEFAULT_VALUE = Pattern.compile("\"[\\w ]+\" *>");
+	private static final Pattern TASK_NAME = Pattern.compile("name \"([^\"]*)\"");
+
 	private DTD dtd;
+	private boolean cached;
+	private Hashtable<String,Elem> elems;       //keyed by lower case name
+	private Hashtable<String,Integer> prefixes; //how many elements use each ID prefix
 
+	/**
+	 * Loads a DTD, from the cache of compiled DTDs if it's been read
+	 * before
+	 * 
+	 * @param f the DTD file
+	 * @see CompiledDTD
+	 */
 	DTDLoader(File f){
-		dtd=new DTD();
+		byte[] contents;
 		try{
-			readFile(f);
+			contents = readBytes(f);
 		}catch(Exception e){
 			System.out.println("no file found");
+			dtd=new DTD();
+			return;
+		}
+		File compiled = CompiledDTD.fileFor(contents);
+		if(compiled!=null){
+			dtd = CompiledDTD.read(compiled);
+			if(dtd!=null){
+				cached = true;
+				return;
+			}
+		}
+		dtd=new DTD();
+		try{
+			readDeclarations(new String(contents,"UTF-8"));
+		}catch(Exception e){
+			//a DTD that couldn't be read to the end isn't kept
+			System.out.println(e.toString());
+			return;
+		}
+		if(compiled!=null){
+			CompiledDTD.write(dtd,compiled);
 		}
 	}
 
@@ -53,33 +95,68 @@ class DTDLoader {
 		return dtd;
 	}
 
-	private void readFile(File f) throws Exception{
-		Scanner sc = new Scanner(f,"UTF-8");
-		while (sc.hasNextLine()) {
-			String next = sc.nextLine();
-			//first, get rid of comments
-			//this assumes that comments are on their own line(s)
-			//needs to be made more flexible
-			if (next.contains("<!--")){
-				while (next.contains("-->")==false){
-					next = sc.nextLine();
-				}
-				//this skips the lines with the comments
-				next= sc.nextLine();
-			}
+	/**
+	 * @return true if the DTD came from the cache rather than being parsed
+	 */
+	boolean wasCached(){
+		return cached;
+	}
 
-			//then, get all information about a tag into one string
-			String tag = "";
-			if (next.contains("<")){
-				tag = tag+next;
-				while (next.contains(">")==false){
-					next = sc.nextLine();
-					tag = tag+next;
+	private static byte[] readBytes(File f) throws IOException{
+		byte[] b = new byte[(int)f.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try{
+			in.readFully(b);
+		}finally{
+			in.close();
+		}
+		return b;
+	}
+
+	/**
+	 * Reads every declaration in the DTD
+	 */
+	private void readDeclarations(String s){
+		elems = new Hashtable<String,Elem>();
+		prefixes = new Hashtable<String,Integer>();
+		StringBuilder tag = new StringBuilder();
+		int length = s.length();
+		int i = s.indexOf('<');
+		while (i>=0 && i<length){
+			if (s.startsWith("<!--",i)){
+				int end = s.indexOf("-->",i+4);
+				i = end<0 ? -1 : s.indexOf('<',end+3);
+				continue;
+			}
+			tag.setLength(0);
+			char quote = 0;
+			boolean space = false;
+			for (;i<length;i++){
+				char c = s.charAt(i);
+				if (c<=' ' && Character.isWhitespace(c)){
+					space = true;
+					continue;
+				}
+				if (space){
+					tag.append(' ');
+					space = false;
+				}
+				tag.append(c);
+				if (quote!=0){
+					if (c==quote){
+						quote = 0;
+					}
+				}
+				else if (c=='"' || c=='\''){
+					quote = c;
+				}
+				else if (c=='>'){
+					break;
 				}
 			}
-			tag = tag.replaceAll(" +"," ");
-			process(tag);
-		} 
+			process(tag.toString());
+			i = i<length ? s.indexOf('<',i+1) : -1;
+		}
 	}
 
 	private void process(String tag){
@@ -97,50 +174,86 @@ class DTDLoader {
 		}
 	}
 
+	/**
+	 * Returns a word of a declaration, where the words are separated by
+	 * spaces and the declaration's closing '>'
+	 * 
+	 * @param n which word, with the declaration's keyword being 0
+	 */
+	private static String word(String tag, int n){
+		int start = 0;
+		for (int i=0;i<n;i++){
+			start = tag.indexOf(' ',start);
+			if (start<0){
+				return "";
+			}
+			start++;
+		}
+		int end = start;
+		while (end<tag.length() && tag.charAt(end)!=' ' && tag.charAt(end)!='>'){
+			end++;
+		}
+		return tag.substring(start,end);
+	}
+
+	private Elem findElem(String name){
+		return elems.get(name.toLowerCase(Locale.ENGLISH));
+	}
+
 	/**
 	 * Create a new element in the DTD
 	 */
 	private void createElement(String tag){
-		String name = tag.split(" ")[1];
+		String name = word(tag,1);
+		String idString = getIDString(name);
+		Elem e;
 		if (tag.contains("#PCDATA")){
-			String idString = getIDString(name);
-			ElemExtent e = new ElemExtent(name, idString);
-			dtd.addElem(e);
+			e = new ElemExtent(name, idString);
 		}
 		else{
-			String idString = getIDString(name);
-			ElemLink e = new ElemLink(name, idString);
-			dtd.addElem(e);
+			e = new ElemLink(name, idString);
 		}
-
+		dtd.addElem(e);
+		//like DTD.getElem, a name that's used twice finds the first one
+		String key = name.toLowerCase(Locale.ENGLISH);
+		if (!elems.containsKey(key)){
+			elems.put(key,e);
+		}
+		usePrefix(idString,1);
 	}
 
 	private String getIDString(String name){
-		ArrayList<String> ids = dtd.getElementIDs();
 		String id = name.substring(0,1);
-		boolean idOK = false;
-		while (idOK == false){
-			if(ids.contains(id)){
-				if(id.length()>=name.length()){
-					id = id+"-";
-				}
-				else{
-					id = name.substring(0,id.length()+1);
-				}
+		while (prefixes.containsKey(id)){
+			if(id.length()>=name.length()){
+				id = id+"-";
 			}
 			else{
-				idOK=true;
+				id = name.substring(0,id.length()+1);
 			}
 		}
 		return id;
 
 	}
 
+	/**
+	 * Counts an element starting or stopping using an ID prefix
+	 */
+	private void usePrefix(String prefix, int change){
+		Integer n = prefixes.get(prefix);
+		int count = (n==null ? 0 : n.intValue())+change;
+		if (count>0){
+			prefixes.put(prefix,Integer.valueOf(count));
+		}
+		else{
+			prefixes.remove(prefix);
+		}
+	}
+
 	private void addMeta(String tag){
-		if (tag.contains("name ")){
-			String name= tag.split("name \"")[1];
-			name = name.split("\"")[0];
-			dtd.setName(name);
+		Matcher m = TASK_NAME.matcher(tag);
+		if (m.find()){
+			dtd.setName(m.group(1));
 		}
 	}
 
@@ -157,43 +270,60 @@ class DTDLoader {
 		}
 	}
 
+	/**
+	 * Finds the default value at the end of an attribute declaration
+	 * 
+	 * @return the value, or "" if there isn't exactly one
+	 */
+	private static String getDefaultValue(String tag){
+		Matcher matcher = DEFAULT_VALUE.matcher(tag);
+		String defaultValue = "";
+		int found = 0;
+		while (matcher.find()){
+			found++;
+			if (found==1){
+				String match = matcher.group();
+				defaultValue = match.substring(1,match.indexOf('"',1));
+			}
+		}
+		if (found>1){
+			System.out.println("Error in attribute; too many default values found");
+			System.out.println(tag);
+			return "";
+		}
+		return defaultValue;
+	}
+
 	/**
 	 * Creates an AttList object for the DTD
 	 * @param tag
 	 */
 	private void addListAtt(String tag){
-		String elemName = tag.split(" ")[1];
-		String attName = tag.split(" ")[2];
-		Elem elem = dtd.getElem(elemName);
+		String elemName = word(tag,1);
+		String attName = word(tag,2);
+		Elem elem = findElem(elemName);
 
 		if(elem!=null){
-			String listString = tag.split("\\(")[1];
-			listString = listString.split("\\)")[0];
+			int open = tag.indexOf('(');
+			int close = tag.indexOf(')',open);
+			String listString = tag.substring(open+1,close<0 ? tag.length() : close);
 
 			ArrayList<String> atts = new ArrayList<String>();
-			String[]list = listString.split("\\|");
-			for(int i=0;i<list.length;i++){
-				atts.add(list[i].trim());
+			int start = 0;
+			while (start<=listString.length()){
+				int bar = listString.indexOf('|',start);
+				if (bar<0){
+					bar = listString.length();
+				}
+				atts.add(listString.substring(start,bar).trim());
+				start = bar+1;
 			}
 
-			Pattern defaultVal = Pattern.compile("\"[\\w ]+\" *>");
-			Matcher matcher = defaultVal.matcher(tag);
-			ArrayList<String> defVals = new ArrayList<String>();
-			String defaultValue = "";
-			while (matcher.find()){
-				defVals.add(matcher.group());
-			}
-			if (defVals.size()>1){
-				System.out.println("Error in attribute; too many default values found");
+			String defaultValue = getDefaultValue(tag);
+			if (defaultValue.length()>0 && !atts.contains(defaultValue)){
+				System.out.println("Error -- default value not in attribute list");
 				System.out.println(tag);
-			}
-			else if (defVals.size()==1){
-				defaultValue = defVals.get(0).split("\"")[1];
-				if (!atts.contains(defaultValue)){
-					System.out.println("Error -- default value not in attribute list");
-					System.out.println(tag);
-					defaultValue="";
-				}
+				defaultValue="";
 			}
 
 			boolean req = tag.contains("#REQUIRED");
@@ -209,11 +339,11 @@ class DTDLoader {
 	 * @param tag
 	 */
 	private void addDataAtt(String tag){
-		String elemName = tag.split(" ")[1];
-		String attName = tag.split(" ")[2];
+		String elemName = word(tag,1);
+		String attName = word(tag,2);
 		boolean req = tag.contains("#REQUIRED");
-		if(dtd.hasElem(elemName)){
-			Elem elem = dtd.getElem(elemName);
+		Elem elem = findElem(elemName);
+		if(elem!=null){
 			if(attName.equalsIgnoreCase("start")){
 				if(elem instanceof ElemExtent){
 					Attrib att = elem.getAttribute("start");
@@ -224,28 +354,17 @@ class DTDLoader {
 			}
 			else if(tag.contains(" ID ")){
 				AttID att = (AttID)elem.getAttribute("id");
-				if(tag.contains("prefix")){
-					String prefix = tag.split("\"")[1];
+				int quote = tag.indexOf('"');
+				if(tag.contains("prefix") && quote>=0){
+					int end = tag.indexOf('"',quote+1);
+					String prefix = tag.substring(quote+1,end<0 ? tag.length() : end);
+					usePrefix(att.getPrefix(),-1);
 					att.setPrefix(prefix);
+					usePrefix(prefix,1);
 				}
 			}
 			else{
-				Pattern defaultVal = Pattern.compile("\"[\\w ]+\" *>");
-				Matcher matcher = defaultVal.matcher(tag);
-				ArrayList<String> defVals = new ArrayList<String>();
-				String defaultValue = "";
-				while (matcher.find()){
-					defVals.add(matcher.group());
-				}
-				if (defVals.size()>1){
-					System.out.println("Error in attribute; too many default values found");
-					System.out.println(tag);
-				}
-				else if (defVals.size()==1){
-					defaultValue = defVals.get(0).split("\"")[1];
-				}
-
-				elem.addAttribute(new AttData(attName,req,defaultValue));
+				elem.addAttribute(new AttData(attName,req,getDefaultValue(tag)));
 			}
 		}
 		else{
@@ -256,4 +375,4 @@ class DTDLoader {
 	}
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,419 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * EditJournal keeps the edits made to the gold standard so they
+ * can be undone and redone.  Each edit is a list of deltas, one for
+ * every tag added or removed, holding just the tag's file, type
+ * and attributes; undoing an edit applies the opposite of each delta
+ * in reverse order, and redoing it applies them again, so both cost
+ * about as much as the edit itself did.
+ * <p>
+ * The edits that can be undone are kept within a memory budget, set
+ * in kilobytes with the mai.undo.kb system property (1024 by default).
+ * When the budget is used up the oldest edits are forgotten, unless
+ * the mai.undo.spill property names a file, in which case they're
+ * written to the end of it and read back when they're undone.  The
+ * edits in the file are always the oldest ones, in order, so the one
+ * read back is the last in the file and the file is cut back to where
+ * it started.
+ *
+ */
+
+class EditJournal {
+
+	static final byte ADD = 1;
+	static final byte REMOVE = 2;
+
+	private static final int DELTA_OVERHEAD = 48; //rough bytes used by a delta besides its strings
+
+	private ArrayList<Edit> undo;
+	private ArrayList<Edit> redo;
+	private Edit open;   //the edit being recorded, if any
+	private int depth;   //how many calls to begin haven't been ended
+	private long bytes;  //size of the edits held in memory
+	private long maxBytes;
+	private File spillFile;
+	private RandomAccessFile spill;
+
+	EditJournal(){
+		this(Long.parseLong(System.getProperty("mai.undo.kb","1024"))*1024,
+				System.getProperty("mai.undo.spill"));
+	}
+
+	/**
+	 * @param maxBytes the most memory the edits can take up
+	 * @param spillPath the file older edits are written to, or null
+	 * to forget them
+	 */
+	EditJournal(long maxBytes, String spillPath){
+		this.maxBytes = maxBytes;
+		if(spillPath!=null){
+			spillFile = new File(spillPath);
+		}
+		undo = new ArrayList<Edit>();
+		redo = new ArrayList<Edit>();
+	}
+
+	/**
+	 * Starts an edit; every delta recorded until the matching call
+	 * to end is undone together.  Calls can be nested, in which case
+	 * the outermost begin and end make the edit.
+	 *
+	 * @param name what the edit did, for the Edit menu
+	 */
+	synchronized void begin(String name){
+		if(depth==0){
+			open = new Edit(name);
+		}
+		depth++;
+	}
+
+	/**
+	 * Finishes the edit started with begin.  An edit that didn't change
+	 * anything isn't kept.
+	 */
+	synchronized void end(){
+		if(depth==0){
+			return;
+		}
+		depth--;
+		if(depth>0){
+			return;
+		}
+		Edit e = open;
+		open = null;
+		if(e.deltas.size()>0){
+			if(e.deltas.size()==1){
+				//a modify that turned out to be a plain add
+				e.name = name(e.deltas.get(0));
+			}
+			undo.add(e);
+			bytes += e.bytes;
+			clearRedo();
+			trim();
+		}
+	}
+
+	/**
+	 * Records that a tag was added
+	 *
+	 * @param file the file the tag was added to
+	 * @param elem the type of the tag
+	 * @param tag the tag's attributes
+	 */
+	void added(String file, String elem, Hashtable<String,String> tag){
+		record(new Delta(ADD,file,elem,tag));
+	}
+
+	/**
+	 * Records that a tag was removed
+	 *
+	 * @param file the file the tag was removed from
+	 * @param elem the type of the tag
+	 * @param tag the tag's attributes as they were before it was removed
+	 */
+	void removed(String file, String elem, Hashtable<String,String> tag){
+		record(new Delta(REMOVE,file,elem,tag));
+	}
+
+	private synchronized void record(Delta d){
+		boolean single = (depth==0);
+		if(single){
+			begin(name(d));
+		}
+		open.deltas.add(d);
+		open.bytes += d.bytes;
+		if(single){
+			end();
+		}
+	}
+
+	private static String name(Delta d){
+		return (d.op==ADD ? "Add " : "Remove ")+d.elem;
+	}
+
+	/**
+	 * Takes the most recent edit off the undo list and puts it on
+	 * the redo list
+	 *
+	 * @return the edit, with its deltas in the order they were made,
+	 * or null if there's nothing to undo
+	 */
+	synchronized Edit popUndo() throws Exception{
+		if(undo.size()==0 || depth>0){
+			return null;
+		}
+		//if it can't be read back it stays where it is
+		Edit e = undo.get(undo.size()-1);
+		if(e.deltas==null){
+			load(e);
+			//it's back in memory, and no edit was spilled after it
+			spill.setLength(e.offset);
+		}
+		else{
+			bytes -= e.bytes;
+		}
+		undo.remove(undo.size()-1);
+		redo.add(e);
+		return e;
+	}
+
+	/**
+	 * Puts an edit taken with popUndo back on the undo list, when
+	 * undoing it failed
+	 */
+	synchronized void restoreUndo(Edit e){
+		if(redo.size()>0 && redo.get(redo.size()-1)==e){
+			redo.remove(redo.size()-1);
+			undo.add(e);
+			bytes += e.bytes;
+			trim();
+		}
+	}
+
+	/**
+	 * Takes the most recently undone edit off the redo list and puts
+	 * it back on the undo list
+	 *
+	 * @return the edit, or null if there's nothing to redo
+	 */
+	synchronized Edit popRedo(){
+		if(redo.size()==0 || depth>0){
+			return null;
+		}
+		Edit e = redo.remove(redo.size()-1);
+		undo.add(e);
+		bytes += e.bytes;
+		trim();
+		return e;
+	}
+
+	/**
+	 * Puts an edit taken with popRedo back on the redo list, when
+	 * redoing it failed
+	 */
+	synchronized void restoreRedo(Edit e){
+		if(undo.size()>0 && undo.get(undo.size()-1)==e){
+			undo.remove(undo.size()-1);
+			bytes -= e.bytes;
+			redo.add(e);
+		}
+	}
+
+	synchronized String getUndoName(){
+		return undo.size()==0 ? null : undo.get(undo.size()-1).name;
+	}
+
+	synchronized String getRedoName(){
+		return redo.size()==0 ? null : redo.get(redo.size()-1).name;
+	}
+
+	/**
+	 * Forgets all the edits, used when a new adjudication is started
+	 */
+	synchronized void clear(){
+		undo.clear();
+		redo.clear();
+		open = null;
+		depth = 0;
+		bytes = 0;
+		if(spill!=null){
+			try{
+				spill.setLength(0);
+			}catch(Exception e){
+				System.out.println(e.toString());
+			}
+		}
+	}
+
+	private void clearRedo(){
+		redo.clear();
+	}
+
+	/**
+	 * Moves the oldest edits held in memory out to the spill file, or
+	 * forgets them, until the rest fit in the budget.  The most recent
+	 * edit always stays, however big it is.
+	 */
+	private void trim(){
+		int i = 0;
+		while(bytes>maxBytes && i<undo.size()-1){
+			Edit e = undo.get(i);
+			if(e.deltas==null){
+				i++;
+				continue;
+			}
+			bytes -= e.bytes;
+			if(spillFile!=null && save(e)){
+				e.deltas = null;
+				i++;
+			}
+			else{
+				undo.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Writes an edit's deltas to the end of the spill file
+	 *
+	 * @return false if it couldn't be written
+	 */
+	private boolean save(Edit e){
+		long end = -1;
+		try{
+			if(spill==null){
+				spill = new RandomAccessFile(spillFile,"rw");
+				spill.setLength(0);
+				spillFile.deleteOnExit();
+			}
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buf);
+			out.writeInt(e.deltas.size());
+			for(int i=0;i<e.deltas.size();i++){
+				Delta d = e.deltas.get(i);
+				out.writeByte(d.op);
+				out.writeUTF(d.file);
+				out.writeUTF(d.elem);
+				out.writeInt(d.atts.length);
+				for(int j=0;j<d.atts.length;j++){
+					//values such as the text of an extent can be longer than writeUTF allows
+					byte[] b = d.atts[j].getBytes("UTF-8");
+					out.writeInt(b.length);
+					out.write(b);
+				}
+			}
+			out.close();
+			end = spill.length();
+			e.offset = end;
+			e.length = buf.size();
+			spill.seek(e.offset);
+			spill.write(buf.toByteArray());
+			return true;
+		}catch(Exception ex){
+			System.out.println(ex.toString());
+			if(end>=0){
+				//don't leave part of the edit in the file
+				try{
+					spill.setLength(end);
+				}catch(Exception ex2){
+					System.out.println(ex2.toString());
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Reads an edit's deltas back from the spill file
+	 */
+	private void load(Edit e) throws Exception{
+		byte[] b = new byte[e.length];
+		spill.seek(e.offset);
+		spill.readFully(b);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+		int n = in.readInt();
+		ArrayList<Delta> deltas = new ArrayList<Delta>(n);
+		for(int i=0;i<n;i++){
+			byte op = in.readByte();
+			String file = in.readUTF();
+			String elem = in.readUTF();
+			String[] atts = new String[in.readInt()];
+			for(int j=0;j<atts.length;j++){
+				byte[] s = new byte[in.readInt()];
+				in.readFully(s);
+				atts[j] = new String(s,"UTF-8");
+			}
+			deltas.add(new Delta(op,file,elem,atts));
+		}
+		e.deltas = deltas;
+	}
+
+	/**
+	 * One undoable edit
+	 */
+	static class Edit{
+		String name;
+		ArrayList<Delta> deltas = new ArrayList<Delta>(); //null while spilled
+		long bytes;
+		long offset;  //where the deltas are in the spill file
+		int length;
+
+		Edit(String name){
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A tag added to or removed from a file.  The attributes are kept
+	 * as name, value, name, value... to take less room than a Hashtable.
+	 */
+	static class Delta{
+		byte op;
+		String file;
+		String elem;
+		String[] atts;
+		int bytes;
+
+		Delta(byte op, String file, String elem, Hashtable<String,String> tag){
+			this(op,file,elem,new String[tag.size()*2]);
+			int i = 0;
+			for(Enumeration<String> keys = tag.keys(); keys.hasMoreElements();){
+				String key = keys.nextElement();
+				atts[i++] = key;
+				atts[i++] = tag.get(key);
+			}
+			for(i=0;i<atts.length;i++){
+				bytes += 2*atts[i].length()+16;
+			}
+		}
+
+		Delta(byte op, String file, String elem, String[] atts){
+			this.op = op;
+			this.file = file;
+			this.elem = elem;
+			this.atts = atts;
+			bytes = DELTA_OVERHEAD;
+		}
+
+		Hashtable<String,String> getTag(){
+			Hashtable<String,String> tag = new Hashtable<String,String>();
+			for(int i=0;i+1<atts.length;i+=2){
+				tag.put(atts[i],atts[i+1]);
+			}
+			return tag;
+		}
+	}
+
+}
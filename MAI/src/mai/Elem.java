@@ -51,6 +51,8 @@ class Elem extends Object{
 
 	public void addAttribute(Attrib a){
 		attributes.add(a);
+		tableSQL = null;
+		insertSQL = null;
 	}
 
 	public ArrayList<Attrib> getAttributes(){
@@ -75,6 +77,49 @@ class Elem extends Object{
 		return false;
 	}
 
+	/**
+	 * Returns the statement that creates this element's table in the
+	 * database: a column for the file name, then one for each attribute.
+	 * It's written the way SQLite keeps it in sqlite_master, so an 
+	 * existing table can be checked against it.
+	 */
+	String getTableSQL(){
+		if(tableSQL==null){
+			makeSQL();
+		}
+		return tableSQL;
+	}
+
+	/**
+	 * Returns the statement that inserts a tag into this element's table
+	 */
+	String getInsertSQL(){
+		if(insertSQL==null){
+			makeSQL();
+		}
+		return insertSQL;
+	}
+
+	/**
+	 * Sets the statements read from a compiled DTD, so they don't have
+	 * to be made again
+	 */
+	void setSQL(String table, String insert){
+		tableSQL = table;
+		insertSQL = insert;
+	}
+
+	private void makeSQL(){
+		StringBuilder table = new StringBuilder("CREATE TABLE "+name+" (file_name");
+		StringBuilder insert = new StringBuilder("insert into "+name+" values (?");
+		for(int i=0;i<attributes.size();i++){
+			table.append(", ").append(attributes.get(i).getName());
+			insert.append(", ?");
+		}
+		tableSQL = table.append(")").toString();
+		insertSQL = insert.append(");").toString();
+	}
+
 	public void printInfo(){
 		System.out.println(name);
 		System.out.println("Attributes:");
@@ -86,4 +131,6 @@ class Elem extends Object{
 
 	private ArrayList<Attrib> attributes;
 	private String name;
+	private String tableSQL;
+	private String insertSQL;
 }
\ No newline at end of file
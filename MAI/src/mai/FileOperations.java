@@ -57,65 +57,47 @@ class FileOperations {
 
 
 	/**
-	 * Writes the current goldStandard to a file
+	 * Writes the current goldStandard to a file.  The text and the tags
+	 * are written as they're read, so the whole file is never held in memory.
+	 * If the gold standard was last saved to the same file, only the 
+	 * elements whose tags have changed since are written again.
 	 * 
 	 * @param f the file being written
 	 * @param pane the pane containing the text being adjudicated
 	 * @param adjudicationTask the interface with the database
+	 * @return false if the file couldn't be written
 	 */
-	public static void saveAdjudXML(File f, JTextPane pane, 
+	public static boolean saveAdjudXML(File f, JTextPane pane, 
 			AdjudicationTask adjudicationTask){
 
-		String paneText = pane.getText();
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.SAVE_ADJUD_XML).setFile(f.getName());
 		ArrayList<Elem> elements = adjudicationTask.getElements();
-		String dtdName = adjudicationTask.getDTDName();
+		int count = 0;
+		boolean saved = false;
+		GoldStandardExport export = adjudicationTask.getLastExport();
+		adjudicationTask.setLastExport(null);
 		try{
-			//first, create the OutputStreamWriter and write the header information
-			OutputStreamWriter fw = new OutputStreamWriter(new FileOutputStream(f),"UTF-8");
-			String t = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n";
-			t = t + "<"+dtdName+">\n";
-			t = t + "<TEXT><![CDATA[";
-			fw.write(t,0,t.length());
-			//then, write what's in the text
-			fw.write(paneText,0,paneText.length());
-			t = "]]></TEXT>\n";
-			fw.write(t,0,t.length());
-			String s = "<TAGS>\n";
-			fw.write(s,0,s.length());
-			//now to put in the tags
-			for(int i=0;i<elements.size();i++){
-				if(elements.get(i) instanceof ElemExtent){
-					//get tags of this type from the GoldStandard
-					ArrayList<String>tags = adjudicationTask.getExtentTagsByFileAndType("goldStandard.xml",elements.get(i));
-					arrayWrite(tags,fw);
-				}
-				else{
-					ArrayList<String>tags = adjudicationTask.getLinkTagsByFileAndType("goldStandard.xml",elements.get(i));
-					arrayWrite(tags,fw);
+			boolean written = false;
+			if(export!=null && export.canUpdate(f,elements)){
+				try{
+					count = export.update(adjudicationTask);
+					written = true;
+				}catch(Exception ex){
+					System.out.println("unable to update "+f.getName()+", writing it again");
+					System.out.println(ex.toString());
 				}
 			}
-
-			s = "</TAGS>\n</"+dtdName+">";
-			fw.write(s,0,s.length());
-			fw.close();
+			if(!written){
+				export = new GoldStandardExport(f,adjudicationTask.getDTDName(),elements);
+				count = export.write(pane.getDocument(),adjudicationTask);
+			}
+			adjudicationTask.setLastExport(export);
+			saved = true;
 		}catch(Exception ex){
 			System.out.println(ex.toString());
 		}
-	}
-	
-	/**
-	 * writes the contents of an array to the file
-	 * 
-	 * @param tags
-	 * @param fw
-	 * @throws Exception
-	 */
-	private static void arrayWrite(ArrayList<String> tags,OutputStreamWriter fw )
-			throws Exception{
-		for (int i=0;i<tags.size();i++){
-			String tag = tags.get(i);
-			fw.write(tag,0,tag.length());
-		}
+		event.setDocumentLength(pane.getDocument().getLength()).setTagCount(count).commit();
+		return saved;
 	}
 
-}
\ No newline at end of file
+}
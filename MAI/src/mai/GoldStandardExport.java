@@ -0,0 +1,210 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import javax.swing.text.Document;
+
+/**
+ * GoldStandardExport remembers how the gold standard was laid out
+ * the last time it was saved as XML, so that saving it to the same
+ * file again only rewrites what changed.  The tags of each element
+ * in the DTD are written as one section, in the order the elements
+ * are in the DTD, and the byte offset where each section starts is
+ * kept along with the AdjudicationTask's version of that element's
+ * tags when they were written.
+ * <p>
+ * When the gold standard is saved again, the text and every section
+ * before the first element whose tags have changed are left in place.
+ * The rest of the file is rebuilt in a temporary file, with the changed
+ * sections read from the database and the unchanged ones copied from
+ * the old file with FileChannel transfers, and then spliced onto the
+ * part that was kept.  If the file has been changed by something else
+ * since MAI wrote it, it's written out in full instead.
+ *
+ */
+
+class GoldStandardExport {
+
+	private static final int BUFFER = 64*1024;
+
+	private File file;
+	private String root;
+	private String[] elems;
+	private int[] versions;  //the version of each element's tags in the file
+	private long[] starts;   //where each section starts; the last is where </TAGS> starts
+	private long length;
+	private long modified;
+
+	GoldStandardExport(File file, String root, ArrayList<Elem> elements){
+		this.file = file;
+		this.root = root;
+		elems = new String[elements.size()];
+		for(int i=0;i<elems.length;i++){
+			elems[i] = elements.get(i).getName();
+		}
+		versions = new int[elems.length];
+		starts = new long[elems.length+1];
+	}
+
+	/**
+	 * Writes the whole gold standard out
+	 *
+	 * @param doc the document holding the text
+	 * @param task the task the tags come from
+	 * @return the number of tags written
+	 */
+	int write(Document doc, AdjudicationTask task) throws Exception{
+		FileOutputStream fos = new FileOutputStream(file);
+		FileChannel channel = fos.getChannel();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos,"UTF-8"),BUFFER);
+		GoldStandardWriter out = new GoldStandardWriter(bw);
+		int count = 0;
+		try{
+			out.startDocument(root);
+			out.text(doc);
+			out.startTags();
+			for(int i=0;i<elems.length;i++){
+				bw.flush();
+				starts[i] = channel.position();
+				versions[i] = task.getGoldVersion(elems[i]);
+				count += task.writeTagsByFileAndType("goldStandard.xml",task.getElem(elems[i]),out);
+			}
+			bw.flush();
+			starts[elems.length] = channel.position();
+			out.endDocument(root);
+		}finally{
+			bw.close();
+		}
+		length = file.length();
+		modified = file.lastModified();
+		return count;
+	}
+
+	/**
+	 * Checks that this export can be updated in place: the gold standard
+	 * is being saved to the same file, with the same elements, and the
+	 * file hasn't been changed since it was written.
+	 */
+	boolean canUpdate(File f, ArrayList<Elem> elements){
+		try{
+			if(!f.getCanonicalPath().equals(file.getCanonicalPath())
+					|| f.length()!=length || f.lastModified()!=modified
+					|| elements.size()!=elems.length){
+				return false;
+			}
+		}catch(IOException e){
+			return false;
+		}
+		for(int i=0;i<elems.length;i++){
+			if(!elements.get(i).getName().equals(elems[i])){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites the sections of the elements whose tags have changed
+	 * since the file was written
+	 *
+	 * @param task the task the tags come from
+	 * @return the number of tags written
+	 */
+	int update(AdjudicationTask task) throws Exception{
+		int first = 0;
+		while(first<elems.length && task.getGoldVersion(elems[first])==versions[first]){
+			first++;
+		}
+		if(first==elems.length){
+			return 0;
+		}
+		long base = starts[first];
+		long[] newStarts = starts.clone();
+		int[] newVersions = versions.clone();
+		int count = 0;
+		File part = new File(file.getPath()+".part");
+		RandomAccessFile old = new RandomAccessFile(file,"rw");
+		RandomAccessFile tail = new RandomAccessFile(part,"rw");
+		try{
+			FileChannel oc = old.getChannel();
+			FileChannel tc = tail.getChannel();
+			tail.setLength(0);
+			//build everything from the first changed section on
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+					Channels.newOutputStream(tc),"UTF-8"),BUFFER);
+			GoldStandardWriter out = new GoldStandardWriter(bw);
+			for(int i=first;i<elems.length;i++){
+				bw.flush();
+				newStarts[i] = base+tc.position();
+				int v = task.getGoldVersion(elems[i]);
+				if(v!=versions[i]){
+					newVersions[i] = v;
+					count += task.writeTagsByFileAndType("goldStandard.xml",task.getElem(elems[i]),out);
+				}
+				else{
+					transfer(oc,starts[i],starts[i+1]-starts[i],tc);
+				}
+			}
+			bw.flush();
+			newStarts[elems.length] = base+tc.position();
+			out.endDocument(root);
+			bw.flush();
+			long tailLength = tc.position();
+			tc.force(false);
+			//then splice it onto the part of the file that didn't change
+			long done = 0;
+			while(done<tailLength){
+				done += oc.transferFrom(tc.position(done),base+done,tailLength-done);
+			}
+			oc.truncate(base+tailLength);
+			oc.force(false);
+		}finally{
+			tail.close();
+			old.close();
+			part.delete();
+		}
+		starts = newStarts;
+		versions = newVersions;
+		length = file.length();
+		modified = file.lastModified();
+		return count;
+	}
+
+	private static void transfer(FileChannel from, long position, long count, FileChannel to)
+			throws IOException{
+		long done = 0;
+		while(done<count){
+			done += from.transferTo(position+done,count-done,to);
+		}
+	}
+
+}
@@ -0,0 +1,587 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * GoldStandardLog keeps a copy of the gold standard on disk while
+ * it's being adjudicated, so that the work isn't lost if MAI crashes
+ * before the gold standard is saved.  Every tag added to or removed
+ * from the gold standard is appended to the log as a record with
+ * its own length and checksum.  A background thread writes the
+ * records and forces them to disk; the records that come in while
+ * it's waiting for the disk are written and forced together (group
+ * commit), so an edit never waits for the disk and a burst of edits
+ * costs one fsync.
+ * <p>
+ * The log starts with a header naming the DTD and the text being
+ * adjudicated.  When MAI starts adjudicating the same text with the
+ * same DTD again, read finds the tags the log holds: records are
+ * read until the end of the file or the first one that's cut short
+ * or fails its checksum, which is where a crash stopped the writing.
+ * Once the log has many more records than there are tags in the gold
+ * standard, the writer thread compacts it, rewriting it as a
+ * snapshot with one record per tag.  The snapshot is written to a
+ * temporary file first and renamed over the log, so the log is
+ * never incomplete.
+ *
+ */
+
+class GoldStandardLog {
+
+	private static final byte HEADER = 0;
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+	private static final byte SAVED = 3;  //everything before this has been saved as XML
+
+	private static final int MIN_COMPACT = 1000;  //records written before the log is worth compacting
+	private static final int MAX_RECORD = 64*1024*1024;
+
+	private File file;
+	private File tmp;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private byte[] header;
+	private ArrayList<byte[]> queue;   //records waiting to be written
+	private long appended;             //number of records appended
+	private long synced;               //number of records on disk
+	private boolean closed;
+	private boolean dirty;             //changed since the last call to saved
+	private IOException failure;
+	private LinkedHashMap<String,byte[]> live; //the ADD record of each tag in the gold standard
+	private long records;              //records in the file
+	private Thread writer;
+
+	/**
+	 * Starts a new log, replacing the file if there is one
+	 *
+	 * @param file where to keep the log
+	 * @param dtdFingerprint the fingerprint of the DTD being used
+	 * @param text the fingerprint of the text being adjudicated
+	 */
+	GoldStandardLog(File file, String dtdFingerprint, TextFingerprint text) throws Exception{
+		this(file,dtdFingerprint,text,false);
+	}
+
+	/**
+	 * Starts a log, or carries on with the one already in the file
+	 *
+	 * @param file where to keep the log
+	 * @param dtdFingerprint the fingerprint of the DTD being used
+	 * @param text the fingerprint of the text being adjudicated
+	 * @param keep whether to keep what's already in the log for this
+	 * DTD and text, such as tags that have just been recovered from it,
+	 * rather than replacing it
+	 */
+	GoldStandardLog(File file, String dtdFingerprint, TextFingerprint text, boolean keep) throws Exception{
+		this.file = file;
+		tmp = new File(file.getPath()+".tmp");
+		header = encodeHeader(dtdFingerprint,text);
+		queue = new ArrayList<byte[]>();
+		live = new LinkedHashMap<String,byte[]>();
+		Scan old = null;
+		if(keep){
+			if(!file.exists() && tmp.exists()){
+				//a crash while the log was being compacted
+				tmp.renameTo(file);
+			}
+			old = scan(file,header);
+		}
+		raf = new RandomAccessFile(file,"rw");
+		channel = raf.getChannel();
+		if(old!=null){
+			//anything after the last whole record was cut short by a crash
+			raf.setLength(old.end);
+			channel.position(old.end);
+			live = old.live;
+			dirty = old.unsaved;
+			records = old.records;
+		}
+		else{
+			raf.setLength(0);
+			write(channel,header);
+			channel.force(true);
+			records = 1;
+		}
+		writer = new Thread(new Runnable(){
+			public void run(){
+				writeLoop();
+			}
+		},"mai-autosave");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Returns where the log is kept for a text and DTD.  Each text and
+	 * DTD has its own log, so starting on another document doesn't 
+	 * replace a log that hasn't been recovered yet.  The logs are kept
+	 * next to the database, unless the mai.autosave property names
+	 * another place to start their names with.
+	 *
+	 * @param dbPath the database being used
+	 * @param dtdFingerprint the fingerprint of the DTD being used
+	 * @param text the fingerprint of the text being adjudicated
+	 */
+	static File fileFor(String dbPath, String dtdFingerprint, TextFingerprint text){
+		CRC32 crc = new CRC32();
+		try{
+			crc.update(dtdFingerprint.getBytes("UTF-8"));
+		}catch(IOException e){
+			//UTF-8 is always supported
+		}
+		String key = Long.toHexString(crc.getValue())+"-"+text.key();
+		return new File(System.getProperty("mai.autosave",dbPath+"-autosave")+"-"+key);
+	}
+
+	/**
+	 * Records that a tag was added to the gold standard
+	 *
+	 * @param elem the type of the tag
+	 * @param tag the tag's attributes
+	 */
+	void added(String elem, Hashtable<String,String> tag){
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		try{
+			out.writeByte(ADD);
+			out.writeUTF(elem);
+			out.writeInt(tag.size());
+			for(Enumeration<String> keys = tag.keys(); keys.hasMoreElements();){
+				String key = keys.nextElement();
+				writeString(out,key);
+				writeString(out,tag.get(key));
+			}
+			out.close();
+		}catch(IOException e){
+			//writing to memory
+		}
+		byte[] record = buf.toByteArray();
+		synchronized(this){
+			live.remove(key(elem,tag.get("id")));
+			live.put(key(elem,tag.get("id")),record);
+			dirty = true;
+			append(record);
+		}
+	}
+
+	/**
+	 * Records that a tag was removed from the gold standard
+	 *
+	 * @param elem the type of the tag
+	 * @param id the ID of the tag
+	 */
+	void removed(String elem, String id){
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		try{
+			out.writeByte(REMOVE);
+			out.writeUTF(elem);
+			out.writeUTF(id);
+			out.close();
+		}catch(IOException e){
+			//writing to memory
+		}
+		synchronized(this){
+			if(live.remove(key(elem,id))!=null){
+				dirty = true;
+				append(buf.toByteArray());
+			}
+		}
+	}
+
+	/**
+	 * Records that the gold standard has been saved, so there's
+	 * nothing to recover unless it's changed again
+	 */
+	synchronized void saved(){
+		dirty = false;
+		append(new byte[]{SAVED});
+	}
+
+	private void append(byte[] record){
+		if(closed){
+			return;
+		}
+		queue.add(record);
+		appended++;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until everything recorded so far is on disk
+	 */
+	synchronized void flush() throws IOException{
+		long target = appended;
+		while(synced<target && failure==null && writer.isAlive()){
+			try{
+				wait();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if(failure!=null){
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes what's left and stops the log.  The file stays, so the
+	 * tags can still be recovered from it.
+	 */
+	void close(){
+		try{
+			flush();
+		}catch(IOException e){
+			System.out.println(e.toString());
+		}
+		synchronized(this){
+			closed = true;
+			notifyAll();
+		}
+		try{
+			writer.join();
+			channel.close();
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+	}
+
+	/**
+	 * Stops the log and deletes it, once the gold standard is safe
+	 * somewhere else
+	 */
+	void delete(){
+		close();
+		file.delete();
+		tmp.delete();
+	}
+
+	/**
+	 * Returns how many tags the gold standard has, as far as the log knows
+	 */
+	synchronized int size(){
+		return live.size();
+	}
+
+	private void writeLoop(){
+		ArrayList<byte[]> batch = new ArrayList<byte[]>();
+		while(true){
+			long target;
+			boolean compact;
+			synchronized(this){
+				while(queue.size()==0 && !closed){
+					try{
+						wait();
+					}catch(InterruptedException e){
+						return;
+					}
+				}
+				if(queue.size()==0){
+					return;
+				}
+				//everything that came in while the last batch was being forced
+				ArrayList<byte[]> swap = queue;
+				queue = batch;
+				batch = swap;
+				target = appended;
+				records += batch.size();
+				compact = records>MIN_COMPACT && records>2*live.size()+MIN_COMPACT/2;
+			}
+			try{
+				ByteBuffer buf = ByteBuffer.allocate(size(batch));
+				for(int i=0;i<batch.size();i++){
+					frame(buf,batch.get(i));
+				}
+				buf.flip();
+				while(buf.hasRemaining()){
+					channel.write(buf);
+				}
+				channel.force(false);
+				if(compact){
+					compact();
+				}
+			}catch(IOException e){
+				synchronized(this){
+					failure = e;
+					notifyAll();
+				}
+				System.out.println(e.toString());
+				return;
+			}
+			batch.clear();
+			synchronized(this){
+				synced = target;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the log as a snapshot of the tags in the gold standard.
+	 * Called by the writer thread between batches, so no record can
+	 * be written to the old file after the snapshot is taken.
+	 */
+	private void compact() throws IOException{
+		ArrayList<byte[]> snapshot;
+		synchronized(this){
+			//records still queued will be written to the new file
+			snapshot = new ArrayList<byte[]>(live.values());
+			if(queue.size()>0){
+				snapshot.removeAll(queue);
+			}
+			if(!dirty){
+				snapshot.add(new byte[]{SAVED});
+			}
+		}
+		snapshot.add(0,header);
+		RandomAccessFile out = new RandomAccessFile(tmp,"rw");
+		out.setLength(0);
+		FileChannel c = out.getChannel();
+		ByteBuffer buf = ByteBuffer.allocate(size(snapshot));
+		for(int i=0;i<snapshot.size();i++){
+			frame(buf,snapshot.get(i));
+		}
+		buf.flip();
+		while(buf.hasRemaining()){
+			c.write(buf);
+		}
+		c.force(true);
+		channel.close();
+		//renameTo won't replace a file everywhere; read looks for the
+		//temporary file if the log is missing
+		if(!tmp.renameTo(file)){
+			file.delete();
+			if(!tmp.renameTo(file)){
+				out.close();
+				throw new IOException("couldn't replace "+file.getPath());
+			}
+		}
+		raf = out;
+		channel = c;
+		synchronized(this){
+			records = snapshot.size();
+		}
+	}
+
+	private static int size(ArrayList<byte[]> records){
+		int size = 0;
+		for(int i=0;i<records.size();i++){
+			size += records.get(i).length+8;
+		}
+		return size;
+	}
+
+	private static void frame(ByteBuffer buf, byte[] record){
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		buf.putInt(record.length);
+		buf.putInt((int)crc.getValue());
+		buf.put(record);
+	}
+
+	private static void write(FileChannel c, byte[] record) throws IOException{
+		ByteBuffer buf = ByteBuffer.allocate(record.length+8);
+		frame(buf,record);
+		buf.flip();
+		while(buf.hasRemaining()){
+			c.write(buf);
+		}
+	}
+
+	private static byte[] encodeHeader(String dtdFingerprint, TextFingerprint text){
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		try{
+			out.writeByte(HEADER);
+			out.writeUTF(dtdFingerprint);
+			out.writeUTF(text.key());
+			out.close();
+		}catch(IOException e){
+			//writing to memory
+		}
+		return buf.toByteArray();
+	}
+
+	private static String key(String elem, String id){
+		return elem+"@#@"+id;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		//values such as the text of an extent can be longer than writeUTF allows
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInputStream in) throws IOException{
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b,"UTF-8");
+	}
+
+	/**
+	 * Reads the tags kept in a log
+	 *
+	 * @param file the log
+	 * @param dtdFingerprint the fingerprint of the DTD being used
+	 * @param text the fingerprint of the text being adjudicated
+	 * @return the tags keyed by element name, or null if there's no
+	 * log for this DTD and text, or nothing in it that wasn't saved
+	 */
+	static HashCollection<String,Hashtable<String,String>> read(File file,
+			String dtdFingerprint, TextFingerprint text) throws Exception{
+		File f = file;
+		if(!f.exists()){
+			//a crash while the log was being compacted
+			f = new File(file.getPath()+".tmp");
+		}
+		Scan scan = scan(f,encodeHeader(dtdFingerprint,text));
+		if(scan==null || !scan.unsaved){
+			return null;
+		}
+		HashCollection<String,Hashtable<String,String>> byElem =
+				new HashCollection<String,Hashtable<String,String>>();
+		for(Iterator<String> it = scan.live.keySet().iterator(); it.hasNext();){
+			String k = it.next();
+			DataInputStream r = new DataInputStream(new ByteArrayInputStream(scan.live.get(k)));
+			r.readByte();
+			String elem = r.readUTF();
+			Hashtable<String,String> tag = new Hashtable<String,String>();
+			int n = r.readInt();
+			for(int i=0;i<n;i++){
+				String key = readString(r);
+				tag.put(key,readString(r));
+			}
+			byElem.putEnt(elem,tag);
+		}
+		return byElem;
+	}
+
+	/**
+	 * Reads the records of a log up to the end of the file or the first
+	 * one that's cut short or fails its checksum, which is where a crash
+	 * stopped the writing
+	 *
+	 * @param f the log
+	 * @param expected the header the log has to start with
+	 * @return what the log holds, or null if there's no log with that header
+	 */
+	private static Scan scan(File f, byte[] expected) throws IOException{
+		if(!f.exists()){
+			return null;
+		}
+		Scan scan = new Scan();
+		boolean first = true;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try{
+			while(true){
+				byte[] record;
+				try{
+					int length = in.readInt();
+					int crc = in.readInt();
+					if(length<=0 || length>MAX_RECORD){
+						break;
+					}
+					record = new byte[length];
+					in.readFully(record);
+					CRC32 check = new CRC32();
+					check.update(record);
+					if((int)check.getValue()!=crc){
+						break;
+					}
+				}catch(EOFException e){
+					//the last record was cut short
+					break;
+				}
+				if(first){
+					if(!Arrays.equals(record,expected)){
+						return null;
+					}
+					first = false;
+				}
+				else{
+					DataInputStream r = new DataInputStream(new ByteArrayInputStream(record));
+					byte op = r.readByte();
+					if(op==SAVED){
+						scan.unsaved = false;
+					}
+					else if(op==ADD){
+						String elem = r.readUTF();
+						Hashtable<String,String> tag = new Hashtable<String,String>();
+						int n = r.readInt();
+						for(int i=0;i<n;i++){
+							String key = readString(r);
+							tag.put(key,readString(r));
+						}
+						String k = key(elem,tag.get("id"));
+						scan.live.remove(k);
+						scan.live.put(k,record);
+						scan.unsaved = true;
+					}
+					else if(op==REMOVE){
+						String elem = r.readUTF();
+						scan.live.remove(key(elem,r.readUTF()));
+						scan.unsaved = true;
+					}
+				}
+				scan.end += record.length+8;
+				scan.records++;
+			}
+		}finally{
+			in.close();
+		}
+		//a log whose header was never written holds nothing
+		return first ? null : scan;
+	}
+
+	/**
+	 * What scan found in a log
+	 */
+	private static class Scan{
+		LinkedHashMap<String,byte[]> live = new LinkedHashMap<String,byte[]>(); //the ADD record of each tag
+		boolean unsaved;  //whether anything changed after the last SAVED record
+		long end;         //where the last whole record ends
+		long records;
+	}
+
+}
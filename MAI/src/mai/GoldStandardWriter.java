@@ -0,0 +1,190 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * GoldStandardWriter writes the gold standard out as XML as it's
+ * read, rather than building the whole file in memory first.  The
+ * text is copied from the document a piece at a time, and each tag
+ * is written straight from the database row, with its attribute
+ * values escaped a character at a time into a buffer that's reused
+ * for every value.  The memory used doesn't depend on the length of
+ * the text or the number of tags.
+ *
+ */
+
+class GoldStandardWriter {
+
+	private Writer out;
+	private char[] buf;
+	private int pos;
+	private int brackets; //how many ']' the text written so far ends with
+
+	/**
+	 * @param out where to write the XML; it should be buffered
+	 */
+	GoldStandardWriter(Writer out){
+		this.out = out;
+		buf = new char[4096];
+	}
+
+	/**
+	 * Writes the XML declaration and opens the root element and the text
+	 *
+	 * @param root the name of the root element (the name of the DTD)
+	 */
+	void startDocument(String root) throws IOException{
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<");
+		out.write(root);
+		out.write(">\n<TEXT><![CDATA[");
+		brackets = 0;
+	}
+
+	/**
+	 * Copies the text out of a document, with new lines written the way
+	 * the document's editor kit would write them
+	 *
+	 * @param doc the document holding the text being adjudicated
+	 * @return the length of the text
+	 */
+	int text(Document doc) throws Exception{
+		Object eol = doc.getProperty(DefaultEditorKit.EndOfLineStringProperty);
+		String newline = eol instanceof String ? (String)eol : System.getProperty("line.separator");
+		Segment seg = new Segment();
+		seg.setPartialReturn(true);
+		int length = doc.getLength();
+		int offset = 0;
+		while(offset<length){
+			doc.getText(offset,length-offset,seg);
+			cdata(seg.array,seg.offset,seg.count,newline);
+			offset += seg.count;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes part of the text.  "]]>" can't appear inside the CDATA
+	 * section, so the section is closed and reopened between the
+	 * brackets and the '>'.
+	 */
+	private void cdata(char[] a, int offset, int count, String newline) throws IOException{
+		int run = offset;
+		int end = offset+count;
+		for(int i=offset;i<end;i++){
+			char c = a[i];
+			if(c=='\n' && !newline.equals("\n")){
+				out.write(a,run,i-run);
+				out.write(newline);
+				run = i+1;
+				brackets = 0;
+			}
+			else if(c=='>' && brackets>=2){
+				out.write(a,run,i-run);
+				out.write("]]><![CDATA[");
+				run = i;
+				brackets = 0;
+			}
+			else if(c==']'){
+				brackets++;
+			}
+			else{
+				brackets = 0;
+			}
+		}
+		out.write(a,run,end-run);
+	}
+
+	/**
+	 * Closes the text and opens the list of tags
+	 */
+	void startTags() throws IOException{
+		out.write("]]></TEXT>\n<TAGS>\n");
+	}
+
+	void startTag(String name) throws IOException{
+		out.write('<');
+		out.write(name);
+		out.write(' ');
+	}
+
+	/**
+	 * Writes an attribute of the tag that was just started.  New lines
+	 * in the value become spaces, and &, &lt;, &gt; and quotation marks
+	 * are escaped.
+	 */
+	void attribute(String name, String value) throws IOException{
+		out.write(name);
+		out.write("=\"");
+		if(value!=null){
+			pos = 0;
+			int length = value.length();
+			for(int i=0;i<length;i++){
+				char c = value.charAt(i);
+				switch(c){
+				case '&': append("&amp;"); break;
+				case '<': append("&lt;"); break;
+				case '>': append("&gt;"); break;
+				case '"': append("&quot;"); break;
+				case '\n': append(' '); break;
+				default: append(c);
+				}
+			}
+			out.write(buf,0,pos);
+		}
+		out.write("\" ");
+	}
+
+	void endTag() throws IOException{
+		out.write("/>\n");
+	}
+
+	/**
+	 * Closes the list of tags and the root element
+	 */
+	void endDocument(String root) throws IOException{
+		out.write("</TAGS>\n</");
+		out.write(root);
+		out.write(">");
+	}
+
+	private void append(char c) throws IOException{
+		if(pos==buf.length){
+			out.write(buf,0,pos);
+			pos = 0;
+		}
+		buf[pos++] = c;
+	}
+
+	private void append(String s) throws IOException{
+		for(int i=0;i<s.length();i++){
+			append(s.charAt(i));
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IdAllocator hands out the IDs for new tags in the gold standard.
+ * Every ID prefix in the DTD has one counter, shared by all the
+ * elements that use that prefix, so two tags can never be given
+ * the same ID and no ID has to be checked against the database.
+ * <p>
+ * The counters start past the highest number already used with each
+ * prefix: the IDs of the gold standard tags are passed to observe
+ * when the gold standard is imported, and the counters saved with
+ * a session are passed to setNumber when it's opened.  IDs can be
+ * allocated and observed from any number of threads at once.
+ *
+ */
+
+class IdAllocator {
+
+	private Hashtable<String,String> prefixes;        //element name to ID prefix
+	private Hashtable<String,AtomicInteger> counters; //ID prefix to next number
+
+	/**
+	 * Creates a counter, starting at 0, for each ID prefix in the DTD
+	 *
+	 * @param dtd the DTD of the task
+	 */
+	IdAllocator(DTD dtd){
+		prefixes = new Hashtable<String,String>();
+		counters = new Hashtable<String,AtomicInteger>();
+		ArrayList<Elem> elems = dtd.getElements();
+		for(int i=0;i<elems.size();i++){
+			ArrayList<Attrib> attribs = elems.get(i).getAttributes();
+			for(int j=0;j<attribs.size();j++){
+				if (attribs.get(j) instanceof AttID){
+					String prefix = ((AttID)attribs.get(j)).getPrefix();
+					prefixes.put(elems.get(i).getName(),prefix);
+					if(!counters.containsKey(prefix)){
+						counters.put(prefix,new AtomicInteger());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a new ID for a tag
+	 *
+	 * @param element the type of the tag
+	 * @return the ID, or null if the element has no ID attribute
+	 */
+	String next(String element){
+		String prefix = prefixes.get(element);
+		if(prefix==null){
+			return null;
+		}
+		return prefix+counters.get(prefix).getAndIncrement();
+	}
+
+	/**
+	 * Makes sure an ID that's already in use won't be handed out.
+	 * IDs that don't start with one of the DTD's prefixes followed
+	 * by a number are ignored.
+	 *
+	 * @param id the ID of an existing tag
+	 */
+	void observe(String id){
+		if(id==null){
+			return;
+		}
+		for(Enumeration<String> e = counters.keys(); e.hasMoreElements();){
+			String prefix = e.nextElement();
+			if(id.length()>prefix.length() && id.startsWith(prefix)){
+				try{
+					raise(counters.get(prefix),Integer.parseInt(id.substring(prefix.length()))+1);
+				}catch(NumberFormatException ex){
+					//not one of this prefix's IDs
+				}
+			}
+		}
+	}
+
+	/**
+	 * Observes the IDs of all the tags in a HashCollection, such as
+	 * the one XMLFileLoader makes when a file is imported
+	 *
+	 * @param tags the tags, keyed by element name
+	 */
+	void observeAll(HashCollection<String,Hashtable<String,String>> tags){
+		ArrayList<String> names = tags.getKeyList();
+		for(int i=0;i<names.size();i++){
+			ArrayList<Hashtable<String,String>> list = tags.getList(names.get(i));
+			for(int j=0;list!=null && j<list.size();j++){
+				observe(list.get(j).get("id"));
+			}
+		}
+	}
+
+	/**
+	 * Returns the prefix of an element's IDs
+	 *
+	 * @param element the name of the element
+	 * @return the prefix, or null if the element has no ID attribute
+	 */
+	String getPrefix(String element){
+		return prefixes.get(element);
+	}
+
+	/**
+	 * Returns the number the next ID for an element will have
+	 *
+	 * @param element the name of the element
+	 * @return the next number, or -1 if the element has no ID attribute
+	 */
+	int getNumber(String element){
+		String prefix = prefixes.get(element);
+		return prefix==null ? -1 : counters.get(prefix).get();
+	}
+
+	/**
+	 * Moves an element's counter on to at least the given number,
+	 * used to restore the counters saved with a session
+	 *
+	 * @param element the name of the element
+	 * @param number the next number to hand out
+	 */
+	void setNumber(String element, int number){
+		String prefix = prefixes.get(element);
+		if(prefix!=null){
+			raise(counters.get(prefix),number);
+		}
+	}
+
+	/**
+	 * Returns the names of the elements that have IDs
+	 *
+	 * @return the element names
+	 */
+	ArrayList<String> getElements(){
+		return new ArrayList<String>(prefixes.keySet());
+	}
+
+	private static void raise(AtomicInteger counter, int number){
+		int current = counter.get();
+		while(number>current && !counter.compareAndSet(current,number)){
+			current = counter.get();
+		}
+	}
+
+}
@@ -0,0 +1,311 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Json writes the results of AdjudicationTask's queries as JSON for
+ * AdjudServer, and reads the JSON sent to it.  Only what MAI needs is
+ * handled: Maps and HashCollections become objects, Collections become
+ * arrays, numbers and booleans are written as they are and everything
+ * else as a string.  When reading, objects become LinkedHashMaps, arrays
+ * ArrayLists, and numbers, true and false are kept as the strings they
+ * were written as, since tag attributes are always strings.
+ *
+ */
+
+class Json {
+
+	/**
+	 * Writes a value as JSON
+	 *
+	 * @param value the value
+	 * @return the JSON
+	 */
+	static String write(Object value){
+		StringBuilder sb = new StringBuilder();
+		write(sb,value);
+		return sb.toString();
+	}
+
+	static void write(StringBuilder sb, Object value){
+		if(value==null){
+			sb.append("null");
+		}
+		else if(value instanceof Number || value instanceof Boolean){
+			sb.append(value.toString());
+		}
+		else if(value instanceof Map){
+			sb.append('{');
+			boolean first = true;
+			for(Iterator<?> it = ((Map<?,?>)value).entrySet().iterator(); it.hasNext();){
+				Map.Entry<?,?> e = (Map.Entry<?,?>)it.next();
+				if(!first){
+					sb.append(',');
+				}
+				first = false;
+				quote(sb,String.valueOf(e.getKey()));
+				sb.append(':');
+				write(sb,e.getValue());
+			}
+			sb.append('}');
+		}
+		else if(value instanceof HashCollection){
+			@SuppressWarnings("unchecked")
+			HashCollection<Object,Object> hc = (HashCollection<Object,Object>)value;
+			ArrayList<Object> keys = hc.getKeyList();
+			sb.append('{');
+			for(int i=0;i<keys.size();i++){
+				if(i>0){
+					sb.append(',');
+				}
+				quote(sb,String.valueOf(keys.get(i)));
+				sb.append(':');
+				write(sb,hc.getList(keys.get(i)));
+			}
+			sb.append('}');
+		}
+		else if(value instanceof Collection){
+			sb.append('[');
+			boolean first = true;
+			for(Iterator<?> it = ((Collection<?>)value).iterator(); it.hasNext();){
+				if(!first){
+					sb.append(',');
+				}
+				first = false;
+				write(sb,it.next());
+			}
+			sb.append(']');
+		}
+		else{
+			quote(sb,value.toString());
+		}
+	}
+
+	/**
+	 * Writes a string with quotation marks around it, escaping the
+	 * characters JSON doesn't allow inside one
+	 */
+	static void quote(StringBuilder sb, String s){
+		sb.append('"');
+		for(int i=0;i<s.length();i++){
+			char c = s.charAt(i);
+			switch(c){
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if(c<0x20){
+					sb.append("\\u00");
+					sb.append(Character.forDigit(c>>4,16));
+					sb.append(Character.forDigit(c&15,16));
+				}
+				else{
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Reads a JSON value
+	 *
+	 * @param s the JSON
+	 * @return a LinkedHashMap, ArrayList, String or null
+	 * @throws IllegalArgumentException if it isn't JSON
+	 */
+	static Object parse(String s){
+		Json p = new Json(s);
+		p.space();
+		Object value = p.value();
+		p.space();
+		if(p.pos<s.length()){
+			throw p.error("unexpected text after the value");
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a JSON object whose values are all strings (or numbers, true
+	 * or false), such as the attributes of a tag
+	 *
+	 * @param s the JSON
+	 * @return the names and values, in the order they were written
+	 * @throws IllegalArgumentException if it isn't an object of strings
+	 */
+	static LinkedHashMap<String,String> parseStrings(String s){
+		Object value = parse(s);
+		if(!(value instanceof Map)){
+			throw new IllegalArgumentException("expected a JSON object");
+		}
+		LinkedHashMap<String,String> strings = new LinkedHashMap<String,String>();
+		for(Iterator<?> it = ((Map<?,?>)value).entrySet().iterator(); it.hasNext();){
+			Map.Entry<?,?> e = (Map.Entry<?,?>)it.next();
+			if(e.getValue()!=null && !(e.getValue() instanceof String)){
+				throw new IllegalArgumentException("the value of "+e.getKey()+" isn't a string");
+			}
+			strings.put((String)e.getKey(),(String)e.getValue());
+		}
+		return strings;
+	}
+
+	private String s;
+	private int pos;
+
+	private Json(String s){
+		this.s = s;
+	}
+
+	private Object value(){
+		if(pos>=s.length()){
+			throw error("unexpected end");
+		}
+		char c = s.charAt(pos);
+		if(c=='{'){
+			pos++;
+			LinkedHashMap<String,Object> map = new LinkedHashMap<String,Object>();
+			space();
+			if(peek('}')){
+				return map;
+			}
+			do{
+				space();
+				if(pos>=s.length() || s.charAt(pos)!='"'){
+					throw error("expected a name");
+				}
+				String name = string();
+				space();
+				expect(':');
+				space();
+				map.put(name,value());
+				space();
+			}while(peek(','));
+			expect('}');
+			return map;
+		}
+		if(c=='['){
+			pos++;
+			ArrayList<Object> list = new ArrayList<Object>();
+			space();
+			if(peek(']')){
+				return list;
+			}
+			do{
+				space();
+				list.add(value());
+				space();
+			}while(peek(','));
+			expect(']');
+			return list;
+		}
+		if(c=='"'){
+			return string();
+		}
+		int start = pos;
+		while(pos<s.length() && "{}[],: \t\r\n\"".indexOf(s.charAt(pos))<0){
+			pos++;
+		}
+		String word = s.substring(start,pos);
+		if(word.equals("null")){
+			return null;
+		}
+		if(word.equals("true") || word.equals("false") || word.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")){
+			return word;
+		}
+		pos = start;
+		throw error("unexpected "+(word.length()>0 ? word : String.valueOf(c)));
+	}
+
+	private String string(){
+		pos++;
+		StringBuilder sb = new StringBuilder();
+		while(true){
+			if(pos>=s.length()){
+				throw error("unterminated string");
+			}
+			char c = s.charAt(pos++);
+			if(c=='"'){
+				return sb.toString();
+			}
+			if(c!='\\'){
+				sb.append(c);
+				continue;
+			}
+			if(pos>=s.length()){
+				throw error("unterminated string");
+			}
+			c = s.charAt(pos++);
+			switch(c){
+			case 'n': sb.append('\n'); break;
+			case 'r': sb.append('\r'); break;
+			case 't': sb.append('\t'); break;
+			case 'b': sb.append('\b'); break;
+			case 'f': sb.append('\f'); break;
+			case 'u':
+				if(pos+4>s.length()){
+					throw error("bad escape");
+				}
+				try{
+					sb.append((char)Integer.parseInt(s.substring(pos,pos+4),16));
+				}catch(NumberFormatException e){
+					throw error("bad escape");
+				}
+				pos += 4;
+				break;
+			default: sb.append(c);
+			}
+		}
+	}
+
+	private void space(){
+		while(pos<s.length() && Character.isWhitespace(s.charAt(pos))){
+			pos++;
+		}
+	}
+
+	private boolean peek(char c){
+		if(pos<s.length() && s.charAt(pos)==c){
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c){
+		if(!peek(c)){
+			throw error("expected "+c);
+		}
+	}
+
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException(message+" at character "+pos);
+	}
+
+}
@@ -70,6 +70,7 @@ public class MaiGui extends JPanel{
 	 * 
 	 */
 	private static final long serialVersionUID = -6122390155866896831L;
+	private static final int PREFETCH_SPANS = 3; //spans loaded ahead of the selection
 	private Hashtable<String, Color> colorTable;
 	private Color[] colors = {Color.magenta, new Color(153,102,0),
 			new Color(255,204,51), new Color(0,172,188),new Color (234,160,0), 
@@ -82,6 +83,11 @@ public class MaiGui extends JPanel{
 	//looking at link tags.
 	private HashCollection<String,Integer> visitedLocs;
 
+	//the files being adjudicated and the DTD, kept so
+	//the adjudication can be saved as a session
+	private Hashtable<String,File> sourceFiles;
+	private File dtdFile;
+
 	private boolean textSelected;
 	private boolean ctrlPressed;
 	private int loc1;
@@ -119,6 +125,7 @@ public class MaiGui extends JPanel{
 
 	private JMenuBar mb;
 	private JMenu fileMenu;
+	private JMenu editMenu;
 	private JMenu display;
 	//private JMenu nc_tags;
 	private JMenu helpMenu;
@@ -127,11 +134,15 @@ public class MaiGui extends JPanel{
 
 	private static AdjudicationTask adjudicationTask;
 	private ArrayList<String> filenames;
+	private TextColorer textColorer;
+	private TextFingerprint textFingerprint;
+	private Document fingerprintedDoc;  //the document textFingerprint was made from
 
 	public MaiGui(){
 		super(new BorderLayout());
 
 		visitedLocs = new HashCollection<String,Integer>();
+		sourceFiles = new Hashtable<String,File>();
 
 		/*global variable assignments*/
 		hasFile = false;
@@ -184,6 +195,8 @@ public class MaiGui extends JPanel{
 		displayAnnotation.addCaretListener(new AnnCaretListener());
 		displayAnnotation.addMouseListener(new PopupListener());
 		scrollPane = new JScrollPane(displayAnnotation);
+		textColorer = new TextColorer(displayAnnotation,adjudicationTask);
+		displayAnnotation.setHighlighter(new AgreementHighlighter(textColorer));
 		annotatePane.add(scrollPane,BorderLayout.CENTER);
 		annotatePane.add(mouseLabel,BorderLayout.SOUTH);
 
@@ -196,9 +209,11 @@ public class MaiGui extends JPanel{
 
 		mb = new JMenuBar();
 		fileMenu = createFileMenu();
+		editMenu = createEditMenu();
 		display = createDisplayMenu();
 		helpMenu = createHelpMenu();
 		mb.add(fileMenu);
+		mb.add(editMenu);
 		mb.add(display);
 		mb.add(helpMenu);
 
@@ -233,6 +248,7 @@ public class MaiGui extends JPanel{
 						DTDLoader dtdl = new DTDLoader(file);
 						adjudicationTask.reset_db();
 						adjudicationTask.setDTD(dtdl.getDTD());
+						dtdFile = file;
 						makeRadioTags();
 						//reset visitedLocs
 						visitedLocs = new HashCollection<String,Integer>();
@@ -276,6 +292,9 @@ public class MaiGui extends JPanel{
 						filenames = new ArrayList<String>();
 						filenames.add(fullName);
 						filenames.add("goldStandard.xml");
+						textColorer.setFilenames(filenames);
+						sourceFiles = new Hashtable<String,File>();
+						sourceFiles.put(fullName,file);
 
 						frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
@@ -290,12 +309,25 @@ public class MaiGui extends JPanel{
 									StyleContext.DEFAULT_STYLE );
 							Style regular = d.addStyle( "regular", def );
 							d.insertString(0, xfl.getTextChars(), regular);
+							PhaseEvent.setDocument(d.getLength(),filenames.size());
 
 							HashCollection<String,Hashtable<String,String>> newTags = xfl.getTagHash();
 							if (newTags.size()>0){
 								adjudicationTask.addTagsFromHash(fullName, newTags);
 							}
 						}
+						//offer to put back a gold standard for this text that 
+						//was never saved, then keep the new one in the log
+						TextFingerprint text = getTextFingerprint();
+						int unsaved = adjudicationTask.findAutosave(text);
+						boolean recover = false;
+						if (unsaved>0){
+							recover = JOptionPane.showConfirmDialog(MaiGui.this,
+									"MAI stopped before the gold standard for this text was saved.\n"+
+									"Recover its "+unsaved+" tags?","Recover gold standard",
+									JOptionPane.YES_NO_OPTION)==JOptionPane.YES_OPTION;
+						}
+						adjudicationTask.startAutosave(text,recover);
 					}catch(Exception ex){
 						hasFile=false;
 						System.out.println("Error loading file");
@@ -320,22 +352,11 @@ public class MaiGui extends JPanel{
 						frame.setTitle(frame.getTitle() + ", "+fullName);
 						
 						frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-						//check to make sure the text is the same as the first file
-						int textLen = displayAnnotation.getStyledDocument().getLength();
-						String text= displayAnnotation.getStyledDocument().getText(0,textLen);
-						XMLFileLoader xfl = new XMLFileLoader(file);
-
-						String text2 = xfl.getTextChars();
-						int textLen2 = text2.length();
-
-						if(textLen != textLen2){
-							throw new Exception("File length mismatch!");
-						}
-						else{
-
-							if(text.equals(text2)==false){
-								throw new Exception("error matching text!");
-							}
+						//check to make sure the text is the same as the first file;
+						//the file isn't read past its text if it isn't
+						XMLFileLoader xfl = new XMLFileLoader(file,getTextFingerprint());
+						if(xfl.getMismatch()!=null){
+							throw new Exception(xfl.getMismatch());
 						}
 
 						updateMenus();
@@ -344,6 +365,10 @@ public class MaiGui extends JPanel{
 							fullName = "x"+fullName;
 						}
 						filenames.add(0,fullName);
+						textColorer.setFilenames(filenames);
+						PhaseEvent.setDocument(displayAnnotation.getStyledDocument().getLength(),
+								filenames.size());
+						sourceFiles.put(fullName,file);
 						assignColors(fullName);
 
 						//add the new file to the DB
@@ -369,6 +394,29 @@ public class MaiGui extends JPanel{
 				frame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
 				displayAnnotation.setCaretPosition(0);
 			}//end addfile
+
+			else if (e.getActionCommand().equals("add files")){
+				fcFile.setMultiSelectionEnabled(true);
+				int returnVal = fcFile.showOpenDialog(MaiGui.this);
+				fcFile.setMultiSelectionEnabled(false);
+				if (returnVal == JFileChooser.APPROVE_OPTION) {
+					frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+					try{
+						//a folder, or any number of files
+						ArrayList<File> files = new ArrayList<File>();
+						File[] selected = fcFile.getSelectedFiles();
+						for (int i=0;i<selected.length;i++){
+							files.addAll(BulkImporter.findFiles(selected[i]));
+						}
+						addFiles(files);
+					}catch(Exception ex){
+						System.out.println("Error loading files");
+						System.out.println(ex.toString());
+					}
+				}
+				frame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+				displayAnnotation.setCaretPosition(0);
+			}//end addfiles
 			
 			else if (e.getActionCommand().equals("add GS")){
 				int returnVal = fcFile.showOpenDialog(MaiGui.this);
@@ -380,22 +428,11 @@ public class MaiGui extends JPanel{
 						frame.setTitle(frame.getTitle() + ", "+fullName);
 						
 						frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-						//check to make sure the text is the same as the first file
-						int textLen = displayAnnotation.getStyledDocument().getLength();
-						String text= displayAnnotation.getStyledDocument().getText(0,textLen);
-						XMLFileLoader xfl = new XMLFileLoader(file);
-
-						String text2 = xfl.getTextChars();
-						int textLen2 = text2.length();
-
-						if(textLen != textLen2){
-							throw new Exception("File length mismatch!");
-						}
-						else{
-
-							if(text.equals(text2)==false){
-								throw new Exception("error matching text!");
-							}
+						//check to make sure the text is the same as the first file;
+						//the file isn't read past its text if it isn't
+						XMLFileLoader xfl = new XMLFileLoader(file,getTextFingerprint());
+						if(xfl.getMismatch()!=null){
+							throw new Exception(xfl.getMismatch());
 						}
 
 						String tempHack = "goldStandard.xml";
@@ -426,6 +463,59 @@ public class MaiGui extends JPanel{
 			}//end addGS
 
 
+			else if (e.getActionCommand().equals("open session")){
+				int returnVal = fcFile.showOpenDialog(MaiGui.this);
+				if (returnVal == JFileChooser.APPROVE_OPTION) {
+					File file = fcFile.getSelectedFile();
+					frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+					try{
+						AdjudSession session = adjudicationTask.openSession(file);
+						openSession(session);
+						if(session.getReimported().size()>0 || session.getMissing().size()>0){
+							JOptionPane.showMessageDialog(frame,
+									"Imported again because they changed: "+session.getReimported()+
+									"\nUsed as saved (missing or text changed): "+session.getMissing());
+						}
+					}catch(Exception ex){
+						System.out.println("Error opening session");
+						System.out.println(ex.toString());
+						JOptionPane.showMessageDialog(frame,"Error opening session: "+ex.getMessage());
+					}
+				}
+				frame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+			}//end open session
+
+			else if (e.getActionCommand().equals("save session")){
+				fcSave.setSelectedFile(new File("adjudication.mai"));
+				int returnVal = fcSave.showSaveDialog(MaiGui.this);
+				if(returnVal == JFileChooser.APPROVE_OPTION){
+					File file = fcSave.getSelectedFile();
+					frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+					try{
+						AdjudSession session = new AdjudSession(file);
+						session.setDTDFile(dtdFile);
+						session.setText(displayAnnotation.getStyledDocument().getText(0,
+								displayAnnotation.getStyledDocument().getLength()));
+						for(int i=0;i<filenames.size();i++){
+							String name = filenames.get(i);
+							File source = sourceFiles.get(name);
+							if(source==null){
+								session.addEntry(new AdjudSession.Entry(name,"",0,0,""));
+							}
+							else{
+								session.addEntry(AdjudSession.Entry.describe(name,source));
+							}
+						}
+						session.setVisitedLocs(visitedLocs);
+						adjudicationTask.saveSession(session);
+					}catch(Exception ex){
+						System.out.println("Error saving session");
+						System.out.println(ex.toString());
+					}
+				}
+				frame.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+			}//end save session
+
 			else if(e.getActionCommand().equals("Save XML")){
 				fcSave.setSelectedFile(new File("goldStandard.xml"));
 				int returnVal = fcSave.showSaveDialog(MaiGui.this);
@@ -433,9 +523,17 @@ public class MaiGui extends JPanel{
 					File file = fcSave.getSelectedFile();
 					String fullName = file.getName();
 					try{
-						FileOperations.saveAdjudXML(file,displayAnnotation,
-								adjudicationTask);
-						frame.setTitle(fullName);
+						if(FileOperations.saveAdjudXML(file,displayAnnotation,
+								adjudicationTask)){
+							adjudicationTask.autosaveSaved();
+							frame.setTitle(fullName);
+						}
+						else{
+							//the autosave log still has the changes
+							JOptionPane.showMessageDialog(MaiGui.this,
+									"Unable to save the gold standard to "+file.getPath(),
+									"Save XML",JOptionPane.ERROR_MESSAGE);
+						}
 					}catch(Exception e2){
 						System.out.println(e2.toString());
 					}
@@ -473,6 +571,70 @@ public class MaiGui extends JPanel{
 		}
 	}
 	
+	/**
+	 * Listens for the commands in the Edit menu, which undo and redo
+	 * changes to the gold standard
+	 */
+	private class EditListener implements ActionListener, MenuListener{
+		public void actionPerformed(ActionEvent e){
+			String action = e.getActionCommand();
+			String done = null;
+			boolean failed = false;
+			try{
+				if (action.equals("undo")){
+					done = adjudicationTask.undo();
+				}
+				else{
+					done = adjudicationTask.redo();
+				}
+			}catch(Exception ex){
+				//the tags were put back as they were, but may need recoloring
+				failed = true;
+				JOptionPane.showMessageDialog(MaiGui.this,"Unable to "+action+": "+ex.toString(),
+						"Edit",JOptionPane.ERROR_MESSAGE);
+			}
+			if ((done==null && !failed) || tagButtons.getSelection()==null){
+				return;
+			}
+			//show the gold standard as it is now
+			String command = tagButtons.getSelection().getActionCommand();
+			if (adjudicationTask.getElem(command) instanceof ElemExtent){
+				textColorer.recolorChanges();
+			}
+			else{
+				assignTextColors(command);
+			}
+			if (textSelected){
+				findRelatedTags();
+			}
+		}
+
+		//name the edits that will be undone and redone each time the menu opens
+		public void menuSelected(MenuEvent e){
+			JMenu menu = (JMenu)e.getSource();
+			String undo = adjudicationTask.getUndoName();
+			String redo = adjudicationTask.getRedoName();
+			JMenuItem undoItem = menu.getItem(0);
+			JMenuItem redoItem = menu.getItem(1);
+			undoItem.setText(undo==null ? "Undo" : "Undo "+undo);
+			undoItem.setEnabled(undo!=null);
+			redoItem.setText(redo==null ? "Redo" : "Redo "+redo);
+			redoItem.setEnabled(redo!=null);
+		}
+
+		public void menuDeselected(MenuEvent e){
+			//the items stay enabled so the shortcuts work; undo and redo 
+			//do nothing when there's nothing to undo or redo
+			JMenu menu = (JMenu)e.getSource();
+			menu.getItem(0).setEnabled(true);
+			menu.getItem(1).setEnabled(true);
+		}
+
+		public void menuCanceled(MenuEvent e){
+			menuDeselected(e);
+		}
+	}
+
 	/**
 	 * Listens for the request from the Help Menu
 	 */
@@ -669,51 +831,43 @@ public class MaiGui extends JPanel{
 						sourceCol = i;
 					}
 				}
-				//get the id for each selected row and remove id
-				String id = "";
-				String source = "";
-				for (int i=selectedRows.length-1;i>=0;i--){
+				//collect the gold standard tags in the selected rows; tags 
+				//from the files being adjudicated can't be deleted
+				HashCollection<String,String> doomed = new HashCollection<String,String>();
+				ArrayList<Integer> rows = new ArrayList<Integer>();
+				for (int i=0;i<selectedRows.length;i++){
 					int row = selectedRows[i];
-					id = (String)tableModel.getValueAt(row,idCol);
-					source = (String)tableModel.getValueAt(row,sourceCol);
-					//don't want to delete tags that come from the files
-					//being adjudicated
+					String source = (String)tableModel.getValueAt(row,sourceCol);
 					if (source.equalsIgnoreCase("goldStandard.xml")){
-						if(elem instanceof ElemExtent){
-							adjudicationTask.removeExtentByFileAndID(source,action,id);
-							int start = Integer.parseInt(((String)tableModel.getValueAt(row,2)));
-							int end = Integer.parseInt(((String)tableModel.getValueAt(row,3)));
-							assignTextColor(action,start,end);
-							HashCollection<String,String> links = 
-									adjudicationTask.getLinksByFileAndExtentID(source,action,id);
-							//remove links that use the tag being removed
-							ArrayList<String> keys = links.getKeyList();
-							for (int k=0;k<keys.size();k++){
-								String tag = keys.get(k);
-								ArrayList<String> ids = links.get(tag);
-								for(int j=0;j<ids.size();j++){
-									String idl = ids.get(j);
-									adjudicationTask.removeLinkByFileAndID(source,tag,idl);
-								}
-								//also, remove those locations from the visitedLocs 
-								//HashCollection
-								ArrayList<Integer> vlocs = visitedLocs.get(tag);
-								for(int j=start;j<=end;j++){
-									vlocs.remove(new Integer(j));
-								}
-							}
-
-
-						}
-						else{
-							adjudicationTask.removeLinkByFileAndID(source,action,id);
-
+						doomed.putEnt(action,(String)tableModel.getValueAt(row,idCol));
+						rows.add(Integer.valueOf(row));
+					}
+				}
+				if(rows.size()==0){
+					return;
+				}
+				//remove the tags, and any links that use them, all at once
+				HashCollection<String,String> links = new HashCollection<String,String>();
+				SpanSet removed = adjudicationTask.removeTagsByFileAndID("goldStandard.xml",
+						doomed,links);
+				//the locations of the removed extents no longer count as 
+				//visited for the links that were removed
+				ArrayList<String> linkTypes = links.getKeyList();
+				for (int k=0;k<linkTypes.size();k++){
+					ArrayList<Integer> vlocs = visitedLocs.get(linkTypes.get(k));
+					for(int j=0;vlocs!=null && j<removed.size();j++){
+						for(int loc=removed.getStart(j);loc<removed.getEnd(j);loc++){
+							vlocs.remove(Integer.valueOf(loc));
 						}
-						tableModel.removeRow(selectedRows[i]);
 					}
 				}
+				Collections.sort(rows);
+				for (int i=rows.size()-1;i>=0;i--){
+					tableModel.removeRow(rows.get(i).intValue());
+				}
+				//recolor only the spans that lost tags
 				if(elem instanceof ElemExtent){
-					assignTextColors(action);
+					textColorer.recolorChanges();
 				}
 			}
 		}
@@ -923,6 +1077,126 @@ public class MaiGui extends JPanel{
 	//end of classes section
 	//********************************************************
 
+	/**
+	 * Sets up the display for a session that was just opened
+	 * 
+	 * @param session the session
+	 */
+	private void openSession(AdjudSession session) throws Exception{
+		dtdFile = session.getDTDFile();
+		makeRadioTags();
+		visitedLocs = session.getVisitedLocs();
+
+		colorTable.clear();
+		colorTable.put("goldStandard.xml",Color.yellow);
+		colorTable.put("allOtherFiles",Color.cyan);
+		colorTable.put("someOtherFiles",Color.pink);
+		filenames = session.getFilenames();
+		sourceFiles = new Hashtable<String,File>();
+		//the files were added to the front of the list, and the first
+		//one doesn't get a color of its own
+		ArrayList<AdjudSession.Entry> entries = session.getEntries();
+		boolean first = true;
+		for(int i=entries.size()-1;i>=0;i--){
+			AdjudSession.Entry entry = entries.get(i);
+			if(entry.hasSource()){
+				sourceFiles.put(entry.name,new File(entry.path));
+				if(!first){
+					assignColors(entry.name);
+				}
+				first = false;
+			}
+		}
+		textColorer.setFilenames(filenames);
+
+		displayAnnotation.getHighlighter().removeAllHighlights();
+		displayAnnotation.setStyledDocument(new DefaultStyledDocument());
+		displayAnnotation.setContentType("text/plain; charset=UTF-8");
+		StyledDocument d = displayAnnotation.getStyledDocument();
+		Style def = StyleContext.getDefaultStyleContext().getStyle( 
+				StyleContext.DEFAULT_STYLE );
+		Style regular = d.addStyle( "regular", def );
+		d.insertString(0, session.getText(), regular);
+		PhaseEvent.setDocument(d.getLength(),filenames.size());
+
+		frame.setTitle(session.getFile().getName());
+		hasFile = true;
+		updateMenus();
+		resetInfoPanel();
+		displayAnnotation.setCaretPosition(0);
+	}
+
+	/**
+	 * Adds several annotation files to the adjudication at once.  The 
+	 * files are read in parallel and their tags added to the database
+	 * in one transaction as each one is read, and the text is only 
+	 * recolored once they're all in.  Files whose text doesn't match 
+	 * are left out and listed afterwards.
+	 * 
+	 * @param files the files to add
+	 */
+	private void addFiles(ArrayList<File> files) throws Exception{
+		StyledDocument doc = displayAnnotation.getStyledDocument();
+		//the names are picked before the files are read, since they're
+		//added in whatever order they finish being read
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i=0;i<files.size();i++){
+			//check to make sure name isn't already there
+			String fullName = files.get(i).getName();
+			while(filenames.contains(fullName) || names.contains(fullName)){
+				fullName = "x"+fullName;
+			}
+			names.add(fullName);
+		}
+		BulkImporter.Pipeline pipeline = new BulkImporter.Pipeline(files,names,getTextFingerprint());
+		int added;
+		try{
+			added = adjudicationTask.addFilesFromHash(pipeline);
+		}finally{
+			pipeline.close();
+		}
+		ArrayList<BulkImporter.Loaded> loaded = pipeline.getLoaded();
+		String errors = "";
+		for (int i=0;i<loaded.size();i++){
+			BulkImporter.Loaded l = loaded.get(i);
+			if (!l.ok()){
+				errors = errors + l.file.getName() + ": " + l.error + "\n";
+				continue;
+			}
+			frame.setTitle(frame.getTitle() + ", "+l.name);
+			filenames.add(0,l.name);
+			sourceFiles.put(l.name,l.file);
+			assignColors(l.name);
+		}
+		if (added>0){
+			textColorer.setFilenames(filenames);
+			PhaseEvent.setDocument(doc.getLength(),filenames.size());
+			updateMenus();
+			resetInfoPanel();
+			if (tagButtons.getSelection()!=null){
+				String command = tagButtons.getSelection().getActionCommand();
+				assignTextColors(command);
+			}
+		}
+		if (errors.length()>0){
+			JOptionPane.showMessageDialog(MaiGui.this,"These files were not added:\n"+errors,
+					"Add files",JOptionPane.WARNING_MESSAGE);
+		}
+	}
+
+	/**
+	 * Returns the fingerprint of the text being adjudicated, which is only
+	 * worked out again when a different text is loaded
+	 */
+	private TextFingerprint getTextFingerprint() throws BadLocationException{
+		StyledDocument doc = displayAnnotation.getStyledDocument();
+		if (fingerprintedDoc!=doc || textFingerprint.length()!=doc.getLength()){
+			textFingerprint = TextFingerprint.of(doc);
+			fingerprintedDoc = doc;
+		}
+		return textFingerprint;
+	}
+
 	/**
 	 * Assigns colors to each file being adjudicated.
 	 * 
@@ -1008,9 +1282,6 @@ public class MaiGui extends JPanel{
 				Rectangle rect =  tagTable.getCellRect(tableModel.getRowCount()-1, 0, true);
 				tagTable.scrollRectToVisible(rect);
 				addRowToGoldStandard(0,tableModel.getRowCount()-1,elem);
-				if(start!=-1){
-					assignTextColor(action,start,end);
-				}
 			}
 		}
 	}
@@ -1042,177 +1313,30 @@ public class MaiGui extends JPanel{
      * files include it in the annotation (if it's in the Gold Standard, the 
      * text is green, if it's in all the files but the Gold Standard the text 
      * is blue, and if it's some but not all the files the text is red).    
+     * The colors are worked out by the TextColorer and painted behind 
+     * the text by the AgreementHighlighter.
      * 
      * @param tagname The name of the selected tag
 	 */
 	private void assignTextColors(String tagname){
-		//reset all text to black, then set new colors
-		setColorAtLocation(Color.black,0,displayAnnotation.getStyledDocument().getLength(),false);
-
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.ASSIGN_TEXT_COLORS).setTagName(tagname);
 		//check to see if the tagname is a non-consuming tag
 		if(tagname.startsWith("NC-")){
 			//no colors will be set if an non-consuming tag is chosen; instead 
 			//skip straight to filling in the table
+			textColorer.clear();
 			String command = tagname.substring(3);
 			HashCollection<String,String> idHash = adjudicationTask.getTagsSpanByType(-1,
 					-1,command);
 			fillInTable(idHash,command);
+			event.setTagCount(PhaseEvent.count(idHash));
 		}
 		else{
-			Elem e = adjudicationTask.getElem(tagname);
-			if (e instanceof ElemExtent){
-				HashCollection<String,String>elems = adjudicationTask.getExtentAllLocs(tagname);
-				ArrayList<String> locations = elems.getKeyList();
-				for (int i=0;i<locations.size();i++) {
-					String location = locations.get(i);
-					ArrayList<String> files = elems.getList(location);
-					if (files.contains("goldStandard.xml")){
-						setColorAtLocation(Color.green,Integer.parseInt(location),1,false);
-					}
-					else if (files.size()>0){
-						boolean allfiles = true;
-						for(int f=0;f<filenames.size();f++){
-							if(files.contains(filenames.get(f))==false
-									&& filenames.get(f).equals("goldStandard.xml")==false){
-								allfiles = false;
-							}
-						}
-						if (allfiles==true){
-							setColorAtLocation(Color.blue,Integer.parseInt(location),1,false);
-						}
-						else{
-							setColorAtLocation(Color.red,Integer.parseInt(location),1,false);
-						}
-					}
-				}
-			}
-
-			else{//if selected tag is a link
-				//first, get all the places where there are extent tags in the 
-				//gold standard
-				Hashtable<String,String> allLocs = adjudicationTask.getAllExtentsByFile("goldStandard.xml");
-				for (Enumeration<String> locs = allLocs.keys(); locs.hasMoreElements();){
-					int loc = Integer.parseInt(locs.nextElement());
-					setColorAtLocation(Color.lightGray,loc,1,false);
-				}
-				//then, figure out what extents are already in links and
-				//highlight them appropriately
-				HashCollection<String,String>elems = 
-						adjudicationTask.findGoldStandardLinksByType(tagname);
-
-				ArrayList<String> locations = elems.getKeyList();
-				for (int i=0;i<locations.size();i++) {
-					String location = locations.get(i);
-					ArrayList<String> files = elems.getList(location);
-					if (files.contains("goldStandard.xml")){
-						setColorAtLocation(Color.green,Integer.parseInt(location),1,false);
-					}
-					else if (files.size()>0){
-						boolean allfiles = true;
-						for(int f=0;f<filenames.size();f++){
-							if(files.contains(filenames.get(f))==false
-									&& filenames.get(f).equals("goldStandard.xml")==false){
-								allfiles = false;
-							}
-						}
-						if (allfiles==true){
-							setColorAtLocation(Color.blue,Integer.parseInt(location),1,false);
-						}
-						else{
-							setColorAtLocation(Color.red,Integer.parseInt(location),1,false);
-						}
-					}
-				}
-				//finally, go over everything that's already been looked at
-				colorVisitedLocs(tagname);
-
-			}
+			textColorer.select(tagname,visitedLocs.get(tagname));
 		}
+		event.commit();
 	}
 
-	/**
-	 * Goes over the text when a link is selected and colors the locations
-	 * that the adjudicator has already examined.
-	 * 
-	 * @param tagname that tag that's been selected
-	 */
-	private void colorVisitedLocs(String tagname){
-		ArrayList<Integer> visitlocs = visitedLocs.get(tagname);
-		if(visitlocs !=null){
-			for(int i=0;i<visitlocs.size();i++){
-				setColorAtLocation(Color.magenta,visitlocs.get(i).intValue(),1,false);
-			}
-		}
-
-	}
-
-
-	/**
-	 *  This method is for coloring/underlining text
-     *  in the text window.  It detects overlaps, and
-     *  should be called every time a tag is added
-     *  or removed.
-	 * 
-	 * @param tagname the selected tagname
-	 * @param beginColor the beginning of the text span being assigned a color
-	 * @param endColor the end of the text span being assigned a color
-	 */
-	private void assignTextColor(String tagname, int beginColor, int endColor){
-		// go through each part of the word being changed and 
-        // find what tags are there, and what color it should be.
-		Elem e = adjudicationTask.getElem(tagname);
-		if (e instanceof ElemExtent){
-			for(int i=0;i<endColor-beginColor;i++){
-				ArrayList<String>files = 
-						adjudicationTask.getFilesAtLocbyElement(tagname,beginColor+i);
-				//if there is a gold standard tag in that location, the text will be gree
-				if (files.contains("goldStandard.xml")){
-					setColorAtLocation(Color.green,beginColor+i,1,false);
-				}
-				else if (files.size()>0){
-					boolean allfiles = true;
-					// check to see if there's a tag at that location from each
-					// of the files being adjudicated
-					for(int f=0;f<filenames.size();f++){
-						if(files.contains(filenames.get(f))==false
-								&& filenames.get(f).equals("goldStandard.xml")==false){
-							allfiles = false;
-						}
-					}
-					//if a tag exists in all files, the text is blue
-					if (allfiles==true){
-						setColorAtLocation(Color.blue,beginColor+i,1,false);
-					}
-					//otherwise it's red
-					else{
-						setColorAtLocation(Color.red,beginColor+i,1,false);
-					}
-				}
-				else{
-					setColorAtLocation(Color.black,beginColor+i,1,false);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Used to set the text in a span to a determined color
-	 * 
-	 * @param color the color being assigned
-	 * @param s the start of the span
-	 * @param e the end of the span
-	 * @param b whether or not the text will be underlined
-	 */
-	private void setColorAtLocation(Color color, int s, int e, boolean b){
-		DefaultStyledDocument styleDoc = (DefaultStyledDocument)displayAnnotation.getStyledDocument();
-		SimpleAttributeSet aset = new SimpleAttributeSet();
-		StyleConstants.setForeground(aset, color);
-		StyleConstants.setUnderline(aset, b);
-		styleDoc.setCharacterAttributes(s,e,aset,false);
-	}
-
-
-
 	/**
 	 * Creates the popup menu that allows users to create new 
 	 * tags from the text window
@@ -1252,19 +1376,24 @@ public class MaiGui extends JPanel{
 		//first, get files and ids of elements in selected extents by type\
 		if (tagButtons.getSelection()!=null){
 			String command = tagButtons.getSelection().getActionCommand();
+			PhaseEvent event = PhaseEvent.begin(PhaseEvent.FIND_RELATED_TAGS).setTagName(command);
 			Elem e = adjudicationTask.getElem(command);
 			if (e instanceof ElemExtent){
 				HashCollection<String,String> idHash = adjudicationTask.getTagsSpanByType(start,
 						end,command);
 				fillInTable(idHash,command);
+				event.setTagCount(PhaseEvent.count(idHash));
+				//start loading the next spans while this one is looked at
+				adjudicationTask.prefetchSpans(command,
+						textColorer.nextSpans(end+1,end-start,PREFETCH_SPANS));
 			}
 			else if(e instanceof ElemLink){
 				//for location between start and end, if there is an extent tag 
 				//there in the gold standard, change color to magenta and add 
 				//to visitedLocs
 				for(int i = start;i<=end;i++){
-					if(adjudicationTask.tagExistsInFileAtLoc("goldStandard.xml",i)){
-						setColorAtLocation(Color.magenta,i,1,false);
+					if(textColorer.isGoldExtent(i)){
+						textColorer.markVisited(i);
 						visitedLocs.putEnt(command,new Integer(i));
 					}
 				}
@@ -1272,10 +1401,12 @@ public class MaiGui extends JPanel{
 				HashCollection<String,Hashtable<String,String>> idHash = 
 						adjudicationTask.getLinkTagsSpanByType(start,end,command);
 				fillInLinkTable(idHash,command);
+				event.setTagCount(PhaseEvent.count(idHash));
 			}
 			else{
 				//do nothing, it's a non-consuming tag
 			}
+			event.commit();
 		}
 	}
 
@@ -1438,6 +1569,7 @@ public class MaiGui extends JPanel{
 	 */
 	private void fillInLinkTable(HashCollection<String,Hashtable<String,String>> idHash,
 			String tagname){
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.FILL_IN_LINK_TABLE).setTagName(tagname);
 		//first, clear out existing table and listener, otherwise the changes to the table
 		//trigger conflicting events
 		tagTable.getColumnModel().getSelectionModel().removeListSelectionListener(tablelistener);
@@ -1528,6 +1660,7 @@ public class MaiGui extends JPanel{
 		//add the listeners back to the table
 		tagTable.getSelectionModel().addListSelectionListener(tablelistener);
 		tagTable.getColumnModel().getSelectionModel().addListSelectionListener(tablelistener);
+		event.setTagCount(tableModel.getRowCount()).commit();
 	}
 
 	/**
@@ -1538,6 +1671,7 @@ public class MaiGui extends JPanel{
 	 * @param tagname the type of the tag information being filled in 
 	 */
 	private void fillInTable(HashCollection<String,String> idHash, String tagname){
+		PhaseEvent event = PhaseEvent.begin(PhaseEvent.FILL_IN_TABLE).setTagName(tagname);
 		//first, clear out existing table and listener, otherwise the changes to the table
 		//trigger conflicting events
 		tagTable.getColumnModel().getSelectionModel().removeListSelectionListener(tablelistener);
@@ -1584,6 +1718,7 @@ public class MaiGui extends JPanel{
 		}
 		tagTable.getSelectionModel().addListSelectionListener(tablelistener);
 		tagTable.getColumnModel().getSelectionModel().addListSelectionListener(tablelistener);
+		event.setTagCount(tableModel.getRowCount()).commit();
 	}
 
 
@@ -1672,6 +1807,16 @@ public class MaiGui extends JPanel{
 	 * @param e the type of tag being added
 	 */
 	private void addRowToGoldStandard(int col, int buttonRow, Elem e){
+		//removing the old tag and adding the new one are undone together
+		adjudicationTask.beginEdit("Modify "+e.getName());
+		try{
+			updateGoldStandardRow(buttonRow,e);
+		}finally{
+			adjudicationTask.endEdit();
+		}
+	}
+
+	private void updateGoldStandardRow(int buttonRow, Elem e){
 		boolean hasID = false;
 		String id = "";
 		int idLoc = -1;
@@ -1708,23 +1853,14 @@ public class MaiGui extends JPanel{
 		Hashtable<String,String> tag = new Hashtable<String,String>();
 
 		if (e instanceof ElemExtent){
-			int startT = -1;
-			int endT = -1;
-
 			for (int i=0;i<tagTable.getColumnCount();i++){
 				String header = tagTable.getColumnName(i);
 				tag.put(header,(String)tagTable.getValueAt(buttonRow,i));
-				if (header.equals("start")){
-					startT = Integer.parseInt((String)tagTable.getValueAt(buttonRow,i));
-				}
-				if (header.equals("end")){
-					endT = Integer.parseInt((String)tagTable.getValueAt(buttonRow,i));
-				}
 			}
 			//add the column to the DB
 			adjudicationTask.addTagFromHash("goldStandard.xml",e,tag);
-			//color the new location appropriately
-			assignTextColor(e.getName(),startT,endT);
+			//color the old and new locations appropriately
+			textColorer.recolorChanges();
 		}
 		else{//if it's a link
 			for (int i=0;i<tagTable.getColumnCount();i++){
@@ -1890,6 +2026,17 @@ public class MaiGui extends JPanel{
 
 		menu.add(addFile);
 
+		JMenuItem addFiles = new JMenuItem("Add files from folder");
+		addFiles.setActionCommand("add files");
+		addFiles.addActionListener(new getFile());
+		if(hasFile==false){
+			addFiles.setEnabled(false);
+		}
+		else{
+			addFiles.setEnabled(true);
+		}
+		menu.add(addFiles);
+
 		JMenuItem addGS = new JMenuItem("Add gold standard file");
 		addGS.setActionCommand("add GS");
 		addGS.addActionListener(new getFile());
@@ -1901,6 +2048,23 @@ public class MaiGui extends JPanel{
 		}
 		menu.add(addGS);
 
+		menu.addSeparator();
+		JMenuItem openSession = new JMenuItem("Open Session");
+		openSession.setActionCommand("open session");
+		openSession.addActionListener(new getFile());
+		menu.add(openSession);
+
+		JMenuItem saveSession = new JMenuItem("Save Session");
+		saveSession.setActionCommand("save session");
+		saveSession.addActionListener(new getFile());
+		if(hasFile==false){
+			saveSession.setEnabled(false);
+		}
+		else{
+			saveSession.setEnabled(true);
+		}
+		menu.add(saveSession);
+
 		menu.addSeparator();
 		JMenuItem saveFileXML = new JMenuItem("Save Gold Standard As XML");
 		saveFileXML.setActionCommand("Save XML");
@@ -1916,6 +2080,33 @@ public class MaiGui extends JPanel{
 		return menu;
 	}
 
+	/**
+	 * Creates the menu for undoing and redoing changes to the
+	 * gold standard.  getMenuShortcutKeyMaskEx, which replaces 
+	 * getMenuShortcutKeyMask, isn't there before Java 10.
+	 */
+	@SuppressWarnings("deprecation")
+	private JMenu createEditMenu(){
+		JMenu menu = new JMenu("Edit");
+		EditListener listener = new EditListener();
+		int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+
+		JMenuItem undo = new JMenuItem("Undo");
+		undo.setActionCommand("undo");
+		undo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z,mask));
+		undo.addActionListener(listener);
+		menu.add(undo);
+
+		JMenuItem redo = new JMenuItem("Redo");
+		redo.setActionCommand("redo");
+		redo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y,mask));
+		redo.addActionListener(listener);
+		menu.add(redo);
+
+		menu.addMenuListener(listener);
+		return menu;
+	}
+
 	/**
 	 * Creates the menu for changing the font size
 	 */
@@ -1953,9 +2144,11 @@ public class MaiGui extends JPanel{
 	private void updateMenus(){
 		mb.remove(display);
 		mb.remove(fileMenu);
+		mb.remove(editMenu);
 		mb.remove(helpMenu);
 		fileMenu = createFileMenu();
 		mb.add(fileMenu);
+		mb.add(editMenu);
 		mb.add(display);
 		mb.add(helpMenu);
 		mb.updateUI();
@@ -0,0 +1,257 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * PhaseEvent records how long one of MAI's major steps took as a
+ * Java Flight Recorder event, so that a recording made on an
+ * adjudicator's machine shows which action MAI was busy with.
+ * Each event has the name of the tag and file involved, the
+ * length of the document, the number of tags handled and the
+ * number of files in the adjudication.
+ * <p>
+ * MAI is built for Java 6, which has no Flight Recorder, so the
+ * event types are made when MAI starts with jdk.jfr.EventFactory,
+ * found by reflection.  On a JVM without it PhaseEvents do nothing.
+ * The events are in the "MAI" category and named mai.XMLParse,
+ * mai.DBImport and so on (see the constants below).
+ * <pre>
+ * java -XX:StartFlightRecording=filename=mai.jfr -jar mai.jar
+ * </pre>
+ *
+ */
+
+class PhaseEvent {
+
+	static final String XML_PARSE = "XMLParse";
+	static final String DB_IMPORT = "DBImport";
+	static final String FIND_ALL_OVERLAPS = "FindAllOverlaps";
+	static final String ASSIGN_TEXT_COLORS = "AssignTextColors";
+	static final String FIND_RELATED_TAGS = "FindRelatedTags";
+	static final String FILL_IN_TABLE = "FillInTable";
+	static final String FILL_IN_LINK_TABLE = "FillInLinkTable";
+	static final String SAVE_ADJUD_XML = "SaveAdjudXML";
+
+	private static final String[][] PHASES = {
+		{XML_PARSE,"XML Parse","Parsing an annotation file"},
+		{DB_IMPORT,"Database Import","Adding a file's tags to the database"},
+		{FIND_ALL_OVERLAPS,"Find All Overlaps","Matching the gold standard extents to the other files"},
+		{ASSIGN_TEXT_COLORS,"Assign Text Colors","Coloring the text for the selected tag"},
+		{FIND_RELATED_TAGS,"Find Related Tags","Looking up the tags in the selected text"},
+		{FILL_IN_TABLE,"Fill In Table","Filling in the extent table"},
+		{FILL_IN_LINK_TABLE,"Fill In Link Table","Filling in the link table"},
+		{SAVE_ADJUD_XML,"Save Adjudication XML","Writing the gold standard file"}};
+
+	//the order of the values set on each event
+	private static final int TAG = 0;
+	private static final int FILE = 1;
+	private static final int LENGTH = 2;
+	private static final int TAGS = 3;
+	private static final int FILES = 4;
+
+	private static Hashtable<String,Object> factories;
+	private static Method newEvent;
+	private static Method begin;
+	private static Method end;
+	private static Method commit;
+	private static Method set;
+
+	private static volatile int documentLength;
+	private static volatile int fileCount;
+
+	static{
+		try{
+			factories = makeFactories();
+		}catch(Throwable t){
+			//no Flight Recorder in this JVM
+			factories = null;
+		}
+	}
+
+	private Object event;
+	private String tagName = "";
+	private String file = "";
+	private int length;
+	private int tags;
+	private int files;
+
+	private PhaseEvent(Object event){
+		this.event = event;
+		length = documentLength;
+		files = fileCount;
+	}
+
+	/**
+	 * Starts timing a phase
+	 *
+	 * @param phase one of the phase names above
+	 * @return the event, to be committed when the phase is over
+	 */
+	static PhaseEvent begin(String phase){
+		Object e = null;
+		if(factories!=null){
+			try{
+				e = newEvent.invoke(factories.get(phase));
+				begin.invoke(e);
+			}catch(Exception ex){
+				e = null;
+			}
+		}
+		return new PhaseEvent(e);
+	}
+
+	/**
+	 * Sets the document length and number of files given to events
+	 * that aren't told otherwise.  Called when the text or the files
+	 * being adjudicated change.
+	 *
+	 * @param length the length of the text
+	 * @param files the number of files, including the gold standard
+	 */
+	static void setDocument(int length, int files){
+		documentLength = length;
+		fileCount = files;
+	}
+
+	/**
+	 * Returns the total number of values in a HashCollection, such
+	 * as the number of tags in the HashCollection from XMLFileLoader
+	 *
+	 * @param h the HashCollection
+	 * @return the number of values under all the keys
+	 */
+	static <K,V> int count(HashCollection<K,V> h){
+		int n = 0;
+		if(h==null){
+			return n;
+		}
+		ArrayList<K> keys = h.getKeyList();
+		for(int i=0;i<keys.size();i++){
+			ArrayList<V> list = h.getList(keys.get(i));
+			if(list!=null){
+				n += list.size();
+			}
+		}
+		return n;
+	}
+
+	PhaseEvent setTagName(String t){
+		tagName = t==null ? "" : t;
+		return this;
+	}
+
+	PhaseEvent setFile(String f){
+		file = f==null ? "" : f;
+		return this;
+	}
+
+	PhaseEvent setDocumentLength(int l){
+		length = l;
+		return this;
+	}
+
+	PhaseEvent setTagCount(int t){
+		tags = t;
+		return this;
+	}
+
+	PhaseEvent setFileCount(int f){
+		files = f;
+		return this;
+	}
+
+	/**
+	 * Ends the phase and writes the event to the recording
+	 */
+	void commit(){
+		if(event==null){
+			return;
+		}
+		try{
+			end.invoke(event);
+			set.invoke(event,TAG,tagName);
+			set.invoke(event,FILE,file);
+			set.invoke(event,LENGTH,length);
+			set.invoke(event,TAGS,tags);
+			set.invoke(event,FILES,files);
+			commit.invoke(event);
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+		event = null;
+	}
+
+	/**
+	 * Registers an event type for each phase with the Flight Recorder
+	 */
+	@SuppressWarnings("unchecked")
+	private static Hashtable<String,Object> makeFactories() throws Exception{
+		Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+		Constructor<?> annotation = annotationElement.getConstructor(Class.class,Object.class);
+		Class<? extends Annotation> name = (Class<? extends Annotation>)Class.forName("jdk.jfr.Name");
+		Class<? extends Annotation> label = (Class<? extends Annotation>)Class.forName("jdk.jfr.Label");
+		Class<? extends Annotation> description = (Class<? extends Annotation>)Class.forName("jdk.jfr.Description");
+		Class<? extends Annotation> category = (Class<? extends Annotation>)Class.forName("jdk.jfr.Category");
+		Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+		Constructor<?> field = valueDescriptor.getConstructor(Class.class,String.class,List.class);
+		Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+		Method create = eventFactory.getMethod("create",List.class,List.class);
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+		List<Object> fields = new ArrayList<Object>();
+		fields.add(field.newInstance(String.class,"tagName",
+				Arrays.asList(annotation.newInstance(label,"Tag Name"))));
+		fields.add(field.newInstance(String.class,"file",
+				Arrays.asList(annotation.newInstance(label,"File"))));
+		fields.add(field.newInstance(int.class,"documentLength",
+				Arrays.asList(annotation.newInstance(label,"Document Length"))));
+		fields.add(field.newInstance(int.class,"tagCount",
+				Arrays.asList(annotation.newInstance(label,"Tag Count"))));
+		fields.add(field.newInstance(int.class,"fileCount",
+				Arrays.asList(annotation.newInstance(label,"File Count"))));
+
+		Hashtable<String,Object> made = new Hashtable<String,Object>();
+		for(int i=0;i<PHASES.length;i++){
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(annotation.newInstance(name,"mai."+PHASES[i][0]));
+			annotations.add(annotation.newInstance(label,PHASES[i][1]));
+			annotations.add(annotation.newInstance(description,PHASES[i][2]));
+			annotations.add(annotation.newInstance(category,new String[]{"MAI"}));
+			made.put(PHASES[i][0],create.invoke(null,annotations,fields));
+		}
+		newEvent = eventFactory.getMethod("newEvent");
+		begin = eventClass.getMethod("begin");
+		end = eventClass.getMethod("end");
+		commit = eventClass.getMethod("commit");
+		set = eventClass.getMethod("set",int.class,Object.class);
+		return made;
+	}
+
+}
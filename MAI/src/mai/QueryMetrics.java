@@ -0,0 +1,501 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * QueryMetrics keeps timings and row counts for the calls made to
+ * AdjudDB, one set for each kind of call (the "shape" of the query,
+ * named after the AdjudDB method).  For each shape it records a
+ * latency histogram, the number of rows read from the database,
+ * the number of rows the call returned, and the size of each batch
+ * of inserts, and for the lookups the TagCache answers, how often
+ * the answer was already cached.
+ * <p>
+ * AdjudDB calls begin when a call starts and end when it finishes,
+ * so every call is timed.  The rows read, the rows written and the
+ * batch sizes are only counted if the mai.metrics system property is
+ * true or mai.metrics.file is set, since counting them means wrapping
+ * the database connections (see watch), which slows down every query.
+ * <p>
+ * The numbers can be read over JMX, as mai:type=QueryMetrics, and
+ * if the mai.metrics.file system property names a file a report is
+ * added to it every mai.metrics.interval seconds (60 by default)
+ * and when MAI exits.
+ *
+ */
+
+class QueryMetrics implements QueryMetricsMBean {
+
+	private static QueryMetrics instance;
+
+	private ConcurrentHashMap<String,Stats> stats;
+	private ThreadLocal<Op> current;
+	private boolean counting; //whether watch wraps connections
+
+	QueryMetrics(){
+		this(Boolean.getBoolean("mai.metrics") || System.getProperty("mai.metrics.file")!=null);
+	}
+
+	QueryMetrics(boolean counting){
+		stats = new ConcurrentHashMap<String,Stats>();
+		current = new ThreadLocal<Op>();
+		this.counting = counting;
+	}
+
+	/**
+	 * Returns the metrics shared by every AdjudDB, registering them
+	 * with JMX and starting the periodic report the first time it's called.
+	 *
+	 * @return the shared QueryMetrics
+	 */
+	static synchronized QueryMetrics getDefault(){
+		if(instance==null){
+			instance = new QueryMetrics();
+			try{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+						new StandardMBean(instance,QueryMetricsMBean.class),
+						new ObjectName("mai:type=QueryMetrics"));
+			}catch(Exception e){
+				System.out.println(e.toString());
+			}
+			String file = System.getProperty("mai.metrics.file");
+			if(file!=null){
+				long interval = Long.parseLong(System.getProperty("mai.metrics.interval","60"));
+				instance.startDump(new File(file),interval*1000);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Starts timing a call in this thread.  Every call to begin must
+	 * be followed by a call to end in the same thread; calls begun in
+	 * between are counted separately.
+	 *
+	 * @param shape the name of the call
+	 */
+	void begin(String shape){
+		current.set(new Op(stats(shape),current.get()));
+	}
+
+	private Stats stats(String shape){
+		Stats s = stats.get(shape);
+		if(s==null){
+			stats.putIfAbsent(shape,new Stats(shape));
+			s = stats.get(shape);
+		}
+		return s;
+	}
+
+	/**
+	 * Records the call most recently begun in this thread
+	 */
+	void end(){
+		Op op = current.get();
+		if(op!=null){
+			op.stats.latency.record(System.nanoTime()-op.start);
+			op.stats.scanned.addAndGet(op.scanned);
+			op.stats.returned.addAndGet(op.returned);
+			op.stats.written.addAndGet(op.written);
+			current.set(op.parent);
+		}
+	}
+
+	/**
+	 * Records the number of rows returned by the call being timed
+	 * in this thread
+	 *
+	 * @param rows the number of rows
+	 */
+	void returned(int rows){
+		Op op = current.get();
+		if(op!=null){
+			op.returned += rows;
+		}
+	}
+
+	/**
+	 * Counts a call answered from the TagCache without
+	 * going to the database
+	 *
+	 * @param shape the name of the call
+	 */
+	void cacheHit(String shape){
+		stats(shape).hits.incrementAndGet();
+	}
+
+	/**
+	 * Counts a call the TagCache couldn't answer
+	 */
+	void cacheMiss(String shape){
+		stats(shape).misses.incrementAndGet();
+	}
+
+	/**
+	 * Counts an answer dropped from the TagCache to make room
+	 */
+	void cacheEvicted(String shape){
+		stats(shape).evicted.incrementAndGet();
+	}
+
+	/**
+	 * Wraps a database connection so that the rows read through it
+	 * and the batches and updates sent through it are added to
+	 * the call being timed in the thread using it.  If the metrics
+	 * aren't turned on the connection is returned as it is.
+	 *
+	 * @param c the connection
+	 * @return a connection that counts what goes through it
+	 */
+	Connection watch(Connection c){
+		if(!counting){
+			return c;
+		}
+		return (Connection)wrap(c,Connection.class);
+	}
+
+	private Object wrap(final Object target, final Class<?> type){
+		return Proxy.newProxyInstance(QueryMetrics.class.getClassLoader(),
+				new Class<?>[]{type},new InvocationHandler(){
+			private boolean started; //whether next() has been called on a ResultSet
+
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable{
+				Object result;
+				try{
+					result = m.invoke(target,args);
+				}catch(InvocationTargetException e){
+					throw e.getCause();
+				}
+				String name = m.getName();
+				Op op = current.get();
+				if(result instanceof PreparedStatement){
+					return wrap(result,PreparedStatement.class);
+				}
+				else if(result instanceof Statement){
+					return wrap(result,Statement.class);
+				}
+				else if(result instanceof ResultSet){
+					return wrap(result,ResultSet.class);
+				}
+				else if(op==null){
+					return result;
+				}
+				if(type==ResultSet.class){
+					if(name.equals("next")){
+						started = true;
+						if(((Boolean)result).booleanValue()){
+							op.scanned++;
+						}
+					}
+					//SQLite lets the first row be read without calling next()
+					else if(!started && name.startsWith("get") && !name.equals("getMetaData")){
+						started = true;
+						op.scanned++;
+					}
+				}
+				else if(name.equals("executeBatch")){
+					int[] counts = (int[])result;
+					op.stats.batches.record(counts.length);
+					op.written += counts.length;
+				}
+				else if(name.equals("executeUpdate")){
+					op.written += ((Integer)result).intValue();
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Adds a report to a file every interval milliseconds and when
+	 * MAI exits
+	 */
+	private void startDump(final File f, long interval){
+		Timer timer = new Timer("mai-metrics",true);
+		timer.schedule(new TimerTask(){
+			public void run(){
+				dump(f);
+			}
+		},interval,interval);
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				dump(f);
+			}
+		});
+	}
+
+	private void dump(File f){
+		try{
+			OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(f,true),"UTF-8");
+			try{
+				out.write("# "+new Date()+"\n");
+				out.write(getReport());
+				out.write("\n");
+			}finally{
+				out.close();
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+	}
+
+	private Stats find(String shape){
+		Stats s = stats.get(shape);
+		return s==null ? new Stats(shape) : s;
+	}
+
+	public String[] getShapes(){
+		ArrayList<String> shapes = new ArrayList<String>(stats.keySet());
+		Collections.sort(shapes);
+		return shapes.toArray(new String[shapes.size()]);
+	}
+
+	public long getTotalCount(){
+		long total = 0;
+		for(Stats s : stats.values()){
+			total += s.latency.count();
+		}
+		return total;
+	}
+
+	public long getCount(String shape){
+		return find(shape).latency.count();
+	}
+
+	public double getMeanMillis(String shape){
+		return find(shape).latency.mean()/1e6;
+	}
+
+	public double getMaxMillis(String shape){
+		return find(shape).latency.max()/1e6;
+	}
+
+	public double getPercentileMillis(String shape, double percentile){
+		return find(shape).latency.percentile(percentile/100)/1e6;
+	}
+
+	public long getRowsScanned(String shape){
+		return find(shape).scanned.get();
+	}
+
+	public long getRowsReturned(String shape){
+		return find(shape).returned.get();
+	}
+
+	public long getRowsWritten(String shape){
+		return find(shape).written.get();
+	}
+
+	public double getMeanBatchSize(String shape){
+		return find(shape).batches.mean();
+	}
+
+	public long getMaxBatchSize(String shape){
+		return find(shape).batches.max();
+	}
+
+	public long getCacheHits(String shape){
+		return find(shape).hits.get();
+	}
+
+	public long getCacheMisses(String shape){
+		return find(shape).misses.get();
+	}
+
+	public double getCacheHitRate(String shape){
+		Stats s = find(shape);
+		long lookups = s.hits.get()+s.misses.get();
+		return lookups==0 ? 0 : (double)s.hits.get()/lookups;
+	}
+
+	public long getCacheEvictions(String shape){
+		return find(shape).evicted.get();
+	}
+
+	public String getReport(){
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-28s %8s %10s %10s %10s %10s %10s %10s %10s %10s %8s %9s %6s %8s%n",
+				"shape","calls","mean ms","p50 ms","p90 ms","p99 ms","max ms",
+				"scanned","returned","written","batches","max batch","hit %","evicted"));
+		String[] shapes = getShapes();
+		for(int i=0;i<shapes.length;i++){
+			Stats s = find(shapes[i]);
+			Histogram h = s.latency;
+			sb.append(String.format("%-28s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10d %10d %10d %8d %9d %6s %8d%n",
+					shapes[i],h.count(),h.mean()/1e6,h.percentile(0.5)/1e6,
+					h.percentile(0.9)/1e6,h.percentile(0.99)/1e6,h.max()/1e6,
+					s.scanned.get(),s.returned.get(),s.written.get(),
+					s.batches.count(),s.batches.max(),
+					s.hits.get()+s.misses.get()==0 ? "-" : String.format("%.1f",100*getCacheHitRate(shapes[i])),
+					s.evicted.get()));
+		}
+		return sb.toString();
+	}
+
+	public void reset(){
+		stats.clear();
+	}
+
+	/**
+	 * One call being timed
+	 */
+	private static class Op{
+		Stats stats;
+		Op parent;
+		long start;
+		long scanned;
+		long returned;
+		long written;
+
+		Op(Stats stats, Op parent){
+			this.stats = stats;
+			this.parent = parent;
+			start = System.nanoTime();
+		}
+	}
+
+	/**
+	 * The numbers for one shape of call
+	 */
+	private static class Stats{
+		String shape;
+		Histogram latency = new Histogram();
+		Histogram batches = new Histogram();
+		AtomicLong scanned = new AtomicLong();
+		AtomicLong returned = new AtomicLong();
+		AtomicLong written = new AtomicLong();
+		AtomicLong hits = new AtomicLong();
+		AtomicLong misses = new AtomicLong();
+		AtomicLong evicted = new AtomicLong();
+
+		Stats(String shape){
+			this.shape = shape;
+		}
+	}
+
+	/**
+	 * A histogram in the style of HdrHistogram: values are counted in
+	 * buckets that double in width, each split into 32 sub-buckets, so
+	 * any value is known to within about 3% whatever its size.  Can be
+	 * recorded to from any thread without locking.
+	 */
+	static class Histogram{
+		private static final int SUB_BITS = 5;
+		private static final int SUB = 1<<SUB_BITS;
+
+		private AtomicLongArray counts = new AtomicLongArray((64-SUB_BITS)*SUB);
+		private AtomicLong count = new AtomicLong();
+		private AtomicLong total = new AtomicLong();
+		private AtomicLong max = new AtomicLong();
+
+		void record(long value){
+			if(value<0){
+				value = 0;
+			}
+			counts.incrementAndGet(index(value));
+			count.incrementAndGet();
+			total.addAndGet(value);
+			long m = max.get();
+			while(value>m && !max.compareAndSet(m,value)){
+				m = max.get();
+			}
+		}
+
+		static int index(long value){
+			if(value<SUB){
+				return (int)value;
+			}
+			int shift = 63-Long.numberOfLeadingZeros(value)-SUB_BITS;
+			return (shift+1)*SUB+(int)((value>>shift)-SUB);
+		}
+
+		/**
+		 * Returns the largest value that would go in a bucket
+		 */
+		static long highest(int index){
+			if(index<SUB){
+				return index;
+			}
+			int shift = index/SUB-1;
+			long sub = index%SUB+SUB;
+			return ((sub+1)<<shift)-1;
+		}
+
+		long count(){
+			return count.get();
+		}
+
+		long max(){
+			return max.get();
+		}
+
+		double mean(){
+			long n = count.get();
+			return n==0 ? 0 : (double)total.get()/n;
+		}
+
+		/**
+		 * Returns the value below which the given fraction of the
+		 * recorded values fall
+		 */
+		long percentile(double p){
+			long n = count.get();
+			if(n==0){
+				return 0;
+			}
+			long target = Math.max(1,(long)Math.ceil(p*n));
+			long seen = 0;
+			for(int i=0;i<counts.length();i++){
+				seen += counts.get(i);
+				if(seen>=target){
+					return Math.min(highest(i),max.get());
+				}
+			}
+			return max.get();
+		}
+	}
+
+}
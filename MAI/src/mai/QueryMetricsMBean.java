@@ -0,0 +1,99 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+/**
+ * The view of QueryMetrics given to JMX tools such as JConsole.
+ * Times are in milliseconds, and each shape is the name of an
+ * AdjudDB call.  (JMX requires this interface to be public.)
+ *
+ */
+
+public interface QueryMetricsMBean {
+
+	/**
+	 * @return the names of the calls that have been made, sorted
+	 */
+	String[] getShapes();
+
+	/**
+	 * @return the number of calls of every shape
+	 */
+	long getTotalCount();
+
+	long getCount(String shape);
+
+	double getMeanMillis(String shape);
+
+	double getMaxMillis(String shape);
+
+	/**
+	 * @param shape the name of the call
+	 * @param percentile between 0 and 100
+	 * @return the time that percentile of the calls finished within
+	 */
+	double getPercentileMillis(String shape, double percentile);
+
+	/**
+	 * @return the rows read from the database by calls of a shape,
+	 * or 0 unless mai.metrics is true or mai.metrics.file is set
+	 */
+	long getRowsScanned(String shape);
+
+	/**
+	 * @return the rows (or entries) calls of a shape returned
+	 */
+	long getRowsReturned(String shape);
+
+	/**
+	 * @return the rows inserted, updated or deleted by calls of a shape,
+	 * or 0 unless mai.metrics is true or mai.metrics.file is set
+	 */
+	long getRowsWritten(String shape);
+
+	double getMeanBatchSize(String shape);
+
+	long getMaxBatchSize(String shape);
+
+	long getCacheHits(String shape);
+
+	long getCacheMisses(String shape);
+
+	/**
+	 * @return the fraction of the lookups of a shape that were
+	 * answered by the TagCache, between 0 and 1
+	 */
+	double getCacheHitRate(String shape);
+
+	long getCacheEvictions(String shape);
+
+	/**
+	 * @return a table of the numbers for every shape
+	 */
+	String getReport();
+
+	/**
+	 * Forgets everything recorded so far
+	 */
+	void reset();
+
+}
@@ -0,0 +1,625 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * SessionSnapshot is a copy of a saved session kept next to it in a
+ * compact binary form, so that the session can be opened again without
+ * reading its tables.  Every string (file names, IDs, attribute values,
+ * the text) is kept once in a string table and referred to by number.
+ * The tags of each element are kept as columns of ints: the file of 
+ * each tag, one column for each attribute, the starts and ends of 
+ * extents, and for links the rows of the extents they join.
+ * <p>
+ * The snapshot is written with a FileChannel when the session is saved,
+ * and read through a memory mapped buffer, so opening it only reads the
+ * parts that are used; strings are decoded the first time they're 
+ * needed.  It records the length of the session's database and SQLite's
+ * change counter from the database header, so once the session has 
+ * been changed (the gold standard is kept in it as it's edited) the 
+ * snapshot is no longer used.
+ *
+ */
+
+class SessionSnapshot {
+
+	private static final int MAGIC = 0x4d414953; //"MAIS"
+	private static final int VERSION = 1;
+	private static final int EXTENT = 1;
+	private static final int LINK = 2;
+
+	private MappedByteBuffer buf;
+	private int stringCount;
+	private int offsets;      //where the string offsets are
+	private int bytes;        //where the string bytes start
+	private String[] strings; //the strings decoded so far
+	private int session;      //where the session information starts
+	private Table[] tables;
+
+	/**
+	 * Where the snapshot of a session is kept
+	 */
+	static File fileFor(File session){
+		return new File(session.getPath()+".snap");
+	}
+
+	/**
+	 * Identifies the state of an SQLite database: its length and the
+	 * change counter in its header, which SQLite increments every time
+	 * a transaction changes the file
+	 */
+	static long[] stamp(File db) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(db,"r");
+		try{
+			long counter = -1;
+			if(raf.length()>=28){
+				raf.seek(24);
+				counter = raf.readInt() & 0xffffffffL;
+			}
+			return new long[]{raf.length(),counter};
+		}finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of a session that's just been saved.  Nothing
+	 * should change the database while this runs.  If the snapshot can't
+	 * be written it's left out, and the session is opened from its tables.
+	 *
+	 * @param f where to write it
+	 * @param db the session's database
+	 * @param dtd the DTD of the task
+	 * @param session the text, files and visited locations
+	 * @param ids the ID allocator for the gold standard
+	 */
+	static void write(File f, AdjudDB db, DTD dtd, AdjudSession session, IdAllocator ids){
+		File tmp = new File(f.getPath()+".tmp");
+		try{
+			Builder b = new Builder(dtd);
+			db.readAllTags(dtd,b);
+			long[] stamp = stamp(new File(db.getPath()));
+			b.write(tmp,stamp,session,ids);
+			if(!tmp.renameTo(f)){
+				f.delete();
+				tmp.renameTo(f);
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+			f.delete();
+		}finally{
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Opens the snapshot of a session
+	 *
+	 * @param f the snapshot
+	 * @param db the session's database
+	 * @return the snapshot, or null if there isn't one, it can't be read
+	 * or the session has changed since it was written
+	 */
+	static SessionSnapshot open(File f, File db){
+		if(!f.isFile()){
+			return null;
+		}
+		try{
+			long[] stamp = stamp(db);
+			FileInputStream in = new FileInputStream(f);
+			MappedByteBuffer buf;
+			try{
+				FileChannel ch = in.getChannel();
+				buf = ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size());
+			}finally{
+				//the mapping stays valid after the channel is closed
+				in.close();
+			}
+			if(buf.getInt(0)!=MAGIC || buf.getInt(4)!=VERSION 
+					|| buf.getLong(8)!=stamp[0] || buf.getLong(16)!=stamp[1]){
+				return null;
+			}
+			return new SessionSnapshot(buf);
+		}catch(Exception e){
+			System.out.println(e.toString());
+			return null;
+		}
+	}
+
+	private SessionSnapshot(MappedByteBuffer buf){
+		this.buf = buf;
+		int p = 24;
+		stringCount = buf.getInt(p);
+		offsets = p+4;
+		bytes = offsets+4*(stringCount+1);
+		strings = new String[stringCount];
+		p = bytes+align(buf.getInt(offsets+4*stringCount));
+		session = p;
+		//skip over the session information to the tables
+		p += 4;
+		int entries = buf.getInt(p);
+		p += 4+entries*28;
+		p += 4+buf.getInt(p)*8;
+		p += 4+buf.getInt(p)*8;
+		tables = new Table[buf.getInt(p)];
+		p += 4;
+		for(int i=0;i<tables.length;i++){
+			Table t = new Table();
+			t.name = string(buf.getInt(p));
+			t.kind = buf.getInt(p+4);
+			t.atts = buf.getInt(p+8);
+			t.rows = buf.getInt(p+12);
+			t.columns = p+16+4*t.atts;
+			p = t.columns+4*t.rows*(t.atts+3);
+			tables[i] = t;
+		}
+	}
+
+	private static int align(int n){
+		return (n+3) & ~3;
+	}
+
+	/**
+	 * Returns a string from the string table, or null
+	 */
+	private String string(int i){
+		if(i<0){
+			return null;
+		}
+		String s = strings[i];
+		if(s==null){
+			int start = buf.getInt(offsets+4*i);
+			int end = buf.getInt(offsets+4*i+4);
+			byte[] b = new byte[end-start];
+			ByteBuffer view = buf.duplicate();
+			view.position(bytes+start);
+			view.get(b);
+			try{
+				s = new String(b,"UTF-8");
+			}catch(IOException e){
+				//UTF-8 is always supported
+			}
+			strings[i] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Records new modification times for the session's files once they
+	 * have been written to the database, and stamps the snapshot with 
+	 * the database's new state so that it can still be used.  The stamp
+	 * is written last, so if this is cut short the snapshot is just 
+	 * left out the next time.
+	 *
+	 * @param f the snapshot
+	 * @param db the session's database
+	 * @param entries the session's files, in the order they were loaded
+	 */
+	void updateModified(File f, File db, ArrayList<AdjudSession.Entry> entries){
+		try{
+			RandomAccessFile raf = new RandomAccessFile(f,"rw");
+			try{
+				int p = session+8;
+				for(int i=0;i<entries.size();i++){
+					raf.seek(p+20);
+					raf.writeLong(entries.get(i).modified);
+					p += 28;
+				}
+				long[] stamp = stamp(db);
+				raf.seek(8);
+				raf.writeLong(stamp[0]);
+				raf.writeLong(stamp[1]);
+			}finally{
+				raf.close();
+			}
+		}catch(Exception e){
+			System.out.println(e.toString());
+		}
+	}
+
+	/**
+	 * Fills in the text, files and visited locations of the session
+	 */
+	void loadSession(AdjudSession s){
+		int p = session;
+		s.setText(string(buf.getInt(p)));
+		int entries = buf.getInt(p+4);
+		p += 8;
+		for(int i=0;i<entries;i++){
+			s.addEntry(new AdjudSession.Entry(string(buf.getInt(p)),string(buf.getInt(p+4)),
+					buf.getLong(p+12),buf.getLong(p+20),string(buf.getInt(p+8))));
+			p += 28;
+		}
+		HashCollection<String,Integer> visited = new HashCollection<String,Integer>();
+		int n = buf.getInt(p);
+		p += 4;
+		for(int i=0;i<n;i++){
+			visited.putEnt(string(buf.getInt(p)),Integer.valueOf(buf.getInt(p+4)));
+			p += 8;
+		}
+		s.setVisitedLocs(visited);
+	}
+
+	/**
+	 * Returns the ID counters saved with the session
+	 */
+	Hashtable<String,Integer> getSessionIDs(){
+		int p = session+4;
+		p += 4+buf.getInt(p)*28;
+		p += 4+buf.getInt(p)*8;
+		Hashtable<String,Integer> ids = new Hashtable<String,Integer>();
+		int n = buf.getInt(p);
+		p += 4;
+		for(int i=0;i<n;i++){
+			ids.put(string(buf.getInt(p)),Integer.valueOf(buf.getInt(p+4)));
+			p += 8;
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the locations of the tags of one type and the files that
+	 * have them, the same as AdjudDB.getExtentAllLocs
+	 */
+	HashCollection<String,String> getExtentAllLocs(String elem){
+		HashCollection<String,String> locs = new HashCollection<String,String>();
+		for(int i=0;i<tables.length;i++){
+			Table t = tables[i];
+			if(t.kind==EXTENT && t.name.equals(elem)){
+				for(int r=0;r<t.rows;r++){
+					String file = string(t.get(buf,0,r));
+					int start = t.get(buf,t.atts+1,r);
+					int end = t.get(buf,t.atts+2,r);
+					if(start<0){
+						locs.putEnt("-1",file);
+					}
+					for(int loc=start;loc<end;loc++){
+						locs.putEnt(Integer.toString(loc),file);
+					}
+				}
+			}
+		}
+		return locs;
+	}
+
+	/**
+	 * Returns the locations of all the extents in a file, the same as
+	 * AdjudDB.getAllExtentsByFile
+	 */
+	Hashtable<String,String> getAllExtentsByFile(String file){
+		Hashtable<String,String> locs = new Hashtable<String,String>();
+		for(int i=0;i<tables.length;i++){
+			Table t = tables[i];
+			for(int r=0;t.kind==EXTENT && r<t.rows;r++){
+				if(!file.equals(string(t.get(buf,0,r)))){
+					continue;
+				}
+				int start = t.get(buf,t.atts+1,r);
+				int end = t.get(buf,t.atts+2,r);
+				if(start<0){
+					locs.put("-1","");
+				}
+				for(int loc=start;loc<end;loc++){
+					locs.put(Integer.toString(loc),"");
+				}
+			}
+		}
+		return locs;
+	}
+
+	/**
+	 * Where the columns of one element's tags are.  The columns are
+	 * the file, then the attributes in the order of the DTD, then 
+	 * two more: for extents the start and end, and for links the rows
+	 * of the from and to extents (counting the rows of all the extent
+	 * elements in order), or -1 if they aren't in the same file.
+	 */
+	private static class Table{
+		String name;
+		int kind;
+		int atts;
+		int rows;
+		int columns;
+
+		int get(MappedByteBuffer buf, int column, int row){
+			return buf.getInt(columns+4*(column*rows+row));
+		}
+	}
+
+	/**
+	 * Builds a snapshot from the rows of the element tables
+	 */
+	static class Builder{
+
+		private DTD dtd;
+		private Hashtable<String,Integer> index;
+		private ArrayList<String> strings;
+		private IntList[][] columns;  //for each element
+		private Hashtable<String,Integer> extentRows; //file and ID to row
+		private int extentCount;
+
+		Builder(DTD dtd){
+			this.dtd = dtd;
+			index = new Hashtable<String,Integer>();
+			strings = new ArrayList<String>();
+			extentRows = new Hashtable<String,Integer>();
+			ArrayList<Elem> elems = dtd.getElements();
+			columns = new IntList[elems.size()][];
+			for(int i=0;i<elems.size();i++){
+				columns[i] = new IntList[elems.get(i).getAttributes().size()+3];
+				for(int j=0;j<columns[i].length;j++){
+					columns[i][j] = new IntList();
+				}
+			}
+		}
+
+		int intern(String s){
+			if(s==null){
+				return -1;
+			}
+			Integer i = index.get(s);
+			if(i==null){
+				i = Integer.valueOf(strings.size());
+				index.put(s,i);
+				strings.add(s);
+			}
+			return i.intValue();
+		}
+
+		/**
+		 * Adds a row of an element's table.  All the extents have to
+		 * be added before the links.
+		 *
+		 * @param elem the element's position in the DTD
+		 * @param file the file the tag is in
+		 * @param values the attribute values, in the order of the DTD
+		 */
+		void add(int elem, String file, String[] values){
+			IntList[] c = columns[elem];
+			c[0].add(intern(file));
+			for(int i=0;i<values.length;i++){
+				c[i+1].add(intern(values[i]));
+			}
+			Elem e = dtd.getElements().get(elem);
+			if(e instanceof ElemExtent){
+				c[values.length+1].add(parse(values,e,"start"));
+				c[values.length+2].add(parse(values,e,"end"));
+				extentRows.put(file+"@#@"+value(values,e,"id"),Integer.valueOf(extentCount++));
+			}
+			else{
+				c[values.length+1].add(row(file,value(values,e,"fromID")));
+				c[values.length+2].add(row(file,value(values,e,"toID")));
+			}
+		}
+
+		private static String value(String[] values, Elem e, String att){
+			ArrayList<Attrib> atts = e.getAttributes();
+			for(int i=0;i<atts.size();i++){
+				if(atts.get(i).getName().equals(att)){
+					return values[i];
+				}
+			}
+			return null;
+		}
+
+		private static int parse(String[] values, Elem e, String att){
+			try{
+				return Integer.parseInt(value(values,e,att));
+			}catch(Exception ex){
+				return -1;
+			}
+		}
+
+		private int row(String file, String id){
+			Integer r = extentRows.get(file+"@#@"+id);
+			return r==null ? -1 : r.intValue();
+		}
+
+		void write(File f, long[] stamp, AdjudSession session, IdAllocator ids) throws IOException{
+			int text = intern(session.getText());
+			ArrayList<AdjudSession.Entry> entries = session.getEntries();
+			int[][] entryStrings = new int[entries.size()][];
+			for(int i=0;i<entries.size();i++){
+				AdjudSession.Entry e = entries.get(i);
+				entryStrings[i] = new int[]{intern(e.name),intern(e.path),intern(e.hash)};
+			}
+			HashCollection<String,Integer> visited = session.getVisitedLocs();
+			ArrayList<String> visitedTags = visited.getKeyList();
+			ArrayList<String> idElems = ids.getElements();
+			ArrayList<Elem> elems = dtd.getElements();
+			int[] elemNames = new int[elems.size()];
+			int[][] attNames = new int[elems.size()][];
+			for(int i=0;i<elems.size();i++){
+				elemNames[i] = intern(elems.get(i).getName());
+				ArrayList<Attrib> atts = elems.get(i).getAttributes();
+				attNames[i] = new int[atts.size()];
+				for(int j=0;j<atts.size();j++){
+					attNames[i][j] = intern(atts.get(j).getName());
+				}
+			}
+			for(int i=0;i<idElems.size();i++){
+				intern(idElems.get(i));
+			}
+			for(int i=0;i<visitedTags.size();i++){
+				intern(visitedTags.get(i));
+			}
+
+			FileOutputStream out = new FileOutputStream(f);
+			try{
+				ChannelWriter w = new ChannelWriter(out.getChannel());
+				w.putInt(MAGIC);
+				w.putInt(VERSION);
+				w.putLong(stamp[0]);
+				w.putLong(stamp[1]);
+				//the string table
+				byte[][] encoded = new byte[strings.size()][];
+				w.putInt(strings.size());
+				int offset = 0;
+				w.putInt(0);
+				for(int i=0;i<encoded.length;i++){
+					encoded[i] = strings.get(i).getBytes("UTF-8");
+					offset += encoded[i].length;
+					w.putInt(offset);
+				}
+				for(int i=0;i<encoded.length;i++){
+					w.put(encoded[i]);
+					encoded[i] = null;
+				}
+				for(int i=offset;i<align(offset);i++){
+					w.put(new byte[1]);
+				}
+				//the session
+				w.putInt(text);
+				w.putInt(entries.size());
+				for(int i=0;i<entries.size();i++){
+					w.putInt(entryStrings[i][0]);
+					w.putInt(entryStrings[i][1]);
+					w.putInt(entryStrings[i][2]);
+					w.putLong(entries.get(i).size);
+					w.putLong(entries.get(i).modified);
+				}
+				int count = 0;
+				for(int i=0;i<visitedTags.size();i++){
+					count += visited.getList(visitedTags.get(i)).size();
+				}
+				w.putInt(count);
+				for(int i=0;i<visitedTags.size();i++){
+					ArrayList<Integer> locs = visited.getList(visitedTags.get(i));
+					for(int j=0;j<locs.size();j++){
+						w.putInt(intern(visitedTags.get(i)));
+						w.putInt(locs.get(j).intValue());
+					}
+				}
+				w.putInt(idElems.size());
+				for(int i=0;i<idElems.size();i++){
+					w.putInt(intern(idElems.get(i)));
+					w.putInt(ids.getNumber(idElems.get(i)));
+				}
+				//the tables
+				w.putInt(elems.size());
+				for(int i=0;i<elems.size();i++){
+					w.putInt(elemNames[i]);
+					w.putInt(elems.get(i) instanceof ElemExtent ? EXTENT : LINK);
+					w.putInt(attNames[i].length);
+					w.putInt(columns[i][0].size);
+					for(int j=0;j<attNames[i].length;j++){
+						w.putInt(attNames[i][j]);
+					}
+					for(int j=0;j<columns[i].length;j++){
+						w.putInts(columns[i][j]);
+					}
+				}
+				w.flush();
+				out.getChannel().force(false);
+			}finally{
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * A growable array of ints
+	 */
+	private static class IntList{
+		int[] values = new int[16];
+		int size;
+
+		void add(int v){
+			if(size==values.length){
+				int[] bigger = new int[size*2];
+				System.arraycopy(values,0,bigger,0,size);
+				values = bigger;
+			}
+			values[size++] = v;
+		}
+	}
+
+	/**
+	 * Writes to a FileChannel through a buffer
+	 */
+	private static class ChannelWriter{
+		private FileChannel channel;
+		private ByteBuffer b;
+
+		ChannelWriter(FileChannel channel){
+			this.channel = channel;
+			b = ByteBuffer.allocateDirect(64*1024);
+		}
+
+		void putInt(int v) throws IOException{
+			room(4);
+			b.putInt(v);
+		}
+
+		void putLong(long v) throws IOException{
+			room(8);
+			b.putLong(v);
+		}
+
+		void putInts(IntList l) throws IOException{
+			int i = 0;
+			while(i<l.size){
+				room(4);
+				int n = Math.min(l.size-i,b.remaining()/4);
+				b.asIntBuffer().put(l.values,i,n);
+				b.position(b.position()+4*n);
+				i += n;
+			}
+		}
+
+		void put(byte[] a) throws IOException{
+			int i = 0;
+			while(i<a.length){
+				room(1);
+				int n = Math.min(a.length-i,b.remaining());
+				b.put(a,i,n);
+				i += n;
+			}
+		}
+
+		private void room(int n) throws IOException{
+			if(b.remaining()<n){
+				flush();
+			}
+		}
+
+		void flush() throws IOException{
+			b.flip();
+			while(b.hasRemaining()){
+				channel.write(b);
+			}
+			b.clear();
+		}
+	}
+
+}
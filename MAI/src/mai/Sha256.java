@@ -0,0 +1,62 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package mai;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Sha256 makes the SHA-256 digests MAI uses to recognize files, texts
+ * and DTDs it has seen before, and writes them out as hex strings.
+ *
+ */
+
+class Sha256 {
+
+	/**
+	 * @return a new SHA-256 MessageDigest
+	 */
+	static MessageDigest digest(){
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException e){
+			//every Java platform has SHA-256
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Writes a digest as a string of lowercase hex digits
+	 *
+	 * @param hash the digest
+	 * @return the hex string
+	 */
+	static String hex(byte[] hash){
+		StringBuilder hex = new StringBuilder();
+		for(int i=0;i<hash.length;i++){
+			hex.append(Integer.toHexString((hash[i] & 0xff) | 0x100).substring(1));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,221 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpanPrefetcher loads the tags for the parts of the text the
+ * adjudicator is likely to select next while they're still looking
+ * at the current selection.  Adjudicators usually work through the
+ * text in order, so after each selection MAI asks for the next few
+ * spans that still need adjudicating (or the text just after the
+ * selection), and a background thread looks up the tags of the
+ * selected type in them with getTagsInSpanByType.  The attributes
+ * and location of each tag found are looked up as well, so they're
+ * in the TagCache when the table is filled in.
+ * <p>
+ * A selection that falls inside a prefetched span is then answered
+ * without going to the database, as long as no tags have been added
+ * or removed since the span was loaded.  Only the spans from the most
+ * recent request are loaded; older requests are dropped.  How often
+ * selections are answered here is counted in the QueryMetrics as
+ * the cache hit rate of getTagsInSpanByType.
+ *
+ */
+
+class SpanPrefetcher {
+
+	private static final int MAX_SPANS = 16;
+
+	private ExecutorService worker;
+	private AtomicInteger request;
+	private LinkedHashMap<String,Span> spans;
+	private QueryMetrics metrics;
+
+	SpanPrefetcher(){
+		request = new AtomicInteger();
+		spans = new LinkedHashMap<String,Span>(MAX_SPANS,0.75f,true);
+		metrics = QueryMetrics.getDefault();
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r,"mai-prefetch");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts loading the tags of one type in some spans of the text,
+	 * replacing any request that hasn't been started yet.
+	 *
+	 * @param db the database to read from
+	 * @param tagname the type of tag
+	 * @param atts the attributes of the tag type
+	 * @param wanted the spans to load
+	 * @param editCount the AdjudicationTask's edit count when the request
+	 * was made
+	 */
+	void prefetch(final AdjudDB db, final String tagname, final ArrayList<Attrib> atts,
+			final SpanSet wanted, final int editCount){
+		final int id = request.incrementAndGet();
+		worker.execute(new Runnable(){
+			public void run(){
+				for(int i=0;i<wanted.size() && request.get()==id;i++){
+					int begin = wanted.getStart(i);
+					int end = wanted.getEnd(i);
+					if(has(tagname,begin,end,editCount)){
+						continue;
+					}
+					try{
+						load(db,tagname,atts,begin,end,editCount);
+					}catch(Exception e){
+						//the database was reset; the next selection will look it up
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Loads one span: the tags in it, and the location and attributes
+	 * of each of them
+	 */
+	private void load(AdjudDB db, String tagname, ArrayList<Attrib> atts,
+			int begin, int end, int editCount) throws Exception{
+		HashCollection<String,String> ids = db.getTagsInSpanByType(begin,end,tagname);
+		Span span = new Span(begin,end,editCount);
+		ArrayList<String> files = ids.getKeyList();
+		for(int i=0;i<files.size();i++){
+			ArrayList<String> list = ids.getList(files.get(i));
+			for(int j=0;list!=null && j<list.size();j++){
+				String loc = db.getLocByFileAndID(files.get(i),list.get(j));
+				db.getTagsByFileAndID(tagname,list.get(j),files.get(i),atts);
+				int comma = loc.indexOf(',');
+				span.tags.add(new String[]{files.get(i),list.get(j)});
+				span.extents.add(new int[]{Integer.parseInt(loc.substring(0,comma)),
+						Integer.parseInt(loc.substring(comma+1))});
+			}
+		}
+		synchronized(spans){
+			spans.put(key(tagname,begin,end),span);
+			Iterator<String> it = spans.keySet().iterator();
+			while(spans.size()>MAX_SPANS && it.hasNext()){
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	private boolean has(String tagname, int begin, int end, int editCount){
+		synchronized(spans){
+			Span s = spans.get(key(tagname,begin,end));
+			return s!=null && s.editCount==editCount;
+		}
+	}
+
+	/**
+	 * Returns the tags of a type in the selected text, if the selection
+	 * is inside a span that was prefetched and the tags haven't changed
+	 * since.
+	 *
+	 * @param tagname the type of tag
+	 * @param begin the start of the selection
+	 * @param end the end of the selection
+	 * @param editCount the AdjudicationTask's current edit count
+	 * @return the IDs of the tags keyed by file name, as
+	 * getTagsInSpanByType returns them, or null
+	 */
+	HashCollection<String,String> get(String tagname, int begin, int end, int editCount){
+		if(begin<0){
+			return null;
+		}
+		Span found = null;
+		synchronized(spans){
+			String prefix = tagname+"@#@";
+			//looked through without get, which would reorder the map
+			for(Map.Entry<String,Span> e : spans.entrySet()){
+				Span s = e.getValue();
+				if(e.getKey().startsWith(prefix) && s.editCount==editCount
+						&& s.begin<=begin && end<=s.end){
+					found = s;
+					break;
+				}
+			}
+		}
+		if(found==null){
+			metrics.cacheMiss("getTagsInSpanByType");
+			return null;
+		}
+		metrics.cacheHit("getTagsInSpanByType");
+		HashCollection<String,String> tags = new HashCollection<String,String>();
+		for(int i=0;i<found.tags.size();i++){
+			int[] extent = found.extents.get(i);
+			if(extent[0]<=end && extent[1]>=begin){
+				tags.putEnt(found.tags.get(i)[0],found.tags.get(i)[1]);
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * Forgets everything that was loaded, used when the database is reset
+	 */
+	void clear(){
+		request.incrementAndGet();
+		synchronized(spans){
+			spans.clear();
+		}
+	}
+
+	private static String key(String tagname, int begin, int end){
+		return tagname+"@#@"+begin+"@#@"+end;
+	}
+
+	/**
+	 * The tags found in one span of the text
+	 */
+	private static class Span{
+		int begin;
+		int end;
+		int editCount;
+		ArrayList<String[]> tags = new ArrayList<String[]>();  //file name and ID
+		ArrayList<int[]> extents = new ArrayList<int[]>();     //first and last location of each tag
+
+		Span(int begin, int end, int editCount){
+			this.begin = begin;
+			this.end = end;
+			this.editCount = editCount;
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+
+/**
+ * SpanSet keeps a sorted list of non-overlapping character
+ * spans (start inclusive, end exclusive).  Spans that are added
+ * are merged with any spans they overlap or touch, so the set
+ * always describes the smallest number of runs covering
+ * every offset that was added.
+ * <p>
+ * Used to pass the parts of the text affected by an edit
+ * to the gold standard from the database to the text colorer.
+ *
+ */
+
+class SpanSet {
+
+	private ArrayList<int[]> spans;
+
+	SpanSet(){
+		spans = new ArrayList<int[]>();
+	}
+
+	/**
+	 * Adds the span [start,end) to the set, merging it with
+	 * any spans it overlaps or is adjacent to.  Empty spans and
+	 * spans for non-consuming tags (start of -1) are ignored.
+	 *
+	 * @param start the first offset in the span
+	 * @param end the offset after the last one in the span
+	 */
+	void add(int start, int end){
+		if(start<0 || end<=start){
+			return;
+		}
+		//find the first span that could touch the new one
+		int i=0;
+		while(i<spans.size() && spans.get(i)[1]<start){
+			i++;
+		}
+		//absorb every span that touches the new one
+		while(i<spans.size() && spans.get(i)[0]<=end){
+			int[] old = spans.remove(i);
+			start = Math.min(start,old[0]);
+			end = Math.max(end,old[1]);
+		}
+		spans.add(i,new int[]{start,end});
+	}
+
+	/**
+	 * Adds all the spans from another SpanSet
+	 *
+	 * @param other the spans being added
+	 */
+	void addAll(SpanSet other){
+		for(int i=0;i<other.size();i++){
+			add(other.getStart(i),other.getEnd(i));
+		}
+	}
+
+	int size(){
+		return spans.size();
+	}
+
+	boolean isEmpty(){
+		return spans.isEmpty();
+	}
+
+	int getStart(int i){
+		return spans.get(i)[0];
+	}
+
+	int getEnd(int i){
+		return spans.get(i)[1];
+	}
+
+	/**
+	 * Checks to see if the offset is inside one of the spans
+	 *
+	 * @param loc the offset being checked
+	 * @return true if the offset is covered by the set
+	 */
+	boolean contains(int loc){
+		for(int i=0;i<spans.size();i++){
+			int[] span = spans.get(i);
+			if(loc<span[0]){
+				return false;
+			}
+			if(loc<span[1]){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void clear(){
+		spans.clear();
+	}
+
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<spans.size();i++){
+			sb.append("[").append(spans.get(i)[0]).append(",")
+			.append(spans.get(i)[1]).append(")");
+		}
+		return sb.toString();
+	}
+
+}
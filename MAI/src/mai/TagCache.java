@@ -0,0 +1,280 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TagCache keeps the answers to the lookups AdjudDB is asked for
+ * over and over for the same tags (a tag's attributes, the text
+ * of an extent and where it is), so that moving around the text
+ * and opening link windows doesn't go to the database every time.
+ * <p>
+ * The cache is a segmented LRU, limited by the approximate number
+ * of bytes it holds rather than by the number of entries.  New
+ * entries go into a probation tier and are moved to a protected tier
+ * the second time they're used; the least recently used entries
+ * drop out of the protected tier back into probation, and out of
+ * probation altogether.  A table filled in once for a big tag type
+ * therefore can't push out the tags the adjudicator keeps coming
+ * back to.  The size is set in kilobytes with the mai.cache.kb
+ * system property (4096 by default, 0 turns the cache off).
+ * <p>
+ * AdjudDB removes the entries for a tag whenever the tag is added
+ * or removed.  Lookups that were started before a change aren't
+ * cached once it has been made, so nothing stale can be put back.
+ * Hits, misses and evictions are counted in the QueryMetrics under
+ * the name of the lookup.
+ *
+ */
+
+class TagCache {
+
+	static final String TAGS = "getTagsByFileAndID";
+	static final String TEXT = "getTextByFileElemAndID";
+	static final String LOC = "getLocByFileAndID";
+
+	private static final int PROTECTED_SHARE = 80; //percent of the space for the protected tier
+	private static final int ENTRY_OVERHEAD = 64;  //rough bytes used by an entry besides its strings
+
+	private LinkedHashMap<String,Entry> probation;
+	private LinkedHashMap<String,Entry> protect;
+	private long maxBytes;
+	private long protectedMax;
+	private long probationBytes;
+	private long protectedBytes;
+	private long generation; //changed by every invalidation
+	private QueryMetrics metrics;
+
+	/**
+	 * Creates a cache of the size given by the mai.cache.kb
+	 * system property
+	 */
+	TagCache(QueryMetrics metrics){
+		this(Long.parseLong(System.getProperty("mai.cache.kb","4096"))*1024,metrics);
+	}
+
+	TagCache(long maxBytes, QueryMetrics metrics){
+		this.maxBytes = maxBytes;
+		this.metrics = metrics;
+		protectedMax = maxBytes*PROTECTED_SHARE/100;
+		probation = new LinkedHashMap<String,Entry>(16,0.75f,true);
+		protect = new LinkedHashMap<String,Entry>(16,0.75f,true);
+	}
+
+	/**
+	 * Returns the number to pass to put along with a value looked up
+	 * after this is called
+	 *
+	 * @return the current generation of the cache
+	 */
+	synchronized long generation(){
+		return generation;
+	}
+
+	/**
+	 * Returns the attributes of a tag, or null if they aren't cached.
+	 * The Hashtable is a copy that the caller can change.
+	 */
+	@SuppressWarnings("unchecked")
+	Hashtable<String,String> getTags(String file, String elem, String id){
+		Object value = get(TAGS,key(TAGS,file,elem,id));
+		return value==null ? null : new Hashtable<String,String>((Hashtable<String,String>)value);
+	}
+
+	void putTags(long gen, String file, String elem, String id, Hashtable<String,String> tag){
+		int bytes = 0;
+		for(Map.Entry<String,String> e : tag.entrySet()){
+			bytes += 2*(e.getKey().length()+e.getValue().length())+ENTRY_OVERHEAD/2;
+		}
+		put(gen,key(TAGS,file,elem,id),new Hashtable<String,String>(tag),bytes);
+	}
+
+	String getText(String file, String elem, String id){
+		return (String)get(TEXT,key(TEXT,file,elem,id));
+	}
+
+	void putText(long gen, String file, String elem, String id, String text){
+		put(gen,key(TEXT,file,elem,id),text,2*text.length());
+	}
+
+	/**
+	 * Locations are looked up without the type of the tag, so
+	 * they're cached by file and ID alone
+	 */
+	String getLoc(String file, String id){
+		return (String)get(LOC,key(LOC,file,null,id));
+	}
+
+	void putLoc(long gen, String file, String id, String loc){
+		put(gen,key(LOC,file,null,id),loc,2*loc.length());
+	}
+
+	/**
+	 * Removes everything cached about a tag.  Called by AdjudDB
+	 * when the tag is added or removed.
+	 *
+	 * @param file the file the tag is in
+	 * @param elem the type of the tag
+	 * @param id the ID of the tag
+	 */
+	synchronized void invalidate(String file, String elem, String id){
+		generation++;
+		remove(key(TAGS,file,elem,id));
+		remove(key(TEXT,file,elem,id));
+		remove(key(LOC,file,null,id));
+	}
+
+	/**
+	 * Removes everything cached about the tags in a file
+	 *
+	 * @param file the name of the file
+	 */
+	synchronized void invalidateFile(String file){
+		generation++;
+		String infix = "\u0000"+file+"\u0000";
+		ArrayList<String> keys = new ArrayList<String>();
+		for(String k : probation.keySet()){
+			if(k.indexOf(infix)==k.indexOf('\u0000')){
+				keys.add(k);
+			}
+		}
+		for(String k : protect.keySet()){
+			if(k.indexOf(infix)==k.indexOf('\u0000')){
+				keys.add(k);
+			}
+		}
+		for(int i=0;i<keys.size();i++){
+			remove(keys.get(i));
+		}
+	}
+
+	synchronized void clear(){
+		generation++;
+		probation.clear();
+		protect.clear();
+		probationBytes = 0;
+		protectedBytes = 0;
+	}
+
+	synchronized int size(){
+		return probation.size()+protect.size();
+	}
+
+	synchronized long bytes(){
+		return probationBytes+protectedBytes;
+	}
+
+	private static String key(String kind, String file, String elem, String id){
+		return kind+"\u0000"+file+"\u0000"+elem+"\u0000"+id;
+	}
+
+	private synchronized Object get(String shape, String key){
+		if(maxBytes<=0){
+			return null;
+		}
+		Entry e = protect.get(key);
+		if(e==null){
+			e = probation.remove(key);
+			if(e!=null){
+				//second use: promote it
+				probationBytes -= e.bytes;
+				protect.put(key,e);
+				protectedBytes += e.bytes;
+				demote();
+			}
+		}
+		if(e==null){
+			metrics.cacheMiss(shape);
+			return null;
+		}
+		metrics.cacheHit(shape);
+		return e.value;
+	}
+
+	private synchronized void put(long gen, String key, Object value, int bytes){
+		bytes += ENTRY_OVERHEAD+2*key.length();
+		if(gen!=generation || bytes>maxBytes-protectedMax){
+			return;
+		}
+		remove(key);
+		probation.put(key,new Entry(value,bytes));
+		probationBytes += bytes;
+		evict();
+	}
+
+	private void remove(String key){
+		Entry e = probation.remove(key);
+		if(e!=null){
+			probationBytes -= e.bytes;
+		}
+		e = protect.remove(key);
+		if(e!=null){
+			protectedBytes -= e.bytes;
+		}
+	}
+
+	/**
+	 * Moves the least recently used protected entries back to
+	 * probation until the protected tier fits
+	 */
+	private void demote(){
+		Iterator<Map.Entry<String,Entry>> it = protect.entrySet().iterator();
+		while(protectedBytes>protectedMax && it.hasNext()){
+			Map.Entry<String,Entry> oldest = it.next();
+			it.remove();
+			protectedBytes -= oldest.getValue().bytes;
+			probation.put(oldest.getKey(),oldest.getValue());
+			probationBytes += oldest.getValue().bytes;
+		}
+		evict();
+	}
+
+	/**
+	 * Drops the least recently used probation entries until the
+	 * whole cache fits
+	 */
+	private void evict(){
+		Iterator<Map.Entry<String,Entry>> it = probation.entrySet().iterator();
+		while(probationBytes+protectedBytes>maxBytes && it.hasNext()){
+			Map.Entry<String,Entry> oldest = it.next();
+			it.remove();
+			probationBytes -= oldest.getValue().bytes;
+			metrics.cacheEvicted(oldest.getKey().substring(0,oldest.getKey().indexOf('\u0000')));
+		}
+	}
+
+	private static class Entry{
+		Object value;
+		int bytes;
+
+		Entry(Object value, int bytes){
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import javax.swing.JTextPane;
+import javax.swing.text.Document;
+
+/**
+ * TextColorer works out the agreement colors for the text in MAI's
+ * text area.  It keeps one color code for each character, which the
+ * AgreementHighlighter paints underneath the text, so the document
+ * itself is never changed when the colors are.  An AgreementIndex is
+ * kept for the selected extent tag so that edits to the gold standard
+ * only need to look up the spans that were changed.
+ * <p>
+ * The codes for each tag are kept after they are computed, so
+ * switching back to a tag that hasn't been edited since
+ * just swaps the array and repaints.
+ * <p>
+ * Colors: green if the gold standard has the tag, blue if all the
+ * other files have it, red if some of them do.  When a link is selected
+ * the gold standard extents are gray and the visited locations magenta.
+ *
+ */
+
+class TextColorer {
+
+	static final byte NONE = 0;
+	static final byte GOLD = 1;
+	static final byte ALL_FILES = 2;
+	static final byte SOME_FILES = 3;
+	static final byte GOLD_EXTENT = 4;
+	static final byte VISITED = 5;
+
+	private JTextPane pane;
+	private AdjudicationTask task;
+	private Document doc;
+	private int docLength;
+	private int otherFiles;
+
+	private TagColors current;
+	private Hashtable<String,TagColors> computed;
+
+	TextColorer(JTextPane pane, AdjudicationTask task){
+		this.pane = pane;
+		this.task = task;
+		computed = new Hashtable<String,TagColors>();
+	}
+
+	/**
+	 * Sets the files being adjudicated; used to decide whether
+	 * all of the files have a tag at a location.
+	 *
+	 * @param filenames the names of the files, including the gold standard
+	 */
+	void setFilenames(ArrayList<String> filenames){
+		int count = 0;
+		for(int i=0;i<filenames.size();i++){
+			if(!filenames.get(i).equals("goldStandard.xml")){
+				count++;
+			}
+		}
+		if(count!=otherFiles){
+			otherFiles = count;
+			computed.clear();
+		}
+	}
+
+	/**
+	 * Shows the colors for the selected tag.  If the colors for the
+	 * tag were already worked out and nothing has been edited since,
+	 * the old codes are reused; otherwise the agreement information is
+	 * loaded from the database once and the codes are recomputed.
+	 *
+	 * @param tag the name of the selected tag
+	 * @param visited the locations already looked at for this tag
+	 * (only used for links, may be null)
+	 */
+	void select(String tag, ArrayList<Integer> visited){
+		sync();
+		int visitedCount = (visited==null ? 0 : visited.size());
+		TagColors colors = computed.get(tag);
+		if(colors==null || colors.editCount!=task.getEditCount()
+				|| colors.visitedCount!=visitedCount){
+			colors = compute(tag,visited);
+			computed.put(tag,colors);
+		}
+		//anything changed before now is covered by the codes
+		task.takeChangedSpans();
+		current = colors;
+		pane.repaint();
+	}
+
+	/**
+	 * Takes the colors off the text, used for non-consuming tags
+	 */
+	void clear(){
+		sync();
+		task.takeChangedSpans();
+		current = null;
+		pane.repaint();
+	}
+
+	/**
+	 * Recolors the parts of the text where extent tags were added or removed
+	 * since the last time the colors were assigned.  Each changed span
+	 * is looked up in the database once and the agreement index is
+	 * updated before the span's codes are recomputed.
+	 * <p>
+	 * When a link is selected only the gold standard extents in the 
+	 * changed spans are updated, so that isGoldExtent stays right; the
+	 * links themselves are recomputed in full the next time they're 
+	 * selected.
+	 */
+	void recolorChanges(){
+		SpanSet spans = task.takeChangedSpans();
+		if(!sync() || current==null){
+			return;
+		}
+		if(current.index==null){
+			recolorGoldExtents(spans);
+			return;
+		}
+		byte[] codes = current.codes;
+		for(int i=0;i<spans.size();i++){
+			int start = Math.max(spans.getStart(i),0);
+			int end = Math.min(spans.getEnd(i),codes.length);
+			if(start>=end){
+				continue;
+			}
+			current.index.refresh(start,end,
+					task.getExtentLocsInSpan(current.tagname,start,end));
+			for(int j=start;j<end;j++){
+				codes[j] = current.index.codeAt(j,otherFiles);
+			}
+		}
+		current.editCount = task.getEditCount();
+		pane.repaint();
+	}
+
+	/**
+	 * Looks up the gold standard extents in the changed spans while
+	 * a link is selected, and grays or ungrays the locations that
+	 * aren't colored for a link or visited
+	 */
+	private void recolorGoldExtents(SpanSet spans){
+		byte[] codes = current.codes;
+		for(int i=0;i<spans.size();i++){
+			int start = Math.max(spans.getStart(i),0);
+			int end = Math.min(spans.getEnd(i),codes.length);
+			if(start>=end){
+				continue;
+			}
+			Hashtable<String,String> locs = task.getExtentsByFileInSpan("goldStandard.xml",start,end);
+			current.goldExtents.clear(start,end);
+			for(Enumeration<String> e = locs.keys(); e.hasMoreElements();){
+				current.goldExtents.set(Integer.parseInt(e.nextElement()));
+			}
+			for(int j=start;j<end;j++){
+				if(current.goldExtents.get(j) && codes[j]==NONE){
+					codes[j] = GOLD_EXTENT;
+				}
+				else if(!current.goldExtents.get(j) && codes[j]==GOLD_EXTENT){
+					codes[j] = NONE;
+				}
+			}
+		}
+		pane.repaint();
+	}
+
+	/**
+	 * Marks a location as having been visited while a link
+	 * tag is selected.
+	 *
+	 * @param loc the location in the text
+	 */
+	void markVisited(int loc){
+		if(sync() && current!=null && inText(loc)
+				&& current.codes[loc]!=VISITED){
+			current.codes[loc] = VISITED;
+			current.visitedCount++;
+			pane.repaint();
+		}
+	}
+
+	/**
+	 * Checks whether the gold standard has an extent tag at
+	 * a location.  Only kept up to date while a link is selected,
+	 * as long as recolorChanges is called after extents are changed.
+	 *
+	 * @param loc the location in the text
+	 * @return true if there's a gold standard extent there
+	 */
+	boolean isGoldExtent(int loc){
+		return current!=null && current.goldExtents.get(loc);
+	}
+
+	/**
+	 * Returns the codes for the colors being displayed, one for each
+	 * character in the text, or null if the text isn't colored.
+	 *
+	 * @return the color codes
+	 */
+	byte[] getCodes(){
+		if(current==null || !sync()){
+			return null;
+		}
+		return current.codes;
+	}
+
+	/**
+	 * Finds the parts of the text after a location that still need
+	 * adjudicating for the selected extent tag: runs of text that
+	 * some or all of the files have tagged but the gold standard
+	 * hasn't.  If fewer than count are found, the text right after
+	 * the location (as long as the selection) is added so that
+	 * something can be prefetched.
+	 *
+	 * @param from the end of the current selection
+	 * @param length the length of the current selection
+	 * @param count the most runs to return
+	 * @return the runs found
+	 */
+	SpanSet nextSpans(int from, int length, int count){
+		SpanSet spans = new SpanSet();
+		byte[] codes = getCodes();
+		int found = 0;
+		if(codes!=null && current.index!=null){
+			int i = Math.max(from,0);
+			//skip the rest of the run the selection is in
+			while(i<codes.length && needsAdjudication(codes[i])){
+				i++;
+			}
+			while(i<codes.length && found<count){
+				if(needsAdjudication(codes[i])){
+					int start = i;
+					while(i<codes.length && codes[i]==codes[start]){
+						i++;
+					}
+					spans.add(start,i);
+					found++;
+				}
+				else{
+					i++;
+				}
+			}
+		}
+		if(found<count && from<docLength){
+			spans.add(from,Math.min(docLength,from+Math.max(length,1)));
+		}
+		return spans;
+	}
+
+	private static boolean needsAdjudication(byte code){
+		return code==ALL_FILES || code==SOME_FILES;
+	}
+
+	/**
+	 * Works out the codes for every character in the text for a tag
+	 */
+	private TagColors compute(String tag, ArrayList<Integer> visited){
+		TagColors colors = new TagColors();
+		int length = docLength;
+		colors.tagname = tag;
+		colors.codes = new byte[length];
+		colors.goldExtents = new BitSet();
+		colors.editCount = task.getEditCount();
+		colors.visitedCount = (visited==null ? 0 : visited.size());
+		byte[] codes = colors.codes;
+
+		Elem e = task.getElem(tag);
+		if(e instanceof ElemExtent){
+			colors.index = new AgreementIndex(length);
+			colors.index.load(task.getExtentAllLocs(tag));
+			for(int i=0;i<length;i++){
+				codes[i] = colors.index.codeAt(i,otherFiles);
+			}
+		}
+		else if(e instanceof ElemLink){
+			//first, get all the places where there are extent tags in the
+			//gold standard
+			Hashtable<String,String> allLocs = task.getAllExtentsByFile("goldStandard.xml");
+			for (Enumeration<String> locs = allLocs.keys(); locs.hasMoreElements();){
+				int loc = Integer.parseInt(locs.nextElement());
+				if(inText(loc)){
+					colors.goldExtents.set(loc);
+					codes[loc] = GOLD_EXTENT;
+				}
+			}
+			//then, figure out what extents are already in links
+			HashCollection<String,String>elems = task.findGoldStandardLinksByType(tag);
+			ArrayList<String> locations = elems.getKeyList();
+			for (int i=0;i<locations.size();i++) {
+				int loc = Integer.parseInt(locations.get(i));
+				if(inText(loc)){
+					codes[loc] = linkCode(elems.getList(locations.get(i)));
+				}
+			}
+			//finally, go over everything that's already been looked at
+			if(visited!=null){
+				for(int i=0;i<visited.size();i++){
+					int loc = visited.get(i).intValue();
+					if(inText(loc)){
+						codes[loc] = VISITED;
+					}
+				}
+			}
+		}
+		return colors;
+	}
+
+	/**
+	 * Makes sure the codes line up with the document in the text pane.
+	 * If the document was replaced or its length changed, all the
+	 * codes are thrown out.
+	 *
+	 * @return false if the codes had to be thrown out
+	 */
+	private boolean sync(){
+		Document d = pane.getDocument();
+		if(d==doc && d.getLength()==docLength){
+			return true;
+		}
+		doc = d;
+		docLength = d.getLength();
+		current = null;
+		computed.clear();
+		return false;
+	}
+
+	private boolean inText(int loc){
+		return loc>=0 && loc<docLength;
+	}
+
+	/**
+	 * Works out the color for a location where link anchors
+	 * overlap with the gold standard.
+	 */
+	private byte linkCode(ArrayList<String> files){
+		if (files.contains("goldStandard.xml")){
+			return GOLD;
+		}
+		int count = 0;
+		for(int f=0;f<files.size();f++){
+			if(!files.get(f).equals("goldStandard.xml")){
+				count++;
+			}
+		}
+		if(count==0){
+			return NONE;
+		}
+		if(count>=otherFiles){
+			return ALL_FILES;
+		}
+		return SOME_FILES;
+	}
+
+	/**
+	 * The codes and supporting information for one tag
+	 */
+	private static class TagColors{
+		String tagname;
+		byte[] codes;
+		AgreementIndex index; //only for extent tags
+		BitSet goldExtents; //only for link tags
+		int editCount;
+		int visitedCount;
+	}
+
+}
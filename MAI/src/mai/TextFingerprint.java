@@ -0,0 +1,144 @@
+/*
+ * MAI - Multi-document Adjudication Interface
+ *
+ * Copyright Amber Stubbs (astubbs@cs.brandeis.edu)
+ * Department of Computer Science, Brandeis University
+ *
+ * MAI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mai;
+
+import java.security.MessageDigest;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * TextFingerprint identifies a text by its length and its SHA-256 digest,
+ * so that the text of a file being added can be checked against the
+ * text being adjudicated without having both in memory as Strings.  The
+ * digest is built up a piece at a time, as the text is read from a 
+ * document or handed over by the XML parser.
+ *
+ */
+
+class TextFingerprint {
+
+	private MessageDigest md;
+	private byte[] buf;
+	private int pos;
+	private int length;
+	private byte[] digest;  //set once the fingerprint is finished
+
+	TextFingerprint(){
+		md = Sha256.digest();
+		buf = new byte[8192];
+	}
+
+	/**
+	 * Makes the fingerprint of the text in a document
+	 */
+	static TextFingerprint of(Document doc) throws BadLocationException{
+		TextFingerprint fp = new TextFingerprint();
+		Segment seg = new Segment();
+		seg.setPartialReturn(true);
+		int length = doc.getLength();
+		int offset = 0;
+		while(offset<length){
+			doc.getText(offset,length-offset,seg);
+			fp.update(seg.array,seg.offset,seg.count);
+			offset += seg.count;
+		}
+		return fp.finish();
+	}
+
+	static TextFingerprint of(String text){
+		TextFingerprint fp = new TextFingerprint();
+		fp.update(text.toCharArray(),0,text.length());
+		return fp.finish();
+	}
+
+	/**
+	 * Adds the next part of the text
+	 */
+	void update(char[] ch, int start, int count){
+		//each character is digested the way UTF-8 would write it, so
+		//that most texts only take a byte a character
+		for(int i=start;i<start+count;i++){
+			if(pos+3>buf.length){
+				md.update(buf,0,pos);
+				pos = 0;
+			}
+			char c = ch[i];
+			if(c<0x80){
+				buf[pos++] = (byte)c;
+			}
+			else if(c<0x800){
+				buf[pos++] = (byte)(0xc0|(c>>6));
+				buf[pos++] = (byte)(0x80|(c&0x3f));
+			}
+			else{
+				buf[pos++] = (byte)(0xe0|(c>>12));
+				buf[pos++] = (byte)(0x80|((c>>6)&0x3f));
+				buf[pos++] = (byte)(0x80|(c&0x3f));
+			}
+		}
+		length += count;
+	}
+
+	/**
+	 * Finishes the digest; the fingerprint can't be added to after this
+	 */
+	TextFingerprint finish(){
+		md.update(buf,0,pos);
+		digest = md.digest();
+		md = null;
+		buf = null;
+		return this;
+	}
+
+	/**
+	 * @return the number of characters added so far
+	 */
+	int length(){
+		return length;
+	}
+
+	/**
+	 * Identifies a finished fingerprint's text in a file name or a log
+	 * header, by its length and digest
+	 */
+	String key(){
+		return length+"-"+Sha256.hex(digest);
+	}
+
+	/**
+	 * Checks a finished fingerprint against this one
+	 *
+	 * @return null if they're the same text, or why they aren't
+	 */
+	String mismatch(TextFingerprint other){
+		if(length!=other.length){
+			return "File length mismatch!";
+		}
+		if(!MessageDigest.isEqual(digest,other.digest)){
+			return "error matching text!";
+		}
+		return null;
+	}
+
+}
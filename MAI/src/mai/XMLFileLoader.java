@@ -40,14 +40,33 @@ import org.xml.sax.helpers.*;
 class XMLFileLoader{
     
     private XMLHandler xmlfile;
+    private String parseError; //why the file couldn't be read, if it couldn't
 
         XMLFileLoader(File f){
-            xmlfile = new XMLHandler();
+            this(f,null);
+        }
+
+        /**
+         * Reads a file whose text has to be the same as the text being
+         * adjudicated.  The text is compared as it's read, and if it's
+         * different the file isn't read any further; getMismatch says why.
+         *
+         * @param f the file to read
+         * @param expected the fingerprint of the text, or null to accept
+         * any text
+         */
+        XMLFileLoader(File f, TextFingerprint expected){
+            xmlfile = expected==null ? new XMLHandler() : new XMLHandler(expected);
+            PhaseEvent event = PhaseEvent.begin(PhaseEvent.XML_PARSE);
             try{
                 readFile(f);
             }catch(Exception e){
                 System.out.println(e.toString());
             }
+            event.setFile(f.getName())
+                .setDocumentLength(xmlfile.getTextLength())
+                .setTagCount(PhaseEvent.count(xmlfile.returnTagHash()))
+                .setFileCount(1).commit();
         }
 
 private void readFile(File f) throws Exception{
@@ -61,6 +80,17 @@ private void readFile(File f) throws Exception{
                 try{
                     parser.parse(docname);
                 }catch(Exception ex){
+                        if(xmlfile.stoppedOnMismatch()){
+                            //stopped on purpose, not a broken file
+                            return;
+                        }
+                        if(ex instanceof SAXParseException){
+                            parseError = "line "+((SAXParseException)ex).getLineNumber()+
+                                ": "+ex.getMessage();
+                        }
+                        else{
+                            parseError = ex.toString();
+                        }
                         System.out.println(ex.toString());
                         System.out.println("parse of " + docname + " failed");
                         throw new Exception();
@@ -81,4 +111,16 @@ private void readFile(File f) throws Exception{
       return xmlfile.getTextChars();
   }
 
+  /**
+   * @return why the file can't be used: the error that stopped it being
+   * read, or why its text didn't match the expected text; null if it
+   * was read and its text matched
+   */
+  String getMismatch(){
+      if(parseError!=null){
+          return parseError;
+      }
+      return xmlfile.getMismatch();
+  }
+
 }
\ No newline at end of file
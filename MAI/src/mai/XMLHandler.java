@@ -37,33 +37,84 @@ class XMLHandler extends DefaultHandler {
     private HashCollection<String,Hashtable<String,String>> newTags = new HashCollection<String,Hashtable<String,String>>();
     private boolean text = false;
     private String textChars="";
+    private StringBuilder textBuffer = new StringBuilder();
+    private int textLength;
+    private TextFingerprint expected;
+    private TextFingerprint fingerprint;
+    private String mismatch;
 
     XMLHandler (){
     }
 
+    /**
+     * Makes a handler that checks the file's text against a fingerprint
+     * as it's read instead of keeping it.  If the text doesn't match, 
+     * parsing stops with a SAXException before any tags are read, and 
+     * getMismatch says why.
+     *
+     * @param expected the fingerprint of the text being adjudicated
+     */
+    XMLHandler (TextFingerprint expected){
+        this.expected = expected;
+    }
+
     public void startElement(String nsURI, String strippedName, String tagName, Attributes atts)
        throws SAXException {
            
            if (tagName.equalsIgnoreCase("text")){
                text = true;
+               textBuffer.setLength(0);
+               textLength = 0;
+               if (expected!=null){
+                   fingerprint = new TextFingerprint();
+               }
            }
            Hashtable<String,String> tag = new Hashtable<String,String>();
            for(int i=0;i<atts.getLength();i++){
                String name = atts.getQName(i);
                String value = atts.getValue(i);
                tag.put(name,value);
-               newTags.putEnt(tagName,tag);
+           }
+           //the tag is only added once all its attributes are in, so it
+           //doesn't have to be compared with the tags already read
+           if(tag.size()>0){
+               newTags.putAllEnt(tagName,tag);
            }
     }
 
-    public void endElement(String nsURI, String localName, String tagName){
+    public void endElement(String nsURI, String localName, String tagName)
+       throws SAXException {
+        if (text && tagName.equalsIgnoreCase("text")){
+            text = false;
+            if (fingerprint!=null){
+                mismatch = expected.mismatch(fingerprint.finish());
+                if (mismatch!=null){
+                    throw new SAXException(mismatch);
+                }
+            }
+            else{
+                textChars = textBuffer.toString();
+            }
         }
+    }
 
 
-    public void characters(char[] ch, int start, int length) {
+    public void characters(char[] ch, int start, int length) throws SAXException {
+       //the parser can hand the text over in several pieces, such as 
+       //when it's split into more than one CDATA section
        if (text) {
-         textChars = new String(ch, start, length);
-         text = false;
+         textLength += length;
+         if (fingerprint!=null){
+             fingerprint.update(ch, start, length);
+             if (textLength>expected.length()){
+                 //no need to read the rest of a text that's too long
+                 mismatch = "File length mismatch!";
+                 throw new SAXException(mismatch);
+             }
+         }
+         else{
+             textBuffer.append(ch, start, length);
+         }
        }
     }
 
@@ -73,8 +124,34 @@ class XMLHandler extends DefaultHandler {
       return newTags;
       }
 
+  /**
+   * @return the text, or "" if it was checked against a fingerprint
+   */
   public String getTextChars(){
       return textChars;
    }
 
+  int getTextLength(){
+      return textLength;
+  }
+
+  /**
+   * @return why the text didn't match the fingerprint it was checked
+   * against, or null if it did (or wasn't checked)
+   */
+  String getMismatch(){
+      if (expected!=null && mismatch==null && fingerprint==null && expected.length()>0){
+          return "No TEXT element found!";
+      }
+      return mismatch;
+  }
+
+  /**
+   * @return whether the file stopped being read because its text
+   * didn't match, rather than because it couldn't be parsed
+   */
+  boolean stoppedOnMismatch(){
+      return mismatch!=null;
+  }
+
 }
\ No newline at end of file